@@ -1,5 +1,12 @@
 package devcpu;
 
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.util.Collections;
+
+import org.eclipse.core.runtime.FileLocator;
+import org.eclipse.core.runtime.Path;
 import org.eclipse.jface.resource.ImageDescriptor;
 import org.eclipse.ui.console.ConsolePlugin;
 import org.eclipse.ui.console.IConsole;
@@ -67,4 +74,20 @@ public class Activator extends AbstractUIPlugin {
 	public static ImageDescriptor getImageDescriptor(String path) {
 		return imageDescriptorFromPlugin(PLUGIN_ID, path);
 	}
+
+	public static String loadResource(String filename) {
+		URL url = FileLocator.find(getDefault().getBundle(), new Path(filename), Collections.EMPTY_MAP);
+		URL fileUrl = null;
+		try {
+		fileUrl = FileLocator.toFileURL(url);
+		}
+		catch (IOException e) {
+			e.printStackTrace();
+		}
+		try {
+			return fileUrl.toURI().getRawPath();
+		} catch (URISyntaxException e) {
+			return null;
+		}
+	}
 }
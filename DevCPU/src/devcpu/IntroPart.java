@@ -10,7 +10,6 @@ import org.eclipse.swt.widgets.Composite;
 import org.eclipse.swt.widgets.Display;
 import org.eclipse.swt.widgets.Label;
 
-import devcpu.util.Util;
 
 public class IntroPart extends org.eclipse.ui.part.IntroPart {
 	private Label label;
@@ -23,7 +22,7 @@ public class IntroPart extends org.eclipse.ui.part.IntroPart {
     FillLayout fillLayout = new FillLayout();
     innerContainer.setLayout(fillLayout);
     innerContainer.setSize(960, 540);
-    innerContainer.setBackgroundImage(new Image(Display.getDefault(), Util.loadResource("icons/fade.png")));
+    innerContainer.setBackgroundImage(new Image(Display.getDefault(), Activator.loadResource("icons/fade.png")));
     innerContainer.setBackgroundMode(SWT.INHERIT_DEFAULT);
     container.getShell().setBackgroundMode(SWT.INHERIT_DEFAULT);
     label = new Label(innerContainer, SWT.CENTER);
@@ -1,7 +1,16 @@
 package devcpu;
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.LinkedHashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
 
 import org.eclipse.core.commands.ExecutionEvent;
 import org.eclipse.core.commands.ExecutionException;
@@ -23,6 +32,11 @@ import org.eclipse.ui.dialogs.ListSelectionDialog;
 import org.eclipse.ui.handlers.HandlerUtil;
 
 import devcpu.assembler.Assembly;
+import devcpu.assembler.AssemblyMetrics;
+import devcpu.assembler.BuildCache;
+import devcpu.assembler.HotPatch;
+import devcpu.assembler.SourceMap;
+import devcpu.assembler.WorkspaceFile;
 import devcpu.emulation.DefaultControllableDCPU;
 import devcpu.emulation.FloppyDisk;
 import devcpu.views.DeviceManagerLabelProvider;
@@ -34,6 +48,14 @@ public class NavigatorCommandHandler implements IHandler {
 	private static final String WRITE_TO_DCPU = "WriteToDCPU";
 
 	LinkedHashSet<IHandlerListener> listeners = new LinkedHashSet<IHandlerListener>();
+	//The last assembly of each root file, kept so that small edits can be patched in, for as long as
+	//the file exists and nothing else has been written over what it was assembled to
+	private static final HashMap<IFile,Assembly> assemblies = new HashMap<IFile, Assembly>();
+	//The metrics of the last assemblies of each root file, oldest first
+	private static final HashMap<IFile,LinkedList<AssemblyMetrics>> metricsHistory = new HashMap<IFile, LinkedList<AssemblyMetrics>>();
+	private static final int METRICS_HISTORY = 20;
+	//Where the program on each DCPU came from, for the debugger
+	private static BuildCache buildCache;
 
 	@Override
 	public void addHandlerListener(IHandlerListener listener) {
@@ -63,41 +85,59 @@ public class NavigatorCommandHandler implements IHandler {
 					listDialog.setElements(disks.toArray());
 					listDialog.setEmptyListMessage("There aren't any unprotected floppies available that aren't currently inserted in a floppy drive.");
 					listDialog.setEmptySelectionMessage("Select a floppy disk");
-					listDialog.setMessage("Choose the floppy disk on which to assemble the file.\nExisting disk contents will be zeroed prior to assembly.");
-					// listDialog.setMultipleSelection(false); //TODO consider allowing multiple selection. Why the hell not?
+					listDialog.setMessage("Choose the floppy disks on which to assemble the file.\nExisting disk contents will be zeroed prior to assembly.");
+					listDialog.setMultipleSelection(true);
 					listDialog.setTitle("Assemble to Floppy");
 					int open = listDialog.open();
 					if (open == ListSelectionDialog.OK) {
-						Object[] res = listDialog.getResult();
-						for (Object o : res) {
+						final ArrayList<FloppyDisk> targets = new ArrayList<FloppyDisk>();
+						for (Object o : listDialog.getResult()) {
 							if (o instanceof FloppyDisk) {
-								final FloppyDisk disk = (FloppyDisk) o;
-								final IOConsoleOutputStream es = Activator.getConsole().newOutputStream();
-								es.setColor(new Color(Display.getDefault(), new RGB(255,0,0)));
-								Job job = new Job("Assemble " + file.getName()) {
-									protected IStatus run(IProgressMonitor monitor) {
-										monitor.beginTask("Assembling " + file.getName() + "...", IProgressMonitor.UNKNOWN);
-										IOConsoleOutputStream os = Activator.getConsole().newOutputStream();
-										try {
-											long start = System.nanoTime();
-											Assembly a = new Assembly(file);
+								targets.add((FloppyDisk) o);
+							}
+						}
+						if (!targets.isEmpty()) {
+							final IOConsoleOutputStream es = Activator.getConsole().newOutputStream();
+							es.setColor(new Color(Display.getDefault(), new RGB(255,0,0)));
+							//The program is assembled once, to the first disk, and the same image is written to the rest
+							Job job = new Job("Assemble " + file.getName()) {
+								protected IStatus run(IProgressMonitor monitor) {
+									monitor.beginTask("Assembling " + file.getName() + "...", IProgressMonitor.UNKNOWN);
+									IOConsoleOutputStream os = Activator.getConsole().newOutputStream();
+									FloppyDisk disk = targets.get(0);
+									try {
+										Assembly a = takeAssembly(file);
+										if (a != null && a.reassemble(disk)) {
+											putAssembly(file, a);
+											os.write(file.getName() + " was reassembled to " + disk.getID() + " in " + a.getMetrics() + "\n");
+										} else {
+											a = new Assembly(new WorkspaceFile(file));
+											a.setIncremental(true);
+											a.setBuildCache(getBuildCache());
 											a.assemble(disk);
-											long stop = System.nanoTime();
-											os.write(file.getName() + " (" + a.getLineCount() + " lines in " + a.getFileCount() + " files) was loaded and assembled to " + disk.getID() + " in " + (int)((stop-start)/1e6f) + " milliseconds using " + a.getPasses() + " sizing passes. Assembled size is " + a.getSize() + " words. Assembly reports " + a.getMissedShortLiteralEstimate() + " missed opportunities for short literals. " + a.getAssembledShortLiteralCount() + " values were optimized to short literals (" + 100*a.getAssembledShortLiteralCount() / ((float)(a.getAssembledShortLiteralCount() + a.getMissedShortLiteralEstimate())) + "% of possible).\n");
-										} catch (Exception e) {
-											try {
-												es.write("Assembly failed: " + e.getMessage() + "\n");
-											} catch (IOException e1) {
-												e1.printStackTrace();
+											putAssembly(file, a);
+											os.write(file.getName() + " was loaded and assembled to " + disk.getID() + " in " + a.getMetrics() + "\n");
+											if (a.getPeephole() != null) {
+												os.write(a.getPeephole().getReport() + "\n");
 											}
 										}
-										monitor.done();
-										return Status.OK_STATUS;
+										for (int i = 1; i < targets.size(); i++) {
+											a.write(targets.get(i));
+											os.write(file.getName() + " was written to " + targets.get(i).getID() + "\n");
+										}
+									} catch (Exception e) {
+										try {
+											es.write("Assembly failed: " + e.getMessage() + "\n");
+										} catch (IOException e1) {
+											e1.printStackTrace();
+										}
 									}
-								};
-								job.setUser(true);
-								job.schedule();
-							}
+									monitor.done();
+									return Status.OK_STATUS;
+								}
+							};
+							job.setUser(true);
+							job.schedule();
 						}
 					}
 				}
@@ -114,7 +154,7 @@ public class NavigatorCommandHandler implements IHandler {
 					listDialog.setElements(dcpus.toArray());
 					listDialog.setEmptyListMessage("There aren't any DCPUs available.");
 					listDialog.setEmptySelectionMessage("Select a DCPU");
-					listDialog.setMessage("Choose the DCPU on which to assemble the file.\nExisting memory contents will be zeroed prior to assembly.");
+					listDialog.setMessage("Choose the DCPU on which to assemble the file.\nExisting memory contents will be zeroed prior to assembly, unless the file\nis already running on it, in which case only its edits are patched in.");
 					// listDialog.setMultipleSelection(false); //TODO consider allowing multiple selection. Why the hell not?
 					listDialog.setTitle("Assemble to DCPU");
 					int open = listDialog.open();
@@ -130,11 +170,38 @@ public class NavigatorCommandHandler implements IHandler {
 										monitor.beginTask("Assembling " + file.getName() + "...", IProgressMonitor.UNKNOWN);
 										IOConsoleOutputStream os = Activator.getConsole().newOutputStream();
 										try {
-											long start = System.nanoTime();
-											Assembly a = new Assembly(file);
+											Assembly a = takeAssembly(file);
+											if (a != null && a.isWrittenTo(dcpu) && dcpu.isRunning()) {
+												//Assembling it from scratch would wipe the running program's state
+												HotPatch patch = a.hotPatch(dcpu);
+												patch.apply(dcpu);
+												putAssembly(file, patch.getAssembly());
+												if (patch.isRefused()) {
+													es.write(file.getName() + " couldn't be patched into " + dcpu.getID() + " while it runs: " + patch.getRefusal() + ". Stop it to assemble it again.\n");
+												} else {
+													dcpu.getManager().setSourceMap(dcpu, patch.getAssembly().getSourceMap());
+													os.write(file.getName() + " was patched into " + dcpu.getID() + "'s RAM while it runs, " + patch.getAddresses().length + " words, in " + patch.getAssembly().getMetrics() + "\n");
+												}
+												monitor.done();
+												return Status.OK_STATUS;
+											}
+											if (a != null && a.reassemble(dcpu)) {
+												putAssembly(file, a);
+												dcpu.getManager().setSourceMap(dcpu, a.getSourceMap());
+												os.write(file.getName() + " was reassembled to " + dcpu.getID() + "'s RAM in " + a.getMetrics() + "\n");
+												monitor.done();
+												return Status.OK_STATUS;
+											}
+											a = new Assembly(new WorkspaceFile(file));
+											a.setIncremental(true);
+											a.setBuildCache(getBuildCache());
 											a.assemble(dcpu);
-											long stop = System.nanoTime();
-											os.write(file.getName() + " (" + a.getLineCount() + " lines in " + a.getFileCount() + " files) was loaded and assembled to " + dcpu.getID() + "'s RAM in " + (int)((stop-start)/1e6f) + " milliseconds using " + a.getPasses() + " sizing passes. Assembled size is " + a.getSize() + " words. Assembly reports " + a.getMissedShortLiteralEstimate() + " missed opportunities for short literals. " + a.getAssembledShortLiteralCount() + " values were optimized to short literals (" + 100*a.getAssembledShortLiteralCount() / ((float)(a.getAssembledShortLiteralCount() + a.getMissedShortLiteralEstimate())) + "% of possible).\n");
+											putAssembly(file, a);
+											dcpu.getManager().setSourceMap(dcpu, a.getSourceMap());
+											os.write(file.getName() + " was loaded and assembled to " + dcpu.getID() + "'s RAM in " + a.getMetrics() + "\n");
+											if (a.getPeephole() != null) {
+												os.write(a.getPeephole().getReport() + "\n");
+											}
 										} catch (Exception e) {
 											try {
 												e.printStackTrace();
@@ -210,7 +277,10 @@ public class NavigatorCommandHandler implements IHandler {
 						for (Object o : res) {
 							if (o instanceof DefaultControllableDCPU) {
 								try {
-									((DefaultControllableDCPU) o).load(file.getRawLocation().makeAbsolute().toFile());
+									File binary = file.getRawLocation().makeAbsolute().toFile();
+									DefaultControllableDCPU dcpu = (DefaultControllableDCPU) o;
+									dcpu.load(binary);
+									dcpu.getManager().setSourceMap(dcpu, readSourceMap(binary));
 								} catch (IOException e) {
 									e.printStackTrace();
 								}
@@ -223,6 +293,88 @@ public class NavigatorCommandHandler implements IHandler {
 		return null;
 	}
 
+	/**
+	 * Removes the kept assembly of a file, so that a failed assembly is never
+	 * patched.
+	 */
+	private static Assembly takeAssembly(IFile file) {
+		synchronized (assemblies) {
+			return assemblies.remove(file);
+		}
+	}
+
+	/**
+	 * The build cache, kept in the plugin's state area.
+	 */
+	public static synchronized BuildCache getBuildCache() {
+		if (buildCache == null) {
+			buildCache = new BuildCache(Activator.getDefault().getStateLocation().append("build-cache").toFile());
+		}
+		return buildCache;
+	}
+
+	private static void putAssembly(IFile file, Assembly assembly) {
+		synchronized (assemblies) {
+			for (Iterator<Map.Entry<IFile,Assembly>> i = assemblies.entrySet().iterator(); i.hasNext();) {
+				Map.Entry<IFile,Assembly> entry = i.next();
+				if (entry.getValue().getTarget() == null || !entry.getKey().exists()) {
+					i.remove();
+				}
+			}
+			for (Iterator<IFile> i = metricsHistory.keySet().iterator(); i.hasNext();) {
+				if (!i.next().exists()) {
+					i.remove();
+				}
+			}
+			assemblies.put(file, assembly);
+			LinkedList<AssemblyMetrics> history = metricsHistory.get(file);
+			if (history == null) {
+				history = new LinkedList<AssemblyMetrics>();
+				metricsHistory.put(file, history);
+			}
+			history.add(assembly.getMetrics());
+			if (history.size() > METRICS_HISTORY) {
+				history.removeFirst();
+			}
+		}
+	}
+
+	/**
+	 * Reads the source map written next to a binary by the command line
+	 * assembler, if there is one.
+	 */
+	private static SourceMap readSourceMap(File binary) {
+		String name = binary.getName();
+		if (name.lastIndexOf('.') > 0) {
+			name = name.substring(0, name.lastIndexOf('.'));
+		}
+		File file = new File(binary.getParentFile(), name + ".map");
+		if (!file.isFile()) {
+			return null;
+		}
+		try {
+			InputStream in = new FileInputStream(file);
+			try {
+				return SourceMap.read(new BufferedInputStream(in));
+			} finally {
+				in.close();
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+			return null;
+		}
+	}
+
+	/**
+	 * The metrics of the last successful assemblies of a file, oldest first.
+	 */
+	public static List<AssemblyMetrics> getMetricsHistory(IFile file) {
+		synchronized (assemblies) {
+			LinkedList<AssemblyMetrics> history = metricsHistory.get(file);
+			return history == null ? new ArrayList<AssemblyMetrics>() : new ArrayList<AssemblyMetrics>(history);
+		}
+	}
+
 	@Override
 	public boolean isEnabled() {
 		return true;
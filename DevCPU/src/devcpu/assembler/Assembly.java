@@ -10,25 +10,33 @@ import static devcpu.assembler.AssemblyLine.VALUE_SIMPLE_STACK;
 import static devcpu.util.Util.OPERATORS;
 
 import java.io.IOException;
+import java.lang.ref.WeakReference;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.regex.Pattern;
-
-import org.eclipse.core.resources.IFile;
-import org.eclipse.core.runtime.CoreException;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
 
 import devcpu.assembler.exceptions.AbstractAssemblyException;
 import devcpu.assembler.exceptions.BadValueException;
+import devcpu.assembler.exceptions.BinaryRangeException;
 import devcpu.assembler.exceptions.DirectiveExpressionEvaluationException;
 import devcpu.assembler.exceptions.DuplicateLabelDefinitionException;
 import devcpu.assembler.exceptions.OriginBacktrackException;
+import devcpu.assembler.exceptions.RelocationException;
 import devcpu.assembler.exceptions.TokenizationException;
 import devcpu.assembler.exceptions.UndefinedLabelException;
 import devcpu.assembler.exceptions.ValueResolutionException;
 import devcpu.assembler.expression.Address;
 import devcpu.assembler.expression.Group;
-import devcpu.emulation.DefaultControllableDCPU;
+import devcpu.emulation.DCPU;
 import devcpu.emulation.FloppyDisk;
 import devcpu.lexer.Lexer;
 import devcpu.lexer.tokens.AValueEndToken;
@@ -38,68 +46,1031 @@ import devcpu.lexer.tokens.BValueEndToken;
 import devcpu.lexer.tokens.BValueStartToken;
 import devcpu.lexer.tokens.DataValueEndToken;
 import devcpu.lexer.tokens.DataValueStartToken;
+import devcpu.lexer.tokens.DirectiveParametersToken;
+import devcpu.lexer.tokens.DirectiveToken;
 import devcpu.lexer.tokens.ErrorToken;
+import devcpu.lexer.tokens.GroupEndToken;
+import devcpu.lexer.tokens.GroupStartToken;
 import devcpu.lexer.tokens.LabelDefinitionToken;
 import devcpu.lexer.tokens.LabelToken;
 import devcpu.lexer.tokens.LexerToken;
 import devcpu.lexer.tokens.LiteralToken;
+import devcpu.lexer.tokens.OperandStartToken;
+import devcpu.lexer.tokens.OperatorToken;
+import devcpu.lexer.tokens.PickValueEndToken;
+import devcpu.lexer.tokens.PickValueStartToken;
 import devcpu.lexer.tokens.StringToken;
+import devcpu.lexer.tokens.UnaryOperatorToken;
 import devcpu.util.Util;
-import exp4j_int_custom.ExpressionBuilder;
+import exp4j_int_custom.CompiledExpression;
 import exp4j_int_custom.UnknownFunctionException;
 import exp4j_int_custom.UnparsableExpressionException;
 
 public class Assembly {
 	public static final boolean DEFAULT_LABELS_CASE_SENSITIVE = false;
 	public static final String REGISTERS = "ABCXYZIJ";
+	//Where a relocatable module is assembled, and where its imports are put, both so that no
+	//label or import fits in a short literal
+	private static final int OBJECT_BASE = 0x20;
+	private static final int EXTERN_VALUE = 0x8000;
 	private AssemblyDocument rootDocument;
 	private ArrayList<AssemblyDocument> documents = new ArrayList<AssemblyDocument>();
 	public static boolean labelsCaseSensitive = DEFAULT_LABELS_CASE_SENSITIVE;
+	public static final boolean DEFAULT_PEEPHOLE = false;
+	public static boolean peephole = DEFAULT_PEEPHOLE;
+	public static final boolean DEFAULT_CLEAR_TARGET = true;
 	
 	public ArrayList<AssemblyLine> lines = new ArrayList<AssemblyLine>();
 	public LinkedHashMap<String,Define> defines = new LinkedHashMap<String, Define>();
-	public LinkedHashMap<String,LabelDefinition> labelDefs = new LinkedHashMap<String, LabelDefinition>();
-	public LinkedHashMap<String,List<LabelUse>> labelUses = new LinkedHashMap<String, List<LabelUse>>();
+	public SymbolTable symbols = new SymbolTable();
+	public ArrayList<Define> externs = new ArrayList<Define>();
+	public ArrayList<Directive> exports = new ArrayList<Directive>();
 	private int missed;
 	private int shortened;
+	private int relaxed;
 	private long timer;
+	private AssemblyMetrics metrics = new AssemblyMetrics();
 	private int passes;
-	private boolean abandonOptimization;
+	//Lines the next sizing pass has to visit, and the size of the settled lines before the first of them
+	private ArrayList<AssemblyLine> worklist = new ArrayList<AssemblyLine>();
+	private int leadingSize;
+	private LineStore lineStore;
+	private SourceMap sourceMap;
+	private CycleAnalysis cycleAnalysis;
+	//Kept for incremental reassembly: where the program was last written, which generation of that
+	//target's contents it was, and the words written there. The target is held weakly, so a kept
+	//assembly doesn't keep a deleted DCPU or disk alive
+	private boolean incremental;
+	private WeakReference<Object> target;
+	private int targetGeneration;
+	private char[] image;
+	//The addresses the program covers, as pairs of start and end, in order
+	private int[] ranges;
+	private boolean clearTarget = DEFAULT_CLEAR_TARGET;
+	private int patchedWords;
+	//Why the last patch couldn't be made, and words patched into the image that haven't made it to the target yet
+	private String refusal;
+	BitSet unpatched = new BitSet();
+	private BuildCache buildCache;
+	//Set when the program was loaded from the build cache instead of assembled
+	private boolean cached;
+	private Map<String,Integer> labels;
+	private int size;
+	private int lineCount;
+	private int fileCount;
+	//Compiled expressions by text, shared by every line and pass
+	private HashMap<String,CompiledExpression> expressions = new HashMap<String, CompiledExpression>();
+	private HashMap<String,CompiledExpression> directiveExpressions = new HashMap<String, CompiledExpression>();
+	private int[] slotValues = new int[4];
+	//Where the program starts, which is only moved from 0 to assemble a relocatable module
+	private int base;
+	//Set when the program was assembled with the peephole pass
+	private Peephole optimizer;
+	//While a relocatable module is emitted: the tokens its imports were substituted as, by index,
+	//and the words found to be relocated or to refer to an import
+	private IdentityHashMap<LexerToken,Integer> importTokens;
+	private int[] relocations;
+	private int relocationCount;
+	private int[] importWords;
+	private int[] importSymbols;
+	private int importCount;
 
-	public Assembly(IFile file) throws IOException, CoreException, AbstractAssemblyException {
+	public Assembly(SourceFile file) throws IOException, AbstractAssemblyException {
 		rootDocument = new AssemblyDocument(file, this, null);
 		documents.add(rootDocument);
 	}
 	
 	//TODO Add Error handling delegate of some sort; Also, these non-AAEs should be caught where they're generated and be handled or throw AAEs
-	public void assemble(DefaultControllableDCPU dcpu) throws AbstractAssemblyException, UnknownFunctionException, UnparsableExpressionException, IOException, CoreException {
+	public void assemble(DCPU dcpu) throws AbstractAssemblyException, UnknownFunctionException, UnparsableExpressionException, IOException {
 		timerStart();
-		rootDocument.readLines();
-		System.out.println(timerReset() + "ms in Line Loading");
-		boolean preprocess = true;
-		int passes = 1;
-		while (preprocessAndSize(preprocess)){preprocess = false; passes++;}
-		this.passes = passes;
-		System.out.println(timerReset() + "ms in Preprocessing");
-		zeroBuffer(dcpu.ram);
-		System.out.println(timerReset() + "ms to zero RAM");
-		assembleToBuffer(dcpu.ram);
-		System.out.println(timerEnd() + "ms in Final Assembly");
+		char[] cachedImage = loadCached();
+		if (cachedImage != null) {
+			image = cachedImage;
+			dcpu.newGeneration();
+			write(dcpu.ram);
+			phase("cached");
+			finishMetrics();
+			return;
+		}
+		//Assemble into an image only as large as the program, then write only
+		//what the program covers, rather than clearing all of RAM first
+		emit(dcpu.ram.length);
+		int generation = dcpu.newGeneration();
+		if (incremental) {
+			keepTarget(dcpu, generation);
+		} else {
+			releaseLines();
+		}
+		phase("emit");
+		write(dcpu.ram);
+		phase("write");
+		if (buildCache != null) {
+			buildCache.store(this, image);
+			phase("cache");
+		}
+		finishMetrics();
 	}
 	
-	public void assemble(FloppyDisk disk) throws AbstractAssemblyException, UnknownFunctionException, UnparsableExpressionException, IOException, CoreException {
+	public void assemble(FloppyDisk disk) throws AbstractAssemblyException, UnknownFunctionException, UnparsableExpressionException, IOException {
+		timerStart();
+		char[] cachedImage = loadCached();
+		if (cachedImage != null) {
+			image = Arrays.copyOf(cachedImage, Math.min(cachedImage.length, FloppyDisk.WORDS));
+			write(disk);
+			phase("cached");
+			finishMetrics();
+			return;
+		}
+		//Assemble into an image only as large as the program, rather than holding
+		//a whole disk on the heap, and write only what the program covers
+		emit(FloppyDisk.WORDS);
+		int generation = disk.newGeneration();
+		if (incremental) {
+			keepTarget(disk, generation);
+		} else {
+			releaseLines();
+		}
+		phase("emit");
+		writeImage(disk);
+		phase("write");
+		if (buildCache != null) {
+			buildCache.store(this, image);
+			phase("cache");
+		}
+		finishMetrics();
+	}
+
+	/**
+	 * Assembles the program into an image only as large as the program, for
+	 * writing out as a binary rather than to a DCPU or disk.
+	 */
+	public char[] assemble() throws AbstractAssemblyException, UnknownFunctionException, UnparsableExpressionException, IOException {
 		timerStart();
+		char[] cachedImage = loadCached();
+		if (cachedImage != null) {
+			image = cachedImage;
+			phase("cached");
+			finishMetrics();
+			return image;
+		}
+		emit(Integer.MAX_VALUE);
+		releaseLines();
+		phase("emit");
+		if (buildCache != null) {
+			buildCache.store(this, image);
+			phase("cache");
+		}
+		finishMetrics();
+		return image;
+	}
+
+	/**
+	 * Reads, sizes and emits the program into a new image of at most
+	 * <code>limit</code> words.
+	 */
+	private void emit(int limit) throws AbstractAssemblyException, UnknownFunctionException, UnparsableExpressionException, IOException {
+		readLines();
+		phase("load");
+		sizeLines();
+		phase("size");
+		if (peephole) {
+			optimize();
+			phase("peephole");
+		}
+		image = new char[Math.min(getSize(), limit)];
+		assembleToBuffer(image);
+	}
+
+	private void readLines() throws IOException, AbstractAssemblyException {
+		lineStore = new LineStore();
 		rootDocument.readLines();
-		System.out.println(timerReset() + "ms in Line Loading");
-		boolean preprocess = true;
-		int passes = 1;
-		while (preprocessAndSize(preprocess)){preprocess = false; passes++;}
+		fileCount = 1 + treeCountChildren(rootDocument);
+		metrics.linesLexed += lines.size();
+	}
+
+	private void sizeLines() throws AbstractAssemblyException, UnknownFunctionException, UnparsableExpressionException {
+		int passes = 2;
+		preprocessAndSize(true);
+		int tokens = 0;
+		for (AssemblyLine line : lines) {
+			tokens += line.getTokens().length;
+			if (line.getProcessedTokens() != line.getTokens()) {
+				tokens += line.getProcessedTokens().length;
+			}
+		}
+		metrics.peakTokens = Math.max(metrics.peakTokens, tokens);
+		while (preprocessAndSize(false)){passes++;}
 		this.passes = passes;
-		System.out.println(timerReset() + "ms in Preprocessing");
-		zeroBuffer(disk.data);
-		System.out.println(timerReset() + "ms to zero disk data");
-		assembleToBuffer(disk.data);
-		System.out.println(timerEnd() + "ms in Final Assembly");
+		locateLines();
+	}
+
+	/**
+	 * Runs the {@link Peephole} pass over the sized lines. Each round of
+	 * rewrites is applied to the files read again from scratch, and sized
+	 * again, since the labels after a rewritten line move.
+	 */
+	private void optimize() throws AbstractAssemblyException, UnknownFunctionException, UnparsableExpressionException, IOException {
+		optimizer = new Peephole();
+		while (optimizer.findRewrites(lines)) {
+			int count = lines.size();
+			reset();
+			readLines();
+			if (lines.size() != count) {
+				//A file changed since it was first read; it's assembled as it is now
+				optimizer = new Peephole();
+				sizeLines();
+				break;
+			}
+			optimizer.applyRewrites(lines);
+			sizeLines();
+		}
+		optimizer.tally(lines);
+	}
+
+	/**
+	 * Forgets the lines and everything read from them, to read them again.
+	 */
+	private void reset() {
+		rootDocument = new AssemblyDocument(getFile(), this, null);
+		documents = new ArrayList<AssemblyDocument>();
+		documents.add(rootDocument);
+		lines = new ArrayList<AssemblyLine>();
+		defines = new LinkedHashMap<String, Define>();
+		symbols = new SymbolTable();
+		externs = new ArrayList<Define>();
+		exports = new ArrayList<Directive>();
+		worklist = new ArrayList<AssemblyLine>();
+		relaxed = 0;
+		labels = null;
+	}
+
+	/**
+	 * Assembles the program as a relocatable module, for a {@link Linker} to
+	 * place. Labels declared with <code>.global</code> are exported, and names
+	 * declared with <code>.extern</code> are imported.
+	 *
+	 * The module is assembled once, at {@link #OBJECT_BASE} and with every
+	 * import at {@link #EXTERN_VALUE}, and as each operand is emitted the
+	 * labels and imports in its value tell what the word moves with, as
+	 * {@link #link} describes. A word that moves with the module is relocated,
+	 * and one that moves with exactly one import refers to that import.
+	 * Anything else, like the sum of two labels or an import that is
+	 * multiplied, can't be linked and is an error, as is an <code>.org</code>
+	 * or an <code>.align</code>, since they depend on where the module ends
+	 * up.
+	 */
+	public ObjectModule assembleObject() throws AbstractAssemblyException, UnknownFunctionException, UnparsableExpressionException, IOException {
+		timerStart();
+		if (buildCache != null) {
+			ObjectModule module = buildCache.loadObject(getFile());
+			if (module != null) {
+				cached = true;
+				phase("cached");
+				finishMetrics();
+				return module;
+			}
+		}
+		base = OBJECT_BASE;
+		readLines();
+		for (Define extern : externs) {
+			extern.setValue(Integer.toString(EXTERN_VALUE));
+			defines.put(extern.getKey(), extern);
+		}
+		phase("load");
+		sizeLines();
+		phase("size");
+		checkLinkable();
+		importTokens = new IdentityHashMap<LexerToken,Integer>();
+		for (int i = 0; i < externs.size(); i++) {
+			LexerToken[] tokens = externs.get(i).getValueTokens();
+			if (tokens != null) {
+				for (LexerToken token : tokens) {
+					importTokens.put(token, i);
+				}
+			}
+		}
+		relocations = new int[16];
+		relocationCount = 0;
+		importWords = new int[16];
+		importSymbols = new int[16];
+		importCount = 0;
+		char[] ram = new char[0x10000];
+		try {
+			assembleToBuffer(ram);
+		} finally {
+			importTokens = null;
+		}
+		phase("emit");
+		ObjectModule module = buildModule(Arrays.copyOfRange(ram, base, Math.max(base, Math.min(getSize(), ram.length))));
+		releaseLines();
+		phase("relocate");
+		if (buildCache != null) {
+			buildCache.storeObject(this, module);
+			phase("cache");
+		}
+		finishMetrics();
+		return module;
+	}
+
+	/**
+	 * Takes the module's base and imports back out of the words recorded by
+	 * {@link #link}, and builds the module with its exports.
+	 */
+	private ObjectModule buildModule(char[] code) throws AbstractAssemblyException {
+		int[] relocated = Arrays.copyOf(relocations, relocationCount);
+		for (int i = 0; i < relocated.length; i++) {
+			relocated[i] -= base;
+			code[relocated[i]] -= base;
+		}
+		int[] imported = Arrays.copyOf(importWords, importCount);
+		for (int i = 0; i < imported.length; i++) {
+			imported[i] -= base;
+			code[imported[i]] -= EXTERN_VALUE;
+		}
+		String[] imports = new String[externs.size()];
+		for (int i = 0; i < imports.length; i++) {
+			String name = externs.get(i).getKey();
+			imports[i] = labelsCaseSensitive ? name : name.toUpperCase();
+		}
+		LinkedHashMap<String,Integer> exported = new LinkedHashMap<String, Integer>();
+		for (Directive directive : exports) {
+			String name = directive.getParametersToken().getText().trim();
+			if (!labelsCaseSensitive) {
+				name = name.toUpperCase();
+			}
+			int symbol = symbols.lookup(name);
+			LabelDefinition labelDef = symbol < 0 ? null : symbols.getDefinition(symbol);
+			if (labelDef == null) {
+				throw new UndefinedLabelException(directive.getLine(), name, new ArrayList<LabelUse>());
+			}
+			exported.put(name, labelDef.getLine().offset - base);
+		}
+		return new ObjectModule(getFile().getName(), code, relocated, imports, imported, Arrays.copyOf(importSymbols, importCount), exported);
+	}
+
+	/**
+	 * Refuses what can't be linked before the module is emitted: an
+	 * <code>.org</code> or <code>.align</code>, and an import used anywhere
+	 * but on its own in an operand. Imports are told apart from literals by
+	 * the tokens their values were substituted as, so an import used through
+	 * another define, in a directive, or on a line that had to be lexed again
+	 * with its defines substituted, is refused.
+	 */
+	private void checkLinkable() throws RelocationException {
+		Set<LexerToken> imports = Collections.newSetFromMap(new IdentityHashMap<LexerToken,Boolean>());
+		HashSet<String> importNames = new HashSet<String>();
+		for (Define extern : externs) {
+			importNames.add(extern.getKey());
+			if (extern.getValueTokens() != null) {
+				imports.addAll(Arrays.asList(extern.getValueTokens()));
+			}
+		}
+		for (Define define : defines.values()) {
+			if (!externs.contains(define)) {
+				for (String word : define.getValue().split("\\W+")) {
+					if (importNames.contains(word)) {
+						throw new RelocationException(define.getDirective().getLine(), "An .extern can't be used in a define in a relocatable module.");
+					}
+				}
+			}
+		}
+		for (AssemblyLine line : lines) {
+			Directive directive = line.getDirective();
+			if (directive != null && (directive.isOrigin() || directive.isAlign())) {
+				throw new RelocationException(line, "An .org or .align depends on where the module is linked.");
+			}
+			int named = 0;
+			for (LexerToken token : line.getTokens()) {
+				if (token instanceof LabelToken && importNames.contains(token.getText())) {
+					named++;
+				} else if (token instanceof DirectiveParametersToken && (directive.isFill() || directive.isReserve())) {
+					//The parameters as written, rather than with the imports substituted
+					for (String word : token.getText().split("\\W+")) {
+						if (importNames.contains(word)) {
+							throw new RelocationException(line, "An .extern can't be used in a directive in a relocatable module.");
+						}
+					}
+				}
+			}
+			int substituted = 0;
+			for (LexerToken token : line.getProcessedTokens()) {
+				if (imports.contains(token)) {
+					substituted++;
+				}
+			}
+			if (substituted != named) {
+				throw new RelocationException(line, "An .extern is used in a way that can't be linked.");
+			}
+		}
+	}
+
+	/**
+	 * Records how a word of a relocatable module is fixed up when it is
+	 * linked, from the value starting at <code>start</code> that it was
+	 * emitted from; a <code>word</code> of -1 is a short literal. Does
+	 * nothing unless a module is being assembled.
+	 *
+	 * Every label and import in the value has to stand on its own, outside of
+	 * any parentheses, between the ends of the value and <code>+</code> or
+	 * <code>-</code>, in a value without operators that bind looser than
+	 * those. Then the labels and imports the value adds and subtracts are
+	 * what it moves with, and they have to come to nothing, one label, or one
+	 * import.
+	 */
+	private void link(AssemblyLine line, LexerToken[] tokens, int start, int word) throws RelocationException {
+		if (importTokens == null) {
+			return;
+		}
+		int depth = 0;
+		boolean symbol = false;
+		boolean loose = false;
+		int labels = 0;
+		int[] uses = new int[externs.size()];
+		for (int i = start + 1; !isValueEnd(tokens[i]); i++) {
+			LexerToken token = tokens[i];
+			Integer extern = importTokens.get(token);
+			if (token instanceof GroupStartToken || token instanceof PickValueStartToken) {
+				depth++;
+			} else if (token instanceof GroupEndToken || token instanceof PickValueEndToken) {
+				depth--;
+			} else if (token instanceof OperatorToken) {
+				String operator = token.getText();
+				if (depth == 0 && !operator.equals("+") && !operator.equals("-") && !operator.equals("*") && !operator.equals("/") && !operator.equals("%") && !operator.equals("**")) {
+					loose = true;
+				}
+			} else if (token instanceof LabelToken || extern != null) {
+				int sign = linkSign(tokens, i);
+				if (depth > 0 || sign == 0 || !isLinkableNeighbour(tokens[i + 1])) {
+					throw new RelocationException(line, "Value can't be relocated; only a label or a single .extern plus or minus a constant can be.");
+				}
+				if (extern == null) {
+					labels += sign;
+				} else {
+					uses[extern] += sign;
+				}
+				symbol = true;
+			}
+		}
+		if (!symbol) {
+			return;
+		}
+		int imported = -1;
+		for (int i = 0; i < uses.length; i++) {
+			if (uses[i] == 1 && imported < 0 && labels == 0) {
+				imported = i;
+			} else if (uses[i] != 0) {
+				loose = true;
+			}
+		}
+		if (loose || labels < 0 || labels > 1) {
+			throw new RelocationException(line, "Value can't be relocated; only a label or a single .extern plus or minus a constant can be.");
+		}
+		if (labels == 0 && imported < 0) {
+			//The labels cancel out, so the value doesn't move
+			return;
+		}
+		if (word < 0) {
+			throw new RelocationException(line, "Value fits in a short literal, which can't be relocated.");
+		}
+		if (labels == 1) {
+			if (relocationCount == relocations.length) {
+				relocations = Arrays.copyOf(relocations, relocationCount * 2);
+			}
+			relocations[relocationCount++] = word;
+		} else {
+			if (importCount == importWords.length) {
+				importWords = Arrays.copyOf(importWords, importCount * 2);
+				importSymbols = Arrays.copyOf(importSymbols, importCount * 2);
+			}
+			importWords[importCount] = word;
+			importSymbols[importCount++] = imported;
+		}
+	}
+
+	private static boolean isValueEnd(LexerToken token) {
+		return token instanceof AValueEndToken || token instanceof BValueEndToken || token instanceof DataValueEndToken;
+	}
+
+	/**
+	 * Whether the label or import at <code>i</code> is added (1) or
+	 * subtracted (-1), from the signs before it, or 0 if it is an operand of
+	 * anything else.
+	 */
+	private static int linkSign(LexerToken[] tokens, int i) {
+		int sign = 1;
+		int j = i - 1;
+		while (isOperator(tokens[j]) && (tokens[j].getText().equals("+") || tokens[j].getText().equals("-"))) {
+			if (tokens[j].getText().equals("-")) {
+				sign = -sign;
+			}
+			j--;
+		}
+		if (isOperator(tokens[j])) {
+			return 0;
+		}
+		if (j == i - 1 && !(tokens[j] instanceof OperandStartToken || tokens[j] instanceof DataValueStartToken)) {
+			return 0;
+		}
+		return sign;
+	}
+
+	private static boolean isOperator(LexerToken token) {
+		return token instanceof OperatorToken || token instanceof UnaryOperatorToken;
+	}
+
+	private static boolean isLinkableNeighbour(LexerToken token) {
+		if (token instanceof OperatorToken) {
+			return token.getText().equals("+") || token.getText().equals("-");
+		}
+		return token instanceof AValueEndToken || token instanceof BValueEndToken || token instanceof AddressEndToken || token instanceof DataValueEndToken;
+	}
+
+	/**
+	 * Looks the program up in the build cache, and if its sources haven't
+	 * changed since it was cached, takes its statistics and labels from there
+	 * and returns the image. Returns null if it has to be assembled.
+	 */
+	private char[] loadCached() {
+		if (buildCache == null) {
+			return null;
+		}
+		String key = buildCache.lookup(rootDocument.getFile());
+		if (key == null) {
+			return null;
+		}
+		try {
+			Properties info = buildCache.loadInfo(key);
+			char[] image = buildCache.readImage(key);
+			size = Integer.parseInt(info.getProperty("size"));
+			lineCount = Integer.parseInt(info.getProperty("lines"));
+			metrics.linesReused = lineCount;
+			fileCount = Integer.parseInt(info.getProperty("files"));
+			passes = Integer.parseInt(info.getProperty("passes"));
+			missed = Integer.parseInt(info.getProperty("missed"));
+			shortened = Integer.parseInt(info.getProperty("shortened"));
+			relaxed = Integer.parseInt(info.getProperty("relaxed", "0"));
+			ranges = parseRanges(info.getProperty("ranges"), size);
+			sourceMap = buildCache.loadSourceMap(key);
+			labels = new LinkedHashMap<String, Integer>();
+			for (String name : info.stringPropertyNames()) {
+				if (name.startsWith(BuildCache.LABEL_PREFIX)) {
+					labels.put(name.substring(BuildCache.LABEL_PREFIX.length()), Integer.parseInt(info.getProperty(name)));
+				}
+			}
+			cached = true;
+			return image;
+		} catch (IOException e) {
+			e.printStackTrace();
+		} catch (RuntimeException e) {
+			//A damaged entry is assembled over
+			e.printStackTrace();
+		}
+		return null;
+	}
+
+	/**
+	 * Reads ranges as written by {@link #formatRanges()}. Entries cached before
+	 * ranges were kept cover the whole program.
+	 */
+	private static int[] parseRanges(String text, int size) {
+		if (text == null) {
+			return new int[] {0, size};
+		}
+		if (text.isEmpty()) {
+			return new int[0];
+		}
+		String[] parts = text.split(",");
+		int[] ranges = new int[parts.length];
+		for (int i = 0; i < parts.length; i++) {
+			ranges[i] = Integer.parseInt(parts[i]);
+		}
+		return ranges;
+	}
+
+	String formatRanges() {
+		StringBuilder text = new StringBuilder();
+		for (int i = 0; i < ranges.length; i++) {
+			if (i > 0) {
+				text.append(',');
+			}
+			text.append(ranges[i]);
+		}
+		return text.toString();
+	}
+
+	/**
+	 * Brings the DCPU up to date with edits made to the files since this
+	 * assembly was last written to it, re-emitting only the lines whose text
+	 * changed and writing only the words that differ. Returns false, without
+	 * touching the DCPU, if the program has to be assembled from scratch
+	 * instead; {@link #getRefusal()} says why.
+	 * @see #setIncremental(boolean)
+	 * @see #hotPatch(DCPU)
+	 */
+	public boolean reassemble(DCPU dcpu) throws AbstractAssemblyException, UnknownFunctionException, UnparsableExpressionException, IOException {
+		timerStart();
+		if (!isWrittenTo(dcpu)) {
+			refusal = "it wasn't last assembled to this DCPU, or something else was written to it since";
+			return false;
+		}
+		BitSet words = patchLines();
+		if (words == null) {
+			return false;
+		}
+		for (int i = words.nextSetBit(0); i >= 0; i = words.nextSetBit(i + 1)) {
+			dcpu.ram[i] = image[i];
+		}
+		phase("patch");
+		finishMetrics();
+		return true;
+	}
+
+	/**
+	 * Brings the disk up to date with edits made to the files since this
+	 * assembly was last written to it; see
+	 * {@link #reassemble(DCPU)}.
+	 */
+	public boolean reassemble(FloppyDisk disk) throws AbstractAssemblyException, UnknownFunctionException, UnparsableExpressionException, IOException {
+		timerStart();
+		if (!isWrittenTo(disk)) {
+			refusal = "it wasn't last assembled to this disk, or something else was written to it since";
+			return false;
+		}
+		BitSet words = patchLines();
+		if (words == null) {
+			return false;
+		}
+		for (int i = words.nextSetBit(0); i >= 0; i = words.nextSetBit(i + 1)) {
+			int end = words.nextClearBit(i);
+			disk.write(i, image, i, end - i);
+			i = end;
+		}
+		disk.flush();
+		phase("patch");
+		finishMetrics();
+		return true;
+	}
+
+	/**
+	 * Works out how to bring a running DCPU up to date with edits made to the
+	 * files since this assembly was last written to it, without stopping it or
+	 * touching any word the edits didn't change. Edits that can be patched in
+	 * line by line are. Otherwise the program is assembled again from scratch,
+	 * and the words that differ are patched in only if no label moved, since
+	 * return addresses on the stack and pointers held in registers and memory
+	 * would be left pointing into the old layout. Words the new program no
+	 * longer covers are left as they are.
+	 *
+	 * The patch is refused, with the reason, if neither works, and this
+	 * assembly is left as it was, so the edits can be fixed and patched in
+	 * later. Either way, the assembly to keep for the next patch is the one
+	 * the patch holds.
+	 */
+	public HotPatch hotPatch(DCPU dcpu) throws AbstractAssemblyException, UnknownFunctionException, UnparsableExpressionException, IOException {
+		timerStart();
+		if (!isWrittenTo(dcpu)) {
+			refusal = "it wasn't last assembled to this DCPU, or something else was written to it since";
+			return new HotPatch(this, refusal);
+		}
+		BitSet words = patchLines();
+		Assembly kept = this;
+		if (words != null) {
+			phase("patch");
+			finishMetrics();
+		} else {
+			String lineRefusal = refusal;
+			kept = new Assembly(rootDocument.getFile());
+			kept.incremental = true;
+			kept.clearTarget = clearTarget;
+			kept.timerStart();
+			kept.emit(dcpu.ram.length);
+			kept.keepTarget(dcpu, targetGeneration);
+			kept.phase("emit");
+			Map<String,Integer> labels = kept.getLabels();
+			for (Map.Entry<String,Integer> label : getLabels().entrySet()) {
+				Integer moved = labels.get(label.getKey());
+				if (moved != null && !moved.equals(label.getValue())) {
+					refusal = String.format("%s, and assembling it again would move %s from %04X to %04X", lineRefusal, label.getKey(), label.getValue(), moved);
+					return new HotPatch(this, refusal);
+				}
+			}
+			words = new BitSet();
+			for (int r = 0; r < kept.ranges.length; r += 2) {
+				for (int i = kept.ranges[r]; i < Math.min(kept.ranges[r + 1], kept.image.length); i++) {
+					if (i >= image.length || kept.image[i] != image[i]) {
+						words.set(i);
+					}
+				}
+			}
+			kept.patchedWords = words.cardinality();
+			kept.phase("diff");
+			kept.finishMetrics();
+			kept.metrics.incremental = true;
+		}
+		//Words patched into the image before, but never written to the DCPU
+		words.or(unpatched);
+		kept.unpatched = words;
+		int[] addresses = new int[words.cardinality()];
+		char[] values = new char[addresses.length];
+		int n = 0;
+		for (int i = words.nextSetBit(0); i >= 0; i = words.nextSetBit(i + 1)) {
+			addresses[n] = i;
+			values[n++] = kept.image[i];
+		}
+		return new HotPatch(kept, addresses, values);
+	}
+
+	/**
+	 * Whether the program was last written to a DCPU or disk by this assembly,
+	 * and kept so that edits can be patched into it. It no longer is once
+	 * anything else has written a whole program to it.
+	 */
+	public boolean isWrittenTo(Object target) {
+		return target != null && target == getTarget();
+	}
+
+	/**
+	 * The DCPU or disk the program was last written to and kept for, or null
+	 * if there is none, it's gone, or something else has been written to it
+	 * since.
+	 */
+	public Object getTarget() {
+		Object target = this.target == null ? null : this.target.get();
+		if (target instanceof DCPU && ((DCPU) target).getGeneration() == targetGeneration) {
+			return target;
+		}
+		if (target instanceof FloppyDisk && ((FloppyDisk) target).getGeneration() == targetGeneration) {
+			return target;
+		}
+		return null;
+	}
+
+	private void keepTarget(Object target, int generation) {
+		this.target = new WeakReference<Object>(target);
+		targetGeneration = generation;
+	}
+
+	/**
+	 * Why the last {@link #reassemble} or {@link #hotPatch} couldn't patch the
+	 * edits in, or null if it did.
+	 */
+	public String getRefusal() {
+		return refusal;
+	}
+
+	/**
+	 * Writes the last program assembled to a disk as {@link #assemble(FloppyDisk)}
+	 * does, without assembling it again, so one program can be put on several
+	 * disks. Disks written this way aren't reassembled incrementally.
+	 */
+	public void write(FloppyDisk disk) throws IOException {
+		disk.newGeneration();
+		writeImage(disk);
+	}
+
+	private void writeImage(FloppyDisk disk) throws IOException {
+		int end = 0;
+		for (int i = 0; i < ranges.length; i += 2) {
+			int start = Math.min(ranges[i], image.length);
+			int stop = Math.min(ranges[i + 1], image.length);
+			if (clearTarget) {
+				disk.zero(end, start - end);
+			}
+			disk.write(start, image, start, stop - start);
+			end = stop;
+		}
+		if (clearTarget) {
+			disk.zero(end, FloppyDisk.WORDS - end);
+		}
+		disk.flush();
+	}
+
+	/**
+	 * Writes the last program assembled to RAM; see {@link #write(FloppyDisk)}.
+	 */
+	public void write(char[] ram) {
+		int limit = Math.min(image.length, ram.length);
+		int end = 0;
+		for (int i = 0; i < ranges.length; i += 2) {
+			int start = Math.min(ranges[i], limit);
+			int stop = Math.min(ranges[i + 1], limit);
+			if (clearTarget) {
+				Arrays.fill(ram, end, start, (char) 0);
+			}
+			System.arraycopy(image, start, ram, start, stop - start);
+			end = stop;
+		}
+		if (clearTarget) {
+			Arrays.fill(ram, end, ram.length, (char) 0);
+		}
+	}
+
+	/**
+	 * Reads every file again, and relexes, sizes and emits the lines whose
+	 * text changed into the kept image. Returns the addresses of the words that
+	 * changed, or null, with the reason kept as the refusal, if an edit can't
+	 * be patched in place: lines were added or removed, an included binary
+	 * changed, or an edited line is a directive, defines a label, uses an
+	 * undefined one or changes size, or the program went through the
+	 * {@link Peephole} pass, whose rewrites an edit could undo. Labels never
+	 * move, so no other line needs to be looked at again. Nothing is changed
+	 * when null is returned, so the same edits are found again next time.
+	 */
+	private BitSet patchLines() throws AbstractAssemblyException, UnknownFunctionException, UnparsableExpressionException, IOException {
+		refusal = null;
+		if (optimizer != null) {
+			refusal = "it went through the peephole pass";
+			return null;
+		}
+		ArrayList<AssemblyDocument> reread = new ArrayList<AssemblyDocument>();
+		BitSet words = null;
+		try {
+			words = patchLines(reread);
+			return words;
+		} finally {
+			if (words == null) {
+				for (AssemblyDocument document : reread) {
+					document.undoReread();
+				}
+			}
+		}
+	}
+
+	private BitSet patchLines(List<AssemblyDocument> reread) throws AbstractAssemblyException, UnknownFunctionException, UnparsableExpressionException, IOException {
+		ArrayList<AssemblyLine> replaced = new ArrayList<AssemblyLine>();
+		ArrayList<AssemblyLine> replacements = new ArrayList<AssemblyLine>();
+		ArrayList<AssemblyDocument> documents = new ArrayList<AssemblyDocument>();
+		collectDocuments(rootDocument, documents);
+		for (AssemblyDocument document : documents) {
+			for (Incbin incbin : document.getBinaries().values()) {
+				if (!incbin.getBinary().isCurrent()) {
+					refusal = incbin.getPath() + " changed";
+					return null;
+				}
+			}
+			int[] changed = document.reread();
+			if (changed == null) {
+				refusal = "lines were added to or removed from " + document.getFile();
+				return null;
+			}
+			reread.add(document);
+			for (int n : changed) {
+				AssemblyLine old = document.getLines().get(n - 1);
+				AssemblyLine line = relexLine(old, old.index);
+				if (line == null) {
+					return null;
+				}
+				replaced.add(old);
+				replacements.add(line);
+			}
+		}
+		BitSet words = new BitSet();
+		for (int i = 0; i < replaced.size(); i++) {
+			AssemblyLine old = replaced.get(i);
+			AssemblyLine line = replacements.get(i);
+			//The short literal counts cover the last emission of every line, so emit
+			//the old line once more to take its share back out
+			int m = missed;
+			int s = shortened;
+			assembleLine(old, image);
+			missed = 2 * m - missed;
+			shortened = 2 * s - shortened;
+			char[] before = Arrays.copyOfRange(image, line.offset, line.offset + line.size);
+			assembleLine(line, image);
+			for (int j = 0; j < before.length; j++) {
+				if (image[line.offset + j] != before[j]) {
+					words.set(line.offset + j);
+				}
+			}
+			lines.set(old.index, line);
+			line.getDocument().replaceLine(line);
+			lineStore.set(old.index, line);
+		}
+		patchedWords = words.cardinality();
+		//Lines after an edited one in its document may have moved
+		sourceMap = null;
+		cycleAnalysis = null;
+		metrics.incremental = true;
+		metrics.linesLexed = replaced.size();
+		metrics.linesReused = lines.size() - replaced.size();
+		return words;
+	}
+
+	private void collectDocuments(AssemblyDocument document, List<AssemblyDocument> documents) {
+		documents.add(document);
+		for (AssemblyDocument child : document.getChildren().values()) {
+			collectDocuments(child, documents);
+		}
+	}
+
+	/**
+	 * Lexes, preprocesses and sizes an edited line at the place of the line it
+	 * replaces, against the labels and defines of the last assembly. Returns
+	 * null, with the reason kept as the refusal, if the line can't replace the
+	 * old one without moving other lines.
+	 */
+	private AssemblyLine relexLine(AssemblyLine old, int index) throws AbstractAssemblyException, UnknownFunctionException, UnparsableExpressionException {
+		if (old.isDirective()) {
+			return refuse(old, "was a directive");
+		}
+		if (definesLabel(old)) {
+			return refuse(old, "defined a label");
+		}
+		AssemblyDocument document = old.getDocument();
+		int n = old.getLineNumber();
+		AssemblyLine line = new AssemblyLine(document, n, document.getLineStart(n), document.getLineEnd(n), document.lexLine(n));
+		if (!defines.isEmpty()) {
+			LexerToken[] substituted = Define.substitute(line, defines);
+			if (substituted != null) {
+				line.setProcessedTokens(substituted);
+				metrics.defineSubstitutions++;
+			}
+		}
+		for (LexerToken token : line.getProcessedTokens()) {
+			if (token instanceof DirectiveToken) {
+				return refuse(old, "is now a directive");
+			}
+			if (token instanceof LabelDefinitionToken) {
+				return refuse(old, "now defines a label");
+			}
+			if (token instanceof ErrorToken) {
+				return refuse(old, "has an error");
+			}
+		}
+		line.preprocess();
+		String lastDefinedGlobalLabel = null;
+		for (int i = index - 1; i >= 0 && lastDefinedGlobalLabel == null; i--) {
+			LexerToken[] tokens = lines.get(i).getProcessedTokens();
+			for (int j = tokens.length - 1; j >= 0 && lastDefinedGlobalLabel == null; j--) {
+				if (tokens[j] instanceof LabelDefinitionToken && !((LabelDefinitionToken) tokens[j]).labelDef.isLocal()) {
+					lastDefinedGlobalLabel = ((LabelDefinitionToken) tokens[j]).labelDef.getLabelName();
+				}
+			}
+		}
+		for (LexerToken token : line.getProcessedTokens()) {
+			if (token instanceof LabelToken) {
+				LabelUse labelUse = new LabelUse(line, (LabelToken) token, labelsCaseSensitive, lastDefinedGlobalLabel);
+				int symbol = symbols.lookup(labelUse.getLabelName());
+				LabelDefinition labelDef = symbol < 0 ? null : symbols.getDefinition(symbol);
+				if (labelDef == null) {
+					return refuse(old, "uses " + labelUse.getLabelName() + ", which isn't defined");
+				}
+				((LabelToken) token).labelName = labelUse.getLabelName();
+				((LabelToken) token).lineRef = labelDef.getLine();
+				((LabelToken) token).value = labelDef.getLine().offset;
+				((LabelToken) token).valueSet = true;
+				line.unvaluedLabelTokens--;
+			}
+		}
+		//Every label is valued, so a single sizing pass over just this line settles it
+		ArrayList<AssemblyLine> savedWorklist = worklist;
+		int savedLeadingSize = leadingSize;
+		worklist = new ArrayList<AssemblyLine>();
+		worklist.add(line);
+		leadingSize = old.offset;
+		preprocessAndSize(false);
+		worklist = savedWorklist;
+		leadingSize = savedLeadingSize;
+		if (!line.sized) {
+			return refuse(old, "couldn't be sized");
+		}
+		if (line.size != old.size) {
+			return refuse(old, "changed from " + old.size + " to " + line.size + " words, which moves the lines after it");
+		}
+		return line;
+	}
+
+	private AssemblyLine refuse(AssemblyLine line, String reason) {
+		refusal = "line " + line.getLineNumber() + " of " + line.getDocument().getFile() + " " + reason;
+		return null;
+	}
+
+	private boolean definesLabel(AssemblyLine line) {
+		for (LexerToken token : line.getProcessedTokens()) {
+			if (token instanceof LabelDefinitionToken) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Keeps the lines, and the words last written, after assembling, so that
+	 * later edits can be patched in with {@link #reassemble}.
+	 */
+	public void setIncremental(boolean incremental) {
+		this.incremental = incremental;
+	}
+
+	public boolean isIncremental() {
+		return incremental;
+	}
+
+	/**
+	 * The number of words the last {@link #reassemble} wrote.
+	 */
+	public int getPatchedWords() {
+		return patchedWords;
 	}
 
 	private boolean preprocessAndSize(boolean preprocess) throws AbstractAssemblyException, UnknownFunctionException, UnparsableExpressionException {
@@ -107,19 +1078,21 @@ public class Assembly {
 		//moving this until after all preprocessing is done.
 		boolean accomplishedSomething = false;
 		boolean finished = true;
-		int oMin = 0;
-		int oMax = 0;
+		int oMin = preprocess ? base : leadingSize;
+		int oMax = oMin;
 		boolean exact = true;
-		LinkedHashMap<Pattern, Define> patterns = null;
+		List<AssemblyLine> visited = preprocess ? lines : worklist;
+		ArrayList<AssemblyLine> pending = new ArrayList<AssemblyLine>();
+		AssemblyLine lastPending = null;
 		if (preprocess) {
+			leadingSize = base;
 			accomplishedSomething = true;
-			patterns = new LinkedHashMap<Pattern, Define>();
-			for (String key : defines.keySet()) {
-				patterns.put(Pattern.compile("\\b"+Pattern.quote(key)+"\\b"), defines.get(key));
+			for (Define define : defines.values()) {
+				define.expand(defines);
 			}
 		}
 		String lastDefinedGlobalLabel = null;
-		for (AssemblyLine line : lines) {
+		for (AssemblyLine line : visited) {
 			if (exact) {
 				line.offset = oMin;
 				line.located = true;
@@ -129,33 +1102,13 @@ public class Assembly {
 				line.offset = oMax;
 			}
 			if (preprocess) {
-				String pass = "";
-				boolean isDefine = false;
-				if (line.isDirective()) {
-					if (line.getDirective().isDefine()) {
-						isDefine = true;
-						pass = new Define(line.getDirective()).getKey();
-					}
-				}
-				boolean retokenize = false;
-				String text = line.getText();
-				for (Pattern pattern : patterns.keySet()) {
-					if (isDefine) {
-						if (patterns.get(pattern).getDirective().getLine().equals(line)) {
-							continue;
-						}
-					}
-					if (pattern.matcher(text).find()) {
-						retokenize = true;
-						text = text.replaceAll(pattern.pattern(), patterns.get(pattern).getValue());
+				if (!defines.isEmpty() && !(line.isDirective() && line.getDirective().isDefine())) {
+					LexerToken[] substituted = Define.substitute(line, defines);
+					if (substituted != null) {
+						line.setProcessedTokens(substituted);
+						metrics.defineSubstitutions++;
 					}
 				}
-				if (retokenize) {
-					if (isDefine) {
-						defines.get(pass).setValue(Define.extractValue(text));
-					}
-					line.setProcessedTokens(Lexer.get().generateTokens(text, true));
-				}
 				line.preprocess();
 				for (LexerToken token : line.getProcessedTokens()) {
 					if (token instanceof LabelDefinitionToken) {
@@ -164,79 +1117,62 @@ public class Assembly {
 						if (!labelDef.isLocal()) {
 							lastDefinedGlobalLabel = labelDef.getLabelName();
 						}
-						if (labelDefs.containsKey(labelDef.getLabelName())) {
-							throw new DuplicateLabelDefinitionException(this, labelDefs.get(labelDef.getLabelName()),labelDef);
+						int symbol = symbols.intern(labelDef.getLabelName());
+						if (symbols.getDefinition(symbol) != null) {
+							throw new DuplicateLabelDefinitionException(this, symbols.getDefinition(symbol),labelDef);
 						}
-						labelDefs.put(labelDef.getLabelName(), labelDef);
+						symbols.setDefinition(symbol, labelDef);
+						List<LabelUse> uses = symbols.removePendingUses(symbol);
 						if (exact) {
-							if (labelUses.containsKey(labelDef.getLabelName())) {
-								for (LabelUse use : labelUses.get(labelDef.getLabelName())) {
+							if (uses != null) {
+								for (LabelUse use : uses) {
 									use.getToken().lineRef = labelDef.getLine();
 									use.getToken().value = line.offset;
 									use.getToken().valueSet = true;
 									use.getLine().unvaluedLabelTokens--;
 								}
-								labelUses.remove(labelDef.getLabelName());
 							}
 						} else {
-							if (labelUses.containsKey(labelDef.getLabelName())) {
-								for (LabelUse use : labelUses.get(labelDef.getLabelName())) {
+							if (line.dependents == null) {
+								line.dependents = new ArrayList<LabelUse>();
+							}
+							if (uses != null) {
+								for (LabelUse use : uses) {
 									use.getToken().lineRef = labelDef.getLine();
 								}
+								line.dependents.addAll(uses);
 							}
 						}
 					} else if (token instanceof LabelToken) {
 						LabelUse labelUse = new LabelUse(line, (LabelToken) token, labelsCaseSensitive, lastDefinedGlobalLabel);
 						((LabelToken) token).labelName = labelUse.getLabelName();
-						if (labelDefs.containsKey(labelUse.getLabelName())) {
-							labelUse.getToken().lineRef = labelDefs.get(labelUse.getLabelName()).getLine();
-							if (labelDefs.get(labelUse.getLabelName()).getLine().located) {
-								((LabelToken) token).value = labelDefs.get(labelUse.getLabelName()).getLine().offset; //Setting it early
+						int symbol = symbols.intern(labelUse.getLabelName());
+						LabelDefinition labelDef = symbols.getDefinition(symbol);
+						if (labelDef != null) {
+							labelUse.getToken().lineRef = labelDef.getLine();
+							if (labelDef.getLine().located) {
+								((LabelToken) token).value = labelDef.getLine().offset; //Setting it early
 								((LabelToken) token).valueSet = true;
 								line.unvaluedLabelTokens--;
+							} else {
+								labelDef.getLine().dependents.add(labelUse);
 							}
 						} else {
-							if (!labelUses.containsKey(labelUse.getLabelName())) {
-								labelUses.put(labelUse.getLabelName(), new ArrayList<LabelUse>());
-							}
-							labelUses.get(labelUse.getLabelName()).add(labelUse);
+							symbols.addPendingUse(symbol, labelUse);
 						}
 					} else if (token instanceof ErrorToken) {
 						throw new TokenizationException(line);
 					}
 					//TODO: Additional validity checks?
 				}
-			} else {
-				if (line.unvaluedLabelTokens != 0) {
-					for (LexerToken token : line.getProcessedTokens()) {
-						if (token instanceof LabelToken) {
-							if (!((LabelToken) token).valueSet) {
-								if (!labelDefs.containsKey(((LabelToken) token).labelName)) {
-									throw new UndefinedLabelException(line, ((LabelToken) token).labelName, labelUses.get(((LabelToken) token).labelName));
-								}
-								if (labelDefs.get(((LabelToken) token).labelName).getLine().located) {
-									accomplishedSomething = true;
-									((LabelToken) token).value = labelDefs.get(((LabelToken) token).labelName).getLine().offset; //Setting it early
-									((LabelToken) token).valueSet = true;
-									line.unvaluedLabelTokens--;
-								}	
-							}
-						} else if (token instanceof LabelDefinitionToken) {
-							if (exact) {
-								LabelDefinition labelDef = ((LabelDefinitionToken) token).labelDef;
-								if (labelUses.containsKey(labelDef.getLabelName())) {
-									for (LabelUse use : labelUses.get(labelDef.getLabelName())) {
-										use.getToken().value = line.offset;
-										use.getToken().valueSet = true;
-										use.getLine().unvaluedLabelTokens--;
-									}
-									labelUses.remove(labelDef.getLabelName());
-									accomplishedSomething = true;
-								}
-							}
-						}
-					}
+			} else if (line.located && line.dependents != null) {
+				for (LabelUse use : line.dependents) {
+					use.getToken().value = line.offset;
+					use.getToken().valueSet = true;
+					use.getLine().unvaluedLabelTokens--;
 				}
+				line.dependents = null;
+				accomplishedSomething = true;
 			}
 			if (!line.sized) {
 				if (line.isDirective()) {
@@ -244,7 +1180,7 @@ public class Assembly {
 					if (directive.isOrigin()) {
 						if (line.nextOffset == 0) {
 							try {
-								line.nextOffset = (int) new ExpressionBuilder(decimalize(directive.getParametersToken().getText())).withOperations(OPERATORS).build().calculate();
+								line.nextOffset = calculateDirective(directive.getParametersToken().getText());
 							} catch (Exception e) {
 								throw new DirectiveExpressionEvaluationException(directive);
 							}
@@ -261,7 +1197,7 @@ public class Assembly {
 					} else if (directive.isAlign()) {
 						if (line.nextOffset == 0) {
 							try {
-								line.nextOffset = (int) new ExpressionBuilder(decimalize(directive.getParametersToken().getText())).withOperations(OPERATORS).build().calculate();
+								line.nextOffset = calculateDirective(directive.getParametersToken().getText());
 							} catch (Exception e) {
 								throw new DirectiveExpressionEvaluationException(directive);
 							}
@@ -282,7 +1218,7 @@ public class Assembly {
 							int i = 0;
 							while (!(paramTokens[++i] instanceof BValueStartToken)) {}
 							while (!(paramTokens[++i] instanceof BValueEndToken)) {spanText += paramTokens[i].getText();}
-							line.size = (int) new ExpressionBuilder(decimalize(spanText)).withOperations(OPERATORS).build().calculate();
+							line.size = calculateDirective(spanText);
 							line.sized = true;
 						} catch (Exception e) {
 							throw new DirectiveExpressionEvaluationException(directive);
@@ -294,7 +1230,7 @@ public class Assembly {
 						oMax += line.size;
 					} else if (directive.isReserve()) {
 						try {
-							line.size = (int) new ExpressionBuilder(decimalize(directive.getParametersToken().getText())).withOperations(OPERATORS).build().calculate();
+							line.size = calculateDirective(directive.getParametersToken().getText());
 							line.sized = true;
 						} catch (Exception e) {
 							throw new DirectiveExpressionEvaluationException(directive);
@@ -304,6 +1240,17 @@ public class Assembly {
 						}
 						oMin += line.size;
 						oMax += line.size;
+					} else if (directive.isIncbin()) {
+						Incbin incbin = line.getDocument().getBinaries().get(directive);
+						int offset = incbinOffset(incbin);
+						int length = incbinLength(incbin, offset);
+						if (offset < 0 || length < 0 || offset + length > incbin.getBinary().length()) {
+							throw new BinaryRangeException(incbin);
+						}
+						line.size = (length + 1) / 2;
+						line.sized = true;
+						oMin += line.size;
+						oMax += line.size;
 					}
 				} else {
 					LexerToken[] tokens = line.getProcessedTokens();
@@ -349,13 +1296,8 @@ public class Assembly {
 								line.sized = true;
 							} else {
 								if (!sizeExpressionA(line)) {
-									if (abandonOptimization) {
-										line.size = 2 + line.bSize;
-										line.sized = true;
-									} else {
-										oMin += 1+line.bSize;
-										oMax += 2+line.bSize;
-									}
+									oMin += 1+line.bSize;
+									oMax += 2+line.bSize;
 									line.opCodeToken.setAValueNextWord(true);
 								}
 							}
@@ -379,13 +1321,8 @@ public class Assembly {
 								} else {
 									AssemblyLine lRef = ((LabelToken) tokens[line.aStart]).lineRef;
 									if (lRef == null) {
-										if (abandonOptimization) {
-											line.size = 2 + line.bSize;
-											line.sized = true;
-										} else {
-											oMin += 1+line.bSize;
-											oMax += 2+line.bSize;
-										}
+										oMin += 1+line.bSize;
+										oMax += 2+line.bSize;
 										line.opCodeToken.setAValueNextWord(true);
 									} else {
 										if (lRef.minOffset > 0) {
@@ -404,50 +1341,30 @@ public class Assembly {
 														line.sized = true;
 														line.opCodeToken.setAValueNextWord(false);
 													} else {
-														if (abandonOptimization) {
-															line.size = 2 + line.bSize;
-															line.sized = true;
-														} else {
-															oMin += 1+line.bSize;
-															oMax += 2+line.bSize;
-														}
+														oMin += 1+line.bSize;
+														oMax += 2+line.bSize;
 														line.opCodeToken.setAValueNextWord(true);
 													}
 												}
 											}
 										} else {
-											if (abandonOptimization) {
-												line.size = 2 + line.bSize;
-												line.sized = true;
-											} else {
-												oMin += 1+line.bSize;
-												oMax += 2+line.bSize;
-											}
+											oMin += 1+line.bSize;
+											oMax += 2+line.bSize;
 											line.opCodeToken.setAValueNextWord(true);
 										}
 									}
 								}
 							} else {
 								if (!sizeExpressionA(line)) {
-									if (abandonOptimization) {
-										line.size = 2 + line.bSize;
-										line.sized = true;
-									} else {
-										oMin += 1+line.bSize;
-										oMax += 2+line.bSize;
-									}
+									oMin += 1+line.bSize;
+									oMax += 2+line.bSize;
 									line.opCodeToken.setAValueNextWord(true);
 								}
 							}
 						} else {
 							if (!sizeExpressionA(line)) {
-								if (abandonOptimization) {
-									line.size = 2 + line.bSize;
-									line.sized = true;
-								} else {
-									oMin += 1+line.bSize;
-									oMax += 2+line.bSize;
-								}
+								oMin += 1+line.bSize;
+								oMax += 2+line.bSize;
 								line.opCodeToken.setAValueNextWord(true);
 							}
 						}
@@ -465,16 +1382,219 @@ public class Assembly {
 				oMin = line.nextOffset;
 				oMax = line.nextOffset;
 			}
+			oMin += line.followingSize;
+			oMax += line.followingSize;
 			exact = oMin == oMax;
 		//			if (!line.sized) { System.out.println(line.getText());}
 			finished = finished && exact;
+			//Settled lines are folded into the size of the last line still pending
+			if (line.sized && line.nextOffset == 0 && line.dependents == null) {
+				if (lastPending == null) {
+					leadingSize += line.size + line.followingSize;
+				} else {
+					lastPending.followingSize += line.size + line.followingSize;
+				}
+			} else {
+				pending.add(line);
+				lastPending = line;
+			}
+		}
+		worklist = pending;
+		if (preprocess) {
+			//Uses still waiting on a definition have none
+			int undefined = symbols.firstPending();
+			if (undefined >= 0) {
+				List<LabelUse> uses = symbols.getPendingUses(undefined);
+				throw new UndefinedLabelException(uses.get(0).getLine(), symbols.getName(undefined), uses);
+			}
 		}
 		if (!accomplishedSomething && !finished) {
-			abandonOptimization = true;
+			//Lines that depend on each other's sizes in a cycle can't be settled one at a time
+			relax();
 		}
 		return accomplishedSomething || !finished;
 	}
 
+	/**
+	 * Settles the operands the sizing passes couldn't, the way branches are
+	 * relaxed: every undecided operand starts out as a short literal, the
+	 * program is laid out, and each operand is made short or long by whether
+	 * its value fits in a short literal there. That is repeated until nothing
+	 * changes. For operands that only grow as lines do, like labels and label
+	 * offsets, nothing ever shrinks, so this ends after at most one round per
+	 * operand with the smallest consistent result.
+	 *
+	 * Other expressions, like <code>label*62956</code>, can go back and forth
+	 * between fitting and not as lines move, so after as many rounds operands
+	 * are only grown, which always ends. Every operand left short fits either
+	 * way, but that isn't always smaller, so the result is only kept if it is
+	 * no larger than giving every undecided operand a word of its own, which is
+	 * always consistent. The next pass locates the settled lines and values
+	 * their labels.
+	 */
+	private void relax() throws UnknownFunctionException, UnparsableExpressionException {
+		ArrayList<AssemblyLine> undecided = new ArrayList<AssemblyLine>();
+		for (AssemblyLine line : worklist) {
+			if (!line.sized && !line.isDirective() && !line.isDat && line.opCodeToken != null) {
+				line.size = 1 + line.bSize;
+				undecided.add(line);
+			}
+		}
+		boolean changed = true;
+		for (int round = 0; changed; round++) {
+			changed = false;
+			//Past one round per operand, something is going back and forth
+			boolean shrink = round <= undecided.size();
+			layOutTrial();
+			for (AssemblyLine line : undecided) {
+				boolean fits = fitsShortLiteral(relaxedValueA(line));
+				if (line.size == 1 + line.bSize && !fits) {
+					line.size = 2 + line.bSize;
+					changed = true;
+				} else if (line.size == 2 + line.bSize && fits && shrink) {
+					line.size = 1 + line.bSize;
+					changed = true;
+				}
+			}
+		}
+		int relaxedEnd = layOutTrial();
+		int[] sizes = new int[undecided.size()];
+		for (int i = 0; i < sizes.length; i++) {
+			AssemblyLine line = undecided.get(i);
+			sizes[i] = line.size;
+			line.size = 2 + line.bSize;
+		}
+		if (layOutTrial() < relaxedEnd) {
+			for (AssemblyLine line : undecided) {
+				line.opCodeToken.setAValueNextWord(true);
+				line.sized = true;
+			}
+			return;
+		}
+		for (int i = 0; i < sizes.length; i++) {
+			undecided.get(i).size = sizes[i];
+		}
+		layOutTrial();
+		for (AssemblyLine line : undecided) {
+			if (line.size == 1 + line.bSize) {
+				line.aVal = (char) (0x21 + (char) relaxedValueA(line));
+				line.aSet = true;
+				line.opCodeToken.setAValueNextWord(false);
+				relaxed++;
+			} else {
+				line.opCodeToken.setAValueNextWord(true);
+			}
+			line.sized = true;
+		}
+	}
+
+	private static boolean fitsShortLiteral(int value) {
+		char val = (char) value;
+		return val < 31 || val == 0xFFFF;
+	}
+
+	/**
+	 * Lays the lines out at their current sizes for {@link #relax()}, and
+	 * returns where the program ends.
+	 */
+	private int layOutTrial() {
+		int offset = base;
+		int end = base;
+		for (AssemblyLine line : lines) {
+			line.offset = offset;
+			offset = line.nextOffset > 0 ? line.nextOffset : offset + line.size;
+			end = Math.max(end, offset);
+		}
+		return end;
+	}
+
+	/**
+	 * The value of a literal a operand with its labels at the offsets of the
+	 * trial layout.
+	 */
+	private int relaxedValueA(AssemblyLine line) throws UnknownFunctionException, UnparsableExpressionException {
+		LexerToken[] tokens = line.getProcessedTokens();
+		if (!line.aHasOperator && tokens[line.aStart] instanceof LabelToken) {
+			LabelToken label = (LabelToken) tokens[line.aStart];
+			return label.valueSet ? label.value : label.lineRef.offset;
+		}
+		ArrayList<LabelToken> trial = new ArrayList<LabelToken>();
+		for (LexerToken token : tokens) {
+			if (token instanceof LabelToken && !((LabelToken) token).valueSet) {
+				((LabelToken) token).value = ((LabelToken) token).lineRef.offset;
+				((LabelToken) token).valueSet = true;
+				trial.add((LabelToken) token);
+			}
+		}
+		int value = calculate(new Group(tokens, line.aStart-1, AValueEndToken.class));
+		//The labels are only valued for good once the lines are located
+		for (LabelToken token : trial) {
+			token.valueSet = false;
+		}
+		return value;
+	}
+
+	/**
+	 * Gives every line its final offset once sizing is done. Passes after the
+	 * first only visit the lines still pending, so the rest can be stale.
+	 */
+	private void locateLines() {
+		int offset = base;
+		for (AssemblyLine line : lines) {
+			line.offset = offset;
+			line.located = true;
+			offset += line.size;
+			if (line.nextOffset > 0) {
+				offset = line.nextOffset;
+			}
+		}
+		lineStore.layout(lines);
+		sourceMap = null;
+		cycleAnalysis = null;
+		size = lineStore.getProgramSize();
+		lineCount = lineStore.size();
+		ranges = coveredRanges(lines);
+	}
+
+	/**
+	 * The addresses the lines were assembled to, merged into ranges, so that
+	 * only those have to be written out. An <code>.org</code> is sized to the
+	 * gap it leaves but writes nothing; since it can't move backwards, the
+	 * ranges come out in order.
+	 */
+	private static int[] coveredRanges(List<AssemblyLine> lines) {
+		int[] ranges = new int[16];
+		int n = 0;
+		for (AssemblyLine line : lines) {
+			if (line.size == 0 || (line.isDirective() && line.getDirective().isOrigin())) {
+				continue;
+			}
+			int start = line.offset;
+			int end = start + line.size;
+			if (n > 0 && start <= ranges[n - 1]) {
+				ranges[n - 1] = Math.max(ranges[n - 1], end);
+			} else {
+				if (n == ranges.length) {
+					ranges = Arrays.copyOf(ranges, n * 2);
+				}
+				ranges[n++] = start;
+				ranges[n++] = end;
+			}
+		}
+		return Arrays.copyOf(ranges, n);
+	}
+
+	/**
+	 * Drops the lines and their tokens once the program has been emitted,
+	 * keeping only the {@link LineStore}.
+	 */
+	private void releaseLines() {
+		lines = new ArrayList<AssemblyLine>();
+		rootDocument.releaseLines();
+		expressions.clear();
+		directiveExpressions.clear();
+	}
+
 	private boolean sizeExpressionA(AssemblyLine line) throws UnknownFunctionException, UnparsableExpressionException {
 		//This is only for use in resolving literal expressions
 		Group value = new Group(line.getProcessedTokens(),line.aStart-1,AValueEndToken.class);
@@ -485,7 +1605,7 @@ public class Assembly {
 			//literal, even without knowing its exact value.
 			return false;
 		}
-		char val = (char) (int) new ExpressionBuilder(value.getExpression()).withOperations(OPERATORS).build().calculate();
+		char val = (char) calculate(value);
 		if (val >= 31 && val != 0xFFFF) {
 			line.literalA = (char) val;
 			line.literalASet = true;
@@ -503,55 +1623,64 @@ public class Assembly {
 	}
 
 	private void assembleToBuffer(char[] ram) throws AbstractAssemblyException, UnknownFunctionException, UnparsableExpressionException {
-		int pc = 0;
+		for (AssemblyLine line : lines) {
+			assembleLine(line, ram);
+		}
+	}
+
+	private void assembleLine(AssemblyLine line, char[] ram) throws AbstractAssemblyException, UnknownFunctionException, UnparsableExpressionException {
+		int pc;
 		int a;
 		int b;
-		for (AssemblyLine line : lines) {
-			if (line.sized) {
-				pc = line.offset;
-			} else {
-				pc = line.maxOffset;
-			}
-			if (line.isDirective()) {
-				Directive directive = line.getDirective();
-				if (directive.isAlign()) {
-					int end = pc + line.size;
-					while (pc < end) {
-						ram[pc++] = 0;
-					}
-				} else if (directive.isReserve()) {
-					int end = pc + line.size;
-					while (pc < end) {
-						ram[pc++] = 0;
-					}
-				} else if (directive.isFill()) {
-					//TODO This is hackish. Make it not hackish.
-					LexerToken[] paramTokens = Lexer.get().generateTokens("SET " + directive.getParametersToken().getText(), true);
-					String valText = "";
-					int i = 0;
-					while (!(paramTokens[++i] instanceof AValueStartToken)) {}
-					while (!(paramTokens[++i] instanceof AValueEndToken)) {valText += paramTokens[i].getText();}
-					char v = (char)(int) new ExpressionBuilder(decimalize(valText)).withOperations(OPERATORS).build().calculate();
-					int end = pc + line.size;
-					while (pc < end) {
-						ram[pc++] = v;
-					}
+		if (line.sized) {
+			pc = line.offset;
+		} else {
+			pc = line.maxOffset;
+		}
+		if (line.isDirective()) {
+			Directive directive = line.getDirective();
+			if (directive.isAlign()) {
+				int end = pc + line.size;
+				while (pc < end) {
+					ram[pc++] = 0;
 				}
-			} else {
-				LexerToken[] tokens = line.getProcessedTokens();
-				if (line.isBasic) {
-					a = getA(line, tokens,line.aStart,line.opCodeToken.isNextWordA()?pc+1:0,ram);
-					b = getB(line, tokens,line.bStart,line.opCodeToken.isNextWordB()?line.opCodeToken.isNextWordA()?pc+2:pc+1:0,ram);
-					ram[pc] = (char)(line.opCode | b << 5 | a << 10);
-				} else if (line.isSpecial) {
-					a = getA(line, tokens,line.aStart,line.opCodeToken.isNextWordA()?pc+1:0,ram);
-					ram[pc] = (char)(line.opCode << 5 | a << 10);
-				} else if (line.isDat) {
-					for (int i = 0; i < tokens.length; i++) {
-						LexerToken token = tokens[i];
-						if (token instanceof DataValueStartToken) {
-							pc = assembleData(tokens, i+1, ram, pc);
-						}
+			} else if (directive.isReserve()) {
+				int end = pc + line.size;
+				while (pc < end) {
+					ram[pc++] = 0;
+				}
+			} else if (directive.isFill()) {
+				//TODO This is hackish. Make it not hackish.
+				LexerToken[] paramTokens = Lexer.get().generateTokens("SET " + directive.getParametersToken().getText(), true);
+				String valText = "";
+				int i = 0;
+				while (!(paramTokens[++i] instanceof AValueStartToken)) {}
+				while (!(paramTokens[++i] instanceof AValueEndToken)) {valText += paramTokens[i].getText();}
+				char v = (char) calculateDirective(valText);
+				int end = pc + line.size;
+				while (pc < end) {
+					ram[pc++] = v;
+				}
+			} else if (directive.isIncbin()) {
+				Incbin incbin = line.getDocument().getBinaries().get(directive);
+				int offset = incbinOffset(incbin);
+				incbin.getBinary().copyWords(offset, incbinLength(incbin, offset), incbin.isLittleEndian(), ram, pc);
+			}
+		} else {
+			LexerToken[] tokens = line.getProcessedTokens();
+			if (line.isBasic) {
+				a = getA(line, tokens,line.aStart,line.opCodeToken.isNextWordA()?pc+1:0,ram);
+				b = getB(line, tokens,line.bStart,line.opCodeToken.isNextWordB()?line.opCodeToken.isNextWordA()?pc+2:pc+1:0,ram);
+				ram[pc] = (char)(line.opCode | b << 5 | a << 10);
+			} else if (line.isSpecial) {
+				a = getA(line, tokens,line.aStart,line.opCodeToken.isNextWordA()?pc+1:0,ram);
+				ram[pc] = (char)(line.opCode << 5 | a << 10);
+			} else if (line.isDat) {
+				for (int i = 0; i < tokens.length; i++) {
+					LexerToken token = tokens[i];
+					if (token instanceof DataValueStartToken) {
+						link(line, tokens, i, pc);
+						pc = assembleData(tokens, i+1, ram, pc);
 					}
 				}
 			}
@@ -568,18 +1697,20 @@ public class Assembly {
 	}
 
 	private int assembleExpression(LexerToken[] tokens, int i, char[] buf, int pc) throws UnknownFunctionException, UnparsableExpressionException {
-		String expression = "";
+		StringBuilder expression = new StringBuilder();
+		ArrayList<Integer> labelValues = new ArrayList<Integer>();
 		while (!(tokens[i] instanceof DataValueEndToken)) {
 			LexerToken token = tokens[i++];
 			if (token instanceof LabelToken) { //Wait, is this even possible at this point...
-				expression += ""+((LabelToken)token).value;
+				expression.append(CompiledExpression.slotName(labelValues.size()));
+				labelValues.add(((LabelToken)token).value);
 			} else if (token instanceof LiteralToken) {
-				expression += ""+((LiteralToken)token).getValue();
+				expression.append(((LiteralToken)token).getValue());
 			} else {
-				expression += token.getText();
+				expression.append(token.getText());
 			}
 		}
-		int val = (int) new ExpressionBuilder(expression).withOperations(OPERATORS).build().calculate();
+		int val = calculate(expression.toString(), labelValues);
 		buf[pc++] = (char) val;
 		return pc;
 	}
@@ -635,7 +1766,8 @@ public class Assembly {
 				throw new BadValueException(line, tokens, line.bRegister + " used in disallowed operation.");
 			}
 		}
-		int literal = (int) new ExpressionBuilder(value.getExpression()).withOperations(OPERATORS).build().calculate(); 
+		int literal = calculate(value); 
+		link(line, tokens, line.bStart - 1, hasNextWord ? offset : -1);
 		
 		if (hasNextWord) {
 			buf[offset] = (char) literal;
@@ -716,6 +1848,7 @@ public class Assembly {
 			case VALUE_REGISTER_OFFSET_MEMORY:
 				if (line.literalASet) {
 					buf[offset] = line.literalA;
+					link(line, tokens, line.aStart - 1, offset);
 					return line.aVal;
 				}
 				break;
@@ -725,8 +1858,10 @@ public class Assembly {
 						missed++;
 					}
 					buf[offset] = line.literalA;
+					link(line, tokens, line.aStart - 1, offset);
 				} else {
 					shortened++;
+					link(line, tokens, line.aStart - 1, -1);
 				}
 				return line.aVal;
 			}
@@ -761,7 +1896,8 @@ public class Assembly {
 				throw new BadValueException(line, tokens, line.aRegister + " used in disallowed operation.");
 			}
 		}
-		int literal = (int) new ExpressionBuilder(value.getExpression()).withOperations(OPERATORS).build().calculate(); 
+		int literal = calculate(value); 
+		link(line, tokens, line.aStart - 1, hasNextWord ? offset : -1);
 		
 		if (hasNextWord) {
 			buf[offset] = (char) literal;
@@ -831,10 +1967,107 @@ public class Assembly {
 		throw new ValueResolutionException(line, value);		
 	}
 
-	private void zeroBuffer(char[] buf) {
-		for (int i = 0; i < buf.length; i++) {
-			buf[i] = 0;
+	/**
+	 * Evaluates an operand. Its label values are bound to slots rather than
+	 * written into the expression, so operands of the same shape share one
+	 * compiled expression. The expression is kept on the operand's start token,
+	 * so it is only looked up the first time the operand is evaluated.
+	 */
+	private int calculate(Group value) throws UnknownFunctionException, UnparsableExpressionException {
+		LexerToken start = value.getStartToken();
+		CompiledExpression compiled = start instanceof OperandStartToken ? ((OperandStartToken) start).getExpression() : null;
+		if (compiled == null) {
+			ArrayList<Integer> labelValues = new ArrayList<Integer>();
+			String expression = value.getTemplate(labelValues);
+			compiled = expressions.get(expression);
+			if (compiled == null) {
+				compiled = CompiledExpression.compile(expression, OPERATORS, CompiledExpression.slotNames(labelValues.size()));
+				expressions.put(expression, compiled);
+			} else {
+				metrics.expressionsCached++;
+			}
+			if (start instanceof OperandStartToken) {
+				((OperandStartToken) start).setExpression(compiled);
+			}
+		} else {
+			metrics.expressionsCached++;
+		}
+		metrics.expressionsEvaluated++;
+		int labels = value.getLabelCount();
+		if (labels == 0) {
+			return compiled.calculate();
 		}
+		if (slotValues.length < labels) {
+			slotValues = new int[labels];
+		}
+		value.getLabelValues(slotValues, 0);
+		return compiled.calculate(slotValues);
+	}
+
+	private int calculate(String expression, List<Integer> labelValues) throws UnknownFunctionException, UnparsableExpressionException {
+		CompiledExpression compiled = expressions.get(expression);
+		metrics.expressionsEvaluated++;
+		if (compiled != null) {
+			metrics.expressionsCached++;
+		} else {
+			compiled = CompiledExpression.compile(expression, OPERATORS, CompiledExpression.slotNames(labelValues.size()));
+			expressions.put(expression, compiled);
+		}
+		if (labelValues.isEmpty()) {
+			return compiled.calculate();
+		}
+		if (slotValues.length < labelValues.size()) {
+			slotValues = new int[labelValues.size()];
+		}
+		for (int i = 0; i < labelValues.size(); i++) {
+			slotValues[i] = labelValues.get(i);
+		}
+		return compiled.calculate(slotValues);
+	}
+
+	/**
+	 * The offset in bytes an <code>.incbin</code> starts at in its file.
+	 */
+	private int incbinOffset(Incbin incbin) throws DirectiveExpressionEvaluationException {
+		if (incbin.getOffsetText() == null) {
+			return 0;
+		}
+		try {
+			return calculateDirective(incbin.getOffsetText());
+		} catch (Exception e) {
+			throw new DirectiveExpressionEvaluationException(incbin.getDirective());
+		}
+	}
+
+	/**
+	 * The number of bytes an <code>.incbin</code> includes.
+	 */
+	private int incbinLength(Incbin incbin, int offset) throws DirectiveExpressionEvaluationException {
+		if (incbin.getLengthText() == null) {
+			return incbin.getBinary().length() - offset;
+		}
+		try {
+			return calculateDirective(incbin.getLengthText());
+		} catch (Exception e) {
+			throw new DirectiveExpressionEvaluationException(incbin.getDirective());
+		}
+	}
+
+	/**
+	 * Evaluates a directive parameter expression, which may use hexadecimal
+	 * and binary literals. Each distinct text is only decimalized and compiled
+	 * once.
+	 */
+	private int calculateDirective(String text) throws UnknownFunctionException, UnparsableExpressionException {
+		CompiledExpression compiled = directiveExpressions.get(text);
+		metrics.expressionsEvaluated++;
+		if (compiled != null) {
+			metrics.expressionsCached++;
+		} else {
+			compiled = CompiledExpression.compile(decimalize(text), OPERATORS);
+			directiveExpressions.put(text, compiled);
+		}
+		return compiled.calculate();
 	}
 
 	private String decimalize(String text) {
@@ -855,7 +2088,7 @@ public class Assembly {
 	}
 
 	public int getFileCount() {
-		return 1 + treeCountChildren(rootDocument);
+		return fileCount;
 	}
 
 	private int treeCountChildren(AssemblyDocument doc) {
@@ -867,7 +2100,14 @@ public class Assembly {
 	}
 
 	public int getLineCount() {
-		return lines.size();
+		return lineCount;
+	}
+
+	/**
+	 * What the last assembly, incremental or not, did and how long it took.
+	 */
+	public AssemblyMetrics getMetrics() {
+		return metrics;
 	}
 
 	public int getPasses() {
@@ -875,8 +2115,93 @@ public class Assembly {
 	}
 
 	public int getSize() {
-		AssemblyLine lastLine = lines.get(lines.size()-1);
-		return lastLine.offset + lastLine.size;
+		return size;
+	}
+
+	/**
+	 * The addresses the program covers, as pairs of start (inclusive) and end
+	 * (exclusive) in order of address. Only these are written to a target;
+	 * the gaps <code>.org</code> leaves, and everything after the program, are
+	 * cleared or left as they were depending on {@link #setClearTarget}.
+	 */
+	public int[] getWrittenRanges() {
+		return ranges;
+	}
+
+	/**
+	 * Whether writing the program clears the rest of its target. If not, only
+	 * the addresses the program covers are written, and anything else on the
+	 * target is left as it was.
+	 */
+	public void setClearTarget(boolean clearTarget) {
+		this.clearTarget = clearTarget;
+	}
+
+	public boolean isClearTarget() {
+		return clearTarget;
+	}
+
+	/**
+	 * The assembled lines, once {@link #assemble} has laid them out. Null if
+	 * the program was loaded from the build cache.
+	 */
+	public LineStore getLineStore() {
+		return lineStore;
+	}
+
+	/**
+	 * Where each word of the program came from, for the debugger. Null if the
+	 * program was loaded from a build cache entry that doesn't have one.
+	 */
+	public SourceMap getSourceMap() {
+		if (sourceMap == null && lineStore != null) {
+			sourceMap = SourceMap.build(lineStore);
+		}
+		return sourceMap;
+	}
+
+	/**
+	 * What the program's instructions, blocks, interrupt handlers and
+	 * subroutines cost in cycles, worked out the first time it is asked for.
+	 * Null if there is no source map to tell instructions from data by.
+	 */
+	public CycleAnalysis getCycleAnalysis() {
+		if (cycleAnalysis == null && getSourceMap() != null && image != null) {
+			cycleAnalysis = new CycleAnalysis(image, getSourceMap(), getLabels());
+		}
+		return cycleAnalysis;
+	}
+
+	/**
+	 * The value of every label, by fully qualified name.
+	 */
+	public Map<String,Integer> getLabels() {
+		if (labels == null) {
+			labels = new LinkedHashMap<String, Integer>();
+			for (int id = 0; id < symbols.size(); id++) {
+				LabelDefinition labelDef = symbols.getDefinition(id);
+				if (labelDef != null) {
+					labels.put(symbols.getName(id), labelDef.getLine().offset);
+				}
+			}
+		}
+		return labels;
+	}
+
+	/**
+	 * Assembles through a build cache, loading programs whose sources haven't
+	 * changed from it instead of assembling them.
+	 */
+	public void setBuildCache(BuildCache buildCache) {
+		this.buildCache = buildCache;
+	}
+
+	/**
+	 * Whether the last {@link #assemble} loaded the program from the build
+	 * cache, in which case there are no lines and it can't be reassembled.
+	 */
+	public boolean isCached() {
+		return cached;
 	}
 	
 	public int getMissedShortLiteralEstimate() {
@@ -886,12 +2211,30 @@ public class Assembly {
 	public int getAssembledShortLiteralCount() {
 		return shortened;
 	}
+
+	/**
+	 * The number of operands that were made short literals by relaxing the
+	 * sizes of lines that depend on each other, rather than given a word of
+	 * their own. Each saves a word, and a cycle every time it runs.
+	 */
+	public int getRelaxedShortLiteralCount() {
+		return relaxed;
+	}
 	
+	/**
+	 * The peephole pass the program went through, with what it saved, or null
+	 * if it didn't.
+	 * @see #peephole
+	 */
+	public Peephole getPeephole() {
+		return optimizer;
+	}
+
 	public AssemblyDocument getRootDocument() {
 		return rootDocument;
 	}
 	
-	public IFile getFile() {
+	public SourceFile getFile() {
 		return rootDocument.getFile();
 	}
 
@@ -903,10 +2246,10 @@ public class Assembly {
 		Assembly.labelsCaseSensitive = labelsCaseSensitive;
 	}
 
-	private int timerEnd() {
-		return (int) ((System.nanoTime() - timer) / 1e6f);
+	public static void setPeephole(boolean peephole) {
+		Assembly.peephole = peephole;
 	}
-	
+
 	private int timerReset() {
 		long end = System.nanoTime();
 		int delta = (int) ((end - timer) / 1e6f);
@@ -916,5 +2259,30 @@ public class Assembly {
 
 	private void timerStart() {
 		this.timer = System.nanoTime();
+		metrics = new AssemblyMetrics();
+	}
+
+	/**
+	 * Ends a phase of the assembly, timing it since the last one ended.
+	 */
+	private void phase(String name) {
+		metrics.phaseTimes.put(name, timerReset());
+	}
+
+	private void finishMetrics() {
+		metrics.totalTime = 0;
+		for (int ms : metrics.phaseTimes.values()) {
+			metrics.totalTime += ms;
+		}
+		metrics.cached = cached;
+		metrics.passes = passes;
+		metrics.size = getSize();
+		metrics.lines = getLineCount();
+		metrics.files = getFileCount();
+		metrics.shortLiterals = getAssembledShortLiteralCount();
+		metrics.missedShortLiterals = getMissedShortLiteralEstimate();
+		metrics.relaxedShortLiterals = getRelaxedShortLiteralCount();
+		metrics.peepholeWords = optimizer != null ? optimizer.getWordsSaved() : 0;
+		metrics.patchedWords = patchedWords;
 	}
 }
\ No newline at end of file
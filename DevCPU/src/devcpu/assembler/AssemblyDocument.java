@@ -1,18 +1,13 @@
 package devcpu.assembler;
 
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStreamReader;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.LinkedHashMap;
-import java.util.regex.Pattern;
-
-import org.eclipse.core.resources.IFile;
-import org.eclipse.core.resources.ResourcesPlugin;
-import org.eclipse.core.runtime.CoreException;
-import org.eclipse.core.runtime.Path;
+import java.util.concurrent.RecursiveAction;
 
 import devcpu.assembler.exceptions.AbstractAssemblyException;
+import devcpu.assembler.exceptions.BinaryFileNotFoundException;
 import devcpu.assembler.exceptions.IncludeFileNotFoundException;
 import devcpu.assembler.exceptions.RecursiveInclusionException;
 import devcpu.lexer.Lexer;
@@ -21,32 +16,80 @@ import devcpu.lexer.tokens.DirectiveToken;
 import devcpu.lexer.tokens.LexerToken;
 
 public class AssemblyDocument {
-	private IFile file;
+	private SourceFile file;
 	private Assembly assembly;
 	private AssemblyDocument parent;
 	private ArrayList<AssemblyLine> lines = new ArrayList<AssemblyLine>();
 	private LinkedHashMap<Directive,AssemblyDocument> children = new LinkedHashMap<Directive, AssemblyDocument>();
+	private LinkedHashMap<Directive,Incbin> binaries = new LinkedHashMap<Directive, Incbin>();
+	private String source;
+	//The characters of the source, copied out when a line is first relexed
+	private char[] chars;
+	private int[] lineStarts;
+	private int[] lineEnds;
+	private int lineCount;
+	//The source the last reread replaced, so that it can be put back
+	private String previousSource;
+	private int[] previousStarts;
+	private int[] previousEnds;
+	private Exception loadFailure;
+	private String contentHash;
 
-	public AssemblyDocument(IFile file, Assembly assembly, AssemblyDocument parent) {
+	public AssemblyDocument(SourceFile file, Assembly assembly, AssemblyDocument parent) {
 		this.file = file;
 		//TODO This setup sucks. Documents should be dumb and shouldn't need a reference to the assembly. Rework this in a later release.
 		this.assembly = assembly;
 		this.parent = parent;
 	}
 
-	public void readLines() throws IOException, CoreException, AbstractAssemblyException {
+	/**
+	 * Reads, lexes and adds to the assembly the lines of this document and,
+	 * in place of each include, the lines of the included document. Documents
+	 * are read and lexed in parallel: the documents a document includes are
+	 * loaded together once the whole of it has been lexed, and large documents
+	 * are lexed in parallel runs of lines. The lines are then added, and
+	 * defines registered, in order on this thread.
+	 * Errors are thrown as they would be if the documents were read in order.
+	 */
+	public void readLines() throws IOException, AbstractAssemblyException {
+		Lexer.invoke(new LoadTask(this));
+		collectLines();
+	}
+
+	/**
+	 * Loads a document, then its includes in parallel.
+	 */
+	private static class LoadTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		private final AssemblyDocument document;
+
+		LoadTask(AssemblyDocument document) {
+			this.document = document;
+		}
+
+		@Override
+		protected void compute() {
+			document.load();
+			ArrayList<LoadTask> tasks = new ArrayList<LoadTask>();
+			for (AssemblyDocument child : document.children.values()) {
+				tasks.add(new LoadTask(child));
+			}
+			invokeAll(tasks);
+		}
+	}
+
+	/**
+	 * Reads and lexes the lines and finds the includes. Touches nothing outside
+	 * this document, so documents can be loaded concurrently. Stops at the
+	 * first failure, which is kept to be thrown by {@link #collectLines()}.
+	 */
+	private void load() {
 		//TODO prompt if unsync?
-		BufferedReader isr = new BufferedReader(new InputStreamReader(file.getContents(true)));
-		String lineText = null;
-		int n = 0;
-		while((lineText=isr.readLine()) != null) {
-			AssemblyLine line = null;
-			String text = lineText;
-			++n;
-			boolean tokenize = true;
-			while (tokenize) {
-				line = new AssemblyLine(this, n, text, Lexer.get().generateTokens(text, true));
-				tokenize = false;
+		try {
+			readSource();
+			LexerToken[][] lineTokens = Lexer.get().generateLineTokens(source, lineStarts, lineEnds, lineCount);
+			for (int i = 0; i < lineCount; i++) {
+				AssemblyLine line = new AssemblyLine(this, i + 1, lineStarts[i], lineEnds[i], lineTokens[i]);
 				Directive directive = null;
 				for (LexerToken token : line.getTokens()) {
 					if (token instanceof DirectiveToken) {
@@ -55,36 +98,209 @@ public class AssemblyDocument {
 						directive.setParameters((DirectiveParametersToken)token);
 						line.setDirective(directive);
 						if (directive.isInclude()) {
-							AssemblyDocument doc = loadInclude(new Include(directive));
-							children.put(directive,doc);
-							doc.readLines();
-						} else if (directive.isDefine()) {
-							for (String key : assembly.defines.keySet()) {
-								//TODO Even this won't catch the bizarre case where the directive name itself is specified by an earlier define
-								//TODO This has slowed down the assembly. Consider switching it back and detecting the case in preprocssAndSize, and doing an additional preprocess=true pass if it happens.
-								Pattern pattern = Pattern.compile("\\b"+Pattern.quote(key)+"\\b");
-								if (pattern.matcher(text).find()) {
-									tokenize = true;
-									text = text.replaceAll(pattern.pattern(), assembly.defines.get(key).getValue());
-								}
-							}
-							if (tokenize) {
-								line.setProcessedTokens(Lexer.get().generateTokens(text, true));
-							} else {
-								Define define = new Define(directive);
-								assembly.defines.put(define.getKey(), define);
-							}
+							children.put(directive, loadInclude(new Include(directive)));
+						} else if (directive.isIncbin()) {
+							binaries.put(directive, loadIncbin(new Incbin(directive)));
 						}
 					}
 				}
+				lines.add(line);
+			}
+		} catch (Exception e) {
+			loadFailure = e;
+		}
+	}
+
+	private void collectLines() throws IOException, AbstractAssemblyException {
+		for (AssemblyLine line : lines) {
+			Directive directive = line.getDirective();
+			if (directive != null) {
+				if (directive.isInclude()) {
+					children.get(directive).collectLines();
+				} else if (directive.isDefine()) {
+					//Values are expanded against the other defines when preprocessing
+					Define define = new Define(directive);
+					assembly.defines.put(define.getKey(), define);
+				} else if (directive.isExtern()) {
+					//Only defined when assembling a relocatable module
+					assembly.externs.add(new Define(directive));
+				} else if (directive.isGlobal()) {
+					assembly.exports.add(directive);
+				}
 			}
-			lines.add(line); 
 			assembly.lines.add(line);
+			assembly.getLineStore().add(line);
 		}
-		isr.close();
+		if (loadFailure instanceof IOException) {
+			throw (IOException) loadFailure;
+		} else if (loadFailure instanceof AbstractAssemblyException) {
+			throw (AbstractAssemblyException) loadFailure;
+		} else if (loadFailure != null) {
+			throw (RuntimeException) loadFailure;
+		}
+	}
+
+	/**
+	 * Reads the whole file into one buffer and finds where its lines start and
+	 * end. Lines are kept as ranges into the buffer and only copied out when
+	 * their text is needed.
+	 */
+	private void readSource() throws IOException {
+		source = readText();
+		chars = null;
+		splitLines();
+	}
+
+	private String readText() throws IOException {
+		byte[] bytes = BuildCache.read(file.getContents());
+		contentHash = BuildCache.hash(bytes);
+		return new String(bytes);
 	}
 
-	public IFile getFile() {
+	/**
+	 * Splits the source into lines the way BufferedReader.readLine does.
+	 */
+	private void splitLines() {
+		lineStarts = new int[64];
+		lineEnds = new int[64];
+		lineCount = 0;
+		int length = source.length();
+		int start = 0;
+		while (start < length) {
+			int end = start;
+			while (end < length && source.charAt(end) != '\n' && source.charAt(end) != '\r') {
+				end++;
+			}
+			if (lineCount == lineStarts.length) {
+				lineStarts = Arrays.copyOf(lineStarts, lineCount * 2);
+				lineEnds = Arrays.copyOf(lineEnds, lineCount * 2);
+			}
+			lineStarts[lineCount] = start;
+			lineEnds[lineCount++] = end;
+			if (end < length && source.charAt(end) == '\r' && end + 1 < length && source.charAt(end + 1) == '\n') {
+				end++;
+			}
+			start = end + 1;
+		}
+	}
+
+	/**
+	 * Reads the file again for an incremental reassembly and returns the
+	 * (1 based) numbers of the lines whose text changed, or null if lines were
+	 * added or removed. Unless null is returned, the document now holds the new
+	 * source and every line's text range points into it, but the changed lines
+	 * still hold their old tokens; the caller lexes and replaces them.
+	 */
+	int[] reread() throws IOException {
+		String oldSource = source;
+		int[] oldStarts = lineStarts;
+		int[] oldEnds = lineEnds;
+		int oldCount = lineCount;
+		source = readText();
+		chars = null;
+		splitLines();
+		if (lineCount != oldCount || lineCount != lines.size()) {
+			source = oldSource;
+			chars = null;
+			lineStarts = oldStarts;
+			lineEnds = oldEnds;
+			lineCount = oldCount;
+			return null;
+		}
+		int[] changed = new int[0];
+		int changes = 0;
+		for (int i = 0; i < lineCount; i++) {
+			int length = lineEnds[i] - lineStarts[i];
+			if (length != oldEnds[i] - oldStarts[i] || !source.regionMatches(lineStarts[i], oldSource, oldStarts[i], length)) {
+				if (changes == changed.length) {
+					changed = Arrays.copyOf(changed, changes * 2 + 4);
+				}
+				changed[changes++] = i + 1;
+			}
+			lines.get(i).moveText(lineStarts[i], lineEnds[i]);
+		}
+		previousSource = oldSource;
+		previousStarts = oldStarts;
+		previousEnds = oldEnds;
+		return Arrays.copyOf(changed, changes);
+	}
+
+	/**
+	 * Puts back the source the last {@link #reread()} replaced, when the edits
+	 * it found can't be patched in after all, so that they are found again
+	 * the next time.
+	 */
+	void undoReread() {
+		source = previousSource;
+		chars = null;
+		lineStarts = previousStarts;
+		lineEnds = previousEnds;
+		for (int i = 0; i < lineCount; i++) {
+			lines.get(i).moveText(lineStarts[i], lineEnds[i]);
+		}
+	}
+
+	/**
+	 * Lexes a (1 based) line of the current source on its own. The tokens are
+	 * placed in the whole source, as when the document is read.
+	 */
+	LexerToken[] lexLine(int lineNumber) {
+		if (chars == null) {
+			chars = source.toCharArray();
+		}
+		return Lexer.get().generateLineTokens(source, chars, lineStarts, lineEnds, lineNumber - 1, lineNumber)[0];
+	}
+
+	void replaceLine(AssemblyLine line) {
+		lines.set(line.getLineNumber() - 1, line);
+	}
+
+	/**
+	 * The whole text of the file, as it was when it was last read.
+	 */
+	public String getSource() {
+		return source;
+	}
+
+	public int getLineCount() {
+		return lineCount;
+	}
+
+	/**
+	 * A hash of the file's contents as last read, which keys it in a
+	 * {@link BuildCache}.
+	 */
+	public String getContentHash() {
+		return contentHash;
+	}
+
+	/**
+	 * The offset in {@link #getSource()} of the start of a (1 based) line.
+	 */
+	public int getLineStart(int lineNumber) {
+		return lineStarts[lineNumber - 1];
+	}
+
+	/**
+	 * The offset in {@link #getSource()} of the end of a (1 based) line, before
+	 * its line break.
+	 */
+	public int getLineEnd(int lineNumber) {
+		return lineEnds[lineNumber - 1];
+	}
+
+	/**
+	 * Drops the lines once the assembly has been laid out in a
+	 * {@link LineStore}; the source buffer is kept for the line views.
+	 */
+	void releaseLines() {
+		lines = new ArrayList<AssemblyLine>();
+		for (AssemblyDocument child : children.values()) {
+			child.releaseLines();
+		}
+	}
+
+	public SourceFile getFile() {
 		return file;
 	}
 
@@ -100,6 +316,13 @@ public class AssemblyDocument {
 		return children;
 	}
 
+	/**
+	 * The binary files this document includes, by their directives, in order.
+	 */
+	public LinkedHashMap<Directive, Incbin> getBinaries() {
+		return binaries;
+	}
+
 	public boolean isRoot() {
 		return parent == null;
 	}
@@ -108,8 +331,8 @@ public class AssemblyDocument {
 		return parent;
 	}
 
-	private AssemblyDocument loadInclude(Include include) throws AbstractAssemblyException, IOException, CoreException {
-		IFile includeFile = locate(include);
+	private AssemblyDocument loadInclude(Include include) throws AbstractAssemblyException, IOException {
+		SourceFile includeFile = file.locate(include.getPath());
 		if (includeFile == null) {
 			throw new IncludeFileNotFoundException(include);
 		}
@@ -119,7 +342,16 @@ public class AssemblyDocument {
 		return new AssemblyDocument(includeFile, assembly, this);
 	}
 
-	private boolean checkForAncestor(IFile includeFile) {
+	private Incbin loadIncbin(Incbin incbin) throws AbstractAssemblyException, IOException {
+		SourceFile binaryFile = file.locate(incbin.getPath());
+		if (binaryFile == null) {
+			throw new BinaryFileNotFoundException(incbin);
+		}
+		incbin.setBinary(IncludedBinary.get(binaryFile));
+		return incbin;
+	}
+
+	private boolean checkForAncestor(SourceFile includeFile) {
 		AssemblyDocument ancestor = this;
 		while (ancestor != null) {
 			if (ancestor.file.equals(includeFile)) {
@@ -129,26 +361,4 @@ public class AssemblyDocument {
 		}
 		return false;
 	}
-
-	private IFile locate(Include include) {
-		Path path = new Path(include.getPath());
-		//First, treat as path relative to current file ("../" is supported)
-    IFile located = file.getParent().getFile(path);
-    if (located.exists()) {
-    	return located;
-    }
-    //Second, treat as path relative to project root
-    located = file.getProject().getFile(path);
-    if (located.exists()) {
-    	return located;
-    }
-    //Third, treat as path relative to workspace root
-    located = ResourcesPlugin.getWorkspace().getRoot().getFile(path);
-    if (located.exists()) {
-    	return located;
-    }
-    //TODO: Check for local filesystem paths too?
-    //TODO: Maybe even Internet URLs?
-    return null;
-	}
-}
+}
\ No newline at end of file
@@ -15,6 +15,7 @@ import devcpu.lexer.tokens.LabelToken;
 import devcpu.lexer.tokens.LexerToken;
 import devcpu.lexer.tokens.OffsetStackAccessToken;
 import devcpu.lexer.tokens.OpCodeToken;
+import devcpu.lexer.tokens.OperandStartToken;
 import devcpu.lexer.tokens.OperatorToken;
 import devcpu.lexer.tokens.RegisterToken;
 import devcpu.lexer.tokens.SimpleStackAccessToken;
@@ -31,7 +32,9 @@ public class AssemblyLine {
 	public static final int VALUE_LITERAL = 7;
 	
 	//TODO Consider making these and other classes' fields public so they can be accessed directly in the interest of assembly speed
-	private String text;
+	private String text; //Copied out of the document's source on first use
+	private int textStart;
+	private int textEnd;
 	private LexerToken[] sourceTokens;
 	private LexerToken[] processedTokens;
 	private AssemblyDocument document;
@@ -39,6 +42,7 @@ public class AssemblyLine {
 	private Directive directive;
 	//Let's try out some public fields and see how we like them.
 	public int offset;
+	public int index; //Where the line is in the assembly's lines, kept by the LineStore
 	public int minOffset;
 	public int maxOffset;
 	public int nextOffset; //Used only in directives
@@ -76,6 +80,9 @@ public class AssemblyLine {
 	public int aStart;
 	public int bStart;
 	public int dataStart;
+	//Set by Sizing
+	public ArrayList<LabelUse> dependents; //Unvalued uses of labels defined on this line, until it is located
+	public int followingSize; //Size of the settled lines after this one, up to the next line still being sized
 	//Classification
 	public int aClass;
 	public int bClass;
@@ -91,11 +98,35 @@ public class AssemblyLine {
 		this.text = lineText;
 		this.processedTokens = this.sourceTokens = tokens;
 	}
+
+	/**
+	 * A line whose text is the range <code>[textStart, textEnd)</code> of its
+	 * document's source.
+	 */
+	public AssemblyLine(AssemblyDocument document, int lineNumber, int textStart, int textEnd, LexerToken[] tokens) {
+		this.document = document;
+		this.lineNumber = lineNumber;
+		this.textStart = textStart;
+		this.textEnd = textEnd;
+		this.processedTokens = this.sourceTokens = tokens;
+	}
 	
 	public String getText() {
+		if (text == null) {
+			text = document.getSource().substring(textStart, textEnd);
+		}
 		return text;
 	}
 
+	/**
+	 * Points the line at a new range of its document's source, which holds
+	 * the same text, after the document has been read again.
+	 */
+	void moveText(int textStart, int textEnd) {
+		this.textStart = textStart;
+		this.textEnd = textEnd;
+	}
+
 	public LexerToken[] getTokens() {
 		return sourceTokens;
 	}
@@ -106,11 +137,12 @@ public class AssemblyLine {
 
 	public void setProcessedTokens(LexerToken[] processedTokens) {
 		this.processedTokens = processedTokens;
-		if (directive != null) {
-			for (LexerToken token : processedTokens) {
-				if (token instanceof DirectiveParametersToken) {
-					directive.setParameters((DirectiveParametersToken)token);
-				}
+		for (LexerToken token : processedTokens) {
+			if (token instanceof DirectiveParametersToken && directive != null) {
+				directive.setParameters((DirectiveParametersToken)token);
+			} else if (token instanceof OperandStartToken) {
+				//The operand may have changed shape around its start token
+				((OperandStartToken) token).setExpression(null);
 			}
 		}
 	}
@@ -260,7 +292,7 @@ public class AssemblyLine {
 				} else if (!aIsAddress && !aHasSimpleStack && !aHasOffsetStack && !aHasRegister) {
 					aClass = VALUE_LITERAL;
 				} else {
-					System.out.println(1);
+					System.err.println(1);
 				}
 		
 				if (isSpecial) { 
@@ -0,0 +1,107 @@
+package devcpu.assembler;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * What one assembly of a program did and how long each part of it took. Every
+ * assembly, whether full, incremental, from the build cache or of a
+ * relocatable module, fills in a new one.
+ * @see Assembly#getMetrics()
+ */
+public class AssemblyMetrics {
+	/** When the assembly started, in milliseconds since the epoch. */
+	public final long timestamp = System.currentTimeMillis();
+	public boolean cached;
+	public boolean incremental;
+	/**
+	 * Milliseconds spent in each phase, in order: "cached" for loading from
+	 * the build cache, "load" for reading and lexing, "size", "peephole",
+	 * "emit", "write" for writing to the target and "cache" for storing in the
+	 * build cache; for relocatable modules
+	 * "relocate"; and for incremental reassembly "patch".
+	 */
+	public LinkedHashMap<String,Integer> phaseTimes = new LinkedHashMap<String, Integer>();
+	public int totalTime;
+	public int passes;
+	public int size;
+	public int lines;
+	public int files;
+	/** Lines read and lexed, including lines lexed again to be patched. */
+	public int linesLexed;
+	/** Lines kept from an earlier assembly or loaded from the build cache instead. */
+	public int linesReused;
+	public int expressionsEvaluated;
+	/** Evaluations of expressions that had already been compiled. */
+	public int expressionsCached;
+	/** Lines that had defines substituted into them. */
+	public int defineSubstitutions;
+	/** The most tokens held by the lines at once. */
+	public int peakTokens;
+	public int shortLiterals;
+	public int missedShortLiterals;
+	public int relaxedShortLiterals;
+	public int peepholeWords;
+	public int patchedWords;
+
+	@Override
+	public String toString() {
+		StringBuilder text = new StringBuilder();
+		text.append(totalTime).append(" milliseconds (");
+		boolean first = true;
+		for (Map.Entry<String,Integer> phase : phaseTimes.entrySet()) {
+			if (!first) {
+				text.append(", ");
+			}
+			first = false;
+			text.append(phase.getKey()).append(' ').append(phase.getValue());
+		}
+		text.append("). ");
+		if (incremental) {
+			text.append(linesLexed).append(" lines were lexed again and ").append(linesReused).append(" reused, patching ").append(patchedWords).append(" words.");
+			return text.toString();
+		}
+		text.append(lines).append(" lines in ").append(files).append(" files, assembled to ").append(size).append(" words");
+		if (cached) {
+			return text.append(", were loaded from the build cache.").toString();
+		}
+		text.append(" using ").append(passes).append(" sizing passes. ");
+		text.append(linesLexed).append(" lines lexed, ").append(defineSubstitutions).append(" with defines substituted, and at most ").append(peakTokens).append(" tokens held. ");
+		text.append(expressionsEvaluated).append(" expressions evaluated, ").append(expressionsCached).append(" of them already compiled. ");
+		text.append(shortLiterals).append(" values were optimized to short literals (").append(100 * shortLiterals / (float) Math.max(1, shortLiterals + missedShortLiterals)).append("% of possible), ").append(relaxedShortLiterals).append(" of them by relaxing sizes that depend on each other, and ").append(missedShortLiterals).append(" opportunities were missed.");
+		if (peepholeWords != 0) {
+			text.append(" Peephole optimization saved ").append(peepholeWords).append(" words.");
+		}
+		return text.toString();
+	}
+
+	/**
+	 * The metrics as a JSON object, for tools.
+	 */
+	public String toJSON() {
+		StringBuilder json = new StringBuilder("{");
+		json.append("\"timestamp\":").append(timestamp);
+		json.append(",\"cached\":").append(cached);
+		json.append(",\"incremental\":").append(incremental);
+		json.append(",\"size\":").append(size);
+		json.append(",\"lines\":").append(lines);
+		json.append(",\"files\":").append(files);
+		json.append(",\"passes\":").append(passes);
+		json.append(",\"linesLexed\":").append(linesLexed);
+		json.append(",\"linesReused\":").append(linesReused);
+		json.append(",\"expressionsEvaluated\":").append(expressionsEvaluated);
+		json.append(",\"expressionsCached\":").append(expressionsCached);
+		json.append(",\"defineSubstitutions\":").append(defineSubstitutions);
+		json.append(",\"peakTokens\":").append(peakTokens);
+		json.append(",\"shortLiterals\":").append(shortLiterals);
+		json.append(",\"missedShortLiterals\":").append(missedShortLiterals);
+		json.append(",\"relaxedShortLiterals\":").append(relaxedShortLiterals);
+		json.append(",\"peepholeWords\":").append(peepholeWords);
+		json.append(",\"patchedWords\":").append(patchedWords);
+		json.append(",\"ms\":{");
+		for (Map.Entry<String,Integer> phase : phaseTimes.entrySet()) {
+			json.append('"').append(phase.getKey()).append("\":").append(phase.getValue()).append(',');
+		}
+		return json.append("\"total\":").append(totalTime).append("}}").toString();
+	}
+}
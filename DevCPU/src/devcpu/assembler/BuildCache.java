@@ -0,0 +1,482 @@
+package devcpu.assembler;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * A content addressed cache of assembled programs on disk, so that sources
+ * that haven't changed since they were last assembled only have to be read
+ * and hashed, not assembled again.
+ *
+ * Each document's contents are hashed, and for every hash the cache keeps the
+ * paths the document includes, in order, and the paths of the binary files it
+ * includes with <code>.incbin</code>. That is all that's needed to follow the
+ * include tree again without lexing anything; binary files are hashed whole,
+ * and only once while they don't change. A program is keyed by the hashes of
+ * its whole include tree, {@link Assembly#labelsCaseSensitive} and
+ * {@link Assembly#peephole}; defines only ever come from the sources, so they
+ * are covered by the hashes.
+ * For each program the cache keeps the image, in the raw big-endian format of
+ * {@link devcpu.emulation.FloppyDisk#save(File)}, and a properties file with
+ * the label values, the ranges the program covers and assembly statistics,
+ * and its {@link SourceMap}.
+ * Programs assembled as relocatable modules are kept separately, as
+ * {@link ObjectModule}s under the same key.
+ * The cache is kept within a size limit by deleting the least recently
+ * stored or looked up entries after each store.
+ */
+public class BuildCache {
+	private static final String INCLUDES = ".includes";
+	private static final String BINARIES = ".incbins";
+	private static final String IMAGE = ".img";
+	private static final String INFO = ".properties";
+	private static final String OBJECT = ".o";
+	private static final String SOURCE_MAP = ".map";
+	static final String LABEL_PREFIX = "label.";
+	public static final long DEFAULT_LIMIT = 64L * 1024 * 1024;
+	private final File directory;
+	private final long limit;
+
+	public BuildCache(File directory) {
+		this(directory, DEFAULT_LIMIT);
+	}
+
+	/**
+	 * A cache that keeps at most about <code>limit</code> bytes in
+	 * <code>directory</code>.
+	 */
+	public BuildCache(File directory, long limit) {
+		this.directory = directory;
+		this.limit = limit;
+	}
+
+	public File getDirectory() {
+		return directory;
+	}
+
+	public long getLimit() {
+		return limit;
+	}
+
+	/**
+	 * Returns the key of the program rooted at <code>root</code> if it has been
+	 * assembled from its current sources before, or null.
+	 */
+	public String lookup(SourceFile root) {
+		String key = treeKey(root);
+		if (key == null || !new File(directory, key + IMAGE).exists() || !new File(directory, key + INFO).exists()) {
+			return null;
+		}
+		touch(key, IMAGE, INFO, SOURCE_MAP);
+		return key;
+	}
+
+	/**
+	 * Returns the module rooted at <code>root</code> if it has been assembled
+	 * as a relocatable module from its current sources before, or null.
+	 */
+	public ObjectModule loadObject(SourceFile root) {
+		String key = treeKey(root);
+		if (key == null || !new File(directory, key + OBJECT).exists()) {
+			return null;
+		}
+		touch(key, OBJECT);
+		try {
+			InputStream in = new FileInputStream(new File(directory, key + OBJECT));
+			try {
+				return ObjectModule.read(new BufferedInputStream(in));
+			} finally {
+				in.close();
+			}
+		} catch (IOException e) {
+			//A damaged entry is assembled over
+			e.printStackTrace();
+			return null;
+		}
+	}
+
+	/**
+	 * Hashes the include tree of the sources as they are now, or returns null
+	 * if any document in it hasn't been cached.
+	 */
+	private String treeKey(SourceFile root) {
+		StringBuilder tree = new StringBuilder();
+		try {
+			if (!appendTree(root, tree, new ArrayList<SourceFile>())) {
+				return null;
+			}
+		} catch (IOException e) {
+			//Unreadable sources are reported by the assembly itself
+			return null;
+		}
+		return programKey(tree);
+	}
+
+	private boolean appendTree(SourceFile file, StringBuilder tree, List<SourceFile> ancestors) throws IOException {
+		if (ancestors.contains(file) || !file.exists()) {
+			return false;
+		}
+		String hash = hash(read(file.getContents()));
+		List<String> includes = readPaths(hash + INCLUDES);
+		if (includes == null) {
+			return false;
+		}
+		touch(hash, INCLUDES, BINARIES);
+		tree.append(hash).append('(');
+		ancestors.add(file);
+		for (String path : includes) {
+			SourceFile child = file.locate(path);
+			if (child == null || !appendTree(child, tree, ancestors)) {
+				return false;
+			}
+		}
+		ancestors.remove(ancestors.size() - 1);
+		List<String> binaries = readPaths(hash + BINARIES);
+		if (binaries != null) {
+			for (String path : binaries) {
+				SourceFile binary = file.locate(path);
+				if (binary == null) {
+					return false;
+				}
+				tree.append('[').append(IncludedBinary.get(binary).getHash()).append(']');
+			}
+		}
+		tree.append(')');
+		return true;
+	}
+
+	private void appendTree(AssemblyDocument document, StringBuilder tree) {
+		tree.append(document.getContentHash()).append('(');
+		for (AssemblyDocument child : document.getChildren().values()) {
+			appendTree(child, tree);
+		}
+		for (Incbin incbin : document.getBinaries().values()) {
+			tree.append('[').append(incbin.getBinary().getHash()).append(']');
+		}
+		tree.append(')');
+	}
+
+	private String programKey(StringBuilder tree) {
+		tree.append(Assembly.labelsCaseSensitive ? "case" : "nocase");
+		if (Assembly.peephole) {
+			tree.append("peephole");
+		}
+		try {
+			return hash(tree.toString().getBytes("UTF-8"));
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Stores an assembled program, and the includes of each of its documents.
+	 * Failures are only logged; a program that can't be cached still assembled.
+	 */
+	public void store(Assembly assembly, char[] image) {
+		try {
+			directory.mkdirs();
+			storeIncludes(assembly.getRootDocument());
+			StringBuilder tree = new StringBuilder();
+			appendTree(assembly.getRootDocument(), tree);
+			String key = programKey(tree);
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream(image.length * 2);
+			DataOutputStream data = new DataOutputStream(bytes);
+			for (char word : image) {
+				data.writeChar(word);
+			}
+			data.close();
+			write(key + IMAGE, bytes.toByteArray());
+			Properties info = new Properties();
+			info.setProperty("size", Integer.toString(assembly.getSize()));
+			info.setProperty("lines", Integer.toString(assembly.getLineCount()));
+			info.setProperty("files", Integer.toString(assembly.getFileCount()));
+			info.setProperty("passes", Integer.toString(assembly.getPasses()));
+			info.setProperty("missed", Integer.toString(assembly.getMissedShortLiteralEstimate()));
+			info.setProperty("shortened", Integer.toString(assembly.getAssembledShortLiteralCount()));
+			info.setProperty("relaxed", Integer.toString(assembly.getRelaxedShortLiteralCount()));
+			info.setProperty("ranges", assembly.formatRanges());
+			for (Map.Entry<String, Integer> label : assembly.getLabels().entrySet()) {
+				info.setProperty(LABEL_PREFIX + label.getKey(), Integer.toString(label.getValue()));
+			}
+			if (assembly.getSourceMap() != null) {
+				bytes = new ByteArrayOutputStream();
+				assembly.getSourceMap().write(bytes);
+				write(key + SOURCE_MAP, bytes.toByteArray());
+			}
+			bytes = new ByteArrayOutputStream();
+			info.store(bytes, assembly.getFile().getName());
+			write(key + INFO, bytes.toByteArray());
+			evict(key, assembly.getRootDocument());
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Stores a relocatable module, and the includes of each of its documents.
+	 */
+	public void storeObject(Assembly assembly, ObjectModule module) {
+		try {
+			directory.mkdirs();
+			storeIncludes(assembly.getRootDocument());
+			StringBuilder tree = new StringBuilder();
+			appendTree(assembly.getRootDocument(), tree);
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			module.write(bytes);
+			String key = programKey(tree);
+			write(key + OBJECT, bytes.toByteArray());
+			evict(key, assembly.getRootDocument());
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	private void storeIncludes(AssemblyDocument document) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		Writer writer = new OutputStreamWriter(bytes, "UTF-8");
+		for (Directive directive : document.getChildren().keySet()) {
+			writer.write(new Include(directive).getPath());
+			writer.write('\n');
+		}
+		writer.close();
+		write(document.getContentHash() + INCLUDES, bytes.toByteArray());
+		if (!document.getBinaries().isEmpty()) {
+			bytes = new ByteArrayOutputStream();
+			writer = new OutputStreamWriter(bytes, "UTF-8");
+			for (Incbin incbin : document.getBinaries().values()) {
+				writer.write(incbin.getPath());
+				writer.write('\n');
+			}
+			writer.close();
+			write(document.getContentHash() + BINARIES, bytes.toByteArray());
+		}
+		for (AssemblyDocument child : document.getChildren().values()) {
+			storeIncludes(child);
+		}
+	}
+
+	/**
+	 * Reads the paths kept for a document, or returns null if there aren't
+	 * any.
+	 */
+	private List<String> readPaths(String name) throws IOException {
+		File file = new File(directory, name);
+		if (!file.exists()) {
+			return null;
+		}
+		ArrayList<String> includes = new ArrayList<String>();
+		BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+		try {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				includes.add(line);
+			}
+		} finally {
+			reader.close();
+		}
+		return includes;
+	}
+
+	/**
+	 * Reads the cached image of a program. The image is read rather than
+	 * mapped, so nothing keeps the file open once it's been read, and an
+	 * evicted entry can always be deleted.
+	 */
+	public char[] readImage(String key) throws IOException {
+		RandomAccessFile file = new RandomAccessFile(new File(directory, key + IMAGE), "r");
+		try {
+			byte[] bytes = new byte[(int) (file.length() & ~1L)];
+			file.readFully(bytes);
+			char[] image = new char[bytes.length / 2];
+			ByteBuffer.wrap(bytes).asCharBuffer().get(image);
+			return image;
+		} finally {
+			file.close();
+		}
+	}
+
+	/**
+	 * The label values and statistics of a cached program.
+	 */
+	public Properties loadInfo(String key) throws IOException {
+		Properties info = new Properties();
+		InputStream in = new FileInputStream(new File(directory, key + INFO));
+		try {
+			info.load(in);
+		} finally {
+			in.close();
+		}
+		return info;
+	}
+
+	/**
+	 * The source map of a cached program, or null if it was cached without
+	 * one.
+	 */
+	public SourceMap loadSourceMap(String key) {
+		File file = new File(directory, key + SOURCE_MAP);
+		if (!file.exists()) {
+			return null;
+		}
+		try {
+			InputStream in = new FileInputStream(file);
+			try {
+				return SourceMap.read(new BufferedInputStream(in));
+			} finally {
+				in.close();
+			}
+		} catch (IOException e) {
+			//Only the debugger is worse off without it
+			e.printStackTrace();
+			return null;
+		}
+	}
+
+	/**
+	 * Marks the files kept under a key as just used.
+	 */
+	private void touch(String key, String... suffixes) {
+		long now = System.currentTimeMillis();
+		for (String suffix : suffixes) {
+			File file = new File(directory, key + suffix);
+			if (file.exists()) {
+				file.setLastModified(now);
+			}
+		}
+	}
+
+	//The files kept under one key, how many bytes they take, and when they were last used
+	private static class Entry {
+		final ArrayList<File> files = new ArrayList<File>();
+		long size;
+		long used;
+	}
+
+	/**
+	 * Deletes the least recently used entries, a program or a document's
+	 * includes, until the cache is within its limit. The program just stored
+	 * and the includes of its documents are kept even if they don't fit on
+	 * their own.
+	 */
+	private void evict(String key, AssemblyDocument root) {
+		File[] files = directory.listFiles();
+		if (files == null) {
+			return;
+		}
+		HashMap<String,Entry> entries = new HashMap<String, Entry>();
+		long total = 0;
+		for (File file : files) {
+			String name = file.getName();
+			String entryKey = name.indexOf('.') < 0 ? name : name.substring(0, name.indexOf('.'));
+			Entry entry = entries.get(entryKey);
+			if (entry == null) {
+				entry = new Entry();
+				entries.put(entryKey, entry);
+			}
+			entry.files.add(file);
+			entry.size += file.length();
+			entry.used = Math.max(entry.used, file.lastModified());
+			total += file.length();
+		}
+		if (total <= limit) {
+			return;
+		}
+		entries.remove(key);
+		removeDocuments(root, entries);
+		ArrayList<Entry> oldest = new ArrayList<Entry>(entries.values());
+		Collections.sort(oldest, new Comparator<Entry>() {
+			@Override
+			public int compare(Entry a, Entry b) {
+				return a.used < b.used ? -1 : a.used > b.used ? 1 : 0;
+			}
+		});
+		for (Entry entry : oldest) {
+			if (total <= limit) {
+				break;
+			}
+			for (File file : entry.files) {
+				file.delete();
+			}
+			total -= entry.size;
+		}
+	}
+
+	private static void removeDocuments(AssemblyDocument document, Map<String,Entry> entries) {
+		entries.remove(document.getContentHash());
+		for (AssemblyDocument child : document.getChildren().values()) {
+			removeDocuments(child, entries);
+		}
+	}
+
+	/**
+	 * Writes through a temporary file, so a crash never leaves a partial entry
+	 * under its real name.
+	 */
+	private void write(String name, byte[] bytes) throws IOException {
+		File file = new File(directory, name);
+		File temporary = new File(directory, name + ".tmp");
+		OutputStream out = new FileOutputStream(temporary);
+		try {
+			out.write(bytes);
+		} finally {
+			out.close();
+		}
+		if (!temporary.renameTo(file)) {
+			file.delete();
+			if (!temporary.renameTo(file)) {
+				throw new IOException("Couldn't write " + file);
+			}
+		}
+	}
+
+	static byte[] read(InputStream in) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		byte[] buf = new byte[8192];
+		int read;
+		try {
+			while ((read = in.read(buf)) > 0) {
+				bytes.write(buf, 0, read);
+			}
+		} finally {
+			in.close();
+		}
+		return bytes.toByteArray();
+	}
+
+	static String hash(byte[] bytes) {
+		MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance("SHA-1");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+		byte[] hash = digest.digest(bytes);
+		StringBuilder sb = new StringBuilder(hash.length * 2);
+		for (byte b : hash) {
+			sb.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+		}
+		return sb.toString();
+	}
+}
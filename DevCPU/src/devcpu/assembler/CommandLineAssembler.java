@@ -0,0 +1,298 @@
+package devcpu.assembler;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.RecursiveAction;
+
+import devcpu.lexer.Lexer;
+
+/**
+ * Assembles programs from the file system without a workbench, for builds
+ * and scripts. Every file named on the command line is the root of its own
+ * program, and they are all assembled at once, on as many threads as there
+ * are cores. Each program is written next to its source, or to the output
+ * directory, as a raw big-endian binary (<code>.bin</code>), a symbol map
+ * of its labels (<code>.sym</code>) and a {@link SourceMap}
+ * (<code>.map</code>) for debugging it, and a line of JSON with its
+ * {@link AssemblyMetrics} is printed for it, in the order the files were
+ * given.
+ *
+ * With <code>-link</code>, the files are instead assembled as relocatable
+ * modules and linked by a {@link Linker} into one binary, in the order they
+ * were given, with a symbol map of the labels they export.
+ *
+ * <pre>
+ * CommandLineAssembler [-o dir] [-I dir]... [-cache dir] [-case] [-peephole] [-link file] file...
+ * </pre>
+ */
+public class CommandLineAssembler {
+	private static final String USAGE = "Usage: CommandLineAssembler [-o dir] [-I dir]... [-cache dir] [-case] [-peephole] [-link file] file...\n"
+			+ "  -o dir      write the binaries, symbol maps and source maps to dir instead of next to the sources\n"
+			+ "  -I dir      look for includes in dir too\n"
+			+ "  -cache dir  keep a build cache in dir\n"
+			+ "  -case       make labels case sensitive\n"
+			+ "  -peephole   run the peephole optimizer\n"
+			+ "  -link file  assemble the files as modules and link them, in order, into the binary file";
+
+	private File outputDirectory;
+	private ArrayList<File> includeDirectories = new ArrayList<File>();
+	private BuildCache buildCache;
+	private File linkOutput;
+	private ArrayList<File> files = new ArrayList<File>();
+
+	public static void main(String[] args) {
+		CommandLineAssembler assembler = new CommandLineAssembler();
+		try {
+			for (int i = 0; i < args.length; i++) {
+				String arg = args[i];
+				if (arg.equals("-o")) {
+					assembler.outputDirectory = new File(args[++i]);
+				} else if (arg.equals("-I")) {
+					assembler.includeDirectories.add(new File(args[++i]));
+				} else if (arg.equals("-cache")) {
+					assembler.buildCache = new BuildCache(new File(args[++i]));
+				} else if (arg.equals("-case")) {
+					Assembly.setLabelsCaseSensitive(true);
+				} else if (arg.equals("-peephole")) {
+					Assembly.setPeephole(true);
+				} else if (arg.equals("-link")) {
+					assembler.linkOutput = new File(args[++i]);
+				} else if (arg.startsWith("-")) {
+					throw new IllegalArgumentException(arg);
+				} else {
+					assembler.files.add(new File(arg));
+				}
+			}
+		} catch (RuntimeException e) {
+			System.err.println(USAGE);
+			System.exit(2);
+		}
+		if (assembler.files.isEmpty()) {
+			System.err.println(USAGE);
+			System.exit(2);
+		}
+		if (assembler.linkOutput != null) {
+			Result result = assembler.link(assembler.files, assembler.linkOutput);
+			System.out.println(result.toJSON());
+			System.out.flush();
+			System.exit(result.error != null ? 1 : 0);
+		}
+		int failed = 0;
+		for (Result result : assembler.assembleAll()) {
+			System.out.println(result.toJSON());
+			if (result.error != null) {
+				failed++;
+			}
+		}
+		System.out.flush();
+		System.exit(failed > 0 ? 1 : 0);
+	}
+
+	/**
+	 * Assembles every file in parallel, and returns their results in order.
+	 */
+	public List<Result> assembleAll() {
+		ArrayList<AssembleTask> tasks = new ArrayList<AssembleTask>();
+		for (File file : files) {
+			tasks.add(new AssembleTask(file));
+		}
+		Lexer.invoke(new BatchTask(tasks));
+		ArrayList<Result> results = new ArrayList<Result>();
+		for (AssembleTask task : tasks) {
+			results.add(task.result);
+		}
+		return results;
+	}
+
+	private static class BatchTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		private final List<AssembleTask> tasks;
+
+		BatchTask(List<AssembleTask> tasks) {
+			this.tasks = tasks;
+		}
+
+		@Override
+		protected void compute() {
+			invokeAll(tasks);
+		}
+	}
+
+	private class AssembleTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		private final File file;
+		private Result result;
+
+		AssembleTask(File file) {
+			this.file = file;
+		}
+
+		@Override
+		protected void compute() {
+			result = assemble(file);
+		}
+	}
+
+	/**
+	 * Assembles one program and writes its binary and symbol map. Failures are
+	 * kept in the result rather than thrown.
+	 */
+	public Result assemble(File file) {
+		Result result = new Result(file);
+		Assembly assembly = null;
+		try {
+			assembly = new Assembly(new LocalFile(file, includeDirectories));
+			assembly.setBuildCache(buildCache);
+			char[] image = assembly.assemble();
+			long write = System.nanoTime();
+			String name = file.getName();
+			if (name.lastIndexOf('.') > 0) {
+				name = name.substring(0, name.lastIndexOf('.'));
+			}
+			File directory = outputDirectory != null ? outputDirectory : file.getAbsoluteFile().getParentFile();
+			directory.mkdirs();
+			writeImage(new File(directory, name + ".bin"), image);
+			writeSymbols(new File(directory, name + ".sym"), assembly.getLabels());
+			if (assembly.getSourceMap() != null) {
+				writeSourceMap(new File(directory, name + ".map"), assembly.getSourceMap());
+			}
+			int ms = (int) ((System.nanoTime() - write) / 1e6f);
+			assembly.getMetrics().phaseTimes.put("write", ms);
+			assembly.getMetrics().totalTime += ms;
+		} catch (Exception e) {
+			result.error = e.getMessage() != null ? e.getMessage() : e.toString();
+		}
+		if (assembly != null) {
+			result.metrics = assembly.getMetrics();
+		}
+		return result;
+	}
+
+	/**
+	 * Assembles files as relocatable modules, in parallel, and links them in
+	 * order into one binary, with a symbol map of the labels they export next
+	 * to it. A failure is kept in the result rather than thrown.
+	 */
+	public Result link(List<File> files, File output) {
+		Result result = new Result(output);
+		try {
+			ArrayList<SourceFile> sources = new ArrayList<SourceFile>();
+			for (File file : files) {
+				sources.add(new LocalFile(file, includeDirectories));
+			}
+			Linker linker = new Linker();
+			for (ObjectModule module : Linker.assembleAll(sources, buildCache)) {
+				linker.add(module);
+			}
+			char[] image = linker.link();
+			String name = output.getName();
+			if (name.lastIndexOf('.') > 0) {
+				name = name.substring(0, name.lastIndexOf('.'));
+			}
+			File directory = output.getAbsoluteFile().getParentFile();
+			directory.mkdirs();
+			writeImage(output, image);
+			writeSymbols(new File(directory, name + ".sym"), linker.getSymbols());
+		} catch (Exception e) {
+			result.error = e.getMessage() != null ? e.getMessage() : e.toString();
+		}
+		return result;
+	}
+
+	private static void writeImage(File file, char[] image) throws IOException {
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+		try {
+			for (char word : image) {
+				out.writeChar(word);
+			}
+		} finally {
+			out.close();
+		}
+	}
+
+	private static void writeSourceMap(File file, SourceMap map) throws IOException {
+		OutputStream out = new BufferedOutputStream(new FileOutputStream(file));
+		try {
+			map.write(out);
+		} finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * Writes a line for each label, as its address in hex and its name, in
+	 * order of address.
+	 */
+	private static void writeSymbols(File file, Map<String,Integer> labels) throws IOException {
+		ArrayList<Map.Entry<String,Integer>> sorted = new ArrayList<Map.Entry<String,Integer>>(labels.entrySet());
+		Collections.sort(sorted, new Comparator<Map.Entry<String,Integer>>() {
+			@Override
+			public int compare(Map.Entry<String,Integer> a, Map.Entry<String,Integer> b) {
+				return a.getValue().compareTo(b.getValue());
+			}
+		});
+		Writer out = new OutputStreamWriter(new BufferedOutputStream(new FileOutputStream(file)), "UTF-8");
+		try {
+			for (Map.Entry<String,Integer> label : sorted) {
+				out.write(String.format("%04X %s\n", label.getValue(), label.getKey()));
+			}
+		} finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * What assembling one file came to.
+	 */
+	public static class Result {
+		public final File file;
+		public String error;
+		/** As far as the assembly got, or null if it couldn't be started. */
+		public AssemblyMetrics metrics;
+
+		Result(File file) {
+			this.file = file;
+		}
+
+		public String toJSON() {
+			StringBuilder json = new StringBuilder("{\"file\":");
+			quote(json, file.getPath());
+			if (error != null) {
+				json.append(",\"error\":");
+				quote(json, error);
+			}
+			if (metrics != null) {
+				json.append(',').append(metrics.toJSON().substring(1));
+			} else {
+				json.append('}');
+			}
+			return json.toString();
+		}
+
+		private static void quote(StringBuilder json, String text) {
+			json.append('"');
+			for (int i = 0; i < text.length(); i++) {
+				char c = text.charAt(i);
+				if (c == '"' || c == '\\') {
+					json.append('\\').append(c);
+				} else if (c < 0x20) {
+					json.append(String.format("\\u%04x", (int) c));
+				} else {
+					json.append(c);
+				}
+			}
+			json.append('"');
+		}
+	}
+}
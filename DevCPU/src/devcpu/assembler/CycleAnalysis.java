@@ -0,0 +1,382 @@
+package devcpu.assembler;
+
+import static devcpu.emulation.DCPU.BRANCHES;
+import static devcpu.emulation.DCPU.CALLS;
+import static devcpu.emulation.DCPU.COMPUTED;
+import static devcpu.emulation.DCPU.FALLS;
+import static devcpu.emulation.DCPU.JUMPS;
+import static devcpu.emulation.DCPU.RETURNS;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeSet;
+
+import devcpu.emulation.DCPU;
+
+/**
+ * The cycles a program takes, worked out from its image without running it,
+ * by the rules the emulator counts them by; see {@link DCPU#getCycles(char)}.
+ * Every instruction is costed, and so is every basic block: a run of
+ * instructions only entered at its first, which starts at a label, a jump
+ * target or after an IF or a jump, and ends before the next one starts.
+ *
+ * Interrupt handlers (what <code>IAS</code> is given) and subroutines (what
+ * <code>JSR</code> calls) are given worst-case bounds: the most cycles any
+ * path through them can take until they return, taking the worse side of
+ * every IF and adding the bounds of the subroutines they call. Only code
+ * without loops has one; code that loops, jumps to a computed address or
+ * runs into data is left unbounded, with the reason kept instead. Bounds of
+ * other addresses are worked out when they are asked for.
+ */
+public class CycleAnalysis {
+	public static final int UNBOUNDED = -1;
+	//How each instruction goes on, as DCPU.getFlow(char) tells, but telling calls to computed addresses apart
+	private static final byte CALLS_COMPUTED = 6;
+	private static final byte NEW = 0;
+	private static final byte OPEN = 1;
+	private static final byte DONE = 2;
+	private final char[] image;
+	private final SourceMap map;
+	//By entry of the map, for the entries that are instructions
+	private final int[] costs;
+	private final byte[] kinds;
+	private final int[] targets;
+	private final int[] skips;
+	private final int[] skipCosts;
+	private final int[] blockCosts;
+	private final int[] handlers;
+	private final int[] subroutines;
+	//Worst-case bounds by entry, as they are worked out, and why those that have none don't
+	private final int[] bounds;
+	private final byte[] states;
+	private final String[] reasons;
+
+	public CycleAnalysis(char[] image, SourceMap map, Map<String,Integer> labels) {
+		this.image = image;
+		this.map = map;
+		int size = map.size();
+		costs = new int[size];
+		kinds = new byte[size];
+		targets = new int[size];
+		skips = new int[size];
+		skipCosts = new int[size];
+		blockCosts = new int[size];
+		bounds = new int[size];
+		states = new byte[size];
+		reasons = new String[size];
+		Arrays.fill(targets, -1);
+		Arrays.fill(skips, -1);
+		Arrays.fill(blockCosts, -1);
+		TreeSet<Integer> handlers = new TreeSet<Integer>();
+		TreeSet<Integer> subroutines = new TreeSet<Integer>();
+		boolean[] leaders = new boolean[size];
+		for (int address : labels.values()) {
+			int entry = instructionAt(address);
+			if (entry >= 0) {
+				leaders[entry] = true;
+			}
+		}
+		for (int entry = 0; entry < size; entry++) {
+			if (isInstruction(entry)) {
+				decode(entry, handlers, subroutines, leaders);
+			}
+		}
+		for (int entry = 0; entry < size; entry++) {
+			if (kinds[entry] == BRANCHES) {
+				skipChain(entry, leaders);
+			}
+		}
+		int block = -1;
+		for (int entry = 0; entry < size; entry++) {
+			if (!isInstruction(entry)) {
+				block = -1;
+				continue;
+			}
+			if (block < 0 || leaders[entry] || map.getStart(entry) != map.getEnd(entry - 1)) {
+				block = entry;
+				blockCosts[block] = 0;
+			}
+			blockCosts[block] += costs[entry];
+			if (kinds[entry] != FALLS && kinds[entry] != CALLS && kinds[entry] != CALLS_COMPUTED) {
+				block = -1;
+			}
+		}
+		this.handlers = toArray(handlers);
+		this.subroutines = toArray(subroutines);
+		for (int address : this.handlers) {
+			getBound(address);
+		}
+		for (int address : this.subroutines) {
+			getBound(address);
+		}
+	}
+
+	private boolean isInstruction(int entry) {
+		return map.isInstruction(entry) && map.getStart(entry) < image.length;
+	}
+
+	/**
+	 * The entry of the instruction that starts at an address, or -1.
+	 */
+	private int instructionAt(int address) {
+		int entry = map.find(address);
+		return entry >= 0 && map.getStart(entry) == address && isInstruction(entry) ? entry : -1;
+	}
+
+	//The entry of the instruction right after one, or -1 if data or nothing follows it
+	private int following(int entry) {
+		return entry + 1 < map.size() && map.getStart(entry + 1) == map.getEnd(entry) && isInstruction(entry + 1) ? entry + 1 : -1;
+	}
+
+	private void decode(int entry, TreeSet<Integer> handlers, TreeSet<Integer> subroutines, boolean[] leaders) {
+		int address = map.getStart(entry);
+		char opcode = image[address];
+		costs[entry] = DCPU.getCycles(opcode);
+		byte flow = DCPU.getFlow(opcode);
+		int target = DCPU.getTarget(image, address);
+		switch (flow) {
+		case FALLS:
+			if (DCPU.isIas(opcode) && target >= 0) {
+				handlers.add(target);
+				mark(leaders, instructionAt(target));
+			}
+			return;
+		case CALLS:
+			if (target < 0) {
+				kinds[entry] = CALLS_COMPUTED;
+			} else {
+				kinds[entry] = CALLS;
+				targets[entry] = instructionAt(target);
+				subroutines.add(target);
+				mark(leaders, targets[entry]);
+			}
+			return;
+		case BRANCHES:
+			kinds[entry] = BRANCHES;
+			mark(leaders, following(entry));
+			return;
+		case JUMPS:
+			if (target < 0) {
+				//Its next word is past the end of the image
+				kinds[entry] = COMPUTED;
+			} else {
+				kinds[entry] = JUMPS;
+				targets[entry] = instructionAt(target);
+				mark(leaders, targets[entry]);
+			}
+			break;
+		default:
+			kinds[entry] = flow;
+			break;
+		}
+		mark(leaders, following(entry));
+	}
+
+	private static void mark(boolean[] leaders, int entry) {
+		if (entry >= 0) {
+			leaders[entry] = true;
+		}
+	}
+
+	//Where an IF that fails goes, past the instructions it skips, and what skipping them costs
+	private void skipChain(int entry, boolean[] leaders) {
+		int skipped = following(entry);
+		int cost = 0;
+		while (skipped >= 0) {
+			cost += DCPU.SKIP_CYCLES;
+			boolean chained = kinds[skipped] == BRANCHES;
+			skipped = following(skipped);
+			if (!chained) {
+				skips[entry] = skipped;
+				skipCosts[entry] = cost;
+				mark(leaders, skipped);
+				return;
+			}
+		}
+	}
+
+	private static int[] toArray(TreeSet<Integer> addresses) {
+		int[] array = new int[addresses.size()];
+		int i = 0;
+		for (int address : addresses) {
+			array[i++] = address;
+		}
+		return array;
+	}
+
+	public SourceMap getSourceMap() {
+		return map;
+	}
+
+	/**
+	 * The cycles the instruction at an address takes, or -1 if no instruction
+	 * starts there.
+	 */
+	public int getCost(int address) {
+		int entry = instructionAt(address);
+		return entry < 0 ? -1 : costs[entry];
+	}
+
+	/**
+	 * The cycles the basic block starting at an address takes when it runs
+	 * through, or -1 if no block starts there.
+	 */
+	public int getBlockCost(int address) {
+		int entry = instructionAt(address);
+		return entry < 0 ? -1 : blockCosts[entry];
+	}
+
+	/**
+	 * The addresses interrupt handlers start at, in order.
+	 */
+	public int[] getHandlers() {
+		return handlers;
+	}
+
+	/**
+	 * The addresses subroutines start at, in order.
+	 */
+	public int[] getSubroutines() {
+		return subroutines;
+	}
+
+	/**
+	 * The most cycles running from an address can take until it returns, or
+	 * {@link #UNBOUNDED}; see {@link #getUnboundedReason(int)}.
+	 */
+	public synchronized int getBound(int address) {
+		int entry = instructionAt(address);
+		if (entry < 0) {
+			return UNBOUNDED;
+		}
+		if (states[entry] != DONE) {
+			bound(entry);
+		}
+		return reasons[entry] == null ? bounds[entry] : UNBOUNDED;
+	}
+
+	/**
+	 * Why running from an address has no bound, or null if it has one.
+	 */
+	public synchronized String getUnboundedReason(int address) {
+		int entry = instructionAt(address);
+		if (entry < 0) {
+			return String.format("no instruction starts at %04X", address);
+		}
+		if (states[entry] != DONE) {
+			bound(entry);
+		}
+		return reasons[entry];
+	}
+
+	/**
+	 * Works out the bounds of an entry and everything it runs into, depth
+	 * first, on a stack of its own rather than the thread's, which programs
+	 * with thousands of instructions in a row would run out of.
+	 */
+	private void bound(int root) {
+		int[] stack = new int[16];
+		int[] done = new int[16];
+		int depth = 0;
+		stack[0] = root;
+		states[root] = OPEN;
+		while (depth >= 0) {
+			int entry = stack[depth];
+			int[] next = successors(entry);
+			if (reasons[entry] == null && done[depth] < next.length) {
+				int successor = next[done[depth]++];
+				if (states[successor] == OPEN) {
+					reasons[entry] = String.format("it loops at %04X", map.getStart(successor));
+				} else if (states[successor] == NEW) {
+					if (++depth == stack.length) {
+						stack = Arrays.copyOf(stack, depth * 2);
+						done = Arrays.copyOf(done, depth * 2);
+					}
+					stack[depth] = successor;
+					done[depth] = 0;
+					states[successor] = OPEN;
+				}
+				continue;
+			}
+			finish(entry, next);
+			states[entry] = DONE;
+			depth--;
+		}
+	}
+
+	//The entries an entry's bound depends on, or none if it has a reason not to have one
+	private int[] successors(int entry) {
+		if (reasons[entry] != null) {
+			return new int[0];
+		}
+		int address = map.getStart(entry);
+		switch (kinds[entry]) {
+		case RETURNS:
+			return new int[0];
+		case COMPUTED:
+			reasons[entry] = String.format("it jumps to a computed address at %04X", address);
+			return new int[0];
+		case CALLS_COMPUTED:
+			reasons[entry] = String.format("it calls a computed address at %04X", address);
+			return new int[0];
+		case JUMPS:
+			return depend(entry, targets[entry], "it jumps into data at %04X");
+		case CALLS:
+			if (targets[entry] < 0) {
+				return depend(entry, -1, "it calls into data at %04X");
+			}
+			return depend(entry, targets[entry], following(entry), "it runs into data after %04X");
+		case BRANCHES:
+			return depend(entry, following(entry), skips[entry], "it runs into data after %04X");
+		default:
+			return depend(entry, following(entry), "it runs into data after %04X");
+		}
+	}
+
+	private int[] depend(int entry, int successor, String reason) {
+		if (successor < 0) {
+			reasons[entry] = String.format(reason, map.getStart(entry));
+			return new int[0];
+		}
+		return new int[] {successor};
+	}
+
+	private int[] depend(int entry, int first, int second, String reason) {
+		if (first < 0 || second < 0) {
+			reasons[entry] = String.format(reason, map.getStart(entry));
+			return new int[0];
+		}
+		return new int[] {first, second};
+	}
+
+	private void finish(int entry, int[] next) {
+		for (int successor : next) {
+			if (reasons[entry] == null && reasons[successor] != null) {
+				reasons[entry] = reasons[successor];
+			}
+		}
+		if (reasons[entry] != null) {
+			return;
+		}
+		int cost = costs[entry];
+		switch (kinds[entry]) {
+		case RETURNS:
+			bounds[entry] = cost;
+			break;
+		case CALLS:
+			bounds[entry] = add(add(cost, bounds[next[0]]), bounds[next[1]]);
+			break;
+		case BRANCHES:
+			bounds[entry] = Math.max(add(cost, bounds[next[0]]), add(cost + skipCosts[entry], bounds[next[1]]));
+			break;
+		default:
+			bounds[entry] = add(cost, bounds[next[0]]);
+			break;
+		}
+	}
+
+	//Subroutines called over and over can add up past what an int holds
+	private static int add(int a, int b) {
+		return (int) Math.min((long) a + b, Integer.MAX_VALUE);
+	}
+}
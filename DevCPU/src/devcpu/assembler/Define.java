@@ -1,5 +1,7 @@
 package devcpu.assembler;
 
+import java.util.ArrayList;
+import java.util.Map;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -7,13 +9,33 @@ import devcpu.assembler.exceptions.AbstractDirectiveException;
 import devcpu.assembler.exceptions.InvalidDefineFormatException;
 import devcpu.assembler.exceptions.RecursiveDefinitionException;
 import devcpu.lexer.Lexer;
+import devcpu.lexer.tokens.AValueEndToken;
+import devcpu.lexer.tokens.AValueStartToken;
+import devcpu.lexer.tokens.DirectiveParametersToken;
+import devcpu.lexer.tokens.ErrorToken;
+import devcpu.lexer.tokens.LabelToken;
+import devcpu.lexer.tokens.LexerToken;
+import devcpu.lexer.tokens.RegisterToken;
 
+/**
+ * A <code>#define</code>/<code>.equ</code>. Defines are substituted on the
+ * tokens a line was lexed into: identifier tokens are looked up by name and
+ * replaced by the tokens of the define's value, which is lexed once as an
+ * operand. Lines are only lexed again when the value isn't a valid operand, or
+ * the line didn't lex at all without its defines substituted.
+ */
 public class Define {
 	private static final Pattern pattern = Pattern.compile("\\s*(" + Lexer.REGEX_IDENTIFIER + ")\\s*([^;\\r\\n]*)");
-	private static final Pattern extractPattern = Pattern.compile("\\s*[#\\.]" + Lexer.REGEX_IDENTIFIER + "\\s*" + Lexer.REGEX_IDENTIFIER + "\\s*([^;\\r\\n]*)");
+	private static final String OPERAND_PREFIX = "SET A, ";
+	private static final int UNEXPANDED = 0;
+	private static final int EXPANDING = 1;
+	private static final int EXPANDED = 2;
 	private Directive directive;
 	private String key;
 	private String value;
+	private String expandedValue;
+	private LexerToken[] valueTokens;
+	private int expansion = UNEXPANDED;
 
 	public Define(Directive directive) throws AbstractDirectiveException {
 		this.directive = directive;
@@ -21,7 +43,7 @@ public class Define {
 		if (m.find() && m.start() == 0) {
 			this.key = m.group(1);
 			this.value = m.group(2);
-			if (Pattern.matches("\\b"+Pattern.quote(key)+"\\b", value)) {
+			if (value.equals(key)) {
 				throw new RecursiveDefinitionException(directive);
 			}
 		} else {
@@ -41,15 +63,159 @@ public class Define {
 		return value;
 	}
 
-	public static String extractValue(String text) {
-		Matcher m = extractPattern.matcher(text);
-		if (m.find() && m.start() == 0) {
-			return m.group(1);
+	public void setValue(String value) {
+		this.value = value;
+		expansion = UNEXPANDED;
+		expandedValue = null;
+		valueTokens = null;
+	}
+
+	/**
+	 * The value with every define it refers to substituted, recursively. The
+	 * value is lexed at the same time. A define that ends up referring to
+	 * itself is left as its bare key at the point of recursion.
+	 */
+	public String expand(Map<String, Define> defines) {
+		if (expansion == EXPANDED) {
+			return expandedValue;
+		}
+		if (expansion == EXPANDING) {
+			return key;
+		}
+		expansion = EXPANDING;
+		expandedValue = substitute(value, defines, key);
+		valueTokens = null;
+		LexerToken[] tokens = Lexer.get().generateTokens(OPERAND_PREFIX + expandedValue, true);
+		int start = -1;
+		for (int i = 0; i < tokens.length; i++) {
+			if (tokens[i] instanceof AValueStartToken) {
+				start = i + 1;
+			} else if (tokens[i] instanceof AValueEndToken && start >= 0) {
+				valueTokens = new LexerToken[i - start];
+				System.arraycopy(tokens, start, valueTokens, 0, valueTokens.length);
+			}
 		}
-		return null;
+		expansion = EXPANDED;
+		return expandedValue;
 	}
 
-	public void setValue(String value) {
-		this.value = value;
+	/**
+	 * The tokens {@link #expand(Map)} lexed the value into, which every
+	 * substitution of the define shares but for labels, or null if the value
+	 * hasn't been expanded or isn't a valid operand.
+	 */
+	LexerToken[] getValueTokens() {
+		return valueTokens;
+	}
+
+	/**
+	 * Replaces every whole identifier in <code>text</code> that names a define,
+	 * other than <code>skip</code>, with that define's expanded value.
+	 */
+	public static String substitute(String text, Map<String, Define> defines, String skip) {
+		StringBuilder sb = null;
+		int copied = 0;
+		int length = text.length();
+		int i = 0;
+		while (i < length) {
+			if (!isWordChar(text.charAt(i))) {
+				i++;
+				continue;
+			}
+			int end = i + 1;
+			while (end < length && isWordChar(text.charAt(end))) {
+				end++;
+			}
+			if (!Character.isDigit(text.charAt(i))) {
+				String word = text.substring(i, end);
+				Define define = word.equals(skip) ? null : defines.get(word);
+				if (define != null) {
+					if (sb == null) {
+						sb = new StringBuilder(length + 16);
+					}
+					sb.append(text, copied, i).append(define.expand(defines));
+					copied = end;
+				}
+			}
+			i = end;
+		}
+		if (sb == null) {
+			return text;
+		}
+		return sb.append(text, copied, length).toString();
+	}
+
+	private static boolean isWordChar(char c) {
+		return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '_';
+	}
+
+	/**
+	 * Substitutes defines into the tokens the line was lexed into. Returns the
+	 * new tokens, or null if the line refers to no defines.
+	 */
+	public static LexerToken[] substitute(AssemblyLine line, Map<String, Define> defines) {
+		LexerToken[] tokens = line.getProcessedTokens();
+		ArrayList<LexerToken> result = null;
+		for (int i = 0; i < tokens.length; i++) {
+			LexerToken token = tokens[i];
+			LexerToken[] replacement = null;
+			if (token instanceof LabelToken || token instanceof RegisterToken) {
+				Define define = defines.get(token.getText());
+				if (define != null) {
+					define.expand(defines);
+					if (define.valueTokens == null) {
+						return relex(line, defines);
+					}
+					replacement = copy(define.valueTokens);
+				}
+			} else if (token instanceof DirectiveParametersToken) {
+				String text = substitute(token.getText(), defines, null);
+				if (text != token.getText()) {
+					replacement = new LexerToken[] {new DirectiveParametersToken(text, token.getStart(), token.getStart() + text.length())};
+				}
+			} else if (token instanceof ErrorToken) {
+				return relex(line, defines);
+			}
+			if (replacement != null) {
+				if (result == null) {
+					result = new ArrayList<LexerToken>(tokens.length + replacement.length);
+					for (int j = 0; j < i; j++) {
+						result.add(tokens[j]);
+					}
+				}
+				for (LexerToken t : replacement) {
+					result.add(t);
+				}
+			} else if (result != null) {
+				result.add(token);
+			}
+		}
+		return result == null ? null : result.toArray(new LexerToken[result.size()]);
+	}
+
+	/**
+	 * Falls back to substituting defines into the line text and lexing it
+	 * again, for lines whose structure depends on a define.
+	 */
+	private static LexerToken[] relex(AssemblyLine line, Map<String, Define> defines) {
+		String text = substitute(line.getText(), defines, null);
+		if (text == line.getText()) {
+			return null;
+		}
+		return Lexer.get().generateTokens(text, true);
+	}
+
+	/**
+	 * Label tokens carry per-use resolution state, so every substitution needs
+	 * its own; the other value tokens are immutable and can be shared.
+	 */
+	private static LexerToken[] copy(LexerToken[] tokens) {
+		LexerToken[] copy = tokens.clone();
+		for (int i = 0; i < copy.length; i++) {
+			if (copy[i] instanceof LabelToken) {
+				copy[i] = new LabelToken(copy[i].getText(), copy[i].getStart(), copy[i].getEnd());
+			}
+		}
+		return copy;
 	}
 }
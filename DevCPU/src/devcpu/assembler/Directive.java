@@ -40,6 +40,10 @@ public class Directive {
 		return "INCLUDE".equals(directiveName) || "IMPORT".equals(directiveName);
 	}
 
+	public boolean isIncbin() {
+		return "INCBIN".equals(directiveName);
+	}
+
 	public boolean isDefine() {
 		return "DEFINE".equals(directiveName) || "EQU".equals(directiveName);
 	}
@@ -59,4 +63,12 @@ public class Directive {
 	public boolean isFill() {
 		return "FILL".equals(directiveName) || "PAD".equals(directiveName);
 	}
+
+	public boolean isExtern() {
+		return "EXTERN".equals(directiveName);
+	}
+
+	public boolean isGlobal() {
+		return "GLOBAL".equals(directiveName) || "EXPORT".equals(directiveName);
+	}
 }
@@ -0,0 +1,79 @@
+package devcpu.assembler;
+
+import devcpu.emulation.DCPU;
+
+/**
+ * Edits worked out by {@link Assembly#hotPatch(DCPU)} to
+ * be written into a running DCPU, as the words that changed and their
+ * addresses, or the reason they can't be.
+ */
+public class HotPatch {
+	private final Assembly assembly;
+	private final int[] addresses;
+	private final char[] words;
+	private String refusal;
+
+	HotPatch(Assembly assembly, int[] addresses, char[] words) {
+		this.assembly = assembly;
+		this.addresses = addresses;
+		this.words = words;
+	}
+
+	HotPatch(Assembly assembly, String refusal) {
+		this(assembly, new int[0], new char[0]);
+		this.refusal = refusal;
+	}
+
+	/**
+	 * Writes the words into the DCPU at its next safe point; see
+	 * {@link DCPU#patch(int[], char[])}. Returns false, and
+	 * is refused, if it found none; the words are then patched in along with
+	 * the next edits instead. It is also refused if something else has been
+	 * written to the DCPU since the edits were worked out.
+	 */
+	public boolean apply(DCPU dcpu) throws InterruptedException {
+		if (refusal != null) {
+			return false;
+		}
+		if (!assembly.isWrittenTo(dcpu)) {
+			refusal = "something else was written to it since the edits were worked out";
+			return false;
+		}
+		if (!dcpu.patch(addresses, words)) {
+			refusal = "PC didn't leave the words being patched for a second";
+			return false;
+		}
+		assembly.unpatched.clear();
+		return true;
+	}
+
+	/**
+	 * The assembly to keep for the next patch: the one that was patched, or
+	 * the one it had to be assembled again as.
+	 */
+	public Assembly getAssembly() {
+		return assembly;
+	}
+
+	/**
+	 * The addresses of the words to write, in ascending order.
+	 */
+	public int[] getAddresses() {
+		return addresses;
+	}
+
+	public char[] getWords() {
+		return words;
+	}
+
+	public boolean isRefused() {
+		return refusal != null;
+	}
+
+	/**
+	 * Why the edits can't be patched in, or null if they can.
+	 */
+	public String getRefusal() {
+		return refusal;
+	}
+}
@@ -0,0 +1,84 @@
+package devcpu.assembler;
+
+/**
+ * An <code>.incbin "file" [, offset[, length]] [, LE|BE]</code> directive,
+ * which puts the bytes of a file into the program as they are, two to a word.
+ * The offset and length are in bytes, and default to the whole file; an odd
+ * length leaves the last word half empty. Words are big-endian, as in the
+ * images disks and binaries are saved as, unless <code>LE</code> is given.
+ */
+public class Incbin {
+	private Directive directive;
+	private String path;
+	private String offsetText;
+	private String lengthText;
+	private boolean littleEndian;
+	private IncludedBinary binary;
+
+	public Incbin(Directive directive) {
+		this.directive = directive;
+		String text = directive.getParametersToken().getText().trim();
+		String rest;
+		if (text.startsWith("\"") && text.indexOf('"', 1) > 0) {
+			path = text.substring(1, text.indexOf('"', 1));
+			rest = text.substring(text.indexOf('"', 1) + 1);
+		} else {
+			int comma = text.indexOf(',');
+			path = (comma < 0 ? text : text.substring(0, comma)).replaceAll("[\"\'\\<\\>]", "").trim();
+			rest = comma < 0 ? "" : text.substring(comma);
+		}
+		String[] parameters = rest.trim().replaceFirst("^,", "").split(",");
+		int count = parameters.length;
+		if (count > 0 && parameters[count - 1].trim().equalsIgnoreCase("LE")) {
+			littleEndian = true;
+			count--;
+		} else if (count > 0 && parameters[count - 1].trim().equalsIgnoreCase("BE")) {
+			count--;
+		}
+		if (count > 0 && !parameters[0].trim().isEmpty()) {
+			offsetText = parameters[0].trim();
+		}
+		if (count > 1) {
+			lengthText = parameters[1].trim();
+		}
+		if (count > 2) {
+			//Reported when the line is sized
+			lengthText = rest;
+		}
+	}
+
+	public Directive getDirective() {
+		return directive;
+	}
+
+	public String getPath() {
+		return path;
+	}
+
+	/**
+	 * The expression for the offset into the file, or null to start at its
+	 * beginning.
+	 */
+	public String getOffsetText() {
+		return offsetText;
+	}
+
+	/**
+	 * The expression for the number of bytes, or null for the rest of the file.
+	 */
+	public String getLengthText() {
+		return lengthText;
+	}
+
+	public boolean isLittleEndian() {
+		return littleEndian;
+	}
+
+	public IncludedBinary getBinary() {
+		return binary;
+	}
+
+	void setBinary(IncludedBinary binary) {
+		this.binary = binary;
+	}
+}
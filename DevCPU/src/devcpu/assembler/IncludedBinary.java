@@ -0,0 +1,125 @@
+package devcpu.assembler;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.CharBuffer;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/**
+ * The bytes of a file included with {@link Incbin}, read onto the heap and
+ * copied from there into the program as words. They are kept across
+ * assemblies, by file, and only read again once the file's size or
+ * modification time changes, so fonts and bitmaps that are included over and
+ * over are only read once. The file itself is closed as soon as it has been
+ * read, rather than mapped, so it can still be changed or deleted while it is
+ * kept. Files that aren't on the local file system are read every time.
+ */
+public class IncludedBinary {
+	//The most bytes kept for files no assembly is using; the file included last is always kept
+	private static final long CACHED_BYTES = 16 * 1024 * 1024;
+	private static final LinkedHashMap<File,IncludedBinary> cache = new LinkedHashMap<File, IncludedBinary>(16, 0.75f, true);
+	private static long cachedBytes;
+	private final ByteBuffer bytes;
+	private final File location;
+	private final long modified;
+	private String hash;
+
+	private IncludedBinary(ByteBuffer bytes, File location, long modified) {
+		this.bytes = bytes;
+		this.location = location;
+		this.modified = modified;
+	}
+
+	/**
+	 * The bytes of a file as they are now, read again only if it has changed
+	 * since it was last included.
+	 */
+	public static IncludedBinary get(SourceFile file) throws IOException {
+		File location = file.getLocation();
+		if (location == null) {
+			return new IncludedBinary(ByteBuffer.wrap(BuildCache.read(file.getContents())), null, 0);
+		}
+		location = location.getAbsoluteFile();
+		long modified = location.lastModified();
+		synchronized (cache) {
+			IncludedBinary binary = cache.get(location);
+			if (binary != null && binary.isCurrent()) {
+				return binary;
+			}
+		}
+		RandomAccessFile in = new RandomAccessFile(location, "r");
+		IncludedBinary binary;
+		try {
+			byte[] contents = new byte[(int) in.length()];
+			in.readFully(contents);
+			binary = new IncludedBinary(ByteBuffer.wrap(contents), location, modified);
+		} finally {
+			in.close();
+		}
+		synchronized (cache) {
+			IncludedBinary replaced = cache.put(location, binary);
+			if (replaced != null) {
+				cachedBytes -= replaced.length();
+			}
+			cachedBytes += binary.length();
+			Iterator<IncludedBinary> eldest = cache.values().iterator();
+			while (cachedBytes > CACHED_BYTES && cache.size() > 1) {
+				cachedBytes -= eldest.next().length();
+				eldest.remove();
+			}
+		}
+		return binary;
+	}
+
+	/**
+	 * Whether the file is still as it was read. Files that aren't on the
+	 * local file system can't be told apart, so they never are.
+	 */
+	public boolean isCurrent() {
+		return location != null && location.lastModified() == modified && location.length() == bytes.capacity();
+	}
+
+	/**
+	 * The length of the file, in bytes.
+	 */
+	public int length() {
+		return bytes.capacity();
+	}
+
+	/**
+	 * Copies <code>length</code> bytes from <code>offset</code> into
+	 * <code>dest</code> as words, two bytes to a word in the given order. An
+	 * odd last byte goes in the half of its word it would have been read into.
+	 */
+	public void copyWords(int offset, int length, boolean littleEndian, char[] dest, int destOffset) {
+		ByteBuffer view = bytes.duplicate();
+		view.position(offset);
+		view.limit(offset + length);
+		view = view.slice().order(littleEndian ? ByteOrder.LITTLE_ENDIAN : ByteOrder.BIG_ENDIAN);
+		CharBuffer words = view.asCharBuffer();
+		int count = Math.min(words.remaining(), dest.length - destOffset);
+		words.get(dest, destOffset, count);
+		if (length % 2 != 0 && destOffset + count < dest.length) {
+			int last = view.get(length - 1) & 0xFF;
+			dest[destOffset + count] = (char) (littleEndian ? last : last << 8);
+		}
+	}
+
+	/**
+	 * A hash of the whole file, which keys it in a {@link BuildCache}.
+	 */
+	public synchronized String getHash() {
+		if (hash == null) {
+			byte[] all = new byte[bytes.capacity()];
+			ByteBuffer view = bytes.duplicate();
+			view.clear();
+			view.get(all);
+			hash = BuildCache.hash(all);
+		}
+		return hash;
+	}
+}
@@ -0,0 +1,151 @@
+package devcpu.assembler;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+
+/**
+ * The layout of an assembled program, one entry per line in assembly order,
+ * kept in parallel arrays instead of as {@link AssemblyLine}s and their
+ * tokens. Line text is read from the document's source by line number. Once
+ * a program is assembled this is all an {@link Assembly} keeps of its lines;
+ * an {@link AssemblyLine} can still be had for a single line with
+ * {@link #getLine(int)}, for error reporting and the editor.
+ *
+ * Entries are added as the lexed lines are collected into assembly order,
+ * and given their offsets and sizes by {@link #layout(List)} once the lines
+ * are located.
+ */
+public class LineStore {
+	public static final byte FLAG_INSTRUCTION = 1;
+	public static final byte FLAG_DATA = 2;
+	public static final byte FLAG_DIRECTIVE = 4;
+	//The line moves the offset of the lines after it, like .org
+	public static final byte FLAG_ORIGIN = 8;
+
+	private final ArrayList<AssemblyDocument> documents = new ArrayList<AssemblyDocument>();
+	private final IdentityHashMap<AssemblyDocument,Integer> documentIndexes = new IdentityHashMap<AssemblyDocument, Integer>();
+	private char[] lineDocuments = new char[256];
+	private int[] lineNumbers = new int[256];
+	private int[] offsets = new int[256];
+	private int[] sizes = new int[256];
+	private byte[] flags = new byte[256];
+	private int count;
+
+	/**
+	 * Appends the entry of the next line in assembly order.
+	 */
+	void add(AssemblyLine line) {
+		if (count == lineNumbers.length) {
+			int capacity = count * 2;
+			lineDocuments = Arrays.copyOf(lineDocuments, capacity);
+			lineNumbers = Arrays.copyOf(lineNumbers, capacity);
+			offsets = Arrays.copyOf(offsets, capacity);
+			sizes = Arrays.copyOf(sizes, capacity);
+			flags = Arrays.copyOf(flags, capacity);
+		}
+		Integer index = documentIndexes.get(line.getDocument());
+		if (index == null) {
+			index = documents.size();
+			documentIndexes.put(line.getDocument(), index);
+			documents.add(line.getDocument());
+		}
+		lineDocuments[count] = (char) (int) index;
+		line.index = count;
+		lineNumbers[count++] = line.getLineNumber();
+	}
+
+	/**
+	 * Fills in the offsets and sizes of lines that have been sized and
+	 * located, which are the lines added, in the same order.
+	 */
+	void layout(List<AssemblyLine> lines) {
+		if (lines.size() != count) {
+			throw new IllegalStateException(lines.size() + " lines laid out, but " + count + " were added");
+		}
+		for (int i = 0; i < count; i++) {
+			set(i, lines.get(i));
+		}
+	}
+
+	/**
+	 * Updates the entry of a line that was replaced by an edit of the same
+	 * document line.
+	 */
+	void set(int i, AssemblyLine line) {
+		line.index = i;
+		offsets[i] = line.offset;
+		sizes[i] = line.size;
+		byte flag = 0;
+		if (line.isDirective()) {
+			flag |= FLAG_DIRECTIVE;
+		} else if (line.isDat) {
+			flag |= FLAG_DATA;
+		} else if (line.opCodeToken != null) {
+			flag |= FLAG_INSTRUCTION;
+		}
+		if (line.nextOffset > 0) {
+			flag |= FLAG_ORIGIN;
+		}
+		flags[i] = flag;
+	}
+
+	public int size() {
+		return count;
+	}
+
+	public AssemblyDocument getDocument(int i) {
+		return documents.get(lineDocuments[i]);
+	}
+
+	public int getLineNumber(int i) {
+		return lineNumbers[i];
+	}
+
+	public int getOffset(int i) {
+		return offsets[i];
+	}
+
+	public int getSize(int i) {
+		return sizes[i];
+	}
+
+	public byte getFlags(int i) {
+		return flags[i];
+	}
+
+	public boolean hasFlag(int i, byte flag) {
+		return (flags[i] & flag) != 0;
+	}
+
+	public String getText(int i) {
+		AssemblyDocument document = getDocument(i);
+		return document.getSource().substring(document.getLineStart(lineNumbers[i]), document.getLineEnd(lineNumbers[i]));
+	}
+
+	/**
+	 * The number of words from the start of the program to the end of the last
+	 * line.
+	 */
+	public int getProgramSize() {
+		return count == 0 ? 0 : offsets[count - 1] + sizes[count - 1];
+	}
+
+	/**
+	 * Builds an {@link AssemblyLine} for a single line by lexing it again. Its
+	 * offset and size are filled in, but defines aren't substituted and it
+	 * isn't preprocessed. Its tokens are placed in the document's source, like
+	 * those of the lines the program was assembled from.
+	 */
+	public AssemblyLine getLine(int i) {
+		AssemblyDocument document = getDocument(i);
+		int n = lineNumbers[i];
+		AssemblyLine line = new AssemblyLine(document, n, document.getLineStart(n), document.getLineEnd(n), document.lexLine(n));
+		line.offset = offsets[i];
+		line.size = sizes[i];
+		line.located = true;
+		line.sized = true;
+		return line;
+	}
+}
@@ -0,0 +1,180 @@
+package devcpu.assembler;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.RecursiveAction;
+
+import devcpu.assembler.exceptions.AbstractAssemblyException;
+import devcpu.assembler.exceptions.LinkException;
+import devcpu.emulation.DCPU;
+import devcpu.emulation.FloppyDisk;
+import devcpu.lexer.Lexer;
+import exp4j_int_custom.UnknownFunctionException;
+import exp4j_int_custom.UnparsableExpressionException;
+
+/**
+ * Combines {@link ObjectModule}s into a single image. Modules are placed one
+ * after another from address 0, in the order they were added, so the first
+ * module is the one that starts running.
+ */
+public class Linker {
+	private ArrayList<ObjectModule> modules = new ArrayList<ObjectModule>();
+	private int[] bases;
+	private LinkedHashMap<String,Integer> symbols;
+
+	public void add(ObjectModule module) {
+		modules.add(module);
+	}
+
+	public List<ObjectModule> getModules() {
+		return modules;
+	}
+
+	/**
+	 * Assembles each file as a relocatable module, in parallel, through the
+	 * build cache if one is given. The modules are returned in the order of
+	 * the files; if any fail, the error of the first one that did is thrown.
+	 */
+	public static List<ObjectModule> assembleAll(List<SourceFile> files, BuildCache buildCache) throws AbstractAssemblyException, UnknownFunctionException, UnparsableExpressionException, IOException {
+		ArrayList<ModuleTask> tasks = new ArrayList<ModuleTask>();
+		for (SourceFile file : files) {
+			tasks.add(new ModuleTask(file, buildCache));
+		}
+		Lexer.invoke(new ModulesTask(tasks));
+		ArrayList<ObjectModule> modules = new ArrayList<ObjectModule>();
+		for (ModuleTask task : tasks) {
+			if (task.failure instanceof AbstractAssemblyException) {
+				throw (AbstractAssemblyException) task.failure;
+			} else if (task.failure instanceof UnknownFunctionException) {
+				throw (UnknownFunctionException) task.failure;
+			} else if (task.failure instanceof UnparsableExpressionException) {
+				throw (UnparsableExpressionException) task.failure;
+			} else if (task.failure instanceof IOException) {
+				throw (IOException) task.failure;
+				} else if (task.failure != null) {
+				throw (RuntimeException) task.failure;
+			}
+			modules.add(task.module);
+		}
+		return modules;
+	}
+
+	private static class ModulesTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		private final List<ModuleTask> tasks;
+
+		ModulesTask(List<ModuleTask> tasks) {
+			this.tasks = tasks;
+		}
+
+		@Override
+		protected void compute() {
+			invokeAll(tasks);
+		}
+	}
+
+	private static class ModuleTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		private final SourceFile file;
+		private final BuildCache buildCache;
+		private ObjectModule module;
+		private Exception failure;
+
+		ModuleTask(SourceFile file, BuildCache buildCache) {
+			this.file = file;
+			this.buildCache = buildCache;
+		}
+
+		@Override
+		protected void compute() {
+			try {
+				Assembly assembly = new Assembly(file);
+				assembly.setBuildCache(buildCache);
+				module = assembly.assembleObject();
+			} catch (Exception e) {
+				failure = e;
+			}
+		}
+	}
+
+	/**
+	 * Places the modules and resolves their imports, and returns the image.
+	 */
+	public char[] link() throws LinkException {
+		bases = new int[modules.size()];
+		symbols = new LinkedHashMap<String, Integer>();
+		int size = 0;
+		for (int i = 0; i < modules.size(); i++) {
+			ObjectModule module = modules.get(i);
+			bases[i] = size;
+			size += module.getSize();
+			if (size > 0x10000) {
+				throw new LinkException(module, "The modules don't fit in 0x10000 words.");
+			}
+			for (Map.Entry<String,Integer> export : module.getExports().entrySet()) {
+				if (symbols.put(export.getKey(), bases[i] + export.getValue()) != null) {
+					throw new LinkException(module, "\"" + export.getKey() + "\" is exported by more than one module.");
+				}
+			}
+		}
+		char[] image = new char[size];
+		for (int i = 0; i < modules.size(); i++) {
+			ObjectModule module = modules.get(i);
+			int base = bases[i];
+			char[] code = module.getCode();
+			System.arraycopy(code, 0, image, base, code.length);
+			for (int offset : module.getRelocations()) {
+				image[base + offset] += base;
+			}
+			String[] imports = module.getImports();
+			int[] values = new int[imports.length];
+			for (int j = 0; j < imports.length; j++) {
+				Integer value = symbols.get(imports[j]);
+				if (value == null) {
+					throw new LinkException(module, "\"" + imports[j] + "\" isn't exported by any module.");
+				}
+				values[j] = value;
+			}
+			int[] importWords = module.getImportWords();
+			int[] importSymbols = module.getImportSymbols();
+			for (int j = 0; j < importWords.length; j++) {
+				image[base + importWords[j]] += values[importSymbols[j]];
+			}
+		}
+		return image;
+	}
+
+	public void link(DCPU dcpu) throws LinkException {
+		char[] image = link();
+		dcpu.newGeneration();
+		System.arraycopy(image, 0, dcpu.ram, 0, image.length);
+		Arrays.fill(dcpu.ram, image.length, dcpu.ram.length, (char) 0);
+	}
+
+	public void link(FloppyDisk disk) throws LinkException, IOException {
+		char[] image = link();
+		int length = Math.min(image.length, FloppyDisk.WORDS);
+		disk.newGeneration();
+		disk.write(0, image, 0, length);
+		disk.zero(length, FloppyDisk.WORDS - length);
+		disk.flush();
+	}
+
+	/**
+	 * Where the last {@link #link()} placed a module.
+	 */
+	public int getBase(int module) {
+		return bases[module];
+	}
+
+	/**
+	 * The addresses of the exported labels, as of the last {@link #link()}.
+	 */
+	public Map<String,Integer> getSymbols() {
+		return symbols;
+	}
+}
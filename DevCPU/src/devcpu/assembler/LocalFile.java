@@ -0,0 +1,88 @@
+package devcpu.assembler;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+
+/**
+ * A file on the local file system, for assembling outside of the workbench.
+ * Includes are looked for relative to the including file, then in each of
+ * the include directories in order, and then as a path of their own.
+ */
+public class LocalFile implements SourceFile {
+	private final File file;
+	private final List<File> includeDirectories;
+
+	public LocalFile(File file, List<File> includeDirectories) {
+		this.file = file.getAbsoluteFile();
+		this.includeDirectories = includeDirectories;
+	}
+
+	public File getFile() {
+		return file;
+	}
+
+	@Override
+	public String getName() {
+		return file.getName();
+	}
+
+	@Override
+	public boolean exists() {
+		return file.isFile();
+	}
+
+	@Override
+	public InputStream getContents() throws IOException {
+		return new FileInputStream(file);
+	}
+
+	@Override
+	public File getLocation() {
+		return file;
+	}
+
+	@Override
+	public SourceFile locate(String includePath) {
+		File located = new File(file.getParentFile(), includePath);
+		if (located.isFile()) {
+			return new LocalFile(located, includeDirectories);
+		}
+		for (File directory : includeDirectories) {
+			located = new File(directory, includePath);
+			if (located.isFile()) {
+				return new LocalFile(located, includeDirectories);
+			}
+		}
+		located = new File(includePath);
+		if (located.isAbsolute() && located.isFile()) {
+			return new LocalFile(located, includeDirectories);
+		}
+		return null;
+	}
+
+	private File canonical() {
+		try {
+			return file.getCanonicalFile();
+		} catch (IOException e) {
+			return file;
+		}
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		return obj instanceof LocalFile && ((LocalFile) obj).canonical().equals(canonical());
+	}
+
+	@Override
+	public int hashCode() {
+		return canonical().hashCode();
+	}
+
+	@Override
+	public String toString() {
+		return file.getPath();
+	}
+}
@@ -0,0 +1,152 @@
+package devcpu.assembler;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A relocatable module: the code of a program assembled as if it started at
+ * address 0, with the words a {@link Linker} has to fix up once it knows
+ * where the module goes and where the symbols it imports are.
+ *
+ * A relocated word holds an offset into the module, and has the module's
+ * address added to it. An imported word holds the amount added to the
+ * symbol, and has the symbol's value added to it. Exports are labels, as
+ * offsets into the module. Symbol names are case folded the way label names
+ * are, so modules only link against modules assembled with the same
+ * {@link Assembly#labelsCaseSensitive}.
+ */
+public class ObjectModule {
+	private static final int MAGIC = 0x44434f31; //"DCO1"
+	private final String name;
+	private final char[] code;
+	private final int[] relocations;
+	private final String[] imports;
+	private final int[] importWords;
+	private final int[] importSymbols;
+	private final LinkedHashMap<String,Integer> exports;
+
+	public ObjectModule(String name, char[] code, int[] relocations, String[] imports, int[] importWords, int[] importSymbols, LinkedHashMap<String,Integer> exports) {
+		this.name = name;
+		this.code = code;
+		this.relocations = relocations;
+		this.imports = imports;
+		this.importWords = importWords;
+		this.importSymbols = importSymbols;
+		this.exports = exports;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public char[] getCode() {
+		return code;
+	}
+
+	public int getSize() {
+		return code.length;
+	}
+
+	/**
+	 * The offsets of the words that hold an offset into the module.
+	 */
+	public int[] getRelocations() {
+		return relocations;
+	}
+
+	/**
+	 * The names of the symbols the module imports, indexed by
+	 * {@link #getImportSymbols()}.
+	 */
+	public String[] getImports() {
+		return imports;
+	}
+
+	/**
+	 * The offsets of the words that refer to an imported symbol.
+	 */
+	public int[] getImportWords() {
+		return importWords;
+	}
+
+	/**
+	 * For each of {@link #getImportWords()}, the index of the symbol in
+	 * {@link #getImports()}.
+	 */
+	public int[] getImportSymbols() {
+		return importSymbols;
+	}
+
+	/**
+	 * The exported labels and their offsets into the module.
+	 */
+	public Map<String,Integer> getExports() {
+		return exports;
+	}
+
+	public void write(OutputStream out) throws IOException {
+		DataOutputStream data = new DataOutputStream(out);
+		data.writeInt(MAGIC);
+		data.writeUTF(name);
+		data.writeInt(code.length);
+		for (char word : code) {
+			data.writeChar(word);
+		}
+		data.writeInt(relocations.length);
+		for (int offset : relocations) {
+			data.writeInt(offset);
+		}
+		data.writeInt(imports.length);
+		for (String symbol : imports) {
+			data.writeUTF(symbol);
+		}
+		data.writeInt(importWords.length);
+		for (int i = 0; i < importWords.length; i++) {
+			data.writeInt(importWords[i]);
+			data.writeInt(importSymbols[i]);
+		}
+		data.writeInt(exports.size());
+		for (Map.Entry<String,Integer> export : exports.entrySet()) {
+			data.writeUTF(export.getKey());
+			data.writeInt(export.getValue());
+		}
+		data.flush();
+	}
+
+	public static ObjectModule read(InputStream in) throws IOException {
+		DataInputStream data = new DataInputStream(in);
+		if (data.readInt() != MAGIC) {
+			throw new IOException("Not an object module");
+		}
+		String name = data.readUTF();
+		char[] code = new char[data.readInt()];
+		for (int i = 0; i < code.length; i++) {
+			code[i] = data.readChar();
+		}
+		int[] relocations = new int[data.readInt()];
+		for (int i = 0; i < relocations.length; i++) {
+			relocations[i] = data.readInt();
+		}
+		String[] imports = new String[data.readInt()];
+		for (int i = 0; i < imports.length; i++) {
+			imports[i] = data.readUTF();
+		}
+		int[] importWords = new int[data.readInt()];
+		int[] importSymbols = new int[importWords.length];
+		for (int i = 0; i < importWords.length; i++) {
+			importWords[i] = data.readInt();
+			importSymbols[i] = data.readInt();
+		}
+		LinkedHashMap<String,Integer> exports = new LinkedHashMap<String, Integer>();
+		int count = data.readInt();
+		for (int i = 0; i < count; i++) {
+			exports.put(data.readUTF(), data.readInt());
+		}
+		return new ObjectModule(name, code, relocations, imports, importWords, importSymbols, exports);
+	}
+}
@@ -0,0 +1,277 @@
+package devcpu.assembler;
+
+import static devcpu.assembler.AssemblyLine.VALUE_LITERAL;
+import static devcpu.assembler.AssemblyLine.VALUE_REGISTER;
+import static devcpu.assembler.AssemblyLine.VALUE_SIMPLE_STACK;
+
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import devcpu.emulation.BasicOp;
+import devcpu.lexer.Lexer;
+import devcpu.lexer.tokens.AValueEndToken;
+import devcpu.lexer.tokens.LabelDefinitionToken;
+import devcpu.lexer.tokens.LabelToken;
+import devcpu.lexer.tokens.LexerToken;
+
+/**
+ * An optional pass over sized lines that rewrites instructions with cheaper
+ * equivalents. Rewrites are kept as replacement text for a line, by its
+ * index in the assembly, and applied by assembling again, since removing or
+ * shrinking a line moves every label after it; that is repeated until no
+ * more are found, as one rewrite can make room for another.
+ *
+ * Every rule keeps what the program does. A line that defines a label is
+ * never rewritten, since something may jump to or read from it, and neither
+ * is the instruction after a conditional, since that would change what the
+ * conditional skips. Jumps aren't made relative: ADD and SUB PC set EX,
+ * which SET PC doesn't.
+ */
+public class Peephole {
+	/** <code>SET x, x</code> on a register is removed. */
+	public static final String SELF_SET = "SET x, x";
+	/** <code>BOR x, 0</code>, <code>XOR x, 0</code> and <code>AND x, 0xFFFF</code> on a register are removed; unlike ADD x, 0, these don't set EX. */
+	public static final String IDENTITY = "BOR/XOR x, 0 and AND x, 0xFFFF";
+	/** <code>SET PUSH, x</code> right before <code>SET x, POP</code> on a register removes both. */
+	public static final String PUSH_POP = "SET PUSH, x then SET x, POP";
+	/** <code>SET PC, a</code> where <code>a</code> is <code>SET PC, b</code> jumps to <code>b</code> directly. */
+	public static final String JUMP_TO_JUMP = "Jump to a jump";
+	private static final String[] RULES = {SELF_SET, IDENTITY, PUSH_POP, JUMP_TO_JUMP};
+
+	private HashMap<Integer,String> rewrites = new HashMap<Integer, String>();
+	private HashMap<Integer,String> rewriteRules = new HashMap<Integer, String>();
+	//The size of each rewritten line before it was rewritten, and cycles saved besides its own
+	private HashMap<Integer,Integer> originalSizes = new HashMap<Integer, Integer>();
+	private HashMap<Integer,Integer> skippedCycles = new HashMap<Integer, Integer>();
+	private LinkedHashMap<String,int[]> savings = new LinkedHashMap<String, int[]>();
+
+	public Peephole() {
+		for (String rule : RULES) {
+			savings.put(rule, new int[3]);
+		}
+	}
+
+	/**
+	 * Looks for rewrites in lines that have been sized and located, and
+	 * returns whether there were any new ones.
+	 */
+	boolean findRewrites(List<AssemblyLine> lines) {
+		IdentityHashMap<AssemblyLine,Integer> indexes = new IdentityHashMap<AssemblyLine, Integer>();
+		for (int i = 0; i < lines.size(); i++) {
+			indexes.put(lines.get(i), i);
+		}
+		boolean found = false;
+		boolean conditional = false;
+		for (int i = 0; i < lines.size(); i++) {
+			AssemblyLine line = lines.get(i);
+			if (isEmpty(line)) {
+				continue;
+			}
+			boolean skippable = conditional;
+			if (line.size > 0) {
+				//Only a line with words in it is what a conditional skips; a label on its own isn't
+				conditional = line.isBasic && line.opCode >= BasicOp.IFB && line.opCode <= BasicOp.IFU;
+			}
+			if (rewrites.containsKey(i) || definesLabel(line) || !line.isBasic) {
+				continue;
+			}
+			if (!skippable && isSelfSet(line)) {
+				rewrite(i, line, SELF_SET, "", 0);
+				found = true;
+			} else if (!skippable && isIdentity(line)) {
+				rewrite(i, line, IDENTITY, "", 0);
+				found = true;
+			} else if (!skippable && isPush(line)) {
+				int j = next(lines, i);
+				if (j >= 0 && !rewrites.containsKey(j) && !definesLabel(lines.get(j)) && isPop(lines.get(j), line.aRegister)) {
+					rewrite(i, line, PUSH_POP, "", 0);
+					rewrite(j, lines.get(j), PUSH_POP, "", 0);
+					conditional = false;
+					i = j;
+					found = true;
+				}
+			} else if (isJump(line)) {
+				//Follow the chain of jumps, to the last one whose label can be written out and is as short
+				LabelToken label = (LabelToken) line.getProcessedTokens()[line.aStart];
+				String target = null;
+				int cycles = 0;
+				IdentityHashMap<AssemblyLine,Boolean> visited = new IdentityHashMap<AssemblyLine, Boolean>();
+				AssemblyLine hop = label.lineRef == null ? null : instructionAt(lines, indexes.get(label.lineRef));
+				while (hop != null && isJump(hop)) {
+					LabelToken next = (LabelToken) hop.getProcessedTokens()[hop.aStart];
+					if (next.isLocal() || next.lineRef == null) {
+						break;
+					}
+					AssemblyLine after = instructionAt(lines, indexes.get(next.lineRef));
+					if (after == hop || visited.containsKey(after)) {
+						//A loop of jumps is left as it is
+						break;
+					}
+					int address = next.lineRef.offset;
+					if (line.size == 1 && address > 0x1e && address != 0xffff) {
+						//A jump that fits in a word isn't made longer
+						break;
+					}
+					visited.put(hop, true);
+					target = next.labelName;
+					cycles += hop.size;
+					hop = after;
+				}
+				if (target != null) {
+					rewrite(i, line, JUMP_TO_JUMP, "SET PC, " + target, cycles);
+					found = true;
+				}
+			}
+		}
+		return found;
+	}
+
+	private void rewrite(int i, AssemblyLine line, String rule, String text, int cycles) {
+		rewrites.put(i, text);
+		rewriteRules.put(i, rule);
+		originalSizes.put(i, line.size);
+		skippedCycles.put(i, cycles);
+	}
+
+	/**
+	 * Replaces the lines of a fresh assembly of the same files with their
+	 * rewrites, before it is preprocessed.
+	 */
+	void applyRewrites(List<AssemblyLine> lines) {
+		for (Map.Entry<Integer,String> rewrite : rewrites.entrySet()) {
+			AssemblyLine old = lines.get(rewrite.getKey());
+			AssemblyDocument document = old.getDocument();
+			int n = old.getLineNumber();
+			AssemblyLine line = new AssemblyLine(document, n, document.getLineStart(n), document.getLineEnd(n), Lexer.get().generateTokens(rewrite.getValue(), true));
+			lines.set(rewrite.getKey(), line);
+			document.replaceLine(line);
+		}
+	}
+
+	/**
+	 * Totals the savings against the final sizes of the rewritten lines. Each
+	 * word saved from an instruction is also a cycle saved each time it runs.
+	 */
+	void tally(List<AssemblyLine> lines) {
+		for (int[] saving : savings.values()) {
+			saving[0] = saving[1] = saving[2] = 0;
+		}
+		for (Map.Entry<Integer,String> rewrite : rewriteRules.entrySet()) {
+			int i = rewrite.getKey();
+			int words = originalSizes.get(i) - lines.get(i).size;
+			int[] saving = savings.get(rewrite.getValue());
+			saving[0]++;
+			saving[1] += words;
+			saving[2] += words + skippedCycles.get(i);
+		}
+	}
+
+	private static boolean isEmpty(AssemblyLine line) {
+		return line.size == 0 && !line.isDirective() && !line.isDat && line.opCodeToken == null && !definesLabel(line);
+	}
+
+	private static boolean definesLabel(AssemblyLine line) {
+		for (LexerToken token : line.getProcessedTokens()) {
+			if (token instanceof LabelDefinitionToken) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * The index of the next line after <code>i</code> with anything on it, or
+	 * -1.
+	 */
+	private static int next(List<AssemblyLine> lines, int i) {
+		for (int j = i + 1; j < lines.size(); j++) {
+			if (!isEmpty(lines.get(j))) {
+				return j;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * The instruction a label on line <code>i</code> points at, or null if it
+	 * points at anything else.
+	 */
+	private static AssemblyLine instructionAt(List<AssemblyLine> lines, Integer i) {
+		if (i == null) {
+			return null;
+		}
+		AssemblyLine line = lines.get(i);
+		while (line.opCodeToken == null) {
+			if (line.size != 0 || line.isDirective() || line.isDat || i + 1 == lines.size()) {
+				return null;
+			}
+			line = lines.get(++i);
+		}
+		return line;
+	}
+
+	private static boolean isRegister(AssemblyLine line, boolean a) {
+		return (a ? line.aClass : line.bClass) == VALUE_REGISTER;
+	}
+
+	private static boolean isSelfSet(AssemblyLine line) {
+		return line.opCode == BasicOp.SET && isRegister(line, true) && isRegister(line, false) && line.aRegister.equals(line.bRegister);
+	}
+
+	private static boolean isIdentity(AssemblyLine line) {
+		if (!isRegister(line, false) || "PC".equals(line.bRegister) || line.aClass != VALUE_LITERAL || !line.aSet || line.literalASet) {
+			return false;
+		}
+		//Only constants; a label's value may change with the rewrites
+		LexerToken[] tokens = line.getProcessedTokens();
+		for (int i = line.aStart; !(tokens[i] instanceof AValueEndToken); i++) {
+			if (tokens[i] instanceof LabelToken) {
+				return false;
+			}
+		}
+		int value = (line.aVal - 0x21) & 0xFFFF;
+		return ((line.opCode == BasicOp.BOR || line.opCode == BasicOp.XOR) && value == 0) || (line.opCode == BasicOp.AND && value == 0xFFFF);
+	}
+
+	private static boolean isPush(AssemblyLine line) {
+		return line.opCode == BasicOp.SET && line.bClass == VALUE_SIMPLE_STACK && line.bVal == 0x18 && isRegister(line, true) && !"PC".equals(line.aRegister) && !"SP".equals(line.aRegister);
+	}
+
+	private static boolean isPop(AssemblyLine line, String register) {
+		return line.isBasic && line.opCode == BasicOp.SET && line.aClass == VALUE_SIMPLE_STACK && line.aVal == 0x18 && isRegister(line, false) && register.equals(line.bRegister);
+	}
+
+	private static boolean isJump(AssemblyLine line) {
+		return line.isBasic && line.opCode == BasicOp.SET && isRegister(line, false) && "PC".equals(line.bRegister) && !line.aHasOperator && line.getProcessedTokens()[line.aStart] instanceof LabelToken;
+	}
+
+	/**
+	 * For each rule, the number of lines it rewrote, and the words and the
+	 * cycles (each time the lines run) it saved.
+	 */
+	public Map<String,int[]> getSavings() {
+		return savings;
+	}
+
+	public int getWordsSaved() {
+		int words = 0;
+		for (int[] saving : savings.values()) {
+			words += saving[1];
+		}
+		return words;
+	}
+
+	public String getReport() {
+		StringBuilder report = new StringBuilder();
+		for (Map.Entry<String,int[]> saving : savings.entrySet()) {
+			int[] counts = saving.getValue();
+			if (counts[0] > 0) {
+				report.append(saving.getKey()).append(": ").append(counts[0]).append(" lines, ").append(counts[1]).append(" words and ").append(counts[2]).append(" cycles saved. ");
+			}
+		}
+		return report.toString();
+	}
+}
@@ -0,0 +1,31 @@
+package devcpu.assembler;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * A file an assembly reads documents from, and finds their includes through.
+ * {@link WorkspaceFile} reads files in the Eclipse workspace, and
+ * {@link LocalFile} reads them straight from the file system, so programs can
+ * be assembled without a workbench. Two source files are equal if they are the
+ * same file, which is how recursive includes are caught.
+ */
+public interface SourceFile {
+	public String getName();
+
+	public boolean exists();
+
+	public InputStream getContents() throws IOException;
+
+	/**
+	 * The file on the local file system, so it can be mapped, or null if it
+	 * isn't on one.
+	 */
+	public File getLocation();
+
+	/**
+	 * Finds the file an include in this one names, or returns null.
+	 */
+	public SourceFile locate(String includePath);
+}
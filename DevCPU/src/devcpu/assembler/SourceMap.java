@@ -0,0 +1,292 @@
+package devcpu.assembler;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+
+/**
+ * Where each word of an assembled program came from: the address ranges of
+ * its lines, in order of address, each with the document, the (1 based)
+ * line number, the range of characters of the line in the document and
+ * whether the line is an instruction, data or a directive. It
+ * is kept in parallel arrays, small enough to keep for every program loaded
+ * on a DCPU, and stored next to the image in a {@link BuildCache} so that a
+ * program loaded from the cache can still be debugged at the source level.
+ *
+ * Addresses are looked up with a binary search. Lines can be looked up too,
+ * for setting breakpoints, through an index by document and line that is
+ * only built the first time it is needed.
+ *
+ * Documents are named by their path on the file system where they have one,
+ * as that is what survives in the cache; see {@link SourceFile#getLocation()}.
+ */
+public class SourceMap {
+	private static final int MAGIC = 0x44434d32; //"DCM2"
+	private final String[] paths;
+	private final int[] starts;
+	private final int[] ends;
+	private final char[] documentIndexes;
+	private final int[] lineNumbers;
+	private final int[] charStarts;
+	private final int[] charEnds;
+	//The line's LineStore flags
+	private final byte[] flags;
+	//Entries in order of document, line and address
+	private int[] byLine;
+
+	private SourceMap(String[] paths, int[] starts, int[] ends, char[] documentIndexes, int[] lineNumbers, int[] charStarts, int[] charEnds, byte[] flags) {
+		this.paths = paths;
+		this.starts = starts;
+		this.ends = ends;
+		this.documentIndexes = documentIndexes;
+		this.lineNumbers = lineNumbers;
+		this.charStarts = charStarts;
+		this.charEnds = charEnds;
+		this.flags = flags;
+	}
+
+	/**
+	 * Maps the lines of a program that words were assembled from. Lines that
+	 * move the offset, like <code>.org</code>, aren't mapped, since nothing
+	 * runs from the gaps they leave.
+	 */
+	public static SourceMap build(LineStore store) {
+		int count = 0;
+		for (int i = 0; i < store.size(); i++) {
+			if (isMapped(store, i)) {
+				count++;
+			}
+		}
+		int[] starts = new int[count];
+		int[] ends = new int[count];
+		char[] documentIndexes = new char[count];
+		int[] lineNumbers = new int[count];
+		int[] charStarts = new int[count];
+		int[] charEnds = new int[count];
+		byte[] flags = new byte[count];
+		ArrayList<String> paths = new ArrayList<String>();
+		IdentityHashMap<AssemblyDocument,Integer> indexes = new IdentityHashMap<AssemblyDocument, Integer>();
+		int n = 0;
+		for (int i = 0; i < store.size(); i++) {
+			if (!isMapped(store, i)) {
+				continue;
+			}
+			AssemblyDocument document = store.getDocument(i);
+			Integer index = indexes.get(document);
+			if (index == null) {
+				index = paths.size();
+				indexes.put(document, index);
+				paths.add(pathOf(document.getFile()));
+			}
+			int line = store.getLineNumber(i);
+			starts[n] = store.getOffset(i);
+			ends[n] = store.getOffset(i) + store.getSize(i);
+			documentIndexes[n] = (char) (int) index;
+			lineNumbers[n] = line;
+			charStarts[n] = document.getLineStart(line);
+			charEnds[n] = document.getLineEnd(line);
+			flags[n++] = store.getFlags(i);
+		}
+		return new SourceMap(paths.toArray(new String[paths.size()]), starts, ends, documentIndexes, lineNumbers, charStarts, charEnds, flags);
+	}
+
+	private static boolean isMapped(LineStore store, int i) {
+		return store.getSize(i) > 0 && !store.hasFlag(i, LineStore.FLAG_ORIGIN);
+	}
+
+	/**
+	 * The name a document is kept under: its path on the file system, or
+	 * whatever else names it if it isn't on one.
+	 */
+	public static String pathOf(SourceFile file) {
+		File location = file.getLocation();
+		return location != null ? location.getAbsolutePath() : file.toString();
+	}
+
+	/**
+	 * The number of entries, each the address range of one line.
+	 */
+	public int size() {
+		return starts.length;
+	}
+
+	/**
+	 * The entry whose range holds an address, or -1 if no line was assembled
+	 * to it.
+	 */
+	public int find(int address) {
+		int low = 0;
+		int high = starts.length - 1;
+		while (low <= high) {
+			int mid = (low + high) >>> 1;
+			if (starts[mid] > address) {
+				high = mid - 1;
+			} else if (ends[mid] <= address) {
+				low = mid + 1;
+			} else {
+				return mid;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * The entries of every place a line of a document was assembled to, in
+	 * order of address; a document included more than once is assembled to
+	 * more than one place. Empty if nothing was assembled from the line.
+	 */
+	public int[] findLine(String path, int lineNumber) {
+		int document = -1;
+		for (int i = 0; i < paths.length; i++) {
+			if (paths[i].equals(path)) {
+				document = i;
+				break;
+			}
+		}
+		if (document < 0) {
+			return new int[0];
+		}
+		int[] byLine = getByLine();
+		int low = 0;
+		int high = byLine.length;
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			int entry = byLine[mid];
+			if (documentIndexes[entry] < document || (documentIndexes[entry] == document && lineNumbers[entry] < lineNumber)) {
+				low = mid + 1;
+			} else {
+				high = mid;
+			}
+		}
+		int end = low;
+		while (end < byLine.length && documentIndexes[byLine[end]] == document && lineNumbers[byLine[end]] == lineNumber) {
+			end++;
+		}
+		int[] entries = new int[end - low];
+		System.arraycopy(byLine, low, entries, 0, entries.length);
+		return entries;
+	}
+
+	private synchronized int[] getByLine() {
+		if (byLine == null) {
+			//Stable by address, since entries are already in that order
+			Integer[] order = new Integer[starts.length];
+			for (int i = 0; i < order.length; i++) {
+				order[i] = i;
+			}
+			Arrays.sort(order, new Comparator<Integer>() {
+				@Override
+				public int compare(Integer a, Integer b) {
+					if (documentIndexes[a] != documentIndexes[b]) {
+						return documentIndexes[a] - documentIndexes[b];
+					}
+					return lineNumbers[a] - lineNumbers[b];
+				}
+			});
+			int[] sorted = new int[order.length];
+			for (int i = 0; i < sorted.length; i++) {
+				sorted[i] = order[i];
+			}
+			byLine = sorted;
+		}
+		return byLine;
+	}
+
+	public int getStart(int entry) {
+		return starts[entry];
+	}
+
+	public int getEnd(int entry) {
+		return ends[entry];
+	}
+
+	/**
+	 * The document an entry came from; see {@link #pathOf(SourceFile)}.
+	 */
+	public String getPath(int entry) {
+		return paths[documentIndexes[entry]];
+	}
+
+	public int getLineNumber(int entry) {
+		return lineNumbers[entry];
+	}
+
+	/**
+	 * The offset in the document of the first character of the line.
+	 */
+	public int getCharStart(int entry) {
+		return charStarts[entry];
+	}
+
+	/**
+	 * The offset in the document of the end of the line, before its line
+	 * break.
+	 */
+	public int getCharEnd(int entry) {
+		return charEnds[entry];
+	}
+
+	/**
+	 * Whether an entry is an instruction, rather than data or a directive that
+	 * emits words.
+	 */
+	public boolean isInstruction(int entry) {
+		return (flags[entry] & LineStore.FLAG_INSTRUCTION) != 0;
+	}
+
+	public void write(OutputStream out) throws IOException {
+		DataOutputStream data = new DataOutputStream(out);
+		data.writeInt(MAGIC);
+		data.writeInt(paths.length);
+		for (String path : paths) {
+			data.writeUTF(path);
+		}
+		data.writeInt(starts.length);
+		for (int i = 0; i < starts.length; i++) {
+			data.writeInt(starts[i]);
+			data.writeInt(ends[i]);
+			data.writeChar(documentIndexes[i]);
+			data.writeInt(lineNumbers[i]);
+			data.writeInt(charStarts[i]);
+			data.writeInt(charEnds[i]);
+			data.writeByte(flags[i]);
+		}
+		data.flush();
+	}
+
+	public static SourceMap read(InputStream in) throws IOException {
+		DataInputStream data = new DataInputStream(in);
+		if (data.readInt() != MAGIC) {
+			throw new IOException("Not a source map");
+		}
+		String[] paths = new String[data.readInt()];
+		for (int i = 0; i < paths.length; i++) {
+			paths[i] = data.readUTF();
+		}
+		int count = data.readInt();
+		int[] starts = new int[count];
+		int[] ends = new int[count];
+		char[] documentIndexes = new char[count];
+		int[] lineNumbers = new int[count];
+		int[] charStarts = new int[count];
+		int[] charEnds = new int[count];
+		byte[] flags = new byte[count];
+		for (int i = 0; i < count; i++) {
+			starts[i] = data.readInt();
+			ends[i] = data.readInt();
+			documentIndexes[i] = data.readChar();
+			lineNumbers[i] = data.readInt();
+			charStarts[i] = data.readInt();
+			charEnds[i] = data.readInt();
+			flags[i] = data.readByte();
+		}
+		return new SourceMap(paths, starts, ends, documentIndexes, lineNumbers, charStarts, charEnds, flags);
+	}
+}
@@ -0,0 +1,98 @@
+package devcpu.assembler;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Interns label names into dense int IDs, in the order they are first seen.
+ * A name is hashed once, when its token is first processed; definitions and
+ * outstanding uses are then kept in arrays indexed by ID.
+ */
+public class SymbolTable {
+	private HashMap<String,Integer> ids = new HashMap<String, Integer>();
+	private String[] names = new String[64];
+	private LabelDefinition[] definitions = new LabelDefinition[64];
+	private ArrayList<List<LabelUse>> pendingUses = new ArrayList<List<LabelUse>>();
+	private int size;
+
+	/**
+	 * Returns the ID for a (case folded, fully qualified) label name,
+	 * assigning the next one if the name is new.
+	 */
+	public int intern(String name) {
+		Integer id = ids.get(name);
+		if (id != null) {
+			return id;
+		}
+		if (size == names.length) {
+			String[] newNames = new String[size * 2];
+			System.arraycopy(names, 0, newNames, 0, size);
+			names = newNames;
+			LabelDefinition[] newDefinitions = new LabelDefinition[size * 2];
+			System.arraycopy(definitions, 0, newDefinitions, 0, size);
+			definitions = newDefinitions;
+		}
+		names[size] = name;
+		pendingUses.add(null);
+		ids.put(name, size);
+		return size++;
+	}
+
+	/**
+	 * Returns the ID of a name, or -1 if it has never been interned.
+	 */
+	public int lookup(String name) {
+		Integer id = ids.get(name);
+		return id == null ? -1 : id;
+	}
+
+	public String getName(int id) {
+		return names[id];
+	}
+
+	public LabelDefinition getDefinition(int id) {
+		return definitions[id];
+	}
+
+	public void setDefinition(int id, LabelDefinition definition) {
+		definitions[id] = definition;
+	}
+
+	/**
+	 * Uses of the label seen before it was defined, or null if there are none.
+	 */
+	public List<LabelUse> getPendingUses(int id) {
+		return pendingUses.get(id);
+	}
+
+	public void addPendingUse(int id, LabelUse use) {
+		List<LabelUse> uses = pendingUses.get(id);
+		if (uses == null) {
+			uses = new ArrayList<LabelUse>();
+			pendingUses.set(id, uses);
+		}
+		uses.add(use);
+	}
+
+	public List<LabelUse> removePendingUses(int id) {
+		return pendingUses.set(id, null);
+	}
+
+	/**
+	 * Returns the first ID, in interning order, that still has pending uses,
+	 * or -1 if every used label has been defined.
+	 */
+	public int firstPending() {
+		for (int id = 0; id < size; id++) {
+			if (pendingUses.get(id) != null) {
+				return id;
+			}
+		}
+		return -1;
+	}
+
+	public int size() {
+		return size;
+	}
+}
@@ -0,0 +1,86 @@
+package devcpu.assembler;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.eclipse.core.resources.IFile;
+import org.eclipse.core.resources.ResourcesPlugin;
+import org.eclipse.core.runtime.CoreException;
+import org.eclipse.core.runtime.Path;
+
+/**
+ * A file in the Eclipse workspace.
+ */
+public class WorkspaceFile implements SourceFile {
+	private final IFile file;
+
+	public WorkspaceFile(IFile file) {
+		this.file = file;
+	}
+
+	public IFile getFile() {
+		return file;
+	}
+
+	@Override
+	public String getName() {
+		return file.getName();
+	}
+
+	@Override
+	public boolean exists() {
+		return file.exists();
+	}
+
+	@Override
+	public InputStream getContents() throws IOException {
+		try {
+			return file.getContents(true);
+		} catch (CoreException e) {
+			throw new IOException(e.getMessage(), e);
+		}
+	}
+
+	@Override
+	public File getLocation() {
+		return file.getLocation() == null ? null : file.getLocation().toFile();
+	}
+
+	@Override
+	public SourceFile locate(String includePath) {
+		Path path = new Path(includePath);
+		//First, treat as path relative to current file ("../" is supported)
+		IFile located = file.getParent().getFile(path);
+		if (located.exists()) {
+			return new WorkspaceFile(located);
+		}
+		//Second, treat as path relative to project root
+		located = file.getProject().getFile(path);
+		if (located.exists()) {
+			return new WorkspaceFile(located);
+		}
+		//Third, treat as path relative to workspace root
+		located = ResourcesPlugin.getWorkspace().getRoot().getFile(path);
+		if (located.exists()) {
+			return new WorkspaceFile(located);
+		}
+		//TODO: Maybe even Internet URLs?
+		return null;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		return obj instanceof WorkspaceFile && ((WorkspaceFile) obj).file.equals(file);
+	}
+
+	@Override
+	public int hashCode() {
+		return file.hashCode();
+	}
+
+	@Override
+	public String toString() {
+		return file.toString();
+	}
+}
@@ -0,0 +1,22 @@
+package devcpu.assembler.exceptions;
+
+import devcpu.assembler.Incbin;
+
+public class BinaryFileNotFoundException extends AbstractDirectiveException {
+	private static final long serialVersionUID = 1L;
+	private Incbin incbin;
+
+	public BinaryFileNotFoundException(Incbin incbin) {
+		super(incbin.getDirective());
+		this.incbin = incbin;
+	}
+
+	public Incbin getIncbin() {
+		return incbin;
+	}
+	
+	@Override
+	public String getMessage() {
+		return "Cannot locate binary file to include: \"" + incbin.getPath() + "\" at " + directive.getLine().getDocument().getFile().getName() + ", Line " + directive.getLine().getLineNumber() + ": " + directive.getLine().getText();
+	}
+}
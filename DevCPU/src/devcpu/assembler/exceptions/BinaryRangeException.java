@@ -0,0 +1,22 @@
+package devcpu.assembler.exceptions;
+
+import devcpu.assembler.Incbin;
+
+public class BinaryRangeException extends AbstractDirectiveException {
+	private static final long serialVersionUID = 1L;
+	private Incbin incbin;
+
+	public BinaryRangeException(Incbin incbin) {
+		super(incbin.getDirective());
+		this.incbin = incbin;
+	}
+
+	public Incbin getIncbin() {
+		return incbin;
+	}
+	
+	@Override
+	public String getMessage() {
+		return "Range is outside of binary file \"" + incbin.getPath() + "\" (" + incbin.getBinary().length() + " bytes) at " + directive.getLine().getDocument().getFile().getName() + ", Line " + directive.getLine().getLineNumber() + ": " + directive.getLine().getText();
+	}
+}
@@ -0,0 +1,25 @@
+package devcpu.assembler.exceptions;
+
+import devcpu.assembler.ObjectModule;
+
+public class LinkException extends Exception {
+	private static final long serialVersionUID = 1L;
+	private ObjectModule module;
+
+	public LinkException(ObjectModule module, String message) {
+		super(message);
+		this.module = module;
+	}
+
+	/**
+	 * The module the error is in, or null if it isn't in any one module.
+	 */
+	public ObjectModule getModule() {
+		return module;
+	}
+
+	@Override
+	public String getMessage() {
+		return module == null ? "Link error: " + super.getMessage() : "Link error in " + module.getName() + ": " + super.getMessage();
+	}
+}
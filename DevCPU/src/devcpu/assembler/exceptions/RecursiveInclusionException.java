@@ -1,15 +1,14 @@
 package devcpu.assembler.exceptions;
 
-import org.eclipse.core.resources.IFile;
-
 import devcpu.assembler.Include;
+import devcpu.assembler.SourceFile;
 
 public class RecursiveInclusionException extends AbstractDirectiveException {
 	private static final long serialVersionUID = 1L;
 	private Include include;
-	private IFile file;
+	private SourceFile file;
 
-	public RecursiveInclusionException(Include include, IFile file) {
+	public RecursiveInclusionException(Include include, SourceFile file) {
 		super(include.getDirective());
 		this.include = include;
 		this.file = file;
@@ -19,7 +18,7 @@ public class RecursiveInclusionException extends AbstractDirectiveException {
 		return include;
 	}
 
-	public IFile getFile() {
+	public SourceFile getFile() {
 		return file;
 	}
 	
@@ -0,0 +1,18 @@
+package devcpu.assembler.exceptions;
+
+import devcpu.assembler.AssemblyLine;
+
+public class RelocationException extends AbstractLineException {
+	private static final long serialVersionUID = 1L;
+	private String msg;
+
+	public RelocationException(AssemblyLine line, String msg) {
+		super(line);
+		this.msg = msg;
+	}
+
+	@Override
+	public String getMessage() {
+		return msg + " At " + line.getDocument().getFile().getName() + ", Line " + line.getLineNumber() + ": " + line.getText();
+	}
+}
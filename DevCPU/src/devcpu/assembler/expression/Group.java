@@ -14,12 +14,16 @@ import devcpu.lexer.tokens.PickValueStartToken;
 import devcpu.lexer.tokens.RegisterToken;
 import devcpu.lexer.tokens.SimpleStackAccessToken;
 import devcpu.lexer.tokens.UnaryOperatorToken;
+import exp4j_int_custom.CompiledExpression;
 
 public class Group implements Operand {
 	private ArrayList<Value> values = new ArrayList<Value>();
+	private LexerToken startToken;
+	private int labelCount;
 	public boolean unresolvableLabel; //Only for use by Assembly.sizeExpressionA()
 	
 	public Group (LexerToken[] tokens, int i, Class<? extends LexerToken> terminator) {
+		startToken = tokens[i];
 		LexerToken token = null;
 		while (!terminator.isInstance(token = tokens[++i])) {
 			if (token instanceof GroupStartToken) {
@@ -29,6 +33,7 @@ public class Group implements Operand {
 					return;
 				}
 				values.add(group);
+				labelCount += group.labelCount;
 				while (!(tokens[++i] instanceof GroupEndToken)) {}
 			} else if (token instanceof PickValueStartToken) {
 				values.add(new PickValue(tokens, i, PickValueEndToken.class));
@@ -38,6 +43,7 @@ public class Group implements Operand {
 					return;
 				}
 				values.add(new Literal(token,((LabelToken)token).value));
+				labelCount++;
 			} else if (token instanceof RegisterToken) {
 				values.add(new Register((RegisterToken)token));
 			} else if (token instanceof LiteralToken) {
@@ -49,7 +55,7 @@ public class Group implements Operand {
 			} else if (token instanceof SimpleStackAccessToken) {
 				values.add(new SimpleStackAccessor((SimpleStackAccessToken) token));
 			} else {
-				System.out.println("ERMAHGERD YER FERGERT ERBERT " + token.getClass().getCanonicalName());
+				System.err.println("ERMAHGERD YER FERGERT ERBERT " + token.getClass().getCanonicalName());
 			}
 		}
 	}
@@ -58,6 +64,35 @@ public class Group implements Operand {
 		return values;
 	}
 
+	/**
+	 * The token the group was read from, such as the start of the operand.
+	 */
+	public LexerToken getStartToken() {
+		return startToken;
+	}
+
+	/**
+	 * The number of label values, and so of slots, in {@link #getTemplate(List)}.
+	 */
+	public int getLabelCount() {
+		return labelCount;
+	}
+
+	/**
+	 * Puts the label values in slot order into <code>dest</code>, starting at
+	 * <code>pos</code>, and returns the position after the last one.
+	 */
+	public int getLabelValues(int[] dest, int pos) {
+		for (Value value : values) {
+			if (value instanceof Group) {
+				pos = ((Group) value).getLabelValues(dest, pos);
+			} else if (value instanceof Literal && ((Literal) value).getToken() instanceof LabelToken) {
+				dest[pos++] = ((Literal) value).getValue();
+			}
+		}
+		return pos;
+	}
+
 	@Override
 	public boolean containsRegister() {
 		for (Value value : values) {
@@ -100,6 +135,32 @@ public class Group implements Operand {
 		return expression + ")";
 	}
 
+	/**
+	 * Like {@link #getExpression()}, but with each label left as a numbered
+	 * slot whose value is added to <code>labelValues</code>, so that operands
+	 * differing only in their labels have the same expression.
+	 */
+	public String getTemplate(List<Integer> labelValues) {
+		StringBuilder template = new StringBuilder();
+		appendTemplate(template, labelValues);
+		return template.toString();
+	}
+
+	private void appendTemplate(StringBuilder template, List<Integer> labelValues) {
+		template.append('(');
+		for (Value value : values) {
+			if (value instanceof Group) {
+				((Group) value).appendTemplate(template, labelValues);
+			} else if (value instanceof Literal && ((Literal) value).getToken() instanceof LabelToken) {
+				template.append(CompiledExpression.slotName(labelValues.size()));
+				labelValues.add(((Literal) value).getValue());
+			} else {
+				template.append(value.getExpression());
+			}
+		}
+		template.append(')');
+	}
+
 	public boolean hasSimpleStackAccessor() {
 		for (Value value : values) {
 			if (value instanceof Group) {
@@ -0,0 +1,64 @@
+package devcpu.editors.dasm;
+
+import org.eclipse.jface.text.source.LineNumberRulerColumn;
+
+import devcpu.assembler.CycleAnalysis;
+import devcpu.assembler.SourceMap;
+
+/**
+ * A ruler that shows the cycles each instruction takes, and after the first
+ * instruction of each basic block, in brackets, the cycles the whole block
+ * takes; see {@link CycleAnalysis}. It is empty until the file has been
+ * analyzed, and for lines that aren't instructions.
+ */
+public class CycleRulerColumn extends LineNumberRulerColumn {
+	private CycleAnalysis analysis;
+	//The file's name in the analysis' source map
+	private String path;
+
+	public void setAnalysis(CycleAnalysis analysis, String path) {
+		this.analysis = analysis;
+		this.path = path;
+		if (getControl() == null || getControl().isDisposed()) {
+			return;
+		}
+		if (updateNumberOfDigits()) {
+			layout(true);
+		} else {
+			redraw();
+		}
+	}
+
+	@Override
+	protected String createDisplayString(int line) {
+		if (analysis == null) {
+			return "";
+		}
+		SourceMap map = analysis.getSourceMap();
+		int[] entries = map.findLine(path, line + 1);
+		if (entries.length == 0 || !map.isInstruction(entries[0])) {
+			return "";
+		}
+		return format(map.getStart(entries[0]));
+	}
+
+	private String format(int address) {
+		int block = analysis.getBlockCost(address);
+		int cost = analysis.getCost(address);
+		return block < 0 ? Integer.toString(cost) : cost + " (" + block + ")";
+	}
+
+	@Override
+	protected int computeNumberOfDigits() {
+		int digits = 1;
+		if (analysis != null) {
+			SourceMap map = analysis.getSourceMap();
+			for (int entry = 0; entry < map.size(); entry++) {
+				if (map.isInstruction(entry) && map.getPath(entry).equals(path)) {
+					digits = Math.max(digits, format(map.getStart(entry)).length());
+				}
+			}
+		}
+		return digits;
+	}
+}
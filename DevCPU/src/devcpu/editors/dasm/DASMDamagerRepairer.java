@@ -13,25 +13,22 @@ import org.eclipse.swt.graphics.Color;
 import org.eclipse.swt.graphics.RGB;
 
 import devcpu.lexer.Lexer;
-import devcpu.lexer.tokens.BasicOpCodeToken;
-import devcpu.lexer.tokens.CommentToken;
-import devcpu.lexer.tokens.DataToken;
-import devcpu.lexer.tokens.DirectiveParametersToken;
-import devcpu.lexer.tokens.DirectiveToken;
-import devcpu.lexer.tokens.LabelDefinitionToken;
 import devcpu.lexer.tokens.LexerToken;
-import devcpu.lexer.tokens.LiteralToken;
-import devcpu.lexer.tokens.OffsetStackAccessToken;
-import devcpu.lexer.tokens.RegisterToken;
-import devcpu.lexer.tokens.SimpleStackAccessToken;
-import devcpu.lexer.tokens.SpecialOpCodeToken;
-import devcpu.lexer.tokens.StringToken;
 
 
 public class DASMDamagerRepairer implements IPresentationRepairer, IPresentationDamager {
 
 	private static final Color DEFAULT_FOREGROUND = DASMColorProvider.get().getColor(new RGB(0, 0, 0));
 	private static final Color DEFAULT_BACKGROUND = DASMColorProvider.get().getColor(new RGB(255, 255, 255));
+	private static final Color COMMENT_FOREGROUND = DASMColorProvider.get().getColor(new RGB(63, 127, 95));
+	private static final Color LABEL_DEFINITION_FOREGROUND = DASMColorProvider.get().getColor(new RGB(0, 0, 127));
+	private static final Color OPCODE_FOREGROUND = DASMColorProvider.get().getColor(new RGB(127, 0, 85));
+	private static final Color LITERAL_FOREGROUND = DASMColorProvider.get().getColor(new RGB(64, 64, 64));
+	private static final Color REGISTER_FOREGROUND = DASMColorProvider.get().getColor(new RGB(196, 128, 0));
+	private static final Color STRING_FOREGROUND = DASMColorProvider.get().getColor(new RGB(0, 0, 196));
+	private static final Color DIRECTIVE_FOREGROUND = DASMColorProvider.get().getColor(new RGB(0, 0, 196));
+	private static final Color DIRECTIVE_PARAMETERS_FOREGROUND = DASMColorProvider.get().getColor(new RGB(196, 0, 0));
+	private static final Color STACK_ACCESS_FOREGROUND = DASMColorProvider.get().getColor(new RGB(196, 0, 0));
 	
 	private IDocument document;
 
@@ -52,29 +49,29 @@ public class DASMDamagerRepairer implements IPresentationRepairer, IPresentation
 		LexerToken[] tokens = Lexer.get().generateTokens(document.get());
 		for (LexerToken token : tokens) {
 			if ("DASM_COMMENT".equals(token.getType())) {
-				presentation.addStyleRange(new StyleRange(token.getOffset(), token.getLength(), CommentToken.FOREGROUND, CommentToken.BACKGROUND, SWT.NORMAL));	
+				presentation.addStyleRange(new StyleRange(token.getOffset(), token.getLength(), COMMENT_FOREGROUND, DEFAULT_BACKGROUND, SWT.NORMAL));	
 			} else if ("DASM_LABEL_DEFINITION".equals(token.getType())) {
-				presentation.addStyleRange(new StyleRange(token.getOffset(), token.getLength(), LabelDefinitionToken.FOREGROUND, LabelDefinitionToken.BACKGROUND, SWT.NORMAL));
+				presentation.addStyleRange(new StyleRange(token.getOffset(), token.getLength(), LABEL_DEFINITION_FOREGROUND, DEFAULT_BACKGROUND, SWT.NORMAL));
 			} else if ("DASM_SPECIAL_OPCODE".equals(token.getType())) {
-				presentation.addStyleRange(new StyleRange(token.getOffset(), token.getLength(), SpecialOpCodeToken.FOREGROUND, SpecialOpCodeToken.BACKGROUND, SWT.BOLD));
+				presentation.addStyleRange(new StyleRange(token.getOffset(), token.getLength(), OPCODE_FOREGROUND, DEFAULT_BACKGROUND, SWT.BOLD));
 			} else if ("DASM_BASIC_OPCODE".equals(token.getType())) {
-				presentation.addStyleRange(new StyleRange(token.getOffset(), token.getLength(), BasicOpCodeToken.FOREGROUND, BasicOpCodeToken.BACKGROUND, SWT.BOLD));
+				presentation.addStyleRange(new StyleRange(token.getOffset(), token.getLength(), OPCODE_FOREGROUND, DEFAULT_BACKGROUND, SWT.BOLD));
 			} else if ("DASM_LITERAL".equals(token.getType())) {
-				presentation.addStyleRange(new StyleRange(token.getOffset(), token.getLength(), LiteralToken.FOREGROUND, LiteralToken.BACKGROUND, SWT.NORMAL));
+				presentation.addStyleRange(new StyleRange(token.getOffset(), token.getLength(), LITERAL_FOREGROUND, DEFAULT_BACKGROUND, SWT.NORMAL));
 			} else if ("DASM_REGISTER".equals(token.getType())) {
-				presentation.addStyleRange(new StyleRange(token.getOffset(), token.getLength(), RegisterToken.FOREGROUND, RegisterToken.BACKGROUND, SWT.BOLD));
+				presentation.addStyleRange(new StyleRange(token.getOffset(), token.getLength(), REGISTER_FOREGROUND, DEFAULT_BACKGROUND, SWT.BOLD));
 			} else if ("DASM_STRING".equals(token.getType())) {
-				presentation.addStyleRange(new StyleRange(token.getOffset(), token.getLength(), StringToken.FOREGROUND, StringToken.BACKGROUND, SWT.NORMAL));
+				presentation.addStyleRange(new StyleRange(token.getOffset(), token.getLength(), STRING_FOREGROUND, DEFAULT_BACKGROUND, SWT.NORMAL));
 			} else if ("DASM_DATA".equals(token.getType())) {
-				presentation.addStyleRange(new StyleRange(token.getOffset(), token.getLength(), DataToken.FOREGROUND, DataToken.BACKGROUND, SWT.BOLD));
+				presentation.addStyleRange(new StyleRange(token.getOffset(), token.getLength(), OPCODE_FOREGROUND, DEFAULT_BACKGROUND, SWT.BOLD));
 			} else if ("DASM_DIRECTIVE".equals(token.getType())) {
-				presentation.addStyleRange(new StyleRange(token.getOffset(), token.getLength(), DirectiveToken.FOREGROUND, DirectiveToken.BACKGROUND, SWT.BOLD));
+				presentation.addStyleRange(new StyleRange(token.getOffset(), token.getLength(), DIRECTIVE_FOREGROUND, DEFAULT_BACKGROUND, SWT.BOLD));
 			} else if ("DASM_DIRECTIVE_PARAMETERS".equals(token.getType())) {
-				presentation.addStyleRange(new StyleRange(token.getOffset(), token.getLength(), DirectiveParametersToken.FOREGROUND, DirectiveParametersToken.BACKGROUND, SWT.NORMAL));
+				presentation.addStyleRange(new StyleRange(token.getOffset(), token.getLength(), DIRECTIVE_PARAMETERS_FOREGROUND, DEFAULT_BACKGROUND, SWT.NORMAL));
 			} else if ("DASM_SIMPLE_STACK_ACCESS".equals(token.getType())) {
-				presentation.addStyleRange(new StyleRange(token.getOffset(), token.getLength(), SimpleStackAccessToken.FOREGROUND, SimpleStackAccessToken.BACKGROUND, SWT.BOLD));
+				presentation.addStyleRange(new StyleRange(token.getOffset(), token.getLength(), STACK_ACCESS_FOREGROUND, DEFAULT_BACKGROUND, SWT.BOLD));
 			} else if ("DASM_OFFSET_STACK_ACCESS".equals(token.getType())) {
-				presentation.addStyleRange(new StyleRange(token.getOffset(), token.getLength(), OffsetStackAccessToken.FOREGROUND, OffsetStackAccessToken.BACKGROUND, SWT.BOLD));
+				presentation.addStyleRange(new StyleRange(token.getOffset(), token.getLength(), STACK_ACCESS_FOREGROUND, DEFAULT_BACKGROUND, SWT.BOLD));
 			} else {
 				presentation.addStyleRange(new StyleRange(token.getOffset(), token.getLength(), DEFAULT_FOREGROUND, DEFAULT_BACKGROUND, SWT.NORMAL));
 			}
@@ -1,16 +1,46 @@
 package devcpu.editors.dasm;
 
+import java.util.Iterator;
+import java.util.Map;
+
+import org.eclipse.core.resources.IFile;
+import org.eclipse.core.resources.IMarker;
+import org.eclipse.core.resources.IResource;
+import org.eclipse.core.runtime.CoreException;
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.Status;
+import org.eclipse.core.runtime.jobs.Job;
+import org.eclipse.jface.text.source.CompositeRuler;
 import org.eclipse.jface.text.source.ISourceViewer;
 import org.eclipse.jface.text.source.IVerticalRuler;
 import org.eclipse.jface.text.source.SourceViewer;
+import org.eclipse.swt.SWT;
 import org.eclipse.swt.widgets.Composite;
+import org.eclipse.swt.widgets.Display;
+import org.eclipse.ui.IEditorInput;
+import org.eclipse.ui.IFileEditorInput;
 import org.eclipse.ui.editors.text.TextEditor;
 import org.eclipse.ui.editors.text.TextFileDocumentProvider;
 import org.eclipse.ui.texteditor.IDocumentProvider;
 
+import devcpu.NavigatorCommandHandler;
+import devcpu.assembler.Assembly;
+import devcpu.assembler.CycleAnalysis;
+import devcpu.assembler.SourceMap;
+import devcpu.assembler.WorkspaceFile;
+import devcpu.emulation.DMA;
+
 public class DASMEditor extends TextEditor {
+	/** Shown on the ruler only, not in the Problems view. */
+	public static final String CYCLE_BOUND_MARKER = "devcpu.cycleBound";
+	/** A bound that holds up the DCPU, which is a problem. */
+	public static final String CYCLE_WARNING_MARKER = "devcpu.cycleWarning";
 
 	private TextFileDocumentProvider documentProvider = new DASMFileDocumentProvider();
+	private CycleRulerColumn cycleColumn;
+	private CycleAnalysis cycleAnalysis;
+	private String cyclePath;
 
 	@Override
 	public IDocumentProvider getDocumentProvider() {
@@ -23,6 +53,134 @@ public class DASMEditor extends TextEditor {
 		setSourceViewerConfiguration(new DASMSourceViewerConfiguration());
 	}
 
+	@Override
+	protected void doSetInput(IEditorInput input) throws CoreException {
+		super.doSetInput(input);
+		analyzeCycles();
+	}
+
+	@Override
+	protected void editorSaved() {
+		super.editorSaved();
+		analyzeCycles();
+	}
+
+	@Override
+	protected IVerticalRuler createVerticalRuler() {
+		IVerticalRuler ruler = super.createVerticalRuler();
+		if (ruler instanceof CompositeRuler) {
+			int columns = 0;
+			for (Iterator<?> i = ((CompositeRuler) ruler).getDecoratorIterator(); i.hasNext(); i.next()) {
+				columns++;
+			}
+			cycleColumn = new CycleRulerColumn();
+			cycleColumn.setForeground(Display.getDefault().getSystemColor(SWT.COLOR_DARK_GRAY));
+			cycleColumn.setAnalysis(cycleAnalysis, cyclePath);
+			((CompositeRuler) ruler).addDecorator(columns, cycleColumn);
+		}
+		return ruler;
+	}
+
+	/**
+	 * Assembles the file in the background, to show what its instructions
+	 * and blocks cost in cycles beside them, and to mark how long its
+	 * interrupt handlers and subroutines can take at most. Files that don't
+	 * assemble on their own, like most includes, aren't analyzed.
+	 */
+	private void analyzeCycles() {
+		if (!(getEditorInput() instanceof IFileEditorInput)) {
+			return;
+		}
+		final IFile file = ((IFileEditorInput) getEditorInput()).getFile();
+		Job job = new Job("Analyze cycles of " + file.getName()) {
+			protected IStatus run(IProgressMonitor monitor) {
+				CycleAnalysis analysis = null;
+				Map<String,Integer> labels = null;
+				try {
+					Assembly assembly = new Assembly(new WorkspaceFile(file));
+					assembly.setBuildCache(NavigatorCommandHandler.getBuildCache());
+					assembly.assemble();
+					analysis = assembly.getCycleAnalysis();
+					labels = assembly.getLabels();
+				} catch (Exception e) {
+					//Errors are reported when the file is assembled for real
+				}
+				final CycleAnalysis result = analysis;
+				final String path = SourceMap.pathOf(new WorkspaceFile(file));
+				Display.getDefault().asyncExec(new Runnable() {
+					public void run() {
+						cycleAnalysis = result;
+						cyclePath = path;
+						if (cycleColumn != null) {
+							cycleColumn.setAnalysis(result, path);
+						}
+					}
+				});
+				try {
+					markBounds(file, path, analysis, labels);
+				} catch (CoreException e) {
+					e.printStackTrace();
+				}
+				return Status.OK_STATUS;
+			}
+		};
+		job.setSystem(true);
+		job.schedule();
+	}
+
+	/**
+	 * Marks the worst-case bound of each interrupt handler and subroutine that
+	 * starts in the file on the ruler. Only handlers that have none or that
+	 * take more than a frame, which would hold up everything else the DCPU
+	 * does, are warned of as problems.
+	 */
+	private static void markBounds(IFile file, String path, CycleAnalysis analysis, Map<String,Integer> labels) throws CoreException {
+		file.deleteMarkers(CYCLE_BOUND_MARKER, true, IResource.DEPTH_ZERO);
+		if (analysis == null) {
+			return;
+		}
+		for (int address : analysis.getHandlers()) {
+			int bound = analysis.getBound(address);
+			String name = "Interrupt handler " + nameOf(address, labels);
+			if (bound == CycleAnalysis.UNBOUNDED) {
+				markBound(file, path, analysis, address, CYCLE_WARNING_MARKER, name + " has no bound: " + analysis.getUnboundedReason(address));
+			} else if (bound > DMA.CYCLES_PER_TICK) {
+				markBound(file, path, analysis, address, CYCLE_WARNING_MARKER, name + " takes up to " + bound + " cycles, more than the " + DMA.CYCLES_PER_TICK + " of a frame");
+			} else {
+				markBound(file, path, analysis, address, CYCLE_BOUND_MARKER, name + " takes at most " + bound + " cycles, " + bound * 100 / DMA.CYCLES_PER_TICK + "% of a frame");
+			}
+		}
+		for (int address : analysis.getSubroutines()) {
+			int bound = analysis.getBound(address);
+			if (bound != CycleAnalysis.UNBOUNDED) {
+				markBound(file, path, analysis, address, CYCLE_BOUND_MARKER, "Subroutine " + nameOf(address, labels) + " takes at most " + bound + " cycles");
+			}
+		}
+	}
+
+	private static void markBound(IFile file, String path, CycleAnalysis analysis, int address, String type, String message) throws CoreException {
+		SourceMap map = analysis.getSourceMap();
+		int entry = map.find(address);
+		if (entry < 0 || !map.getPath(entry).equals(path)) {
+			return;
+		}
+		IMarker marker = file.createMarker(type);
+		marker.setAttribute(IMarker.LINE_NUMBER, map.getLineNumber(entry));
+		if (type.equals(CYCLE_WARNING_MARKER)) {
+			marker.setAttribute(IMarker.SEVERITY, IMarker.SEVERITY_WARNING);
+		}
+		marker.setAttribute(IMarker.MESSAGE, message);
+	}
+
+	private static String nameOf(int address, Map<String,Integer> labels) {
+		for (Map.Entry<String,Integer> label : labels.entrySet()) {
+			if (label.getValue() == address) {
+				return label.getKey();
+			}
+		}
+		return String.format("at %04X", address);
+	}
+
 	@Override
 	protected ISourceViewer createSourceViewer(Composite parent, IVerticalRuler ruler, int styles) {
 		ISourceViewer sourceViewer= new SourceViewer(parent, ruler, styles);
@@ -61,7 +61,7 @@ public class DASMPartitioner implements IDocumentPartitioner {
 		ArrayList<ITypedRegion> regions = new ArrayList<ITypedRegion>();
 		for (LexerToken token : tokens) {
 			if (token.getStart() >= offset || token.getEnd() < offset + length || (token.getStart() < offset && token.getEnd() >= offset + length)) {
-				regions.add(token);
+				regions.add(new TypedRegion(token.getOffset(), token.getLength(), token.getType()));
 			} else if (token.getStart() >= offset + length) {
 				break;
 			}
@@ -0,0 +1,383 @@
+package devcpu.emulation;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * The code in a RAM or disk image, recovered without the source it was
+ * assembled from, as basic blocks and the edges between them, for programs
+ * that were never assembled here, like other people's floppies and
+ * operating systems.
+ *
+ * Code is told from data by following it. Starting from the entry points,
+ * address 0 and anything else known to run, every instruction is decoded and
+ * the ones it can go on to are followed in turn: the next one, both sides of
+ * every IF, skipping with {@link DCPU#getInstructionLength(char)}, the
+ * literal targets of <code>SET PC</code> and <code>JSR</code>, and the
+ * interrupt handlers set with <code>IAS</code>. Words nothing reaches are
+ * data, and so is a word that doesn't decode as an instruction, where the
+ * path into it is left. Jumps to computed addresses can't be followed, so
+ * what only they reach stays data until it is seen to run; see
+ * {@link #addEntryPoint(int)}.
+ *
+ * {@link #update()} keeps the graph up to date as the memory changes, doing
+ * as little as it can: only the words decoded as code, and the words code
+ * was followed into but stopped at, are compared with what they were, so
+ * writes to other data cost nothing, and edits to code that don't change
+ * where it goes, like a changed constant, only change the words kept.
+ * Anything else, and any new entry point, rebuilds the graph.
+ */
+public class ControlFlowGraph {
+	//What each word is
+	private static final byte DATA = 0;
+	private static final byte INSTRUCTION = 1;
+	private static final byte OPERAND = 2;
+	private final char[] memory;
+	private final int length;
+	private final BitSet entryPoints = new BitSet();
+	private boolean stale = true;
+	private int version;
+	//The words as they were decoded, by address
+	private char[] words;
+	private byte[] types;
+	private byte[] flows;
+	private int[] targets;
+	private Block[] blockAt;
+	private ArrayList<Block> blocks = new ArrayList<Block>();
+	private BitSet subroutines = new BitSet();
+	private BitSet handlers = new BitSet();
+	//Data words a path into stopped at, which may decode once they change
+	private BitSet frontier = new BitSet();
+
+	/**
+	 * A run of instructions only ever entered at its first, and only left
+	 * after its last.
+	 */
+	public static class Block {
+		public final int start;
+		//Just past the last word of the last instruction
+		public int end;
+		//Where the last instruction goes; see DCPU.getFlow(char)
+		public byte exit;
+		public final ArrayList<Block> successors = new ArrayList<Block>();
+		public final ArrayList<Block> predecessors = new ArrayList<Block>();
+		//Subroutines the block calls, by address, leaving out computed ones
+		public final ArrayList<Integer> calls = new ArrayList<Integer>();
+		//The address of the last instruction
+		int last;
+
+		Block(int start) {
+			this.start = start;
+		}
+
+		@Override
+		public String toString() {
+			return String.format("%04X-%04X", start, end);
+		}
+	}
+
+	/**
+	 * Follows the code in memory, which is kept rather than copied so that
+	 * {@link #update()} sees it change; only the first 0x10000 words can be
+	 * addressed.
+	 */
+	public ControlFlowGraph(char[] memory) {
+		this.memory = memory;
+		this.length = Math.min(memory.length, 0x10000);
+		entryPoints.set(0);
+	}
+
+	/**
+	 * Follows the code on a disk, as a boot loader loading it from its first
+	 * sector to address 0 would put it in RAM.
+	 */
+	public static ControlFlowGraph of(FloppyDisk disk) throws IOException {
+		char[] image = new char[Math.min(FloppyDisk.WORDS, 0x10000)];
+		disk.read(0, image, 0, image.length);
+		ControlFlowGraph graph = new ControlFlowGraph(image);
+		graph.update();
+		return graph;
+	}
+
+	/**
+	 * Follows code from an address as well, like one PC or IA was seen to
+	 * hold, if it isn't already known to start an instruction. The graph is
+	 * rebuilt the next time it is updated.
+	 */
+	public synchronized void addEntryPoint(int address) {
+		address &= 0xFFFF;
+		if (address < length && !entryPoints.get(address) && (types == null || types[address] != INSTRUCTION)) {
+			entryPoints.set(address);
+			stale = true;
+		}
+	}
+
+	/**
+	 * Brings the graph up to date with the memory, and returns whether it
+	 * changed; see {@link #getVersion()}.
+	 */
+	public synchronized boolean update() {
+		if (!stale) {
+			for (int address = 0; address < length; address++) {
+				if (memory[address] != words[address] && (types[address] != DATA || frontier.get(address))) {
+					if (types[address] == DATA) {
+						stale = true;
+						break;
+					}
+					int start = address;
+					while (types[start] == OPERAND) {
+						start--;
+					}
+					if (!goesTheSameWay(start)) {
+						stale = true;
+						break;
+					}
+					int end = start + DCPU.getInstructionLength(memory[start]);
+					for (int i = start; i < end; i++) {
+						words[i] = memory[i];
+					}
+					address = end - 1;
+				}
+			}
+		}
+		if (!stale) {
+			return false;
+		}
+		build();
+		stale = false;
+		version++;
+		return true;
+	}
+
+	//Whether an instruction that was decoded still decodes to the same length, going the same way
+	private boolean goesTheSameWay(int address) {
+		char opcode = memory[address];
+		if (!DCPU.isValidInstruction(opcode) || DCPU.getInstructionLength(opcode) != DCPU.getInstructionLength(words[address])) {
+			return false;
+		}
+		return DCPU.getFlow(memory[address]) == flows[address] && DCPU.getTarget(memory, address) == targets[address];
+	}
+
+	private void build() {
+		words = Arrays.copyOf(memory, length);
+		types = new byte[length];
+		flows = new byte[length];
+		targets = new int[length];
+		blockAt = new Block[length];
+		blocks = new ArrayList<Block>();
+		subroutines = new BitSet();
+		handlers = new BitSet();
+		frontier = new BitSet();
+		BitSet leaders = new BitSet();
+		int[] pending = new int[64];
+		int count = 0;
+		for (int address = entryPoints.nextSetBit(0); address >= 0; address = entryPoints.nextSetBit(address + 1)) {
+			if (count == pending.length) {
+				pending = Arrays.copyOf(pending, count * 2);
+			}
+			pending[count++] = address;
+			leaders.set(address);
+		}
+		while (count > 0) {
+			int address = pending[--count];
+			//Follow the code straight on from the address, queueing everywhere else it goes
+			while (address < length && types[address] == DATA) {
+				char opcode = words[address];
+				int size = DCPU.getInstructionLength(opcode);
+				if (!DCPU.isValidInstruction(opcode) || address + size > length || !isData(address + 1, address + size)) {
+					frontier.set(address);
+					break;
+				}
+				types[address] = INSTRUCTION;
+				for (int i = address + 1; i < address + size; i++) {
+					types[i] = OPERAND;
+				}
+				byte flow = DCPU.getFlow(opcode);
+				int target = DCPU.getTarget(words, address);
+				flows[address] = flow;
+				targets[address] = target;
+				int next = address + size;
+				if (target >= 0) {
+					if (count + 2 > pending.length) {
+						pending = Arrays.copyOf(pending, pending.length * 2);
+					}
+					pending[count++] = target;
+					leaders.set(target);
+					if (flow == DCPU.CALLS) {
+						subroutines.set(target);
+					} else if (DCPU.isIas(opcode)) {
+						handlers.set(target);
+					}
+				}
+				if (flow == DCPU.BRANCHES) {
+					int skipped = skipTarget(address);
+					if (skipped < length) {
+						if (count + 1 > pending.length) {
+							pending = Arrays.copyOf(pending, pending.length * 2);
+						}
+						pending[count++] = skipped;
+						leaders.set(skipped);
+					}
+					leaders.set(next);
+				} else if (flow == DCPU.JUMPS || flow == DCPU.RETURNS || flow == DCPU.COMPUTED) {
+					break;
+				}
+				address = next;
+			}
+		}
+		buildBlocks(leaders);
+	}
+
+	private boolean isData(int start, int end) {
+		for (int i = start; i < end; i++) {
+			if (types[i] != DATA) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private void buildBlocks(BitSet leaders) {
+		Block block = null;
+		for (int address = 0; address < length; address++) {
+			if (types[address] == DATA) {
+				block = null;
+				continue;
+			}
+			if (types[address] == OPERAND) {
+				blockAt[address] = block;
+				continue;
+			}
+			if (block == null || leaders.get(address)) {
+				block = new Block(address);
+				blocks.add(block);
+			}
+			blockAt[address] = block;
+			block.last = address;
+			block.end = address + DCPU.getInstructionLength(words[address]);
+			block.exit = flows[address];
+			if (flows[address] == DCPU.CALLS && targets[address] >= 0) {
+				block.calls.add(targets[address]);
+			}
+			if (flows[address] != DCPU.FALLS && flows[address] != DCPU.CALLS) {
+				block = null;
+			}
+		}
+		for (Block from : blocks) {
+			switch (from.exit) {
+			case DCPU.BRANCHES:
+				link(from, from.end);
+				link(from, skipTarget(from.last));
+				break;
+			case DCPU.JUMPS:
+				link(from, targets[from.last]);
+				break;
+			case DCPU.RETURNS:
+			case DCPU.COMPUTED:
+				break;
+			default:
+				link(from, from.end);
+				break;
+			}
+		}
+	}
+
+	private void link(Block from, int address) {
+		if (address < 0 || address >= length || blockAt[address] == null || blockAt[address].start != address) {
+			return;
+		}
+		Block to = blockAt[address];
+		if (!from.successors.contains(to)) {
+			from.successors.add(to);
+			to.predecessors.add(from);
+		}
+	}
+
+	/**
+	 * Counts up every time the graph is rebuilt, so that whatever shows it
+	 * knows when to look again.
+	 */
+	public synchronized int getVersion() {
+		return version;
+	}
+
+	/**
+	 * The blocks, in order of address.
+	 */
+	public synchronized List<Block> getBlocks() {
+		return blocks;
+	}
+
+	/**
+	 * The block an address is part of, or null if it is data; for telling
+	 * where PC is, say, when profiling.
+	 */
+	public synchronized Block getBlockAt(int address) {
+		return blockAt == null || address < 0 || address >= length ? null : blockAt[address];
+	}
+
+	public synchronized boolean isCode(int address) {
+		return getBlockAt(address) != null;
+	}
+
+	/**
+	 * Whether a block starts at an address: an entry point, a jump or call
+	 * target, either side of an IF, or code after a jump.
+	 */
+	public synchronized boolean isBlockStart(int address) {
+		Block block = getBlockAt(address);
+		return block != null && block.start == address;
+	}
+
+	/**
+	 * Whether an instruction starts at an address, rather than it being data
+	 * or the next word of an instruction.
+	 */
+	public synchronized boolean isInstruction(int address) {
+		return types != null && address >= 0 && address < length && types[address] == INSTRUCTION;
+	}
+
+	/**
+	 * The addresses <code>JSR</code> calls, in order.
+	 */
+	public synchronized int[] getSubroutines() {
+		return toArray(subroutines);
+	}
+
+	/**
+	 * The addresses <code>IAS</code> sets as interrupt handlers, in order.
+	 */
+	public synchronized int[] getHandlers() {
+		return toArray(handlers);
+	}
+
+	public synchronized int[] getEntryPoints() {
+		return toArray(entryPoints);
+	}
+
+	private static int[] toArray(BitSet addresses) {
+		int[] array = new int[addresses.cardinality()];
+		int i = 0;
+		for (int address = addresses.nextSetBit(0); address >= 0; address = addresses.nextSetBit(address + 1)) {
+			array[i++] = address;
+		}
+		return array;
+	}
+
+	//Where an IF that fails goes on from, past the instruction it skips and any IFs chained before it
+	private int skipTarget(int address) {
+		int skipped = address + DCPU.getInstructionLength(words[address]);
+		while (skipped < length) {
+			char opcode = words[skipped];
+			int cmd = opcode & 0x1F;
+			skipped += DCPU.getInstructionLength(opcode);
+			if (cmd < BasicOp.IFB || cmd > BasicOp.IFU) {
+				break;
+			}
+		}
+		return skipped;
+	}
+}
@@ -7,6 +7,7 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 
+
 /**
  * Experimental 1.7 update to Notch's 1.4 emulator
  * @author Notch, Herobrine
@@ -22,10 +23,22 @@ public class DCPU
   public char ia;
   public char[] registers = new char[8];
   public int cycles;
+  //Number of completed 60hz hardware ticks; see getElapsedCycles()
+  public long frames;
+  public final DMA dma = new DMA(this);
   protected ArrayList<DCPUHardware> hardware = new ArrayList<DCPUHardware>();
 
   protected static volatile boolean stop = false;
   protected static final int khz = 100;
+  //What skipping an instruction costs, whatever it is
+  public static final int SKIP_CYCLES = 1;
+  //How an instruction goes on; see getFlow()
+  public static final byte FALLS = 0;
+  public static final byte BRANCHES = 1;
+  public static final byte JUMPS = 2;
+  public static final byte CALLS = 3;
+  public static final byte RETURNS = 4;
+  public static final byte COMPUTED = 5;
   boolean isSkipping = false;
   boolean isOnFire = false;
   boolean queueingEnabled = false; //TODO: Verify implementation
@@ -33,6 +46,15 @@ public class DCPU
   int ip;
   int iwp;
 	public boolean disassemble = DISASSEMBLE;
+	//Words waiting for a safe point to be written into RAM at, and how many frames they have waited
+	private final Object patchLock = new Object();
+	private int[] patchAddresses;
+	private char[] patchWords;
+	private int patchFrames;
+	private boolean patched;
+	private ControlFlowGraph controlFlowGraph;
+	//Bumped whenever a whole program is written into RAM
+	private volatile int generation;
 //	public int[] opcounts = new int[64];
 
   public int getAddrB(int type)
@@ -228,18 +250,155 @@ public class DCPU
       cmd = opcode >> 5 & 0x1F;
       if (cmd > 0) {
         int atype = opcode >> 10 & 0x3F;
-        if (((atype & 0xF8) == 16) || (atype == 31) || (atype == 30)) len++; 
+        if (atype < 0x20 && readsNextWord(atype)) len++;
       }
     }
     else {
-      int atype = opcode >> 5 & 0x1F;
-      int btype = opcode >> 10 & 0x3F;
-      if (((atype & 0xF8) == 16) || (atype == 31) || (atype == 30)) len++;
-      if (((btype & 0xF8) == 16) || (btype == 31) || (btype == 30)) len++;
+      int atype = opcode >> 10 & 0x3F;
+      int btype = opcode >> 5 & 0x1F;
+      if (atype < 0x20 && readsNextWord(atype)) len++;
+      if (readsNextWord(btype)) len++;
     }
     return len;
   }
 
+  /**
+   * The cycles an instruction takes when it runs, as <code>tick()</code>
+   * counts them: one, one more for each next word it reads, and whatever its
+   * operation adds. An instruction that is skipped takes
+   * <code>SKIP_CYCLES</code> instead, however long it is.
+   */
+  public static int getCycles(char opcode) {
+    int cycles = 1;
+    int cmd = opcode & 0x1F;
+    int atype = opcode >> 10 & 0x3F;
+    if (atype < 0x20 && readsNextWord(atype)) cycles++;
+    if (cmd == 0) {
+      switch (opcode >> 5 & 0x1F) {
+      case 1: //JSR
+      case 11: //RFI
+        return cycles + 2;
+      case 8: //INT
+      case 17: //HWQ
+      case 18: //HWI
+        return cycles + 3;
+      case 12: //IAQ
+      case 16: //HWN
+        return cycles + 1;
+      default:
+        return cycles;
+      }
+    }
+    if (readsNextWord(opcode >> 5 & 0x1F)) cycles++;
+    switch (cmd) {
+    case 2: //ADD
+    case 3: //SUB
+    case 4: //MUL
+    case 5: //MLI
+    case 26: //ADX
+    case 27: //SBX
+      return cycles + 1;
+    case 6: //DIV
+    case 7: //DVI
+    case 8: //MOD
+    case 9: //MDI
+      return cycles + 2;
+    default:
+      //IFB to IFU
+      return cmd >= 16 && cmd <= 23 ? cycles + 1 : cycles;
+    }
+  }
+
+  private static boolean readsNextWord(int type) {
+    return (type & 0xF8) == 0x10 || type == 0x1A || type == 0x1E || type == 0x1F;
+  }
+
+  /**
+   * Whether a word decodes as an instruction the DCPU knows.
+   */
+  public static boolean isValidInstruction(char opcode) {
+    int cmd = opcode & 0x1F;
+    if (cmd == 0) {
+      return OpCodes.special.contains(opcode >> 5 & 0x1F);
+    }
+    return OpCodes.basic.contains(cmd);
+  }
+
+  /**
+   * How an instruction goes on, for following code without running it:
+   * <code>FALLS</code> through to the next one, <code>BRANCHES</code> for
+   * the IFs, <code>JUMPS</code> for <code>SET PC</code> to a literal,
+   * <code>CALLS</code> for <code>JSR</code>, <code>RETURNS</code> for
+   * <code>RFI</code> and <code>SET PC, POP</code>, and <code>COMPUTED</code>
+   * for anything else that writes PC. See {@link #getTarget(char[], int)}
+   * for where jumps and calls go.
+   */
+  public static byte getFlow(char opcode) {
+    int cmd = opcode & 0x1F;
+    if (cmd == 0) {
+      switch (opcode >> 5 & 0x1F) {
+      case SpecialOp.JSR:
+        return CALLS;
+      case SpecialOp.RFI:
+        return RETURNS;
+      default:
+        return FALLS;
+      }
+    }
+    if (cmd >= BasicOp.IFB && cmd <= BasicOp.IFU) {
+      return BRANCHES;
+    }
+    if ((opcode >> 5 & 0x1F) != 0x1C) {
+      return FALLS;
+    }
+    //Writes PC
+    int atype = opcode >> 10 & 0x3F;
+    if (cmd == BasicOp.SET && (atype >= 0x20 || atype == 0x1F)) {
+      return JUMPS;
+    }
+    if (cmd == BasicOp.SET && atype == 0x18) {
+      return RETURNS;
+    }
+    return COMPUTED;
+  }
+
+  /**
+   * Where the instruction at an address in memory jumps, calls or sets
+   * interrupts to be handled, if that's a literal, or -1. <code>IAS 0</code>
+   * turns interrupts off, so it has none.
+   */
+  public static int getTarget(char[] memory, int address) {
+    char opcode = memory[address];
+    if ((opcode & 0x1F) == 0) {
+      int special = opcode >> 5 & 0x1F;
+      if (special == SpecialOp.JSR || special == SpecialOp.IAS) {
+        int target = getLiteralA(memory, address);
+        return special == SpecialOp.IAS && target == 0 ? -1 : target;
+      }
+      return -1;
+    }
+    return getFlow(opcode) == JUMPS ? getLiteralA(memory, address) : -1;
+  }
+
+  /**
+   * The value of the a operand of the instruction at an address in memory if
+   * it's a literal, or -1.
+   */
+  public static int getLiteralA(char[] memory, int address) {
+    int atype = memory[address] >> 10 & 0x3F;
+    if (atype >= 0x20) {
+      return atype - 0x21 & 0xFFFF;
+    }
+    if (atype == 0x1F && address + 1 < memory.length) {
+      return memory[address + 1];
+    }
+    return -1;
+  }
+
+  public static boolean isIas(char opcode) {
+    return (opcode & 0x1F) == 0 && (opcode >> 5 & 0x1F) == SpecialOp.IAS;
+  }
+
   public void skip() {
     isSkipping = true;
   }
@@ -573,11 +732,22 @@ public class DCPU
   }
 
   public void tickHardware() {
+  	dma.tick60hz();
   	synchronized (hardware) {
   		for (int i = 0; i < hardware.size(); i++) {
   			((DCPUHardware)hardware.get(i)).tick60hz();
   		}
   	}
+  	frames++;
+  }
+
+  /**
+   * Emulated time in cycles since the DCPU was started. Unlike
+   * <code>cycles</code>, which the run loop winds back every frame, this
+   * only ever increases.
+   */
+  public long getElapsedCycles() {
+    return frames * DMA.CYCLES_PER_TICK + cycles;
   }
 
   public void dumpRegisters()
@@ -618,6 +788,121 @@ public class DCPU
     }
   }
 
+	/**
+	 * Whether the DCPU is being run on a thread of its own. A plain DCPU is
+	 * only ever stepped by whoever holds it.
+	 */
+	public boolean isRunning() {
+		return false;
+	}
+
+	/**
+	 * Writes words into RAM, at addresses given in ascending order, while the
+	 * DCPU runs, at a safe point: between frames, with PC outside of every run
+	 * of words being written, so that no instruction being replaced is running
+	 * and all of the words change at once. Waits up to a second of frames for
+	 * one, and returns whether the words were written. A DCPU that isn't
+	 * running has them written at once.
+	 */
+	public boolean patch(int[] addresses, char[] words) throws InterruptedException {
+		synchronized (patchLock) {
+			if (isRunning()) {
+				patchAddresses = addresses;
+				patchWords = words;
+				patchFrames = 0;
+				patched = false;
+				while (patchAddresses != null && isRunning()) {
+					patchLock.wait(100);
+				}
+				if (patchAddresses == null) {
+					return patched;
+				}
+				patchAddresses = null;
+				patchWords = null;
+			}
+			for (int i = 0; i < addresses.length; i++) {
+				ram[addresses[i]] = words[i];
+			}
+			return true;
+		}
+	}
+
+	protected void applyPatch() {
+		synchronized (patchLock) {
+			if (patchAddresses == null) {
+				return;
+			}
+			if (isPatchSafe()) {
+				for (int i = 0; i < patchAddresses.length; i++) {
+					ram[patchAddresses[i]] = patchWords[i];
+				}
+				patched = true;
+			} else if (++patchFrames < 60) {
+				return;
+			}
+			patchAddresses = null;
+			patchWords = null;
+			patchLock.notifyAll();
+		}
+	}
+
+	//Whether PC is outside every run of consecutive addresses being written
+	private boolean isPatchSafe() {
+		int start = 0;
+		for (int i = 0; i < patchAddresses.length; i++) {
+			if (i == 0 || patchAddresses[i] != patchAddresses[i - 1] + 1) {
+				start = patchAddresses[i];
+			}
+			if (pc >= start && pc <= patchAddresses[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * The code in RAM as it is now, recovered for disassembling and profiling
+	 * whatever was loaded, whether it was assembled here or not. The graph is
+	 * kept and brought up to date as it is asked for, which only costs much
+	 * if code changed; where PC and IA point is followed as code as well, to
+	 * find code only reached through computed jumps.
+	 */
+	public synchronized ControlFlowGraph getControlFlowGraph() {
+		if (controlFlowGraph == null) {
+			controlFlowGraph = new ControlFlowGraph(ram);
+		}
+		controlFlowGraph.addEntryPoint(pc);
+		if (ia != 0) {
+			controlFlowGraph.addEntryPoint(ia);
+		}
+		controlFlowGraph.update();
+		return controlFlowGraph;
+	}
+
+	/**
+	 * Marks RAM as holding a different program than before, forgetting the
+	 * control flow graph of the one before, and returns the program's
+	 * generation. Whoever writes a whole program into RAM calls this, so that
+	 * whoever wrote the one before, or recorded anything about it, can tell
+	 * it's gone.
+	 */
+	public synchronized int newGeneration() {
+		//Whatever PC and IA were seen to point at was part of the old program
+		controlFlowGraph = null;
+		return ++generation;
+	}
+
+	/**
+	 * The generation of the program in RAM; see {@link #newGeneration()}.
+	 */
+	public int getGeneration() {
+		return generation;
+	}
+
+	protected synchronized void forgetControlFlowGraph() {
+		controlFlowGraph = null;
+	}
+
 	public boolean addHardware(DCPUHardware hw) {
 		synchronized (hardware) {
 			return hardware.add(hw);
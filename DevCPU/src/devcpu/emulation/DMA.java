@@ -0,0 +1,183 @@
+package devcpu.emulation;
+
+import java.io.IOException;
+import java.util.ArrayList;
+
+/**
+ * Block transfers between devices and DCPU RAM. Every transfer wraps around
+ * the 16-bit address space the way the DCPU does, but is done with at most two
+ * {@link System#arraycopy} calls split at the wrap point instead of a word at a
+ * time. Transfers may charge the DCPU a number of cycles per word.
+ *
+ * Transfers can also be scheduled to complete later, after a number of DCPU
+ * cycles, for devices like the M35FD that work asynchronously. Pending
+ * transfers are advanced from the 60hz hardware tick.
+ */
+public class DMA {
+	public static final int RAM_WORDS = 0x10000;
+	//Matches the frame length used by the run loop in DefaultControllableDCPU
+	public static final int CYCLES_PER_TICK = 1000 * DCPU.khz / 60 + 1;
+
+	private final DCPU dcpu;
+	private final ArrayList<Transfer> pending = new ArrayList<Transfer>();
+	private int defaultCyclesPerWord;
+
+	public DMA(DCPU dcpu) {
+		this.dcpu = dcpu;
+	}
+
+	/**
+	 * Copies <code>length</code> words from <code>src</code> into
+	 * <code>ram</code> starting at <code>address</code>, wrapping at 0x10000.
+	 * Doesn't charge cycles; see {@link #toRam}.
+	 */
+	public static void copyToRam(char[] src, int srcPos, char[] ram, int address, int length) {
+		address &= 0xFFFF;
+		int first = Math.min(length, RAM_WORDS - address);
+		System.arraycopy(src, srcPos, ram, address, first);
+		if (first < length) {
+			System.arraycopy(src, srcPos + first, ram, 0, length - first);
+		}
+	}
+
+	/**
+	 * Copies <code>length</code> words out of <code>ram</code> starting at
+	 * <code>address</code>, wrapping at 0x10000. Doesn't charge cycles; see
+	 * {@link #fromRam}.
+	 */
+	public static void copyFromRam(char[] ram, int address, char[] dest, int destPos, int length) {
+		address &= 0xFFFF;
+		int first = Math.min(length, RAM_WORDS - address);
+		System.arraycopy(ram, address, dest, destPos, first);
+		if (first < length) {
+			System.arraycopy(ram, 0, dest, destPos + first, length - first);
+		}
+	}
+
+	public void toRam(char[] src, int srcPos, int address, int length) {
+		toRam(src, srcPos, address, length, defaultCyclesPerWord);
+	}
+
+	public void toRam(char[] src, int srcPos, int address, int length, int cyclesPerWord) {
+		copyToRam(src, srcPos, dcpu.ram, address, length);
+		dcpu.cycles += length * cyclesPerWord;
+	}
+
+	public void fromRam(int address, char[] dest, int destPos, int length) {
+		fromRam(address, dest, destPos, length, defaultCyclesPerWord);
+	}
+
+	public void fromRam(int address, char[] dest, int destPos, int length, int cyclesPerWord) {
+		copyFromRam(dcpu.ram, address, dest, destPos, length);
+		dcpu.cycles += length * cyclesPerWord;
+	}
+
+	/**
+	 * Reads <code>length</code> words from the disk straight into RAM,
+	 * wrapping at 0x10000.
+	 */
+	public void toRam(FloppyDisk disk, int word, int address, int length, int cyclesPerWord) throws IOException {
+		address &= 0xFFFF;
+		int first = Math.min(length, RAM_WORDS - address);
+		disk.read(word, dcpu.ram, address, first);
+		if (first < length) {
+			disk.read(word + first, dcpu.ram, 0, length - first);
+		}
+		dcpu.cycles += length * cyclesPerWord;
+	}
+
+	/**
+	 * Writes <code>length</code> words from RAM straight to the disk, wrapping
+	 * at 0x10000.
+	 */
+	public void fromRam(int address, FloppyDisk disk, int word, int length, int cyclesPerWord) throws IOException {
+		address &= 0xFFFF;
+		int first = Math.min(length, RAM_WORDS - address);
+		disk.write(word, dcpu.ram, address, first);
+		if (first < length) {
+			disk.write(word + first, dcpu.ram, 0, length - first);
+		}
+		dcpu.cycles += length * cyclesPerWord;
+	}
+
+	public int getDefaultCyclesPerWord() {
+		return defaultCyclesPerWord;
+	}
+
+	public void setDefaultCyclesPerWord(int defaultCyclesPerWord) {
+		this.defaultCyclesPerWord = defaultCyclesPerWord;
+	}
+
+	/**
+	 * Runs <code>transfer</code> once the DCPU has executed roughly
+	 * <code>cycles</code> more cycles, measured in 60hz ticks.
+	 */
+	public Transfer schedule(Transfer transfer, int cycles) {
+		transfer.remainingCycles = cycles;
+		synchronized (pending) {
+			pending.add(transfer);
+		}
+		return transfer;
+	}
+
+	public boolean cancel(Transfer transfer) {
+		synchronized (pending) {
+			return pending.remove(transfer);
+		}
+	}
+
+	/**
+	 * Advances pending transfers by one frame's worth of cycles and completes
+	 * the ones that are due, in the order they were scheduled.
+	 */
+	public void tick60hz() {
+		ArrayList<Transfer> due = null;
+		synchronized (pending) {
+			for (int i = 0; i < pending.size(); i++) {
+				Transfer transfer = pending.get(i);
+				if ((transfer.remainingCycles -= CYCLES_PER_TICK) <= 0) {
+					if (due == null) {
+						due = new ArrayList<Transfer>();
+					}
+					due.add(transfer);
+					pending.remove(i--);
+				}
+			}
+		}
+		if (due != null) {
+			for (Transfer transfer : due) {
+				try {
+					transfer.run(this);
+					transfer.completed();
+				} catch (IOException e) {
+					e.printStackTrace();
+					transfer.failed(e);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Drops all pending transfers without completing them.
+	 */
+	public void reset() {
+		synchronized (pending) {
+			pending.clear();
+		}
+	}
+
+	/**
+	 * A transfer completed asynchronously by {@link DMA#tick60hz()}.
+	 */
+	public static abstract class Transfer {
+		private int remainingCycles;
+
+		protected abstract void run(DMA dma) throws IOException;
+
+		protected void completed() {
+		}
+
+		protected void failed(IOException e) {
+		}
+	}
+}
@@ -124,6 +124,7 @@ public class DefaultControllableDCPU extends DCPU implements Identifiable { //,
 		      tickHardware();
 		      cycles -= cyclesPerFrame;
 		      nextTime += nsPerFrame;
+		      applyPatch();
 		    }
 		    pc = 0;
 		    sp = 0;
@@ -131,6 +132,7 @@ public class DefaultControllableDCPU extends DCPU implements Identifiable { //,
 		    ia = 0;
 		    registers = new char[8];
 		    cycles = 0;
+		    frames = 0;
 		    stop = false;
 		    isSkipping = false;
 		    isOnFire = false;
@@ -138,9 +140,12 @@ public class DefaultControllableDCPU extends DCPU implements Identifiable { //,
 		    interrupts = new char[256];
 		    ip = 0;
 		    iwp = 0;
+		    dma.reset();
 		    for (DCPUHardware hw : hardware) {
 		    	hw.powerOff();
 		    }
+		    //Whatever PC and IA were seen to point at no longer runs
+		    forgetControlFlowGraph();
 			}
 		}).start();
 	}
@@ -174,11 +179,13 @@ public class DefaultControllableDCPU extends DCPU implements Identifiable { //,
 		return manager;
 	}
 
+	@Override
 	public boolean isRunning() {
 		return keepAlive;
 	}
 
 	public void load(File file) throws IOException {
+		newGeneration();
 		DataInputStream dis = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
 		int i = 0;
 		try {
@@ -1,68 +1,442 @@
 package devcpu.emulation;
 
-import java.io.BufferedInputStream;
-import java.io.BufferedOutputStream;
-import java.io.DataInputStream;
-import java.io.DataOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
 
-import devcpu.managers.FloppyManager;
-
+/**
+ * A 1440 sector floppy backed by a memory-mapped image file rather than a heap
+ * array. The image uses the same raw big-endian word format as the files
+ * produced by {@link #save(File)}, so existing dumps load as-is.
+ *
+ * The backing file is only created and mapped the first time the disk is
+ * touched, and the operating system only pages in the sectors that are
+ * actually read. Writes mark the disk dirty; {@link #flush()} forces the
+ * mapping back to the image on a background thread. Which pages changed is
+ * left to the operating system, which only writes those back.
+ *
+ * Zeroing whole sectors only flags them: they read as zero right away, and
+ * are only cleared in the image when they are next written, or when the
+ * image is flushed or saved. Zeroing a whole temporary image just drops it.
+ */
 public class FloppyDisk implements Identifiable {
+	public static final int WORDS_PER_SECTOR = 512;
+	public static final int SECTORS = 1440;
+	public static final int WORDS = SECTORS * WORDS_PER_SECTOR;
+	public static final int IMAGE_BYTES = WORDS * 2;
+
+	private static final ExecutorService flusher = Executors.newSingleThreadExecutor(new ThreadFactory() {
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread t = new Thread(r, "Floppy Flusher");
+			t.setDaemon(true);
+			return t;
+		}
+	});
+
 	private String id;
-	public char[] data = new char[737280];
+
+	private File imageFile;
+	private boolean temporaryImage;
+	private RandomAccessFile image;
+	private MappedByteBuffer mapped;
+	private CharBuffer words;
+	private final Object flushLock = new Object();
+	private boolean dirty;
+	//Sectors that read as zero, but haven't been cleared in the image yet
+	private final BitSet zeroSectors = new BitSet(SECTORS);
+	private static final char[] ZERO_SECTOR = new char[WORDS_PER_SECTOR];
+	private boolean flushQueued;
+	//The creator's reference, plus one per overlay reading through to this disk
+	private int references = 1;
+	//Bumped whenever a whole image is written to the disk
+	private int generation;
 
 	private boolean writeProtected;
-	private VirtualFloppyDrive drive;
-	private FloppyManager manager;
+	private FloppyDrive drive;
+	private FloppyDiskFactory manager;
 
 //	public FloppyDisk(File file, boolean writeProtected) throws Exception {
 //		this("Floppy", null);
 //	}
 
-	public FloppyDisk(String id, FloppyManager manager) {
+	public FloppyDisk(String id, FloppyDiskFactory manager) {
 		this.id = id;
 		this.manager = manager;
 	}
-	
-	public void load(File file) throws IOException {
-		DataInputStream dis = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
-		int i = 0;
+
+	/**
+	 * Maps the image lazily, creating a sparse temporary image if the disk
+	 * isn't attached to a file yet. Never-touched disks cost no file at all.
+	 */
+	private synchronized CharBuffer words() throws IOException {
+		if (words == null) {
+			if (imageFile == null) {
+				imageFile = File.createTempFile("floppy", ".img");
+				imageFile.deleteOnExit();
+				temporaryImage = true;
+			}
+			image = new RandomAccessFile(imageFile, "rw");
+			if (image.length() != IMAGE_BYTES) {
+				image.setLength(IMAGE_BYTES);
+			}
+			mapped = image.getChannel().map(MapMode.READ_WRITE, 0, IMAGE_BYTES);
+			words = mapped.asCharBuffer();
+		}
+		return words;
+	}
+
+	/**
+	 * True while the disk has never been written or loaded, in which case
+	 * reads don't need to create an image at all.
+	 */
+	private synchronized boolean isBlank() {
+		return words == null && imageFile == null;
+	}
+
+	private synchronized void unmap() throws IOException {
+		if (image != null) {
+			if (mapped != null && !temporaryImage) {
+				mapped.force();
+			}
+			image.close();
+		}
+		image = null;
+		mapped = null;
+		words = null;
+		synchronized (flushLock) {
+			dirty = false;
+		}
+		synchronized (zeroSectors) {
+			zeroSectors.clear();
+		}
+		if (temporaryImage && imageFile != null) {
+			imageFile.delete();
+		}
+		imageFile = null;
+		temporaryImage = false;
+	}
+
+	/**
+	 * Reads <code>length</code> words starting at disk word <code>word</code>
+	 * into <code>dest</code>.
+	 */
+	public void read(int word, char[] dest, int destOffset, int length) throws IOException {
+		if (isBlank()) {
+			for (int i = 0; i < length; i++) {
+				dest[destOffset + i] = 0;
+			}
+			return;
+		}
+		CharBuffer view = words().duplicate();
+		view.position(word);
+		view.get(dest, destOffset, length);
+		synchronized (zeroSectors) {
+			if (zeroSectors.isEmpty()) {
+				return;
+			}
+			int end = word + length;
+			for (int sector = zeroSectors.nextSetBit(word / WORDS_PER_SECTOR); sector >= 0 && sector * WORDS_PER_SECTOR < end; sector = zeroSectors.nextSetBit(sector + 1)) {
+				int from = Math.max(word, sector * WORDS_PER_SECTOR);
+				int to = Math.min(end, (sector + 1) * WORDS_PER_SECTOR);
+				Arrays.fill(dest, destOffset + from - word, destOffset + to - word, (char) 0);
+			}
+		}
+	}
+
+	/**
+	 * Writes <code>length</code> words from <code>src</code> to the disk,
+	 * starting at disk word <code>word</code>, and marks the disk dirty.
+	 */
+	public void write(int word, char[] src, int srcOffset, int length) throws IOException {
+		clearZeroSectors(word, length);
+		CharBuffer view = words().duplicate();
+		view.position(word);
+		view.put(src, srcOffset, length);
+		markDirty();
+	}
+
+	public char read(int word) throws IOException {
+		if (isBlank()) {
+			return 0;
+		}
+		synchronized (zeroSectors) {
+			if (zeroSectors.get(word / WORDS_PER_SECTOR)) {
+				return 0;
+			}
+		}
+		return words().get(word);
+	}
+
+	public void write(int word, char value) throws IOException {
+		clearZeroSectors(word, 1);
+		words().put(word, value);
+		markDirty();
+	}
+
+	/**
+	 * Fills <code>length</code> words starting at <code>word</code> with zero.
+	 * Only the partial sectors at either end are written; whole sectors are
+	 * flagged, and cleared lazily.
+	 */
+	public void zero(int word, int length) throws IOException {
+		if (length <= 0 || isBlank()) {
+			return;
+		}
+		synchronized (this) {
+			if (word == 0 && length == WORDS && temporaryImage) {
+				//Nothing else sees a temporary image, so a new, sparse one will do
+				unmap();
+				return;
+			}
+		}
+		int end = word + length;
+		int firstSector = (word + WORDS_PER_SECTOR - 1) / WORDS_PER_SECTOR;
+		int lastSector = end / WORDS_PER_SECTOR;
+		if (firstSector >= lastSector) {
+			//No whole sector, but it may still cross from one into the next
+			writeZeros(word, length);
+			return;
+		}
+		writeZeros(word, firstSector * WORDS_PER_SECTOR - word);
+		writeZeros(lastSector * WORDS_PER_SECTOR, end - lastSector * WORDS_PER_SECTOR);
+		synchronized (zeroSectors) {
+			zeroSectors.set(firstSector, lastSector);
+		}
+		markDirty();
+	}
+
+	//Writes zeros a sector's worth at a time, as that's all ZERO_SECTOR holds
+	private void writeZeros(int word, int length) throws IOException {
+		while (length > 0) {
+			int n = Math.min(length, WORDS_PER_SECTOR);
+			write(word, ZERO_SECTOR, 0, n);
+			word += n;
+			length -= n;
+		}
+	}
+
+	/**
+	 * Clears the flagged sectors in a range of words in the image, before they
+	 * are written.
+	 */
+	private void clearZeroSectors(int word, int length) throws IOException {
+		synchronized (zeroSectors) {
+			if (length <= 0 || zeroSectors.isEmpty()) {
+				return;
+			}
+		}
+		//Mapped first, as the disk is never locked while the sectors are
+		CharBuffer words = words();
+		synchronized (zeroSectors) {
+			int end = (word + length - 1) / WORDS_PER_SECTOR + 1;
+			for (int sector = zeroSectors.nextSetBit(word / WORDS_PER_SECTOR); sector >= 0 && sector < end; sector = zeroSectors.nextSetBit(sector + 1)) {
+				CharBuffer view = words.duplicate();
+				view.position(sector * WORDS_PER_SECTOR);
+				view.put(ZERO_SECTOR);
+				zeroSectors.clear(sector);
+			}
+		}
+	}
+
+	private void markDirty() {
+		synchronized (flushLock) {
+			dirty = true;
+		}
+	}
+
+	public boolean isDirty() {
+		synchronized (flushLock) {
+			return dirty;
+		}
+	}
+
+	/**
+	 * Queues a write-back of the image on the flusher thread and
+	 * returns immediately. Repeated calls before the write-back runs are
+	 * coalesced into a single flush.
+	 */
+	public void flush() {
+		synchronized (flushLock) {
+			if (flushQueued || !dirty) {
+				return;
+			}
+			flushQueued = true;
+		}
+		flusher.execute(new Runnable() {
+			@Override
+			public void run() {
+				flushNow();
+			}
+		});
+	}
+
+	/**
+	 * Writes the image back to its file on the calling thread, if anything was
+	 * written since the last flush.
+	 * Temporary images are never forced to storage; they only need to stay
+	 * coherent with the channel, which the mapping already guarantees.
+	 */
+	public synchronized void flushNow() {
 		try {
-			for (; i<data.length; i++) {
-				data[i] = dis.readChar();
+			if (!temporaryImage) {
+				clearZeroSectors(0, WORDS);
 			}
-		} catch (ArrayIndexOutOfBoundsException e) {
-			e.printStackTrace();
 		} catch (IOException e) {
-			for (; i<data.length; i++) {
-				data[i] = 0;
+			e.printStackTrace();
+		}
+		synchronized (flushLock) {
+			flushQueued = false;
+			if (!dirty) {
+				return;
 			}
-			dis.close();
-		}	
+			dirty = false;
+		}
+		if (mapped != null && !temporaryImage) {
+			mapped.force();
+		}
 	}
 
-	public void save(File file) throws IOException {
-		DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+	/**
+	 * Replaces the disk contents with the raw big-endian image in
+	 * <code>file</code>. Shorter files leave the rest of the disk zeroed and
+	 * longer ones are truncated, as before.
+	 */
+	public synchronized void load(File file) throws IOException {
+		newGeneration();
+		unmap();
+		imageFile = File.createTempFile("floppy", ".img");
+		imageFile.deleteOnExit();
+		temporaryImage = true;
+		FileInputStream in = new FileInputStream(file);
+		RandomAccessFile out = new RandomAccessFile(imageFile, "rw");
 		try {
-			for (int i = 0; i < data.length; i++) {
-				dos.writeChar(data[i]);
+			FileChannel src = in.getChannel();
+			long copied = 0;
+			long length = Math.min(src.size(), IMAGE_BYTES) & ~1L;
+			while (copied < length) {
+				copied += out.getChannel().transferFrom(src, copied, length - copied);
+			}
+			out.setLength(IMAGE_BYTES);
+		} finally {
+			in.close();
+			out.close();
+		}
+	}
+
+	/**
+	 * Attaches the disk directly to an existing raw big-endian image file,
+	 * which is mapped in place: writes go through to that file, and nothing is
+	 * copied up front. Files of the wrong size are padded or truncated.
+	 */
+	public synchronized void open(File file) throws IOException {
+		newGeneration();
+		unmap();
+		imageFile = file;
+		temporaryImage = false;
+		words();
+	}
+
+	public synchronized void save(File file) throws IOException {
+		if (isBlank()) {
+			RandomAccessFile out = new RandomAccessFile(file, "rw");
+			try {
+				out.setLength(0);
+				out.setLength(IMAGE_BYTES);
+			} finally {
+				out.close();
 			}
+			return;
+		}
+		words();
+		clearZeroSectors(0, WORDS);
+		if (file.getCanonicalFile().equals(imageFile.getCanonicalFile())) {
+			flushNow();
+			return;
+		}
+		FileOutputStream out = new FileOutputStream(file);
+		try {
+			FileChannel src = image.getChannel();
+			long copied = 0;
+			while (copied < IMAGE_BYTES) {
+				copied += src.transferTo(copied, IMAGE_BYTES - copied, out.getChannel());
+			}
+		} finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * Marks the disk as holding a different image than before, and returns
+	 * the image's generation. Whoever writes a whole image to the disk calls
+	 * this, so that whoever wrote the one before can tell it's gone.
+	 */
+	public synchronized int newGeneration() {
+		return ++generation;
+	}
+
+	/**
+	 * The generation of the image on the disk; see {@link #newGeneration()}.
+	 */
+	public synchronized int getGeneration() {
+		return generation;
+	}
+
+	/**
+	 * Keeps the disk's image alive until a matching {@link #release()}, for
+	 * overlays that read through to it.
+	 */
+	public synchronized void retain() {
+		references++;
+	}
+
+	/**
+	 * Drops a reference, and disposes of the disk once nothing refers to it
+	 * any more. Whoever created the disk holds the first reference.
+	 */
+	public void release() {
+		synchronized (this) {
+			if (references == 0 || --references > 0) {
+				return;
+			}
+		}
+		dispose();
+	}
+
+	/**
+	 * Releases the mapping and deletes the temporary image, if any. The disk
+	 * reads as empty afterwards.
+	 */
+	public void dispose() {
+		try {
+			unmap();
 		} catch (IOException e) {
 			e.printStackTrace();
 		}
-		dos.close();
 	}
-	
+
 	public boolean isWriteProtected() {
 		return writeProtected;
 	}
 
 	public void setWriteProtected(boolean writeProtected) {
-		this.writeProtected = writeProtected;
+		if (this.writeProtected != writeProtected) {
+			this.writeProtected = writeProtected;
+			if (drive != null) {
+				drive.writeProtectionChanged();
+			}
+		}
 	}
 
 	public String getID() {
@@ -72,25 +446,26 @@ public class FloppyDisk implements Identifiable {
 	public void setID(String id) {
 		this.id = id;
 	}
-	
-	public void inserted(VirtualFloppyDrive drive)
+
+	public void inserted(FloppyDrive drive)
 	{
 		this.drive = drive;
 	}
-	
+
 	public void ejected() {
 		this.drive = null;
+		flush();
 	}
 
-	public VirtualFloppyDrive getDriveUsing() {
+	public FloppyDrive getDriveUsing() {
 		return drive;
 	}
-	
-	public FloppyManager getManager() {
+
+	public FloppyDiskFactory getManager() {
 		return manager;
 	}
 
-	public void setManager(FloppyManager manager) {
+	public void setManager(FloppyDiskFactory manager) {
 		this.manager = manager;
 	}
-}
\ No newline at end of file
+}
@@ -0,0 +1,9 @@
+package devcpu.emulation;
+
+/**
+ * Keeps track of the floppy disks it creates, such as the overlays of a base
+ * disk.
+ */
+public interface FloppyDiskFactory {
+	public OverlayFloppyDisk createFloppyDisk(FloppyDisk base);
+}
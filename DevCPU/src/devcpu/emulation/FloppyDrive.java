@@ -0,0 +1,13 @@
+package devcpu.emulation;
+
+/**
+ * Whatever a floppy disk is inserted in.
+ */
+public interface FloppyDrive {
+	public FloppyDisk eject();
+	/**
+	 * Called when the inserted disk is write protected or unprotected, for
+	 * instance when an overlay is created over it.
+	 */
+	public void writeProtectionChanged();
+}
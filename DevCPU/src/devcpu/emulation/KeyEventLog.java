@@ -0,0 +1,139 @@
+package devcpu.emulation;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * A recorded stream of keyboard events, each stamped with the number of
+ * emulated cycles since recording started. Replaying a log against the same
+ * program delivers every event at the same emulated cycle it was recorded at,
+ * independent of wall-clock time, so a session can be re-run unthrottled.
+ *
+ * The file is a 4 byte magic and a version byte followed by one record per
+ * event: the cycle delta from the previous event as an unsigned varint, the
+ * event type as a byte and the key as a varint.
+ */
+public class KeyEventLog {
+  private static final int MAGIC = 0x444B4559; //"DKEY"
+  private static final int VERSION = 1;
+
+  private long[] times = new long[64];
+  private int[] events = new int[64];
+  private int size;
+
+  public int size() {
+    return size;
+  }
+
+  public long getTime(int i) {
+    return times[i];
+  }
+
+  public int getEvent(int i) {
+    return events[i];
+  }
+
+  public void add(long time, int event) {
+    if (size == times.length) {
+      long[] newTimes = new long[size * 2];
+      int[] newEvents = new int[size * 2];
+      System.arraycopy(times, 0, newTimes, 0, size);
+      System.arraycopy(events, 0, newEvents, 0, size);
+      times = newTimes;
+      events = newEvents;
+    }
+    times[size] = time;
+    events[size++] = event;
+  }
+
+  public static KeyEventLog read(File file) throws IOException {
+    DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+    try {
+      if (in.readInt() != MAGIC || in.readUnsignedByte() != VERSION) {
+        throw new IOException(file.getName() + " is not a keyboard recording");
+      }
+      KeyEventLog log = new KeyEventLog();
+      long time = 0;
+      while (true) {
+        int first = in.read();
+        if (first < 0) {
+          break;
+        }
+        time += readVarint(in, first);
+        int type = in.readUnsignedByte();
+        int key = (int) readVarint(in, in.readUnsignedByte());
+        log.add(time, KeyEventQueue.pack(type, key));
+      }
+      return log;
+    } finally {
+      in.close();
+    }
+  }
+
+  private static long readVarint(InputStream in, int b) throws IOException {
+    long value = 0;
+    for (int shift = 0; ; shift += 7) {
+      if (b < 0) {
+        throw new EOFException();
+      }
+      value |= (long) (b & 0x7F) << shift;
+      if ((b & 0x80) == 0) {
+        return value;
+      }
+      b = in.read();
+    }
+  }
+
+  private static void writeVarint(OutputStream out, long value) throws IOException {
+    while ((value & ~0x7FL) != 0) {
+      out.write((int) (value & 0x7F) | 0x80);
+      value >>>= 7;
+    }
+    out.write((int) value);
+  }
+
+  /**
+   * Appends events to a log file as they happen.
+   */
+  public static class Recorder {
+    private final DataOutputStream out;
+    private long lastTime;
+    private boolean closed;
+
+    public Recorder(File file) throws IOException {
+      out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+      out.writeInt(MAGIC);
+      out.writeByte(VERSION);
+    }
+
+    public synchronized void record(long time, int event) {
+      if (closed) {
+        return;
+      }
+      try {
+        writeVarint(out, Math.max(0, time - lastTime));
+        out.writeByte(KeyEventQueue.type(event));
+        writeVarint(out, KeyEventQueue.key(event));
+        lastTime = Math.max(lastTime, time);
+      } catch (IOException e) {
+        e.printStackTrace();
+      }
+    }
+
+    public synchronized void close() throws IOException {
+      if (!closed) {
+        closed = true;
+        out.close();
+      }
+    }
+  }
+}
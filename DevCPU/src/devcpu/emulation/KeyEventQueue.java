@@ -0,0 +1,88 @@
+package devcpu.emulation;
+
+/**
+ * A bounded single-producer, single-consumer queue of keyboard events. The
+ * host UI thread is the only producer and the DCPU thread the only consumer,
+ * so the two sides only ever hand off through volatile indices, each written
+ * by one side, and neither side ever blocks or takes a lock.
+ *
+ * Events are packed into an int as <code>type &lt;&lt; 16 | key</code>.
+ */
+public class KeyEventQueue {
+  public static final int TYPED = 1;
+  public static final int PRESSED = 2;
+  public static final int RELEASED = 3;
+
+  private static final int CAPACITY = 256;
+  private static final int MASK = CAPACITY - 1;
+
+  private final int[] events = new int[CAPACITY];
+  //Written only by the consumer
+  private volatile long head;
+  //Written only by the producer
+  private volatile long tail;
+  //Where the producer last asked the consumer to drop everything up to
+  private volatile long discarded;
+
+  public static int pack(int type, int key) {
+    return type << 16 | (key & 0xFFFF);
+  }
+
+  public static int type(int event) {
+    return event >>> 16;
+  }
+
+  public static int key(int event) {
+    return event & 0xFFFF;
+  }
+
+  /**
+   * Producer side. Returns false and drops the event if the queue is full.
+   */
+  public boolean offer(int event) {
+    long t = tail;
+    if (t - head >= CAPACITY) {
+      return false;
+    }
+    events[(int) t & MASK] = event;
+    tail = t + 1;
+    return true;
+  }
+
+  /**
+   * Consumer side. Returns 0 if the queue is empty; packed events are never 0.
+   */
+  public int poll() {
+    long h = head;
+    long d = discarded;
+    if (h < d) {
+      h = d;
+      head = h;
+    }
+    if (h == tail) {
+      return 0;
+    }
+    int event = events[(int) h & MASK];
+    head = h + 1;
+    return event;
+  }
+
+  /**
+   * Consumer side. Drops everything queued so far.
+   */
+  public void clear() {
+    head = tail;
+  }
+
+  /**
+   * Producer side. Has the consumer drop everything queued so far when it
+   * next polls, without touching the consumer's index.
+   */
+  public void discard() {
+    discarded = tail;
+  }
+
+  public boolean isEmpty() {
+    return Math.max(head, discarded) == tail;
+  }
+}
@@ -16,7 +16,6 @@ public class OpCodes
 
   private OpCodes(Class<?> c)
   {
-    System.out.println("Start " + c);
     for (Field f : c.getFields())
       try {
         OpCode opCode = new OpCode(f.getName(), f.getInt(null));
@@ -35,6 +34,10 @@ public class OpCodes
   	return codes.keySet();
   }
 
+  public boolean contains(int id) {
+    return ids.get(id) != null;
+  }
+
   public int getId(String name) {
     return ((OpCode)this.codes.get(name.toUpperCase())).value;
   }
@@ -0,0 +1,265 @@
+package devcpu.emulation;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+import devcpu.util.IntHashMap;
+
+/**
+ * A copy-on-write floppy layered over a shared base disk. Reads fall through
+ * to the base until a sector is written, at which point that sector (and only
+ * that sector) is copied into a sparse per-disk delta. Creating and inserting
+ * an overlay therefore costs nothing up front, however many copies of the base
+ * are in use.
+ *
+ * The base should be treated as read-only while overlays exist; changes to it,
+ * including {@link #commit()} from another overlay, show through in every
+ * sector an overlay hasn't modified itself. Each overlay holds a reference
+ * to its base, so the base is only disposed of once it and all of its
+ * overlays have been released.
+ */
+public class OverlayFloppyDisk extends FloppyDisk {
+	private final FloppyDisk base;
+	private final IntHashMap<char[]> delta = new IntHashMap<char[]>();
+	//Stands in for every sector zeroed whole, and is copied before it is written
+	private static final char[] ZERO_SECTOR = new char[WORDS_PER_SECTOR];
+	private boolean disposed;
+
+	public OverlayFloppyDisk(String id, FloppyDiskFactory manager, FloppyDisk base) {
+		super(id, manager);
+		this.base = base;
+		base.retain();
+	}
+
+	public FloppyDisk getBase() {
+		return base;
+	}
+
+	/**
+	 * Returns the private copy of a sector, copying it from the base first if
+	 * it hasn't been written yet, or making one if it was zeroed whole.
+	 * Callers must hold the delta lock.
+	 */
+	private char[] modifiableSector(int sector) throws IOException {
+		char[] data = delta.get(sector);
+		if (data == null) {
+			data = new char[WORDS_PER_SECTOR];
+			base.read(sector * WORDS_PER_SECTOR, data, 0, WORDS_PER_SECTOR);
+			delta.put(sector, data);
+		} else if (data == ZERO_SECTOR) {
+			data = new char[WORDS_PER_SECTOR];
+			delta.put(sector, data);
+		}
+		return data;
+	}
+
+	@Override
+	public void read(int word, char[] dest, int destOffset, int length) throws IOException {
+		synchronized (delta) {
+			while (length > 0) {
+				int sector = word / WORDS_PER_SECTOR;
+				int offset = word % WORDS_PER_SECTOR;
+				int n = Math.min(length, WORDS_PER_SECTOR - offset);
+				char[] data = delta.get(sector);
+				if (data == null) {
+					base.read(word, dest, destOffset, n);
+				} else {
+					System.arraycopy(data, offset, dest, destOffset, n);
+				}
+				word += n;
+				destOffset += n;
+				length -= n;
+			}
+		}
+	}
+
+	@Override
+	public void write(int word, char[] src, int srcOffset, int length) throws IOException {
+		synchronized (delta) {
+			while (length > 0) {
+				int offset = word % WORDS_PER_SECTOR;
+				int n = Math.min(length, WORDS_PER_SECTOR - offset);
+				char[] data;
+				if (n == WORDS_PER_SECTOR) {
+					//Whole sector overwritten, no need to copy it from the base
+					data = delta.get(word / WORDS_PER_SECTOR);
+					if (data == null || data == ZERO_SECTOR) {
+						data = new char[WORDS_PER_SECTOR];
+						delta.put(word / WORDS_PER_SECTOR, data);
+					}
+				} else {
+					data = modifiableSector(word / WORDS_PER_SECTOR);
+				}
+				System.arraycopy(src, srcOffset, data, offset, n);
+				word += n;
+				srcOffset += n;
+				length -= n;
+			}
+		}
+	}
+
+	@Override
+	public char read(int word) throws IOException {
+		synchronized (delta) {
+			char[] data = delta.get(word / WORDS_PER_SECTOR);
+			return data == null ? base.read(word) : data[word % WORDS_PER_SECTOR];
+		}
+	}
+
+	@Override
+	public void write(int word, char value) throws IOException {
+		synchronized (delta) {
+			modifiableSector(word / WORDS_PER_SECTOR)[word % WORDS_PER_SECTOR] = value;
+		}
+	}
+
+	/**
+	 * Zeroes words in the delta. The base shows through every sector the
+	 * overlay doesn't hold, so an overlay is never blank the way a new disk
+	 * is, and zeroes have to be written like anything else. Whole sectors
+	 * all share one empty sector until they are written, so zeroing the
+	 * whole disk costs next to nothing.
+	 */
+	@Override
+	public void zero(int word, int length) throws IOException {
+		synchronized (delta) {
+			while (length > 0) {
+				int offset = word % WORDS_PER_SECTOR;
+				int n = Math.min(length, WORDS_PER_SECTOR - offset);
+				if (n == WORDS_PER_SECTOR) {
+					delta.put(word / WORDS_PER_SECTOR, ZERO_SECTOR);
+				} else {
+					Arrays.fill(modifiableSector(word / WORDS_PER_SECTOR), offset, offset + n, (char) 0);
+				}
+				word += n;
+				length -= n;
+			}
+		}
+	}
+
+	@Override
+	public boolean isDirty() {
+		return false;
+	}
+
+	@Override
+	public void flush() {
+	}
+
+	@Override
+	public void flushNow() {
+	}
+
+	public int getModifiedSectorCount() {
+		synchronized (delta) {
+			return delta.size();
+		}
+	}
+
+	/**
+	 * Merges the modified sectors into the base disk and empties the delta.
+	 */
+	public void commit() throws IOException {
+		synchronized (delta) {
+			for (int sector : delta.keySet()) {
+				base.write(sector * WORDS_PER_SECTOR, delta.get(sector), 0, WORDS_PER_SECTOR);
+			}
+			delta.clear();
+		}
+		base.flush();
+	}
+
+	/**
+	 * Throws away all modifications, reverting the overlay to its base.
+	 */
+	public void discard() {
+		synchronized (delta) {
+			delta.clear();
+		}
+	}
+
+	/**
+	 * Loads a raw big-endian image as a delta against the base: only sectors
+	 * that differ from the base end up taking memory.
+	 */
+	@Override
+	public synchronized void load(File file) throws IOException {
+		newGeneration();
+		FileInputStream in = new FileInputStream(file);
+		try {
+			FileChannel channel = in.getChannel();
+			ByteBuffer bytes = ByteBuffer.allocate(WORDS_PER_SECTOR * 2);
+			char[] loaded = new char[WORDS_PER_SECTOR];
+			char[] original = new char[WORDS_PER_SECTOR];
+			synchronized (delta) {
+				delta.clear();
+				for (int sector = 0; sector < SECTORS; sector++) {
+					bytes.clear();
+					while (bytes.hasRemaining() && channel.read(bytes) >= 0) {}
+					bytes.flip();
+					int words = bytes.remaining() / 2;
+					bytes.asCharBuffer().get(loaded, 0, words);
+					for (int i = words; i < WORDS_PER_SECTOR; i++) {
+						loaded[i] = 0;
+					}
+					base.read(sector * WORDS_PER_SECTOR, original, 0, WORDS_PER_SECTOR);
+					for (int i = 0; i < WORDS_PER_SECTOR; i++) {
+						if (loaded[i] != original[i]) {
+							delta.put(sector, loaded.clone());
+							break;
+						}
+					}
+				}
+			}
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Writes the flattened image: the base with the modified sectors applied.
+	 */
+	@Override
+	public synchronized void save(File file) throws IOException {
+		base.save(file);
+		RandomAccessFile out = new RandomAccessFile(file, "rw");
+		try {
+			FileChannel channel = out.getChannel();
+			ByteBuffer bytes = ByteBuffer.allocate(WORDS_PER_SECTOR * 2);
+			synchronized (delta) {
+				for (int sector : delta.keySet()) {
+					bytes.clear();
+					bytes.asCharBuffer().put(delta.get(sector));
+					long position = (long) sector * WORDS_PER_SECTOR * 2;
+					while (bytes.hasRemaining()) {
+						position += channel.write(bytes, position);
+					}
+				}
+			}
+		} finally {
+			out.close();
+		}
+	}
+
+	@Override
+	public synchronized void open(File file) throws IOException {
+		throw new IOException("Overlay disks can't be attached to an image file; save them instead");
+	}
+
+	@Override
+	public void dispose() {
+		discard();
+		synchronized (this) {
+			if (disposed) {
+				return;
+			}
+			disposed = true;
+		}
+		base.release();
+	}
+}
@@ -0,0 +1,114 @@
+package devcpu.emulation;
+
+/**
+ * The decoded model of a SPED-3's mapped region, kept apart from the device
+ * so it can be shared with renderers on other threads.
+ * 
+ * Vertices are decoded into a packed int each: x in bits 0-7, y in 8-15,
+ * z in 16-23 and the color/intensity style (the low three bits of the
+ * second word's high byte) in 24-26.
+ */
+public class SPED3Vertices {
+	public static final int X_SHIFT = 0;
+	public static final int Y_SHIFT = 8;
+	public static final int Z_SHIFT = 16;
+	public static final int STYLE_SHIFT = 24;
+	
+	//Raw words of the mapped region as of the last decode, used to detect changes
+	private char[] mappedWords = new char[0];
+	private char[] scannedWords = new char[0];
+	private boolean remapped;
+	//Double-buffered decoded vertices; the front buffer is only swapped under the lock
+	private final Object lock = new Object();
+	private int[] front = new int[0];
+	private int[] back = new int[0];
+	private int count;
+	private volatile int version;
+	
+	/**
+	 * Forces the next {@link #update} to decode, even if the words it finds are
+	 * the same as last time.
+	 */
+	public void remap() {
+		remapped = true;
+	}
+	
+	/**
+	 * Re-decodes <code>vertices</code> vertices starting at <code>start</code>
+	 * into the back buffer and swaps it in, but only when the region was
+	 * remapped or any of its words changed since the last decode. An unchanged
+	 * model costs one array comparison per frame.
+	 * 
+	 * @return whether the model changed
+	 */
+	public boolean update(char[] ram, int start, int vertices) {
+		int words = 2 * vertices;
+		if (scannedWords.length < words) {
+			scannedWords = new char[words];
+		}
+		DMA.copyFromRam(ram, start, scannedWords, 0, words);
+		boolean changed = remapped || words != mappedWords.length;
+		for (int i = 0; !changed && i < words; i++) {
+			changed = mappedWords[i] != scannedWords[i];
+		}
+		if (!changed) {
+			return false;
+		}
+		remapped = false;
+		if (mappedWords.length != words) {
+			mappedWords = new char[words];
+		}
+		System.arraycopy(scannedWords, 0, mappedWords, 0, words);
+		if (back.length < vertices) {
+			back = new int[vertices];
+		}
+		for (int i = 0, v = 0; v < vertices; v++) {
+			char xy = mappedWords[i++];
+			char zs = mappedWords[i++];
+			back[v] = (xy & 0xFF) << X_SHIFT
+					| (xy >> 8) << Y_SHIFT
+					| (zs & 0xFF) << Z_SHIFT
+					| (zs >> 8 & 0x7) << STYLE_SHIFT;
+		}
+		synchronized (lock) {
+			int[] swap = front;
+			front = back;
+			back = swap;
+			count = vertices;
+			version++;
+		}
+		return true;
+	}
+	
+	public void clear() {
+		synchronized (lock) {
+			mappedWords = new char[0];
+			count = 0;
+			version++;
+		}
+	}
+	
+	/**
+	 * Incremented every time the decoded vertices change, so renderers can skip
+	 * re-uploading an unchanged model.
+	 */
+	public int getVersion() {
+		return version;
+	}
+	
+	/**
+	 * Copies as many of the current packed vertices as fit into
+	 * <code>dest</code> and returns the total number of vertices, which may
+	 * exceed <code>dest.length</code> if the caller needs a bigger array.
+	 */
+	public int copy(int[] dest) {
+		synchronized (lock) {
+			System.arraycopy(front, 0, dest, 0, Math.min(dest.length, count));
+			return count;
+		}
+	}
+	
+	public int getCount() {
+		return count;
+	}
+}
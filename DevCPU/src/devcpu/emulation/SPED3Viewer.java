@@ -6,14 +6,14 @@ import java.awt.Canvas;
 import java.awt.Dimension;
 import java.awt.event.ComponentEvent;
 import java.awt.event.ComponentListener;
-import java.util.List;
+import java.nio.FloatBuffer;
 
+import org.lwjgl.BufferUtils;
 import org.lwjgl.LWJGLException;
 import org.lwjgl.opengl.Display;
+import org.lwjgl.opengl.GL15;
+import org.lwjgl.opengl.GLContext;
 import org.lwjgl.util.glu.GLU;
-import org.lwjgl.util.vector.Vector3f;
-
-import devcpu.emulation.VirtualVectorDisplay.Vertex;
 
 public class SPED3Viewer {
 	// protected static final Color INTENSE_BLACK = new Color(1f, 1f, 1f, .2f);
@@ -27,12 +27,44 @@ public class SPED3Viewer {
 
 	private static final int WIDTH = 512;
 	private static final int HEIGHT = 512;
+	
+	//RGBA per vertex style (color in the low two bits, intensity in the third)
+	private static final float[][] STYLE_COLORS = {
+		{.1f, .1f, .1f, .1f}, {1f, 0f, 0f, .4f}, {0f, 1f, 0f, .4f}, {0f, 0f, 1f, .4f},
+		{.2f, .2f, .2f, .5f}, {1f, 0f, 0f, .8f}, {0f, 1f, 0f, .8f}, {0f, 0f, 1f, .8f}
+	};
+	private static final int POSITION_FLOATS = 3;
+	private static final int COLOR_FLOATS = 4;
+	
+	/**
+	 * Maps device space (after rotation around the device Z axis) onto GL space:
+	 * device Y becomes GL X, device Z becomes GL Y and device X becomes GL -Z.
+	 * Column-major, as expected by glMultMatrix.
+	 */
+	private static final FloatBuffer DEVICE_TO_GL = (FloatBuffer) BufferUtils.createFloatBuffer(16).put(new float[] {
+		0, 0, -1, 0,
+		1, 0, 0, 0,
+		0, 1, 0, 0,
+		0, 0, 0, 1
+	}).flip();
+	
 	public VirtualVectorDisplay vvd;
 	public Canvas canvas = new Canvas();
 	public boolean started;
 	private boolean resized;
 	private boolean keepAlive = true;
 	
+	//Render thread state for the uploaded model
+	private int[] packed = new int[128];
+	private int uploadedCount;
+	private int uploadedVersion = -1;
+	private VirtualVectorDisplay uploadedFrom;
+	private FloatBuffer positions = BufferUtils.createFloatBuffer(128 * POSITION_FLOATS);
+	private FloatBuffer colors = BufferUtils.createFloatBuffer(128 * COLOR_FLOATS);
+	private boolean useVBO;
+	private int positionVBO;
+	private int colorVBO;
+	
 	public SPED3Viewer() {
 		canvas.setPreferredSize(new Dimension(WIDTH, HEIGHT));
 		canvas.setMinimumSize(new Dimension(WIDTH, HEIGHT));
@@ -70,6 +102,13 @@ public class SPED3Viewer {
 				glEnable(GL_DEPTH_TEST);
 				glDepthFunc(GL_LEQUAL);
 				glHint(GL_PERSPECTIVE_CORRECTION_HINT, GL_NICEST);
+				//With flat shading each line takes the color of its second vertex
+				glShadeModel(GL_FLAT);
+				useVBO = GLContext.getCapabilities().OpenGL15;
+				if (useVBO) {
+					positionVBO = GL15.glGenBuffers();
+					colorVBO = GL15.glGenBuffers();
+				}
 
 				float h = (float) canvas.getWidth() / (float) canvas.getHeight();
 				glViewport(0, 0, canvas.getWidth(), canvas.getHeight());
@@ -105,44 +144,19 @@ public class SPED3Viewer {
 							e.printStackTrace();
 						}
 					} else {
-							List<Vertex> vertices = vvd.getVertices();
-							double angle = vvd.getAngle();
-							Vertex last = null;
-							synchronized (vertices) {
-								glBegin(GL_LINES);
-								for (Vertex v : vertices) {
-									if (last != null) {
-										color(v);
-										Vector3f v1 = new Vector3f(last.x - 128, last.y - 128, last.z - 128);
-										double theta = Math.atan2(v1.y, v1.x) + angle * Math.PI / 180;
-										double d = Math.sqrt(v1.x * v1.x + v1.y * v1.y);
-										glVertex3f((float) (d * Math.sin(theta)), v1.z, -(float) (d * Math.cos(theta)));
-										v1.set(v.x - 128, v.y - 128, v.z - 128);
-										theta = Math.atan2(v1.y, v1.x) + angle * Math.PI / 180;
-										d = Math.sqrt(v1.x * v1.x + v1.y * v1.y);
-										glVertex3f((float) (d * Math.sin(theta)), v1.z, -(float) (d * Math.cos(theta)));
-									}
-									last = v;
-								}
-								glEnd();
-								if (vertices.size() > 0) {
-									Vertex v = vertices.get((int) (Math.random() * vertices.size()));
-									Vector3f v1 = new Vector3f(v.x - 128, v.y - 128, v.z - 128);
-									double theta = Math.atan2(v1.y, v1.x) + angle * Math.PI / 180;
-									double d = Math.sqrt(v1.x * v1.x + v1.y * v1.y);
-									v1.set((float) (d * Math.sin(theta)), v1.z, -(float) (d * Math.cos(theta)));
-									color(v);
-									glLineWidth(.1f);
-									glBegin(GL_LINES);
-									glVertex3f(0, -512, 0);
-									glVertex3f(v1.x, v1.y, v1.z);
-									glEnd();
-									glPointSize(8);
-									glBegin(GL_POINTS);
-									glVertex3f(v1.x, v1.y, v1.z);
-									glEnd();
-								}
-							}
+						VirtualVectorDisplay vvd = SPED3Viewer.this.vvd;
+						if (vvd != uploadedFrom || vvd.getVertexVersion() != uploadedVersion) {
+							uploadedFrom = vvd;
+							uploadedVersion = vvd.getVertexVersion();
+							upload(vvd);
+						}
+						if (uploadedCount > 0) {
+							glMultMatrix(DEVICE_TO_GL);
+							glRotatef((float) vvd.getAngle(), 0, 0, 1);
+							glTranslatef(-128, -128, -128);
+							draw();
+							beam();
+						}
 					}
 					glDisable(GL_BLEND);
 					Display.update();
@@ -155,36 +169,79 @@ public class SPED3Viewer {
 				Display.destroy();
 			}
 
-			private void color(Vertex v) {
-				switch (v.color) {
-				case 0:
-					if (v.intensity) {
-						glColor4f(.2f, .2f, .2f, .5f);
-					} else {
-						glColor4f(.1f, .1f, .1f, .1f);
-					}
-					break;
-				case 1:
-					if (v.intensity) {
-						glColor4f(1f, 0f, 0f, .8f);
-					} else {
-						glColor4f(1f, 0f, 0f, .4f);
-					}
-					break;
-				case 2:
-					if (v.intensity) {
-						glColor4f(0f, 1f, 0f, .8f);
-					} else {
-						glColor4f(0f, 1f, 0f, .4f);
-					}
-					break;
-				case 3:
-					if (v.intensity) {
-						glColor4f(0f, 0f, 1f, .8f);
-					} else {
-						glColor4f(0f, 0f, 1f, .4f);
-					}
+			/**
+			 * Unpacks the device's vertices into the position and color buffers
+			 * and hands them to GL once; frames that don't change the model only
+			 * update the model transform.
+			 */
+			private void upload(VirtualVectorDisplay vvd) {
+				int count;
+				while ((count = vvd.copyVertices(packed)) > packed.length) {
+					packed = new int[count];
+				}
+				if (positions.capacity() < count * POSITION_FLOATS) {
+					positions = BufferUtils.createFloatBuffer(count * POSITION_FLOATS);
+					colors = BufferUtils.createFloatBuffer(count * COLOR_FLOATS);
+				}
+				positions.clear();
+				colors.clear();
+				for (int i = 0; i < count; i++) {
+					int v = packed[i];
+					positions.put(v >> VirtualVectorDisplay.VERTEX_X_SHIFT & 0xFF);
+					positions.put(v >> VirtualVectorDisplay.VERTEX_Y_SHIFT & 0xFF);
+					positions.put(v >> VirtualVectorDisplay.VERTEX_Z_SHIFT & 0xFF);
+					colors.put(STYLE_COLORS[v >> VirtualVectorDisplay.VERTEX_STYLE_SHIFT & 0x7]);
 				}
+				positions.flip();
+				colors.flip();
+				uploadedCount = count;
+				if (useVBO) {
+					GL15.glBindBuffer(GL15.GL_ARRAY_BUFFER, positionVBO);
+					GL15.glBufferData(GL15.GL_ARRAY_BUFFER, positions, GL15.GL_DYNAMIC_DRAW);
+					GL15.glBindBuffer(GL15.GL_ARRAY_BUFFER, colorVBO);
+					GL15.glBufferData(GL15.GL_ARRAY_BUFFER, colors, GL15.GL_DYNAMIC_DRAW);
+					GL15.glBindBuffer(GL15.GL_ARRAY_BUFFER, 0);
+				}
+			}
+
+			private void draw() {
+				glEnableClientState(GL_VERTEX_ARRAY);
+				glEnableClientState(GL_COLOR_ARRAY);
+				if (useVBO) {
+					GL15.glBindBuffer(GL15.GL_ARRAY_BUFFER, positionVBO);
+					glVertexPointer(POSITION_FLOATS, GL_FLOAT, 0, 0L);
+					GL15.glBindBuffer(GL15.GL_ARRAY_BUFFER, colorVBO);
+					glColorPointer(COLOR_FLOATS, GL_FLOAT, 0, 0L);
+					GL15.glBindBuffer(GL15.GL_ARRAY_BUFFER, 0);
+				} else {
+					glVertexPointer(POSITION_FLOATS, 0, positions);
+					glColorPointer(COLOR_FLOATS, 0, colors);
+				}
+				glDrawArrays(GL_LINE_STRIP, 0, uploadedCount);
+				glDisableClientState(GL_COLOR_ARRAY);
+				glDisableClientState(GL_VERTEX_ARRAY);
+			}
+
+			/**
+			 * Draws the emitter beam to a random vertex. The emitter sits at GL
+			 * (0, -512, 0), which is (128, 128, -384) in untransformed model space.
+			 */
+			private void beam() {
+				int v = packed[(int) (Math.random() * uploadedCount)];
+				float x = v >> VirtualVectorDisplay.VERTEX_X_SHIFT & 0xFF;
+				float y = v >> VirtualVectorDisplay.VERTEX_Y_SHIFT & 0xFF;
+				float z = v >> VirtualVectorDisplay.VERTEX_Z_SHIFT & 0xFF;
+				float[] color = STYLE_COLORS[v >> VirtualVectorDisplay.VERTEX_STYLE_SHIFT & 0x7];
+				glColor4f(color[0], color[1], color[2], color[3]);
+				glLineWidth(.1f);
+				glBegin(GL_LINES);
+				glVertex3f(128, 128, -384);
+				glVertex3f(x, y, z);
+				glEnd();
+				glPointSize(8);
+				glBegin(GL_POINTS);
+				glVertex3f(x, y, z);
+				glEnd();
 			}
 		};
 		t.start();
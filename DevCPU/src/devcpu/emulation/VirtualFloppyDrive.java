@@ -1,5 +1,7 @@
 package devcpu.emulation;
 
+import java.io.IOException;
+
 import devcpu.managers.HardwareManager;
 
 
@@ -17,7 +19,7 @@ import devcpu.managers.HardwareManager;
  * TODO: Switch to coarser, 60hz time-keeping. Current time-keeping is a bit flawed.
  * TODO: Test this more.
  */
-public class VirtualFloppyDrive extends DCPUHardware
+public class VirtualFloppyDrive extends DCPUHardware implements FloppyDrive
 {
 	public static final char STATE_NO_MEDIA = 0x0000; //There's no floppy in the drive.
 	public static final char STATE_READY = 0x0001; //The drive is ready to accept commands.
@@ -34,7 +36,7 @@ public class VirtualFloppyDrive extends DCPUHardware
 	
 	public static final int TRACKS_PER_DISK = 80;
 	public static final int SECTORS_PER_TRACK = 18;
-	public static final int WORDS_PER_SECTOR = 512;
+	public static final int WORDS_PER_SECTOR = FloppyDisk.WORDS_PER_SECTOR;
 	public static final int MAX_SECTOR = 1439;
 	
 //	private static final int SEEK_NANOSECONDS_PER_TRACK = 2400000;
@@ -50,7 +52,7 @@ public class VirtualFloppyDrive extends DCPUHardware
 	private char message;
 	private int track;
 	private FloppyDisk floppy;
-	private FloppyOperation operation = new FloppyOperation(FloppyOperation.NONE, 0, 0, Integer.MAX_VALUE);
+	private FloppyOperation operation;
 	private String id;
 	private HardwareManager manager;
 	
@@ -81,8 +83,8 @@ public class VirtualFloppyDrive extends DCPUHardware
     } else if (a == 2) {
     	int sector = dcpu.registers[3];
     	if (sector <= MAX_SECTOR && (state == STATE_READY || state == STATE_READY_WP)) {
-    		operation = new FloppyOperation(FloppyOperation.READ, sector, dcpu.registers[4], 
-    				dcpu.cycles + READ_CYCLES_PER_SECTOR + SEEK_CYCLES_PER_TRACK
+    		operation = new FloppyOperation(FloppyOperation.READ, sector, dcpu.registers[4]);
+    		dcpu.dma.schedule(operation, dcpu.cycles + READ_CYCLES_PER_SECTOR + SEEK_CYCLES_PER_TRACK
     				* Math.abs(track - (sector / SECTORS_PER_TRACK)));
     		dcpu.registers[1] = 1;
     		setState(STATE_BUSY);
@@ -99,8 +101,8 @@ public class VirtualFloppyDrive extends DCPUHardware
     } else if (a == 3) {
     	int sector = dcpu.registers[3];
     	if (sector <= MAX_SECTOR && state == STATE_READY) {
-    		operation = new FloppyOperation(FloppyOperation.WRITE, sector, dcpu.registers[4], 
-    				dcpu.cycles + WRITE_CYCLES_PER_SECTOR + SEEK_CYCLES_PER_TRACK 
+    		operation = new FloppyOperation(FloppyOperation.WRITE, sector, dcpu.registers[4]);
+    		dcpu.dma.schedule(operation, dcpu.cycles + WRITE_CYCLES_PER_SECTOR + SEEK_CYCLES_PER_TRACK
     				* Math.abs(track - (sector / SECTORS_PER_TRACK)));
     		dcpu.registers[1] = 1;
     		setState(STATE_BUSY);
@@ -137,35 +139,6 @@ public class VirtualFloppyDrive extends DCPUHardware
 		}
 	}
 
-	public void tick60hz() {
-		if ((operation.cycles -= 1667) <= 0) {
-			switch (operation.type) {
-	  	case FloppyOperation.READ:
-	  		for (int i = 0; i < 512; i++) {
-	  			if (operation.memory + i <= 65535) { //TODO
-	  				dcpu.ram[operation.memory + i] = floppy.data[operation.sector * WORDS_PER_SECTOR + i];
-	  			}
-	  		}
-	  		track = operation.sector / SECTORS_PER_TRACK;
-//	  		System.out.println("Read sector " + operation.sector + " in track " + track + " to 0x" +  Integer.toHexString(operation.memory));
-	  		operation = new FloppyOperation(FloppyOperation.NONE, 0, 0, Integer.MAX_VALUE);
-	  		setState(floppy.isWriteProtected() ? STATE_READY_WP : STATE_READY, ERROR_NONE);
-	  		break;
-	  	case FloppyOperation.WRITE:
-	  		for (int i = 0; i < 512; i++) {
-	  			floppy.data[operation.sector * WORDS_PER_SECTOR + i] = dcpu.ram[operation.memory + i];
-	  		}
-	  		track = operation.sector / SECTORS_PER_TRACK;
-//	  		System.out.println("Wrote sector " + operation.sector + " in track " + track + " from 0x" +  Integer.toHexString(operation.memory));
-	  		operation = new FloppyOperation(FloppyOperation.NONE, 0, 0, Integer.MAX_VALUE);
-	  		setState(STATE_READY, ERROR_NONE);
-	  		break;
-	  	case FloppyOperation.NONE:
-	  		new FloppyOperation(FloppyOperation.NONE, 0, 0, Integer.MAX_VALUE);
-	  	}
-		}
-  }
-	
 	public void insert(FloppyDisk floppy) {
 		this.floppy = floppy;
 		if (floppy.isWriteProtected()) {
@@ -176,11 +149,32 @@ public class VirtualFloppyDrive extends DCPUHardware
 		floppy.inserted(this);
 	}
 	
+	/**
+	 * Inserts a fresh copy-on-write overlay of <code>base</code>, leaving the
+	 * base free to be shared by any number of other drives.
+	 */
+	public OverlayFloppyDisk insertOverlay(FloppyDisk base) {
+		OverlayFloppyDisk overlay = base.getManager() == null
+				? new OverlayFloppyDisk(base.getID() + " (Overlay)", null, base)
+				: base.getManager().createFloppyDisk(base);
+		insert(overlay);
+		return overlay;
+	}
+	
+	@Override
+	public void writeProtectionChanged() {
+		//A busy drive picks up the new state once its operation completes
+		if (state == STATE_READY || state == STATE_READY_WP) {
+			setState(floppy.isWriteProtected() ? STATE_READY_WP : STATE_READY);
+		}
+	}
+	
+	@Override
 	public FloppyDisk eject() {
 		FloppyDisk ejected = floppy;
 		floppy = null;
 		if (state == STATE_BUSY) {
-			operation = new FloppyOperation(FloppyOperation.NONE, 0, 0, Integer.MAX_VALUE);
+			cancelOperation();
 			setState(STATE_NO_MEDIA, ERROR_EJECT);
 		} else {
 			setState(STATE_NO_MEDIA);
@@ -189,21 +183,57 @@ public class VirtualFloppyDrive extends DCPUHardware
 		return ejected;
 	}
 	
-	private class FloppyOperation {
-		private static final int NONE = 0;
+	private void cancelOperation() {
+		if (operation != null && dcpu != null) {
+			dcpu.dma.cancel(operation);
+		}
+		operation = null;
+	}
+	
+	/**
+	 * A sector transfer, completed by the DCPU's DMA engine once the seek and
+	 * read/write time has passed.
+	 */
+	private class FloppyOperation extends DMA.Transfer {
 		private static final int READ = 1;
 		private static final int WRITE = 2;
 		
 		private int type;
 		private int sector;
 		private int memory;
-		private int cycles;
+		private boolean refused;
 
-		public FloppyOperation(int type, int sector, int memory, int cycles) {
+		public FloppyOperation(int type, int sector, int memory) {
 			this.type = type;
 			this.sector = sector;
 			this.memory = memory;
-			this.cycles = cycles;
+		}
+
+		@Override
+		protected void run(DMA dma) throws IOException {
+			if (type == READ) {
+				dma.toRam(floppy, sector * WORDS_PER_SECTOR, memory, WORDS_PER_SECTOR, 0);
+			} else if (floppy.isWriteProtected()) {
+				//Protected after the write was accepted, e.g. by an overlay created over it
+				refused = true;
+			} else {
+				dma.fromRam(memory, floppy, sector * WORDS_PER_SECTOR, WORDS_PER_SECTOR, 0);
+				floppy.flush();
+			}
+		}
+
+		@Override
+		protected void completed() {
+			track = sector / SECTORS_PER_TRACK;
+//			System.out.println((type == READ ? "Read" : "Wrote") + " sector " + sector + " in track " + track + " at 0x" +  Integer.toHexString(memory));
+			operation = null;
+			setState(floppy.isWriteProtected() ? STATE_READY_WP : STATE_READY, refused ? ERROR_PROTECTED : ERROR_NONE);
+		}
+
+		@Override
+		protected void failed(IOException e) {
+			operation = null;
+			setState(floppy.isWriteProtected() ? STATE_READY_WP : STATE_READY, ERROR_BROKEN);
 		}
 	}
 
@@ -230,7 +260,7 @@ public class VirtualFloppyDrive extends DCPUHardware
 		this.interruptsEnabled = false;
 		this.message = 0;
 		this.track = 0;
-		this.operation = new FloppyOperation(FloppyOperation.NONE, 0, 0, Integer.MAX_VALUE);
+		cancelOperation();
 	}
 	
 	@Override
@@ -1,5 +1,8 @@
 package devcpu.emulation;
 
+import java.io.File;
+import java.io.IOException;
+
 import devcpu.managers.HardwareManager;
 
 public class VirtualKeyboard extends DCPUHardware
@@ -21,7 +24,14 @@ public class VirtualKeyboard extends DCPUHardware
   private boolean[] isDown = new boolean[256];
   private char interruptMessage;
   private boolean doInterrupt;
-  private boolean powered;
+  private volatile boolean powered;
+  private final KeyEventQueue input = new KeyEventQueue();
+  private volatile KeyEventLog.Recorder recorder;
+  private long recordingStart = -1;
+  private volatile KeyEventLog replay;
+  private int replayIndex;
+  //Reset on the UI thread when a replay is started
+  private volatile long replayStart = -1;
   
   private String id = "Generic Keyboard";
 	private HardwareManager manager;
@@ -42,41 +52,134 @@ public class VirtualKeyboard extends DCPUHardware
 		return powered;
 	}
 
+	/*
+	 * The host input methods below run on the UI thread. They only queue the
+	 * event; it is applied on the DCPU thread at the next 60hz tick.
+	 */
+
 	public void keyTyped(int i) {
-//		System.out.println("Type " + i);
 		if (powered) {
 	    if ((i <= 20) || (i > 127)) return;
-	    if (keyBuffer[(kwp & 0x3F)] == 0) {
-	      keyBuffer[(kwp++ & 0x3F)] = (char)i;
-	      doInterrupt = true;
-	    }
+	    input.offer(KeyEventQueue.pack(KeyEventQueue.TYPED, i));
 		}
   }
 
   public void keyPressed(int key) {
-//  	System.out.println("Press " + key);
   	if (powered) {
 	    int i = keyMapping.getKey(key);
 	    if (i < 0) return;
-	    if ((i < 20) && 
-	      (keyBuffer[(kwp & 0x3F)] == 0)) {
-	      keyBuffer[(kwp++ & 0x3F)] = (char)i;
-	    }
-	    isDown[i] = true;
-	    doInterrupt = true;
+	    input.offer(KeyEventQueue.pack(KeyEventQueue.PRESSED, i));
   	}
   }
 
   public void keyReleased(int key) {
-//  	System.out.println("Release " + key);
   	if (powered) {
 	    int i = keyMapping.getKey(key);
 	    if (i < 0) return;
-	    isDown[i] = false;
-	    doInterrupt = true;
+	    input.offer(KeyEventQueue.pack(KeyEventQueue.RELEASED, i));
   	}
   }
 
+  private void apply(int event) {
+    int i = KeyEventQueue.key(event);
+    switch (KeyEventQueue.type(event)) {
+    case KeyEventQueue.TYPED:
+      if (keyBuffer[(kwp & 0x3F)] == 0) {
+        keyBuffer[(kwp++ & 0x3F)] = (char)i;
+        doInterrupt = true;
+      }
+      break;
+    case KeyEventQueue.PRESSED:
+      if ((i < 20) && 
+        (keyBuffer[(kwp & 0x3F)] == 0)) {
+        keyBuffer[(kwp++ & 0x3F)] = (char)i;
+      }
+      isDown[i & 0xFF] = true;
+      doInterrupt = true;
+      break;
+    case KeyEventQueue.RELEASED:
+      isDown[i & 0xFF] = false;
+      doInterrupt = true;
+      break;
+    }
+  }
+
+  /**
+   * Applies the events that are due: queued host input, or the recording
+   * being replayed, in which case host input is ignored.
+   */
+  private void processInput() {
+    long now = dcpu.getElapsedCycles();
+    KeyEventLog replay = this.replay;
+    if (replay != null) {
+      input.clear();
+      if (replayStart < 0) {
+        replayStart = now;
+        replayIndex = 0;
+      }
+      while (replayIndex < replay.size() && replay.getTime(replayIndex) <= now - replayStart) {
+        apply(replay.getEvent(replayIndex++));
+      }
+      if (replayIndex >= replay.size()) {
+        this.replay = null;
+        replayStart = -1;
+      }
+      return;
+    }
+    KeyEventLog.Recorder recorder = this.recorder;
+    if (recorder != null && recordingStart < 0) {
+      recordingStart = now;
+    }
+    int event;
+    while ((event = input.poll()) != 0) {
+      apply(event);
+      if (recorder != null) {
+        recorder.record(now - recordingStart, event);
+      }
+    }
+  }
+
+  /**
+   * Starts writing every key event the DCPU sees to <code>file</code>,
+   * timestamped in emulated cycles. Any recording in progress is stopped.
+   */
+  public void startRecording(File file) throws IOException {
+    stopRecording();
+    recordingStart = -1;
+    recorder = new KeyEventLog.Recorder(file);
+  }
+
+  public void stopRecording() throws IOException {
+    KeyEventLog.Recorder recorder = this.recorder;
+    this.recorder = null;
+    if (recorder != null) {
+      recorder.close();
+    }
+  }
+
+  public boolean isRecording() {
+    return recorder != null;
+  }
+
+  /**
+   * Replays a recording made by {@link #startRecording(File)}, starting at
+   * the next 60hz tick. Each event is delivered at the same cycle offset it
+   * was recorded at, so starting the replay together with the program that
+   * was recorded reproduces the session exactly, however fast it runs.
+   */
+  public void replay(KeyEventLog log) {
+    replayStart = -1;
+    replay = log;
+  }
+
+  public void replay(File file) throws IOException {
+    replay(KeyEventLog.read(file));
+  }
+
+  public boolean isReplaying() {
+    return replay != null;
+  }
+
   public void interrupt() {
     int a = dcpu.registers[0];
     if (a == 0) {
@@ -104,6 +207,7 @@ public class VirtualKeyboard extends DCPUHardware
   }
 
   public void tick60hz() {
+    processInput();
     if (doInterrupt) {
       if (interruptMessage != 0) dcpu.interrupt(interruptMessage);
       doInterrupt = false;
@@ -131,6 +235,15 @@ public class VirtualKeyboard extends DCPUHardware
 	  this.isDown = new boolean[256];
 	  this.interruptMessage = 0;
 	  this.doInterrupt = false;
+	  //The queue is only drained on the DCPU thread; this may be the UI thread
+	  this.input.discard();
+	  this.replay = null;
+	  this.replayStart = -1;
+	  try {
+	    stopRecording();
+	  } catch (IOException e) {
+	    e.printStackTrace();
+	  }
 	}
 	
 	@Override
@@ -15,6 +15,7 @@ public class VirtualMonitor extends DCPUHardware
   private static final int START_DURATION = 60;
   private int lightColor;
   private int[] palette = new int[16];
+  private char[] mappedPalette = new char[16];
   private char[] font = new char[256];
   public int[] pixels = new int[12289];
   private int screenMemMap;
@@ -90,8 +91,9 @@ public class VirtualMonitor extends DCPUHardware
 	}
 
   private void loadPalette(char[] ram, int offset) {
+    DMA.copyFromRam(ram, offset, mappedPalette, 0, 16);
     for (int i = 0; i < 16; i++) {
-      char ch = ram[(offset + i)];
+      char ch = mappedPalette[i];
       int b = (ch >> '\000' & 0xF) * 17;
       int g = (ch >> '\004' & 0xF) * 17;
       int r = (ch >> '\b' & 0xF) * 17;
@@ -113,13 +115,9 @@ public class VirtualMonitor extends DCPUHardware
     } else if (a == 3) {
       borderColor = (dcpu.registers[1] & 0xF);
     } else if (a == 4) {
-      int offs = dcpu.registers[1];
-      for (int i = 0; i < font.length; i++) {
-        dcpu.ram[(offs + i & 0xFFFF)] = font[i];
-      }
-      dcpu.cycles += 256;
+      dcpu.dma.toRam(font, 0, dcpu.registers[1], font.length, 1);
     } else if (a == 5) {
-      int offs = dcpu.registers[1];
+      char[] defaultPalette = new char[16];
       for (int i = 0; i < 16; i++) {
         int b = (i >> 0 & 0x1) * 10;
         int g = (i >> 1 & 0x1) * 10;
@@ -131,9 +129,9 @@ public class VirtualMonitor extends DCPUHardware
           g += 5;
           b += 5;
         }
-        dcpu.ram[(offs + i & 0xFFFF)] = (char)(r << 8 | g << 4 | b);
+        defaultPalette[i] = (char)(r << 8 | g << 4 | b);
       }
-      dcpu.cycles += 16;
+      dcpu.dma.toRam(defaultPalette, 0, dcpu.registers[1], defaultPalette.length, 1);
     }
   }
 
@@ -71,9 +71,10 @@ public class VirtualSleepChamber extends DCPUHardware
     	performGetStatus();
     	break;
     case ACTION_SET_SKIP_UNIT:
-    	int b = dcpu.registers[1];
+    	char[] words = new char[4];
+    	dcpu.dma.fromRam(dcpu.registers[1], words, 0, words.length);
     	numberOfUnitsToSkip = ByteBuffer.allocate(8).order(ByteOrder.BIG_ENDIAN).putLong(
-    			(dcpu.ram[b]<<48)|(dcpu.ram[b+1]<<32)|(dcpu.ram[b+2]<<16)|dcpu.ram[b+3])
+    			((long)words[0]<<48)|((long)words[1]<<32)|((long)words[2]<<16)|words[3])
     			.order(ByteOrder.LITTLE_ENDIAN).getLong(0);
     	break;
     case ACTION_TRIGGER_DEVICE:
@@ -1,8 +1,5 @@
 package devcpu.emulation;
 
-import java.util.ArrayList;
-import java.util.List;
-
 import devcpu.managers.HardwareManager;
 
 /**
@@ -36,12 +33,17 @@ public class VirtualVectorDisplay extends DCPUHardware
 	
 	private static final double rotation60Hz = 50d/60d;
 	
+	public static final int VERTEX_X_SHIFT = SPED3Vertices.X_SHIFT;
+	public static final int VERTEX_Y_SHIFT = SPED3Vertices.Y_SHIFT;
+	public static final int VERTEX_Z_SHIFT = SPED3Vertices.Z_SHIFT;
+	public static final int VERTEX_STYLE_SHIFT = SPED3Vertices.STYLE_SHIFT;
+	
 	private char mapStart;
 	private char mapLength;
 	private boolean broken;
 	protected double angle;
 	private double targetDelta;
-	protected List<Vertex> vertices = new ArrayList<Vertex>();
+	private final SPED3Vertices vertices = new SPED3Vertices();
 	private String id = "SPED-3";
 	private HardwareManager manager;
 	
@@ -70,6 +72,7 @@ public class VirtualVectorDisplay extends DCPUHardware
     case BEHAVIOR_MAP_REGION:
     	mapStart = dcpu.registers[3];
     	mapLength = dcpu.registers[4];
+    	vertices.remap();
     	break;
     case BEHAVIOR_ROTATE_DEVICE:
     	targetDelta = (dcpu.registers[3] - angle) % 360;
@@ -101,33 +104,28 @@ public class VirtualVectorDisplay extends DCPUHardware
 			}
 			angle %= 360;
 		}
-		synchronized (vertices)
-		{
-			vertices.clear();
-			for (int i = mapStart; i < mapStart + 2 * mapLength; i++) {
-				char word = dcpu.ram[i++];
-				Vertex vertex = new Vertex();
-				vertex.x = word & 0xFF;
-				vertex.y = word >> 8;
-				vertex.z = (word = dcpu.ram[i]) & 0xFF;
-				vertex.color = (word >>= 8) & 0x3;
-				vertex.intensity = (word & 0x4) == 0x4;
-				vertices.add(vertex);
-			}
+		if (dcpu != null) {
+			vertices.update(dcpu.ram, mapStart, mapLength);
 		}
-//		System.out.println("Vertices: " + vertices.size() + ", Angle: " + angle + ", Target Delta: " + targetDelta);
+//		System.out.println("Vertices: " + vertexCount + ", Angle: " + angle + ", Target Delta: " + targetDelta);
   }
 	
-	public List<Vertex> getVertices() {
-		return vertices;
+	/**
+	 * @see SPED3Vertices#getVersion()
+	 */
+	public int getVertexVersion() {
+		return vertices.getVersion();
+	}
+	
+	/**
+	 * @see SPED3Vertices#copy(int[])
+	 */
+	public int copyVertices(int[] dest) {
+		return vertices.copy(dest);
 	}
 	
-	public class Vertex {
-		public int x;
-		public int y;
-		public int z;
-		public int color;
-		public boolean intensity;
+	public int getVertexCount() {
+		return vertices.getCount();
 	}
 
 	public double getAngle() {
@@ -153,6 +151,6 @@ public class VirtualVectorDisplay extends DCPUHardware
 		this.mapLength = 0;
 		this.mapStart = 0;
 		this.targetDelta = 0;
-		this.vertices.clear();
+		vertices.clear();
 	}
 }
@@ -14,8 +14,9 @@ public class DCPUSourceLocator implements IPersistableSourceLocator {
 
 	@Override
 	public Object getSourceElement(IStackFrame stackFrame) {
-		// TODO Auto-generated method stub
-		//XXX HIT
+		if (stackFrame instanceof DCPUStackFrame) {
+			return ((DCPUStackFrame) stackFrame).getSourceFile();
+		}
 		return null;
 	}
 
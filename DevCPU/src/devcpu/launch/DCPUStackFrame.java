@@ -2,6 +2,9 @@ package devcpu.launch;
 
 import java.util.ArrayList;
 
+import org.eclipse.core.resources.IFile;
+import org.eclipse.core.resources.ResourcesPlugin;
+import org.eclipse.core.runtime.Path;
 import org.eclipse.debug.core.DebugException;
 import org.eclipse.debug.core.ILaunch;
 import org.eclipse.debug.core.model.DebugElement;
@@ -11,6 +14,9 @@ import org.eclipse.debug.core.model.IStackFrame;
 import org.eclipse.debug.core.model.IThread;
 import org.eclipse.debug.core.model.IVariable;
 
+import devcpu.assembler.SourceMap;
+import devcpu.emulation.DefaultControllableDCPU;
+
 public class DCPUStackFrame extends DebugElement implements IStackFrame {
 	private DCPUThread thread;
 	private DCPURegisterGroup registerGroup;
@@ -50,18 +56,39 @@ public class DCPUStackFrame extends DebugElement implements IStackFrame {
 	}
 
 	public int getLineNumber() throws DebugException {
-		//TODO
-		return 0;
+		SourceMap map = getSourceMap();
+		int entry = map == null ? -1 : map.find(target.getDCPU().pc);
+		return entry < 0 ? -1 : map.getLineNumber(entry);
 	}
 
 	public int getCharStart() throws DebugException {
-		//TODO
-		return 0;
+		SourceMap map = getSourceMap();
+		int entry = map == null ? -1 : map.find(target.getDCPU().pc);
+		return entry < 0 ? -1 : map.getCharStart(entry);
 	}
 
 	public int getCharEnd() throws DebugException {
-		//TODO
-		return 0;
+		SourceMap map = getSourceMap();
+		int entry = map == null ? -1 : map.find(target.getDCPU().pc);
+		return entry < 0 ? -1 : map.getCharEnd(entry);
+	}
+
+	/**
+	 * The workspace file the instruction at PC was assembled from, or null if
+	 * that isn't known or the file isn't in the workspace.
+	 */
+	public IFile getSourceFile() {
+		SourceMap map = getSourceMap();
+		int entry = map == null ? -1 : map.find(target.getDCPU().pc);
+		if (entry < 0) {
+			return null;
+		}
+		return ResourcesPlugin.getWorkspace().getRoot().getFileForLocation(Path.fromOSString(map.getPath(entry)));
+	}
+
+	private SourceMap getSourceMap() {
+		DefaultControllableDCPU dcpu = target.getDCPU();
+		return dcpu.getManager().getSourceMap(dcpu);
 	}
 
 	public String getName() throws DebugException {
@@ -1,7 +1,11 @@
 package devcpu.lexer;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
 
 import devcpu.lexer.matchers.BasicOpCodeMatcher;
 import devcpu.lexer.matchers.CommentMatcher;
@@ -32,10 +36,12 @@ public class Lexer {
 	public static final String REGEX_CHARACTER_VALUE = "'[^']'";
 	public static final String REGEX_STRING = "\\\"(\\\\.|[^\\\"])*\\\"";
 	
+	//Runs of lines lexed in one task when a file is lexed in parallel
+	private static final int LINES_PER_TASK = 512;
+	private static final ForkJoinPool pool = new ForkJoinPool();
 	private static Lexer lexer = new Lexer();
 	
-	private ArrayList<LexerToken> lastResult = new ArrayList<LexerToken>();
-	
+	//The lexer keeps no state between calls; every call scans with its own LineScanner
 	private Lexer() {
 	}
 	
@@ -55,6 +61,142 @@ public class Lexer {
 	}
 	
 	public LexerToken[] generateTokens(String text, boolean includeZeroLength) {
+		ArrayList<LexerToken> tokens = new ArrayList<LexerToken>();
+		LineScanner scanner = new LineScanner(text);
+		int lineCount = countLines(text);
+		int lineOffset = 0;
+		for (int n = 0; n < lineCount; n++) {
+			int lineEnd = text.indexOf('\n', lineOffset);
+			if (lineEnd < 0) {
+				lineEnd = text.length();
+			}
+			LexerToken[] lineTokens = scanner.scanLine(lineOffset, lineEnd);
+			if (lineTokens == null) {
+				tokens.add(new ErrorToken(text.substring(lineOffset, lineEnd), lineOffset, lineEnd));
+			} else {
+				for (LexerToken token : lineTokens) {
+					if (includeZeroLength || !isZeroLength(token)) {
+						tokens.add(token);
+					}
+				}
+			}
+			lineOffset = lineEnd + 1;
+		}
+		return tokens.toArray(new LexerToken[0]);
+	}
+
+	/**
+	 * Lexes the lines of a whole source file in place, given where each line
+	 * starts and ends, without copying the lines out first. Token offsets,
+	 * including those of the zero length markers, are relative to the whole
+	 * text. Zero length tokens are always included. Large files are lexed in
+	 * parallel; the result is in line order either way.
+	 */
+	public LexerToken[][] generateLineTokens(String text, int[] lineStarts, int[] lineEnds, int lineCount) {
+		LexerToken[][] lines = new LexerToken[lineCount][];
+		invoke(new LineLexingTask(text, text.toCharArray(), lineStarts, lineEnds, 0, lineCount, lines));
+		return lines;
+	}
+
+	/**
+	 * Like {@link #generateLineTokens(String, int[], int[], int)}, but for the
+	 * lines from <code>from</code> up to <code>to</code> only, on the calling
+	 * thread, given the characters of the text so that relexing a few lines
+	 * doesn't copy it each time. The result holds just those lines.
+	 */
+	public LexerToken[][] generateLineTokens(String text, char[] chars, int[] lineStarts, int[] lineEnds, int from, int to) {
+		LexerToken[][] lines = new LexerToken[to][];
+		new LineLexingTask(text, chars, lineStarts, lineEnds, from, to, lines).compute();
+		return Arrays.copyOfRange(lines, from, to);
+	}
+
+	/**
+	 * Lexes a run of lines, splitting it in two and lexing the halves in
+	 * parallel while it is longer than {@link #LINES_PER_TASK}. Each run gets
+	 * its own scanner over the shared characters of the text.
+	 */
+	private static class LineLexingTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		private final String text;
+		private final char[] chars;
+		private final int[] lineStarts;
+		private final int[] lineEnds;
+		private final int from;
+		private final int to;
+		private final LexerToken[][] lines;
+
+		LineLexingTask(String text, char[] chars, int[] lineStarts, int[] lineEnds, int from, int to, LexerToken[][] lines) {
+			this.text = text;
+			this.chars = chars;
+			this.lineStarts = lineStarts;
+			this.lineEnds = lineEnds;
+			this.from = from;
+			this.to = to;
+			this.lines = lines;
+		}
+
+		@Override
+		protected void compute() {
+			if (to - from > LINES_PER_TASK) {
+				int middle = (from + to) >>> 1;
+				invokeAll(new LineLexingTask(text, chars, lineStarts, lineEnds, from, middle, lines), new LineLexingTask(text, chars, lineStarts, lineEnds, middle, to, lines));
+				return;
+			}
+			LineScanner scanner = new LineScanner(text, chars);
+			scanner.markersInLine = false;
+			for (int n = from; n < to; n++) {
+				lines[n] = scanner.scanLine(lineStarts[n], lineEnds[n]);
+				if (lines[n] == null) {
+					lines[n] = new LexerToken[] {new ErrorToken(text.substring(lineStarts[n], lineEnds[n]), lineStarts[n], lineEnds[n])};
+				}
+			}
+		}
+	}
+
+	/**
+	 * Runs a task on the lexing pool, or in the current pool if called from a
+	 * task already, and returns its result. The pool has a worker per core.
+	 */
+	public static <T> T invoke(ForkJoinTask<T> task) {
+		if (ForkJoinTask.inForkJoinPool()) {
+			return task.invoke();
+		}
+		return pool.invoke(task);
+	}
+
+	/**
+	 * The number of lines text.split("\\n") would return: trailing empty
+	 * lines are dropped, unless the text has no line breaks at all.
+	 */
+	private static int countLines(String text) {
+		int end = text.length();
+		if (text.indexOf('\n') < 0) {
+			return 1;
+		}
+		while (end > 0 && text.charAt(end - 1) == '\n') {
+			end--;
+		}
+		if (end == 0) {
+			return 0;
+		}
+		int lines = 1;
+		for (int i = 0; i < end; i++) {
+			if (text.charAt(i) == '\n') {
+				lines++;
+			}
+		}
+		return lines;
+	}
+
+	private static boolean isZeroLength(LexerToken token) {
+		return token instanceof AValueStartToken || token instanceof AValueEndToken || token instanceof BValueStartToken || token instanceof BValueEndToken || token instanceof DataValueStartToken || token instanceof DataValueEndToken || token instanceof PickValueStartToken || token instanceof PickValueEndToken;
+	}
+
+	/**
+	 * The original regex based lexer, kept as the reference that
+	 * {@link LineScanner} is checked against by the tests.
+	 */
+	public LexerToken[] generateTokensWithMatchers(String text, boolean includeZeroLength) {
 		ArrayList<LexerToken> tokens = new ArrayList<LexerToken>();
 		String[] lines = text.split("\\n");
 		int lineOffset = 0;
@@ -65,8 +207,7 @@ public class Lexer {
 			} else {
 				for (LexerToken token : lineTokens) {
 					if (!(token instanceof TrueToken)) {
-//						System.out.println(token.getClass().getSimpleName() + " (" + token.getText() + ") ");
-						if (includeZeroLength || !(token instanceof AValueStartToken || token instanceof AValueEndToken || token instanceof BValueStartToken || token instanceof BValueEndToken || token instanceof DataValueStartToken || token instanceof DataValueEndToken || token instanceof PickValueStartToken || token instanceof PickValueEndToken)) {
+						if (includeZeroLength || !isZeroLength(token)) {
 							tokens.add(token);
 						}
 					}
@@ -74,8 +215,6 @@ public class Lexer {
 			}
 			lineOffset += line.length() + 1;
 		}
-		lastResult = tokens;
-//		System.out.println("Storing " + lastResult.size() + " tokens");
 		return tokens.toArray(new LexerToken[0]);
 	}
 	
@@ -143,8 +282,12 @@ public class Lexer {
 		};
 	}
 
-	public LexerToken getTokenAt(int offset) {
-		for (LexerToken token : lastResult) {
+	/**
+	 * Returns the token of <code>tokens</code>, as returned by
+	 * {@link #generateTokens(String)}, that covers <code>offset</code>.
+	 */
+	public static LexerToken getTokenAt(LexerToken[] tokens, int offset) {
+		for (LexerToken token : tokens) {
 			if (token.getEnd() > offset)
 			{
 				if (token.getStart() > offset) {
@@ -0,0 +1,947 @@
+package devcpu.lexer;
+
+import devcpu.emulation.OpCodes;
+import devcpu.lexer.tokens.AValueEndToken;
+import devcpu.lexer.tokens.AValueStartToken;
+import devcpu.lexer.tokens.AddressEndToken;
+import devcpu.lexer.tokens.AddressStartToken;
+import devcpu.lexer.tokens.BValueEndToken;
+import devcpu.lexer.tokens.BValueStartToken;
+import devcpu.lexer.tokens.BasicOpCodeToken;
+import devcpu.lexer.tokens.CommentToken;
+import devcpu.lexer.tokens.DataToken;
+import devcpu.lexer.tokens.DataValueEndToken;
+import devcpu.lexer.tokens.DataValueStartToken;
+import devcpu.lexer.tokens.DirectiveParametersToken;
+import devcpu.lexer.tokens.DirectiveToken;
+import devcpu.lexer.tokens.EndOfLineToken;
+import devcpu.lexer.tokens.GroupEndToken;
+import devcpu.lexer.tokens.GroupStartToken;
+import devcpu.lexer.tokens.LabelDefinitionToken;
+import devcpu.lexer.tokens.LabelToken;
+import devcpu.lexer.tokens.LexerToken;
+import devcpu.lexer.tokens.LiteralToken;
+import devcpu.lexer.tokens.OffsetStackAccessToken;
+import devcpu.lexer.tokens.OperatorToken;
+import devcpu.lexer.tokens.PickValueEndToken;
+import devcpu.lexer.tokens.PickValueStartToken;
+import devcpu.lexer.tokens.RegisterToken;
+import devcpu.lexer.tokens.SimpleStackAccessToken;
+import devcpu.lexer.tokens.SpecialOpCodeToken;
+import devcpu.lexer.tokens.StringToken;
+import devcpu.lexer.tokens.UnaryOperatorToken;
+
+/**
+ * Table-driven replacement for the recursive matcher chain in
+ * devcpu.lexer.matchers. It accepts exactly the same language and produces
+ * the same tokens, with the same text and offsets, but scans the characters
+ * of a line left to right with a character class table instead of running
+ * regexes over substrings.
+ *
+ * A line is scanned by walking the follow-set graph of the old matchers,
+ * encoded in {@link #FOLLOW}. Each transition is recognized directly on the
+ * char array. The old lexer backtracks to the next alternative whenever the
+ * rest of a line doesn't lex, and so does this one; that only happens at
+ * the few points where two alternatives can start with the same characters
+ * (a label definition vs. an opcode, say). Token spans are recorded in int
+ * arrays and only turned into {@link LexerToken} objects once the line is
+ * accepted.
+ *
+ * Regex subtleties the old matchers relied on are reproduced as well: each
+ * matcher ran on <code>text.substring(offset)</code>, so word boundaries
+ * never look behind the start of a token, and <code>\b</code> treats any
+ * Unicode letter or digit as a word character.
+ */
+class LineScanner {
+	//Token kinds
+	static final int LABEL_DEFINITION = 0;
+	static final int COMMENT = 1;
+	static final int END_OF_LINE = 2;
+	static final int SPECIAL_OPCODE = 3;
+	static final int BASIC_OPCODE = 4;
+	static final int DATA = 5;
+	static final int DIRECTIVE = 6;
+	static final int DIRECTIVE_PARAMETERS = 7;
+	static final int A_VALUE_START = 8;
+	static final int A_VALUE_END = 9;
+	static final int B_VALUE_START = 10;
+	static final int B_VALUE_END = 11;
+	static final int DATA_VALUE_START = 12;
+	static final int DATA_VALUE_END = 13;
+	static final int PICK_VALUE_START = 14;
+	static final int PICK_VALUE_END = 15;
+	static final int SIMPLE_STACK_ACCESS = 16;
+	static final int OFFSET_STACK_ACCESS = 17;
+	static final int ADDRESS_START = 18;
+	static final int ADDRESS_END = 19;
+	static final int GROUP_START = 20;
+	static final int GROUP_END = 21;
+	static final int LITERAL = 22;
+	static final int REGISTER = 23;
+	static final int LABEL = 24;
+	static final int OPERATOR = 25;
+	static final int UNARY_OPERATOR = 26;
+	static final int STRING = 27;
+
+	//Character classes, for ASCII only
+	private static final int SPACE = 1;
+	private static final int WORD = 2;
+	private static final int IDENTIFIER_START = 4;
+	private static final int DIGIT = 8;
+	private static final int HEX_DIGIT = 16;
+	private static final int LETTER = 32;
+	private static final byte[] CLASSES = new byte[128];
+	static {
+		for (int c = 0; c < 128; c++) {
+			int bits = 0;
+			if (c == ' ' || c == '\t' || c == '\n' || c == 0x0B || c == '\f' || c == '\r') {
+				bits |= SPACE;
+			}
+			if ((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z')) {
+				bits |= WORD | IDENTIFIER_START | LETTER;
+			}
+			if (c == '_') {
+				bits |= WORD | IDENTIFIER_START;
+			}
+			if (c >= '0' && c <= '9') {
+				bits |= WORD | DIGIT | HEX_DIGIT;
+			}
+			if ((c >= 'a' && c <= 'f') || (c >= 'A' && c <= 'F')) {
+				bits |= HEX_DIGIT;
+			}
+			CLASSES[c] = (byte) bits;
+		}
+	}
+
+	//Line states, one per set of follow matchers in the old lexer
+	private static final int START = 0;
+	private static final int AFTER_LABEL_DEFINITION = 1;
+	private static final int AFTER_COMMENT = 2;
+	private static final int AFTER_SPECIAL_OPCODE = 3;
+	private static final int AFTER_BASIC_OPCODE = 4;
+	private static final int AFTER_B_VALUE = 5;
+	private static final int AFTER_A_VALUE = 6;
+	private static final int AFTER_DATA = 7;
+	private static final int AFTER_DATA_VALUE = 8;
+	private static final int AFTER_DIRECTIVE = 9;
+	private static final int AFTER_DIRECTIVE_PARAMETERS = 10;
+
+	//Line level transitions
+	private static final int T_LABEL_DEFINITION = 0;
+	private static final int T_COMMENT = 1;
+	private static final int T_END_OF_LINE = 2;
+	private static final int T_SPECIAL_OPCODE = 3;
+	private static final int T_BASIC_OPCODE = 4;
+	private static final int T_DATA = 5;
+	private static final int T_DIRECTIVE = 6;
+	private static final int T_DIRECTIVE_PARAMETERS = 7;
+	private static final int T_B_VALUE = 8;
+	private static final int T_A_VALUE = 9;
+	private static final int T_DATA_VALUE = 10;
+
+	/** Transitions to try from each state, in order. */
+	private static final int[][] FOLLOW = {
+		/* START */ {T_LABEL_DEFINITION, T_COMMENT, T_END_OF_LINE, T_SPECIAL_OPCODE, T_BASIC_OPCODE, T_DATA, T_DIRECTIVE},
+		/* AFTER_LABEL_DEFINITION */ {T_LABEL_DEFINITION, T_COMMENT, T_END_OF_LINE, T_SPECIAL_OPCODE, T_BASIC_OPCODE, T_DATA},
+		/* AFTER_COMMENT */ {T_END_OF_LINE},
+		/* AFTER_SPECIAL_OPCODE */ {T_A_VALUE},
+		/* AFTER_BASIC_OPCODE */ {T_B_VALUE},
+		/* AFTER_B_VALUE */ {T_A_VALUE},
+		/* AFTER_A_VALUE */ {T_COMMENT, T_END_OF_LINE},
+		/* AFTER_DATA */ {T_DATA_VALUE},
+		/* AFTER_DATA_VALUE */ {T_DATA_VALUE, T_COMMENT, T_END_OF_LINE},
+		/* AFTER_DIRECTIVE */ {T_DIRECTIVE_PARAMETERS},
+		/* AFTER_DIRECTIVE_PARAMETERS */ {T_COMMENT, T_END_OF_LINE},
+	};
+
+	/** State entered after each transition. */
+	private static final int[] NEXT = {
+		/* T_LABEL_DEFINITION */ AFTER_LABEL_DEFINITION,
+		/* T_COMMENT */ AFTER_COMMENT,
+		/* T_END_OF_LINE */ -1,
+		/* T_SPECIAL_OPCODE */ AFTER_SPECIAL_OPCODE,
+		/* T_BASIC_OPCODE */ AFTER_BASIC_OPCODE,
+		/* T_DATA */ AFTER_DATA,
+		/* T_DIRECTIVE */ AFTER_DIRECTIVE,
+		/* T_DIRECTIVE_PARAMETERS */ AFTER_DIRECTIVE_PARAMETERS,
+		/* T_B_VALUE */ AFTER_B_VALUE,
+		/* T_A_VALUE */ AFTER_A_VALUE,
+		/* T_DATA_VALUE */ AFTER_DATA_VALUE,
+	};
+
+	private static final String[] DIRECTIVES = {"include", "import", "incbin", "define", "equ", "origin", "org", "align", "reserve", "fill", "pad", "extern", "global", "export"};
+
+	private static final boolean[] BASIC_OPCODES = mnemonicTable(OpCodes.basic);
+	private static final boolean[] SPECIAL_OPCODES = mnemonicTable(OpCodes.special);
+
+	private final String text;
+	private final char[] chars;
+	private int lineStart;
+	//Whether markers are placed in the line, as generateTokens always has, or in the whole text
+	boolean markersInLine = true;
+
+	private int[] kinds = new int[64];
+	private int[] starts = new int[64];
+	private int[] ends = new int[64];
+	private int count;
+
+	private int[] frameStates = new int[16];
+	private int[] framePositions = new int[16];
+	private int[] frameAlternatives = new int[16];
+	private int[] frameCounts = new int[16];
+
+	LineScanner(String text) {
+		this(text, text.toCharArray());
+	}
+
+	/**
+	 * A scanner over characters already copied out of <code>text</code>,
+	 * which scanners lexing other lines of the same text may share.
+	 */
+	LineScanner(String text, char[] chars) {
+		this.text = text;
+		this.chars = chars;
+	}
+
+	/**
+	 * Indexes every three letter combination matched by one of the mnemonics
+	 * with equalsIgnoreCase, as the old opcode matchers compared them.
+	 */
+	private static boolean[] mnemonicTable(OpCodes opCodes) {
+		boolean[] table = new boolean[26 * 26 * 26];
+		for (String name : opCodes.getNames()) {
+			if (name.length() != 3) {
+				continue;
+			}
+			int index = 0;
+			for (int i = 0; i < 3; i++) {
+				int letter = -1;
+				for (char c = 'a'; c <= 'z' && letter < 0; c++) {
+					if (name.regionMatches(true, i, String.valueOf(c), 0, 1)) {
+						letter = c - 'a';
+					}
+				}
+				if (letter < 0) {
+					index = -1;
+					break;
+				}
+				index = index * 26 + letter;
+			}
+			if (index >= 0) {
+				table[index] = true;
+			}
+		}
+		return table;
+	}
+
+	/**
+	 * Scans the line between <code>from</code> and <code>to</code> and
+	 * returns its tokens, or null if the line doesn't lex.
+	 */
+	LexerToken[] scanLine(int from, int to) {
+		lineStart = from;
+		count = 0;
+		int depth = 0;
+		pushFrame(depth++, START, from);
+		while (depth > 0) {
+			int frame = depth - 1;
+			int[] alternatives = FOLLOW[frameStates[frame]];
+			if (frameAlternatives[frame] == alternatives.length) {
+				depth--;
+				continue;
+			}
+			int transition = alternatives[frameAlternatives[frame]++];
+			count = frameCounts[frame];
+			int end = scanTransition(transition, framePositions[frame], to);
+			if (end < 0) {
+				continue;
+			}
+			if (transition == T_END_OF_LINE) {
+				return buildTokens();
+			}
+			pushFrame(depth++, NEXT[transition], end);
+		}
+		return null;
+	}
+
+	private void pushFrame(int frame, int state, int position) {
+		if (frame == frameStates.length) {
+			frameStates = grow(frameStates);
+			framePositions = grow(framePositions);
+			frameAlternatives = grow(frameAlternatives);
+			frameCounts = grow(frameCounts);
+		}
+		frameStates[frame] = state;
+		framePositions[frame] = position;
+		frameAlternatives[frame] = 0;
+		frameCounts[frame] = count;
+	}
+
+	private static int[] grow(int[] array) {
+		int[] grown = new int[array.length * 2];
+		System.arraycopy(array, 0, grown, 0, array.length);
+		return grown;
+	}
+
+	private void emit(int kind, int start, int end) {
+		if (count == kinds.length) {
+			kinds = grow(kinds);
+			starts = grow(starts);
+			ends = grow(ends);
+		}
+		kinds[count] = kind;
+		starts[count] = start;
+		ends[count++] = end;
+	}
+
+	/**
+	 * The value, pick and data markers are zero length and, as in the old
+	 * matchers, positioned relative to the start of the line, unless
+	 * {@link #markersInLine} is cleared.
+	 */
+	private void emitMarker(int kind, int position) {
+		if (markersInLine) {
+			position -= lineStart;
+		}
+		emit(kind, position, position);
+	}
+
+	private int scanTransition(int transition, int p, int to) {
+		switch (transition) {
+		case T_LABEL_DEFINITION:
+			return labelDefinition(p, to);
+		case T_COMMENT:
+			return comment(p, to);
+		case T_END_OF_LINE:
+			return endOfLine(p, to);
+		case T_SPECIAL_OPCODE:
+			return opCode(p, to, SPECIAL_OPCODES, SPECIAL_OPCODE);
+		case T_BASIC_OPCODE:
+			return opCode(p, to, BASIC_OPCODES, BASIC_OPCODE);
+		case T_DATA:
+			return data(p, to);
+		case T_DIRECTIVE:
+			return directive(p, to);
+		case T_DIRECTIVE_PARAMETERS:
+			return directiveParameters(p, to);
+		case T_B_VALUE:
+			return value(p, to, B_VALUE_START, B_VALUE_END);
+		case T_A_VALUE:
+			return value(p, to, A_VALUE_START, A_VALUE_END);
+		case T_DATA_VALUE:
+			return value(p, to, DATA_VALUE_START, DATA_VALUE_END);
+		}
+		return -1;
+	}
+
+	// Character tests
+
+	private static boolean is(char c, int charClass) {
+		return c < 128 && (CLASSES[c] & charClass) != 0;
+	}
+
+	private int skipSpaces(int i, int to) {
+		while (i < to && is(chars[i], SPACE)) {
+			i++;
+		}
+		return i;
+	}
+
+	private int skipSeparators(int i, int to) {
+		while (i < to && (chars[i] == ',' || is(chars[i], SPACE))) {
+			i++;
+		}
+		return i;
+	}
+
+	/**
+	 * Whether a regex word boundary falls at <code>i</code>, given that the
+	 * character before it is an ASCII word character.
+	 */
+	private boolean boundaryAfterWord(int i, int to) {
+		if (i >= to) {
+			return true;
+		}
+		char c = chars[i];
+		if (c < 128) {
+			return (CLASSES[c] & WORD) == 0;
+		}
+		int codePoint = Character.codePointAt(chars, i, to);
+		if (codePoint == '_' || Character.isLetterOrDigit(codePoint)) {
+			return false;
+		}
+		//A combining mark continues the word if it follows a letter or digit
+		return Character.getType(codePoint) != Character.NON_SPACING_MARK || !Character.isLetterOrDigit(chars[i - 1]);
+	}
+
+	private boolean matchesIgnoreCase(int i, int to, String word) {
+		if (to - i < word.length()) {
+			return false;
+		}
+		for (int j = 0; j < word.length(); j++) {
+			char c = chars[i + j];
+			if (c >= 'A' && c <= 'Z') {
+				c += 'a' - 'A';
+			}
+			if (c != word.charAt(j)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private boolean keyword(int i, int to, String word) {
+		return matchesIgnoreCase(i, to, word) && boundaryAfterWord(i + word.length(), to);
+	}
+
+	/**
+	 * Matches Lexer.REGEX_IDENTIFIER at <code>i</code>, returning its end.
+	 */
+	private int identifier(int i, int to) {
+		if (i >= to || !is(chars[i], IDENTIFIER_START)) {
+			return -1;
+		}
+		int j = i + 1;
+		while (j < to && is(chars[j], WORD)) {
+			j++;
+		}
+		return boundaryAfterWord(j, to) ? j : -1;
+	}
+
+	// Line level
+
+	private int labelDefinition(int p, int to) {
+		int i = skipSpaces(p, to);
+		int end = -1;
+		if (i < to && chars[i] == ':') {
+			end = identifier(i + 1, to);
+			if (end < 0 && i + 1 < to && chars[i + 1] == '.') {
+				end = identifier(i + 2, to);
+			}
+		} else if (i < to && chars[i] == '.') {
+			end = identifier(i + 1, to);
+			end = end >= 0 && end < to && chars[end] == ':' ? end + 1 : -1;
+		} else {
+			end = identifier(i, to);
+			end = end >= 0 && end < to && chars[end] == ':' ? end + 1 : -1;
+		}
+		if (end >= 0) {
+			emit(LABEL_DEFINITION, p, end);
+		}
+		return end;
+	}
+
+	private int comment(int p, int to) {
+		int i = skipSpaces(p, to);
+		if (i >= to || chars[i] != ';') {
+			return -1;
+		}
+		i++;
+		while (i < to && chars[i] != '\r' && chars[i] != '\n') {
+			i++;
+		}
+		emit(COMMENT, p, i);
+		return i;
+	}
+
+	private int endOfLine(int p, int to) {
+		if (skipSpaces(p, to) != to) {
+			return -1;
+		}
+		emit(END_OF_LINE, p, to);
+		return to;
+	}
+
+	private int opCode(int p, int to, boolean[] mnemonics, int kind) {
+		int i = skipSpaces(p, to);
+		if (to - i < 3) {
+			return -1;
+		}
+		int index = 0;
+		for (int j = i; j < i + 3; j++) {
+			char c = chars[j];
+			if (!is(c, LETTER)) {
+				return -1;
+			}
+			index = index * 26 + ((c | 0x20) - 'a');
+		}
+		if (!boundaryAfterWord(i + 3, to) || !mnemonics[index]) {
+			return -1;
+		}
+		emit(kind, p, i + 3);
+		return i + 3;
+	}
+
+	private int data(int p, int to) {
+		int i = skipSpaces(p, to);
+		int end = -1;
+		if (i < to && chars[i] == '.') {
+			if (keyword(i + 1, to, "dat")) {
+				end = i + 4;
+			} else if (keyword(i + 1, to, "dw")) {
+				end = i + 3;
+			}
+		} else if (keyword(i, to, "dat")) {
+			end = i + 3;
+		}
+		if (end >= 0) {
+			emit(DATA, p, end);
+		}
+		return end;
+	}
+
+	private int directive(int p, int to) {
+		int i = skipSpaces(p, to);
+		if (i >= to || (chars[i] != '.' && chars[i] != '#')) {
+			return -1;
+		}
+		int nameEnd = identifier(i + 1, to);
+		if (nameEnd < 0) {
+			return -1;
+		}
+		for (String allowed : DIRECTIVES) {
+			if (nameEnd - i - 1 == allowed.length() && matchesIgnoreCase(i + 1, nameEnd, allowed)) {
+				int end = skipSeparators(nameEnd, to);
+				emit(DIRECTIVE, p, end);
+				return end;
+			}
+		}
+		return -1;
+	}
+
+	private int directiveParameters(int p, int to) {
+		int i = skipSpaces(p, to);
+		while (i < to && chars[i] != ';' && chars[i] != '\r' && chars[i] != '\n') {
+			i++;
+		}
+		emit(DIRECTIVE_PARAMETERS, p, i);
+		return i;
+	}
+
+	/**
+	 * The a, b and data value matchers: separators, then the first operand
+	 * form that matches, wrapped in zero length markers. As before, the b
+	 * value end marker is placed at the start of the value.
+	 */
+	private int value(int p, int to, int startKind, int endKind) {
+		int o = skipSeparators(p, to);
+		int saved = count;
+		emitMarker(startKind, o);
+		int end;
+		if (startKind == DATA_VALUE_START) {
+			end = string(o, to);
+		} else {
+			end = simpleStackAccess(o, to, startKind == A_VALUE_START ? "pop" : "push");
+			if (end < 0) {
+				end = offsetStackAccess(o, to);
+			}
+			if (end < 0) {
+				end = address(o, to);
+			}
+		}
+		if (end < 0) {
+			end = expression(o, to);
+		}
+		if (end < 0) {
+			count = saved;
+			return -1;
+		}
+		emitMarker(endKind, endKind == B_VALUE_END ? o : end);
+		return end;
+	}
+
+	// Operands
+
+	private int simpleStackAccess(int p, int to, String word) {
+		int i = skipSpaces(p, to);
+		int end = -1;
+		if (keyword(i, to, word)) {
+			end = i + word.length();
+		} else if (keyword(i, to, "peek")) {
+			end = i + 4;
+		} else if (i < to && chars[i] == '[') {
+			int j = skipSpaces(i + 1, to);
+			if (matchesIgnoreCase(j, to, "sp")) {
+				j += 2;
+			} else if (j + 1 < to && chars[j] == '-' && chars[j + 1] == '-') {
+				j = skipSpaces(j + 2, to);
+				j = matchesIgnoreCase(j, to, "sp") ? j + 2 : -1;
+			} else {
+				j = -1;
+			}
+			if (j >= 0) {
+				j = skipSpaces(j, to);
+				if (j < to && chars[j] == ']') {
+					end = j + 1;
+				}
+			}
+		}
+		if (end >= 0) {
+			emit(SIMPLE_STACK_ACCESS, p, end);
+		}
+		return end;
+	}
+
+	private int offsetStackAccess(int p, int to) {
+		int i = skipSpaces(p, to);
+		if (!keyword(i, to, "pick")) {
+			return -1;
+		}
+		int saved = count;
+		int o = i + 4;
+		emit(OFFSET_STACK_ACCESS, p, o);
+		emitMarker(PICK_VALUE_START, o);
+		int end = expression(o, to);
+		if (end < 0) {
+			count = saved;
+			return -1;
+		}
+		emitMarker(PICK_VALUE_END, end);
+		return end;
+	}
+
+	private int address(int p, int to) {
+		int i = skipSpaces(p, to);
+		if (i >= to || chars[i] != '[') {
+			return -1;
+		}
+		int innerStart = skipSpaces(i + 1, to);
+		int close = innerStart;
+		while (close < to && chars[close] != ']' && chars[close] != ';') {
+			close++;
+		}
+		if (close >= to || chars[close] != ']') {
+			return -1;
+		}
+		if (close == innerStart) {
+			//The contents need at least one character, so the regex gives one space back
+			if (innerStart == i + 1) {
+				return -1;
+			}
+			innerStart--;
+		}
+		int saved = count;
+		emit(ADDRESS_START, i, i + 1);
+		if (expression(innerStart, close) < 0) {
+			count = saved;
+			return -1;
+		}
+		for (int j = ends[count - 1]; j < close; j++) {
+			if (!is(chars[j], SPACE)) {
+				count = saved;
+				return -1;
+			}
+		}
+		emit(ADDRESS_END, close, close + 1);
+		return close + 1;
+	}
+
+	private int string(int p, int to) {
+		if (p >= to || chars[p] != '"') {
+			return -1;
+		}
+		//Reproduces the backtracking of "(\\.|[^"])*" followed by a closing quote:
+		//end[j] is where a match continuing the string at p + 1 + j ends.
+		int length = to - p - 1;
+		int[] end = new int[length + 2];
+		end[length] = -1;
+		end[length + 1] = -1;
+		for (int j = length - 1; j >= 0; j--) {
+			int i = p + 1 + j;
+			char c = chars[i];
+			if (c == '"') {
+				end[j] = i + 1;
+			} else if (c == '\\' && i + 1 < to && !isLineTerminator(chars[i + 1]) && end[j + 2] >= 0) {
+				end[j] = end[j + 2];
+			} else {
+				end[j] = end[j + 1];
+			}
+		}
+		int result = length > 0 ? end[0] : -1;
+		if (result >= 0) {
+			emit(STRING, p, result);
+		}
+		return result;
+	}
+
+	private static boolean isLineTerminator(char c) {
+		return c == '\n' || c == '\r' || c == '\u0085' || c == '\u2028' || c == '\u2029';
+	}
+
+	/**
+	 * An optionally unary-prefixed operand followed by any number of
+	 * operator and operand pairs, all within <code>to</code>.
+	 */
+	private int expression(int p, int to) {
+		int saved = count;
+		int o = p;
+		int end = unaryOperator(o, to);
+		if (end >= 0) {
+			o = end;
+		}
+		o = operand(o, to);
+		while (o >= 0) {
+			end = operator(o, to);
+			if (end < 0) {
+				return o;
+			}
+			o = end;
+			end = unaryOperator(o, to);
+			if (end >= 0) {
+				o = end;
+			}
+			o = operand(o, to);
+		}
+		count = saved;
+		return -1;
+	}
+
+	private int operand(int p, int to) {
+		int end = group(p, to);
+		if (end < 0) {
+			end = literal(p, to);
+		}
+		if (end < 0) {
+			end = register(p, to);
+		}
+		if (end < 0) {
+			end = label(p, to);
+		}
+		return end;
+	}
+
+	private int group(int p, int to) {
+		int i = skipSpaces(p, to);
+		if (i >= to || chars[i] != '(') {
+			return -1;
+		}
+		int innerStart = skipSpaces(i + 1, to);
+		int j = innerStart;
+		while (j < to && chars[j] != ')' && chars[j] != ';' && chars[j] != ',') {
+			j++;
+		}
+		if (j >= to || chars[j] != ')') {
+			return -1;
+		}
+		//The group ends at the parenthesis that balances the first one
+		int close = -1;
+		int depth = 0;
+		for (j = p; j < to && close < 0; j++) {
+			if (chars[j] == '(') {
+				depth++;
+			} else if (chars[j] == ')' && --depth == 0) {
+				close = j;
+			}
+		}
+		if (close < 0) {
+			return -1;
+		}
+		int saved = count;
+		emit(GROUP_START, i, i + 1);
+		int end = expression(innerStart, close);
+		if (end >= 0) {
+			j = skipSpaces(end, to);
+			if (j < to && chars[j] == ')') {
+				emit(GROUP_END, end, j + 1);
+				return close + 1;
+			}
+		}
+		count = saved;
+		return -1;
+	}
+
+	private int literal(int p, int to) {
+		int i = skipSpaces(p, to);
+		int end = -1;
+		if (i + 1 < to && chars[i] == '0' && chars[i + 1] == 'x') {
+			end = digits(i + 2, to, HEX_DIGIT, 5);
+		}
+		if (end < 0) {
+			end = digits(i < to && chars[i] == '-' ? i + 1 : i, to, DIGIT, 5);
+		}
+		if (end < 0 && i + 1 < to && chars[i] == '0' && chars[i + 1] == 'b') {
+			int j = i + 2;
+			while (j < to && (chars[j] == '0' || chars[j] == '1')) {
+				j++;
+			}
+			if (j > i + 2 && j - i - 2 <= 16 && boundaryAfterWord(j, to)) {
+				end = j;
+			}
+		}
+		if (end < 0 && i + 2 < to && chars[i] == '\'' && chars[i + 1] != '\'') {
+			//Any one code point between the quotes
+			int j = i + 1 + Character.charCount(Character.codePointAt(chars, i + 1, to));
+			if (j < to && chars[j] == '\'') {
+				end = j + 1;
+			}
+		}
+		if (end >= 0) {
+			emit(LITERAL, p, end);
+		}
+		return end;
+	}
+
+	private int digits(int i, int to, int digitClass, int maxDigits) {
+		int j = i;
+		while (j < to && is(chars[j], digitClass)) {
+			j++;
+		}
+		return j > i && j - i <= maxDigits && boundaryAfterWord(j, to) ? j : -1;
+	}
+
+	private int register(int p, int to) {
+		int i = skipSpaces(p, to);
+		if (i >= to) {
+			return -1;
+		}
+		int end = -1;
+		char c = (char) (chars[i] | 0x20);
+		if (((c >= 'a' && c <= 'c') || c == 'i' || c == 'j' || (c >= 'x' && c <= 'z')) && is(chars[i], LETTER) && boundaryAfterWord(i + 1, to)) {
+			end = i + 1;
+		} else if (keyword(i, to, "sp") || keyword(i, to, "pc") || keyword(i, to, "ex")) {
+			end = i + 2;
+		}
+		if (end >= 0) {
+			emit(REGISTER, p, end);
+		}
+		return end;
+	}
+
+	private int label(int p, int to) {
+		int i = skipSpaces(p, to);
+		int end = identifier(i, to);
+		if (end < 0 && i < to && chars[i] == '.') {
+			end = identifier(i + 1, to);
+		}
+		if (end >= 0) {
+			emit(LABEL, p, end);
+		}
+		return end;
+	}
+
+	private int operator(int p, int to) {
+		int i = skipSpaces(p, to);
+		if (i >= to) {
+			return -1;
+		}
+		char c = chars[i];
+		char next = i + 1 < to ? chars[i + 1] : 0;
+		int end = -1;
+		switch (c) {
+		case '*':
+			end = next == '*' ? i + 2 : i + 1;
+			break;
+		case '/':
+		case '%':
+		case '+':
+		case '-':
+		case '&':
+		case '^':
+		case '|':
+			end = i + 1;
+			break;
+		case '>':
+			if (next == '>') {
+				end = i + 2 < to && chars[i + 2] == '>' ? i + 3 : i + 2;
+			}
+			break;
+		case '<':
+			if (next == '<') {
+				end = i + 2;
+			}
+			break;
+		}
+		if (end >= 0) {
+			emit(OPERATOR, p, end);
+		}
+		return end;
+	}
+
+	private int unaryOperator(int p, int to) {
+		int i = skipSpaces(p, to);
+		if (i >= to || chars[i] != '-') {
+			return -1;
+		}
+		//Not followed by whitespace or by a number
+		if (i + 1 < to && (is(chars[i + 1], SPACE) || digits(i + 1, to, DIGIT, Integer.MAX_VALUE) >= 0)) {
+			return -1;
+		}
+		emit(UNARY_OPERATOR, p, i + 1);
+		return i + 1;
+	}
+
+	// Tokens
+
+	private LexerToken[] buildTokens() {
+		LexerToken[] tokens = new LexerToken[count];
+		for (int i = 0; i < count; i++) {
+			tokens[i] = createToken(kinds[i], starts[i], ends[i]);
+		}
+		return tokens;
+	}
+
+	private LexerToken createToken(int kind, int start, int end) {
+		switch (kind) {
+		case A_VALUE_START:
+			return new AValueStartToken("", start, end);
+		case A_VALUE_END:
+			return new AValueEndToken("", start, end);
+		case B_VALUE_START:
+			return new BValueStartToken("", start, end);
+		case B_VALUE_END:
+			return new BValueEndToken("", start, end);
+		case DATA_VALUE_START:
+			return new DataValueStartToken("", start, end);
+		case DATA_VALUE_END:
+			return new DataValueEndToken("", start, end);
+		case PICK_VALUE_START:
+			return new PickValueStartToken("", start, end);
+		case PICK_VALUE_END:
+			return new PickValueEndToken("", start, end);
+		}
+		String s = text.substring(start, end);
+		switch (kind) {
+		case LABEL_DEFINITION:
+			return new LabelDefinitionToken(s, start, end);
+		case COMMENT:
+			return new CommentToken(s, start, end);
+		case END_OF_LINE:
+			return new EndOfLineToken(s, start, end);
+		case SPECIAL_OPCODE:
+			return new SpecialOpCodeToken(s, start, end);
+		case BASIC_OPCODE:
+			return new BasicOpCodeToken(s, start, end);
+		case DATA:
+			return new DataToken(s, start, end);
+		case DIRECTIVE:
+			return new DirectiveToken(s, start, end);
+		case DIRECTIVE_PARAMETERS:
+			return new DirectiveParametersToken(s, start, end);
+		case SIMPLE_STACK_ACCESS:
+			return new SimpleStackAccessToken(s, start, end);
+		case OFFSET_STACK_ACCESS:
+			return new OffsetStackAccessToken(s, start, end);
+		case ADDRESS_START:
+			return new AddressStartToken(s, start, end);
+		case ADDRESS_END:
+			return new AddressEndToken(s, start, end);
+		case GROUP_START:
+			return new GroupStartToken(s, start, end);
+		case GROUP_END:
+			return new GroupEndToken(s, start, end);
+		case LITERAL:
+			return new LiteralToken(s, start, end);
+		case REGISTER:
+			return new RegisterToken(s, start, end);
+		case LABEL:
+			return new LabelToken(s, start, end);
+		case OPERATOR:
+			return new OperatorToken(s, start, end);
+		case UNARY_OPERATOR:
+			return new UnaryOperatorToken(s, start, end);
+		case STRING:
+			return new StringToken(s, start, end);
+		}
+		throw new IllegalArgumentException("Unknown token kind " + kind);
+	}
+}
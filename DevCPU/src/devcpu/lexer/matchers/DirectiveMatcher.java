@@ -18,6 +18,7 @@ public class DirectiveMatcher implements LexerTokenMatcher {
 	{
 		allowedDirectives.add("include");
 		allowedDirectives.add("import");
+		allowedDirectives.add("incbin");
 		allowedDirectives.add("define");
 		allowedDirectives.add("equ");
 		allowedDirectives.add("origin");
@@ -26,6 +27,9 @@ public class DirectiveMatcher implements LexerTokenMatcher {
 		allowedDirectives.add("reserve");
 		allowedDirectives.add("fill");
 		allowedDirectives.add("pad");
+		allowedDirectives.add("extern");
+		allowedDirectives.add("global");
+		allowedDirectives.add("export");
 	}
 	
 	@Override
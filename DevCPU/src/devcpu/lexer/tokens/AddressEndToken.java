@@ -1,14 +1,6 @@
 package devcpu.lexer.tokens;
 
-import org.eclipse.swt.graphics.Color;
-import org.eclipse.swt.graphics.RGB;
-
-import devcpu.editors.dasm.DASMColorProvider;
-
 public class AddressEndToken extends TrimmedLexerToken{
-	public static final Color FOREGROUND = DASMColorProvider.get().getColor(new RGB(0,0,0));
-	public static final Color BACKGROUND = DASMColorProvider.get().getColor(new RGB(255, 255, 255));
-
 	public AddressEndToken(String text, int start, int end) {
 		super(text, start, end);
 	}
@@ -17,29 +9,4 @@ public class AddressEndToken extends TrimmedLexerToken{
 	public String getType() {
 		return "DASM_ADDRESS_END";
 	}
-
-	@Override
-	public boolean isUndefined() {
-		return false;
-	}
-
-	@Override
-	public boolean isWhitespace() {
-		return false;
-	}
-
-	@Override
-	public boolean isEOF() {
-		return false;
-	}
-
-	@Override
-	public boolean isOther() {
-		return true;
-	}
-
-	@Override
-	public Object getData() {
-		return null;
-	}
 }
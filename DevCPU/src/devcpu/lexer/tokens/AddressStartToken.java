@@ -1,13 +1,9 @@
 package devcpu.lexer.tokens;
 
-import org.eclipse.swt.graphics.Color;
-import org.eclipse.swt.graphics.RGB;
+import exp4j_int_custom.CompiledExpression;
 
-import devcpu.editors.dasm.DASMColorProvider;
-
-public class AddressStartToken extends TrimmedLexerToken{
-	public static final Color FOREGROUND = DASMColorProvider.get().getColor(new RGB(0,0,0));
-	public static final Color BACKGROUND = DASMColorProvider.get().getColor(new RGB(255, 255, 255));
+public class AddressStartToken extends TrimmedLexerToken implements OperandStartToken {
+	private CompiledExpression expression;
 
 	public AddressStartToken(String text, int start, int end) {
 		super(text, start, end);
@@ -19,27 +15,12 @@ public class AddressStartToken extends TrimmedLexerToken{
 	}
 
 	@Override
-	public boolean isUndefined() {
-		return false;
-	}
-
-	@Override
-	public boolean isWhitespace() {
-		return false;
-	}
-
-	@Override
-	public boolean isEOF() {
-		return false;
-	}
-
-	@Override
-	public boolean isOther() {
-		return true;
+	public CompiledExpression getExpression() {
+		return expression;
 	}
 
 	@Override
-	public Object getData() {
-		return null;
+	public void setExpression(CompiledExpression expression) {
+		this.expression = expression;
 	}
 }
@@ -1,14 +1,6 @@
 package devcpu.lexer.tokens;
 
-import org.eclipse.swt.graphics.Color;
-import org.eclipse.swt.graphics.RGB;
-
-import devcpu.editors.dasm.DASMColorProvider;
-
 public class BValueEndToken extends StandardLexerToken{
-	public static final Color FOREGROUND = DASMColorProvider.get().getColor(new RGB(0,0,0));
-	public static final Color BACKGROUND = DASMColorProvider.get().getColor(new RGB(255, 255, 255));
-
 	public BValueEndToken(String text, int start, int end) {
 		super(text, start, end);
 	}
@@ -17,29 +9,4 @@ public class BValueEndToken extends StandardLexerToken{
 	public String getType() {
 		return "DASM_B_VALUE_END";
 	}
-
-	@Override
-	public boolean isUndefined() {
-		return false;
-	}
-
-	@Override
-	public boolean isWhitespace() {
-		return false;
-	}
-
-	@Override
-	public boolean isEOF() {
-		return false;
-	}
-
-	@Override
-	public boolean isOther() {
-		return true;
-	}
-
-	@Override
-	public Object getData() {
-		return null;
-	}
 }
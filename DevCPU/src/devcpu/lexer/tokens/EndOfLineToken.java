@@ -9,29 +9,4 @@ public class EndOfLineToken extends TrimmedLexerToken {
 	public String getType() {
 		return "DASM_EOL";
 	}
-
-	@Override
-	public boolean isUndefined() {
-		return false;
-	}
-
-	@Override
-	public boolean isWhitespace() {
-		return true;
-	}
-
-	@Override
-	public boolean isEOF() {
-		return false;
-	}
-
-	@Override
-	public boolean isOther() {
-		return false;
-	}
-
-	@Override
-	public Object getData() {
-		return null;
-	}
 }
@@ -1,15 +1,9 @@
 package devcpu.lexer.tokens;
 
-import org.eclipse.swt.graphics.Color;
-import org.eclipse.swt.graphics.RGB;
-
 import devcpu.assembler.Assembly;
 import devcpu.assembler.AssemblyLine;
-import devcpu.editors.dasm.DASMColorProvider;
 
 public class LabelToken extends TrimmedLexerToken{
-	public static final Color FOREGROUND = DASMColorProvider.get().getColor(new RGB(0, 0, 0));
-	public static final Color BACKGROUND = DASMColorProvider.get().getColor(new RGB(255, 255, 255));
 	private boolean local;
 	public String labelName;
 	public int value;
@@ -33,31 +27,6 @@ public class LabelToken extends TrimmedLexerToken{
 		return "DASM_LABEL";
 	}
 
-	@Override
-	public boolean isUndefined() {
-		return false;
-	}
-
-	@Override
-	public boolean isWhitespace() {
-		return false;
-	}
-
-	@Override
-	public boolean isEOF() {
-		return false;
-	}
-
-	@Override
-	public boolean isOther() {
-		return true;
-	}
-
-	@Override
-	public Object getData() {
-		return null;
-	}
-	
 	public boolean isLocal() {
 		return local;
 	}
@@ -1,11 +1,10 @@
 package devcpu.lexer.tokens;
 
-import org.eclipse.jface.text.ITypedRegion;
-import org.eclipse.jface.text.rules.IToken;
-
-public abstract class LexerToken implements ITypedRegion, IToken {
+public abstract class LexerToken {
 	public abstract String getText();
 	public abstract int getStart();
 	public abstract int getEnd();
 	public abstract int getLength();
+	public abstract int getOffset();
+	public abstract String getType();
 }
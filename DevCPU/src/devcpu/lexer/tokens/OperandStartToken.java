@@ -0,0 +1,14 @@
+package devcpu.lexer.tokens;
+
+import exp4j_int_custom.CompiledExpression;
+
+/**
+ * A token that opens an operand the assembler evaluates. The assembler keeps
+ * the operand's compiled expression on it, so later passes don't have to look
+ * the expression up again.
+ */
+public interface OperandStartToken {
+	public CompiledExpression getExpression();
+
+	public void setExpression(CompiledExpression expression);
+}
@@ -1,13 +1,6 @@
 package devcpu.lexer.tokens;
 
-import org.eclipse.swt.graphics.Color;
-import org.eclipse.swt.graphics.RGB;
-
-import devcpu.editors.dasm.DASMColorProvider;
-
 public class SpecialOpCodeToken extends TrimmedLexerToken implements OpCodeToken {
-	public static final Color FOREGROUND = DASMColorProvider.get().getColor(new RGB(127, 0, 85));
-	public static final Color BACKGROUND = DASMColorProvider.get().getColor(new RGB(255, 255, 255));
 	private boolean nextWordA;
 	public String mnemonic;
 
@@ -21,31 +14,6 @@ public class SpecialOpCodeToken extends TrimmedLexerToken implements OpCodeToken
 		return "DASM_SPECIAL_OPCODE";
 	}
 
-	@Override
-	public boolean isUndefined() {
-		return false;
-	}
-
-	@Override
-	public boolean isWhitespace() {
-		return false;
-	}
-
-	@Override
-	public boolean isEOF() {
-		return false;
-	}
-
-	@Override
-	public boolean isOther() {
-		return true;
-	}
-
-	@Override
-	public Object getData() {
-		return null;
-	}
-
 	@Override
 	public void setAValueNextWord(boolean nextWord) {
 		this.nextWordA = nextWord;
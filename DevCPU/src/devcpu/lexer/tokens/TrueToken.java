@@ -1,7 +1,6 @@
 package devcpu.lexer.tokens;
 
 public class TrueToken extends StandardLexerToken {
-
 	public TrueToken(String text, int start, int end) {
 		super(text, start, end);
 	}
@@ -10,30 +9,4 @@ public class TrueToken extends StandardLexerToken {
 	public String getType() {
 		return "DASM_TRUE";
 	}
-
-	@Override
-	public boolean isUndefined() {
-		return true;
-	}
-
-	@Override
-	public boolean isWhitespace() {
-		return false;
-	}
-
-	@Override
-	public boolean isEOF() {
-		return false;
-	}
-
-	@Override
-	public boolean isOther() {
-		return false;
-	}
-
-	@Override
-	public Object getData() {
-		// TODO Auto-generated method stub
-		return null;
-	}
 }
@@ -1,10 +1,12 @@
 package devcpu.managers;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.UUID;
 
 import devcpu.ViewMapper;
+import devcpu.assembler.SourceMap;
 import devcpu.emulation.DCPUHardware;
 import devcpu.emulation.DefaultControllableDCPU;
 import devcpu.emulation.Ship;
@@ -15,6 +17,9 @@ public class DCPUManager {
 	private LinkedHashMap<String,DefaultControllableDCPU> uidMap = new LinkedHashMap<String, DefaultControllableDCPU>();
 	private int id;
 	private Ship ship;
+	//Where the program in each DCPU's RAM came from, and the generation of RAM it was recorded for
+	private HashMap<DefaultControllableDCPU,SourceMap> sourceMaps = new HashMap<DefaultControllableDCPU, SourceMap>();
+	private HashMap<DefaultControllableDCPU,Integer> sourceMapGenerations = new HashMap<DefaultControllableDCPU, Integer>();
 	
 	public DCPUManager(Ship ship) {
 		this.ship = ship;
@@ -43,6 +48,35 @@ public class DCPUManager {
 			view.mapTo(null);
 		}
 		dcpus.remove(dcpu);
+		synchronized (sourceMaps) {
+			sourceMaps.remove(dcpu);
+			sourceMapGenerations.remove(dcpu);
+		}
+	}
+
+	/**
+	 * Where the program in a DCPU's RAM came from, or null if that isn't
+	 * known. It is forgotten along with the program, once another is written
+	 * into RAM.
+	 */
+	public SourceMap getSourceMap(DefaultControllableDCPU dcpu) {
+		synchronized (sourceMaps) {
+			Integer generation = sourceMapGenerations.get(dcpu);
+			if (generation == null || generation != dcpu.getGeneration()) {
+				return null;
+			}
+			return sourceMaps.get(dcpu);
+		}
+	}
+
+	/**
+	 * Records where the program just written into a DCPU's RAM came from.
+	 */
+	public void setSourceMap(DefaultControllableDCPU dcpu, SourceMap map) {
+		synchronized (sourceMaps) {
+			sourceMaps.put(dcpu, map);
+			sourceMapGenerations.put(dcpu, dcpu.getGeneration());
+		}
 	}
 
 	public String assignUniqueID(DefaultControllableDCPU dcpu) {
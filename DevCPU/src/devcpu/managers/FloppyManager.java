@@ -4,11 +4,13 @@ import java.util.ArrayList;
 
 import devcpu.ViewMapper;
 import devcpu.emulation.FloppyDisk;
+import devcpu.emulation.FloppyDiskFactory;
+import devcpu.emulation.FloppyDrive;
+import devcpu.emulation.OverlayFloppyDisk;
 import devcpu.emulation.Ship;
-import devcpu.emulation.VirtualFloppyDrive;
 import devcpu.views.MappedView;
 
-public class FloppyManager {
+public class FloppyManager implements FloppyDiskFactory {
 	private int id;
 	private ArrayList<FloppyDisk> disks = new ArrayList<FloppyDisk>();
 	private Ship ship;
@@ -41,8 +43,29 @@ public class FloppyManager {
 		return fd;
 	}
 
+	/**
+	 * Creates a copy-on-write disk over <code>base</code>. The base is write
+	 * protected so drives can't change it underneath its overlays.
+	 */
+	@Override
+	public OverlayFloppyDisk createFloppyDisk(FloppyDisk base) {
+		base.setWriteProtected(true);
+		OverlayFloppyDisk fd = new OverlayFloppyDisk("Floppy " + id++, this, base);
+		disks.add(fd);
+		return fd;
+	}
+
+	public boolean hasOverlays(FloppyDisk base) {
+		for (FloppyDisk fd : disks) {
+			if (fd instanceof OverlayFloppyDisk && ((OverlayFloppyDisk) fd).getBase() == base) {
+				return true;
+			}
+		}
+		return false;
+	}
+
 	public void destroyDisk(FloppyDisk disk) {
-		VirtualFloppyDrive drive = disk.getDriveUsing();
+		FloppyDrive drive = disk.getDriveUsing();
 		if (drive != null) {
 			drive.eject();
 		}
@@ -50,5 +73,7 @@ public class FloppyManager {
 			view.mapTo(null);
 		}
 		disks.remove(disk);
+		//A base stays alive until its last overlay is destroyed as well
+		disk.release();
 	}
 }
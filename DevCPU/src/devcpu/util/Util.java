@@ -1,22 +1,10 @@
 package devcpu.util;
 
-import java.io.IOException;
-import java.net.URISyntaxException;
-import java.net.URL;
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.Collections;
 
-import org.eclipse.core.runtime.FileLocator;
-import org.eclipse.core.runtime.Platform;
-import org.eclipse.jface.resource.ImageDescriptor;
-import org.eclipse.ui.internal.util.BundleUtility;
-import org.osgi.framework.Bundle;
-
-import devcpu.Activator;
 import exp4j_int_custom.CustomOperator;
 
-@SuppressWarnings("restriction")
 public class Util {
 	public static final Collection<CustomOperator> OPERATORS = new ArrayList<CustomOperator>();
 	static {
@@ -149,26 +137,4 @@ public class Util {
 		}
 		return buf.toString();
 	}
-
-	public static ImageDescriptor getImageDescriptor(String path) {
-		Bundle bundle = Platform.getBundle(Activator.PLUGIN_ID);
-		URL fullPathString = BundleUtility.find(bundle, path);
-		return ImageDescriptor.createFromURL(fullPathString);
-	}
-	
-	public static String loadResource(String filename) {
-		URL url = FileLocator.find(Activator.getDefault().getBundle(), new org.eclipse.core.runtime.Path(filename), Collections.EMPTY_MAP);
-		URL fileUrl = null;
-		try {
-		fileUrl = FileLocator.toFileURL(url);
-		}
-		catch (IOException e) {
-			e.printStackTrace();
-		}
-		try {
-			return fileUrl.toURI().getRawPath();
-		} catch (URISyntaxException e) {
-			return null;
-		}
-	}
 }
@@ -21,7 +21,6 @@ import org.eclipse.ui.IWorkbenchPart;
 
 import devcpu.Activator;
 import devcpu.emulation.DefaultControllableDCPU;
-import devcpu.util.Util;
 
 public class DCPUView extends MappedView<DefaultControllableDCPU> {
 	public static final String ID = "devcpu.views.DCPUView";
@@ -171,7 +170,7 @@ public class DCPUView extends MappedView<DefaultControllableDCPU> {
 	}
 
 	private void fillLocalPullDown(IMenuManager manager) {
-		final MenuManager attachSubmenu = new MenuManager("Attach DCPU",Util.getImageDescriptor("icons/dcpu.png"),null);
+		final MenuManager attachSubmenu = new MenuManager("Attach DCPU",Activator.getImageDescriptor("icons/dcpu.png"),null);
 		attachSubmenu.add(new Action(){});
 		attachSubmenu.addMenuListener(new IMenuListener() {
 			@Override
@@ -181,7 +180,7 @@ public class DCPUView extends MappedView<DefaultControllableDCPU> {
 					attachSubmenu.add(new Action(d.getID()) {
 						@Override
   	    		public ImageDescriptor getImageDescriptor() {
-  	    			return Util.getImageDescriptor("icons/dcpu.png");
+  	    			return Activator.getImageDescriptor("icons/dcpu.png");
   	    		}
   	    		public void run() {
 							connect(d);
@@ -4,6 +4,7 @@ import org.eclipse.jface.viewers.LabelProvider;
 import org.eclipse.swt.graphics.Image;
 import org.eclipse.swt.widgets.Display;
 
+import devcpu.Activator;
 import devcpu.emulation.DefaultControllableDCPU;
 import devcpu.emulation.FloppyDisk;
 import devcpu.emulation.Ship;
@@ -16,7 +17,6 @@ import devcpu.emulation.VirtualVectorDisplay;
 import devcpu.managers.DCPUManager;
 import devcpu.managers.FloppyManager;
 import devcpu.managers.HardwareManager;
-import devcpu.util.Util;
 
 public class DeviceManagerLabelProvider extends LabelProvider {
 	@Override
@@ -54,44 +54,44 @@ public class DeviceManagerLabelProvider extends LabelProvider {
 	public Image getImage(Object o) {
 		if (o instanceof DefaultControllableDCPU)
 		{
-			return new Image(Display.getDefault(), Util.loadResource("icons/dcpu.png"));
+			return new Image(Display.getDefault(), Activator.loadResource("icons/dcpu.png"));
 		} else if (o instanceof VirtualMonitor)
 		{
-			return new Image(Display.getDefault(), Util.loadResource("icons/lem.png"));
+			return new Image(Display.getDefault(), Activator.loadResource("icons/lem.png"));
 		} else if (o instanceof VirtualKeyboard)
 		{
-			return new Image(Display.getDefault(), Util.loadResource("icons/keyboard.png"));
+			return new Image(Display.getDefault(), Activator.loadResource("icons/keyboard.png"));
 		} else if (o instanceof VirtualVectorDisplay)
 		{
-			return new Image(Display.getDefault(), Util.loadResource("icons/sped.png"));
+			return new Image(Display.getDefault(), Activator.loadResource("icons/sped.png"));
 		} else if (o instanceof VirtualSleepChamber)
 		{
-			return new Image(Display.getDefault(), Util.loadResource("icons/spc.png"));
+			return new Image(Display.getDefault(), Activator.loadResource("icons/spc.png"));
 		} else if (o instanceof VirtualFloppyDrive)
 		{
-			return new Image(Display.getDefault(), Util.loadResource("icons/fd.png"));
+			return new Image(Display.getDefault(), Activator.loadResource("icons/fd.png"));
 		} else if (o instanceof VirtualClock)
 		{
-			return new Image(Display.getDefault(), Util.loadResource("icons/clock.png"));
+			return new Image(Display.getDefault(), Activator.loadResource("icons/clock.png"));
 		} else if (o instanceof FloppyDisk)
 		{
 			if (((FloppyDisk) o).isWriteProtected()) {
-				return new Image(Display.getDefault(), Util.loadResource("icons/protecteddisk.png"));
+				return new Image(Display.getDefault(), Activator.loadResource("icons/protecteddisk.png"));
 			} else {
-				return new Image(Display.getDefault(), Util.loadResource("icons/disk.png"));
+				return new Image(Display.getDefault(), Activator.loadResource("icons/disk.png"));
 			}
 		} else if (o instanceof FloppyManager)
 		{
-			return new Image(Display.getDefault(), Util.loadResource("icons/disk.png"));
+			return new Image(Display.getDefault(), Activator.loadResource("icons/disk.png"));
 		} else if (o instanceof DCPUManager)
 		{
-			return new Image(Display.getDefault(), Util.loadResource("icons/dcpu.png"));
+			return new Image(Display.getDefault(), Activator.loadResource("icons/dcpu.png"));
 		} else if (o instanceof HardwareManager)
 		{
-			return new Image(Display.getDefault(), Util.loadResource("icons/hw.png"));
+			return new Image(Display.getDefault(), Activator.loadResource("icons/hw.png"));
 		} else if (o instanceof Ship)
 		{
-			return new Image(Display.getDefault(), Util.loadResource("icons/ship.png"));
+			return new Image(Display.getDefault(), Activator.loadResource("icons/ship.png"));
 		}
 		return super.getImage(o);
 	}
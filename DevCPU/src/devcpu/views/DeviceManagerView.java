@@ -31,6 +31,7 @@ import devcpu.emulation.DCPUHardware;
 import devcpu.emulation.DefaultControllableDCPU;
 import devcpu.emulation.FloppyDisk;
 import devcpu.emulation.Identifiable;
+import devcpu.emulation.OverlayFloppyDisk;
 import devcpu.emulation.VirtualClock;
 import devcpu.emulation.VirtualFloppyDrive;
 import devcpu.emulation.VirtualKeyboard;
@@ -40,7 +41,6 @@ import devcpu.emulation.VirtualVectorDisplay;
 import devcpu.managers.DCPUManager;
 import devcpu.managers.FloppyManager;
 import devcpu.managers.HardwareManager;
-import devcpu.util.Util;
 
 public class DeviceManagerView extends ViewPart {
 	public static final String ID = "devcpu.views.DeviceManagerView";
@@ -133,7 +133,7 @@ public class DeviceManagerView extends ViewPart {
 	        	manager.add(new Action("Add DCPU") {
 	        		@Override
     	    		public ImageDescriptor getImageDescriptor() {
-    	    			return Util.getImageDescriptor("icons/dcpu.png");
+    	    			return Activator.getImageDescriptor("icons/dcpu.png");
     	    		}
     	    		public void run() {
 	        			DefaultControllableDCPU dcpu = dcpuManager.createDCPU();
@@ -146,7 +146,7 @@ public class DeviceManagerView extends ViewPart {
 	        	manager.add(new Action("Add Floppy") {
 	        		@Override
     	    		public ImageDescriptor getImageDescriptor() {
-    	    			return Util.getImageDescriptor("icons/disk.png");
+    	    			return Activator.getImageDescriptor("icons/disk.png");
     	    		}
     	    		public void run() {
 	        			FloppyDisk disk = floppyManager.createFloppyDisk();
@@ -171,15 +171,42 @@ public class DeviceManagerView extends ViewPart {
 	        			contentProvider.update();
 	        		};
 						});
+	        	manager.add(new Action("Create Overlay") {
+	        		public void run() {
+	        			FloppyDisk overlay = disk.getManager().createFloppyDisk(disk);
+	        			treeViewer.expandToLevel(overlay, 0);
+	        			contentProvider.update();
+	        		};
+						});
+	        	if (disk instanceof OverlayFloppyDisk) {
+	        		final OverlayFloppyDisk overlay = (OverlayFloppyDisk) disk;
+	        		manager.add(new Action("Commit to " + overlay.getBase().getID()) {
+	        			public void run() {
+	        				try {
+	        					overlay.commit();
+	        				} catch (IOException e) {
+	        					e.printStackTrace();
+	        				}
+	        				contentProvider.update();
+	        			};
+	        		});
+	        		manager.add(new Action("Discard Changes") {
+	        			public void run() {
+	        				overlay.discard();
+	        				contentProvider.update();
+	        			};
+	        		});
+	        	}
 	        	if (disk.getDriveUsing() == null) {
-		        	if (disk.isWriteProtected()) {
+	        		//A base can't change underneath its overlays
+		        	if (disk.isWriteProtected() && !Activator.getShip().getFloppyManager().hasOverlays(disk)) {
 		        		manager.add(new Action("Unprotect") {
 			        		public void run() {
 			        			disk.setWriteProtected(false);
 			        			contentProvider.update();
 			        		};
 								});
-		        	} else {
+		        	} else if (!disk.isWriteProtected()) {
 		        		manager.add(new Action("Write from file...") {
 			        		public void run() {
 			        			FileDialog fd = new FileDialog(container.getShell(), SWT.OPEN);
@@ -212,14 +239,14 @@ public class DeviceManagerView extends ViewPart {
 	        	}
 	        } else if (o instanceof HardwareManager) {
         	final HardwareManager hardwareManager = (HardwareManager) o;
-        	MenuManager hardwareMenu = new MenuManager("Add Hardware", Util.getImageDescriptor("icons/hw.png"),null);
+        	MenuManager hardwareMenu = new MenuManager("Add Hardware", Activator.getImageDescriptor("icons/hw.png"),null);
       	  hardwareMenu.addMenuListener(new IMenuListener() {
       	    @Override
       	    public void menuAboutToShow(IMenuManager manager) {
       	    	manager.add(new Action("Generic Clock") {
       	    		@Override
       	    		public ImageDescriptor getImageDescriptor() {
-      	    			return Util.getImageDescriptor("icons/clock.png");
+      	    			return Activator.getImageDescriptor("icons/clock.png");
       	    		}
       	    		public void run() {
       	    			VirtualClock vc = hardwareManager.createVirtualClock();
@@ -230,7 +257,7 @@ public class DeviceManagerView extends ViewPart {
       	    	manager.add(new Action("Generic Keyboard") {
       	    		@Override
       	    		public ImageDescriptor getImageDescriptor() {
-      	    			return Util.getImageDescriptor("icons/keyboard.png");
+      	    			return Activator.getImageDescriptor("icons/keyboard.png");
       	    		}
       	    		public void run() {
       	    			VirtualKeyboard vk = hardwareManager.createVirtualKeyboard();
@@ -241,7 +268,7 @@ public class DeviceManagerView extends ViewPart {
       	    	manager.add(new Action("LEM1802") {
       	    		@Override
       	    		public ImageDescriptor getImageDescriptor() {
-      	    			return Util.getImageDescriptor("icons/lem.png");
+      	    			return Activator.getImageDescriptor("icons/lem.png");
       	    		}
       	    		public void run() {
       	    			VirtualMonitor vm = hardwareManager.createVirtualMonitor();
@@ -252,7 +279,7 @@ public class DeviceManagerView extends ViewPart {
       	    	manager.add(new Action("M35FD") {
       	    		@Override
       	    		public ImageDescriptor getImageDescriptor() {
-      	    			return Util.getImageDescriptor("icons/fd.png");
+      	    			return Activator.getImageDescriptor("icons/fd.png");
       	    		}
       	    		public void run() {
       	    			VirtualFloppyDrive vfd = hardwareManager.createVirtualFloppyDrive();
@@ -263,7 +290,7 @@ public class DeviceManagerView extends ViewPart {
       	    	manager.add(new Action("SPC2000") {
       	    		@Override
       	    		public ImageDescriptor getImageDescriptor() {
-      	    			return Util.getImageDescriptor("icons/spc.png");
+      	    			return Activator.getImageDescriptor("icons/spc.png");
       	    		}
       	    		public void run() {
       	    			VirtualSleepChamber vsc = hardwareManager.createVirtualSleepChamber();
@@ -274,7 +301,7 @@ public class DeviceManagerView extends ViewPart {
       	    	manager.add(new Action("SPED-3") {
       	    		@Override
       	    		public ImageDescriptor getImageDescriptor() {
-      	    			return Util.getImageDescriptor("icons/sped.png");
+      	    			return Activator.getImageDescriptor("icons/sped.png");
       	    		}
       	    		public void run() {
       	    			VirtualVectorDisplay vvd = hardwareManager.createVirtualVectorDisplay();
@@ -292,7 +319,7 @@ public class DeviceManagerView extends ViewPart {
 	    			manager.add(new Action("Stop") {
 	    				@Override
     	    		public ImageDescriptor getImageDescriptor() {
-    	    			return Util.getImageDescriptor("icons/stop.png");
+    	    			return Activator.getImageDescriptor("icons/stop.png");
     	    		}
     	    		public void run() {
     	    			dcpu.stop();
@@ -303,7 +330,7 @@ public class DeviceManagerView extends ViewPart {
 	 	    		manager.add(new Action("Start") {
 	 	    			@Override
     	    		public ImageDescriptor getImageDescriptor() {
-    	    			return Util.getImageDescriptor("icons/play.png");
+    	    			return Activator.getImageDescriptor("icons/play.png");
     	    		}
     	    		public void run() {
     	    			dcpu.run();
@@ -312,6 +339,7 @@ public class DeviceManagerView extends ViewPart {
     	    	});
 	    			manager.add(new Action("Clear RAM") {
 	  	    		public void run() {
+	  	    			dcpu.newGeneration();
 	  	    			for (int i = 0; i < 65536; i++) {
 	  	    				dcpu.ram[i] = 0;
 	  	    			}
@@ -353,7 +381,7 @@ public class DeviceManagerView extends ViewPart {
 	    		manager.add(new Action("Connect hardware...") {
 	    			@Override
   	    		public ImageDescriptor getImageDescriptor() {
-  	    			return Util.getImageDescriptor("icons/hw.png");
+  	    			return Activator.getImageDescriptor("icons/hw.png");
   	    		}
   	    		public void run() {
         			ListSelectionDialog listDialog = new ListSelectionDialog(container.getShell(), Activator.getShip().getHardwareManager(), new DeviceManagerContentProvider(), new DeviceManagerLabelProvider(), "Choose hardware to connect to "+dcpu.getID()+".");
@@ -376,7 +404,7 @@ public class DeviceManagerView extends ViewPart {
         		final ArrayList<FloppyDisk> disks = Activator.getShip().getFloppyManager().getAvailableDisks();
         		if (disks.size() > 0)
         		{
-	        		MenuManager attachMenu = new MenuManager("Insert Floppy",Util.getImageDescriptor("icons/disk.png"),null);
+	        		MenuManager attachMenu = new MenuManager("Insert Floppy",Activator.getImageDescriptor("icons/disk.png"),null);
 		      	  attachMenu.addMenuListener(new IMenuListener() {
 		      	    @Override
 		      	    public void menuAboutToShow(IMenuManager manager) {
@@ -386,9 +414,9 @@ public class DeviceManagerView extends ViewPart {
 		      	    			@Override
 		        	    		public ImageDescriptor getImageDescriptor() {
 		      	    				if (fd.isWriteProtected()) {
-		      	    					return Util.getImageDescriptor("icons/protecteddisk.png");
+		      	    					return Activator.getImageDescriptor("icons/protecteddisk.png");
 		      	    				} else {
-		      	    					return Util.getImageDescriptor("icons/disk.png");
+		      	    					return Activator.getImageDescriptor("icons/disk.png");
 		      	    				}
 		        	    		}
 		        	    		public void run() {
@@ -402,14 +430,37 @@ public class DeviceManagerView extends ViewPart {
 		      	  attachMenu.setRemoveAllWhenShown(true);
 		      	  menuMgr.add(attachMenu);
         		}  
+        		final ArrayList<FloppyDisk> bases = Activator.getShip().getFloppyManager().getDisks();
+        		if (bases.size() > 0)
+        		{
+        			//Any disk can be a base, even one in another drive, as overlays never write to it
+        			MenuManager overlayMenu = new MenuManager("Insert Overlay Of",Activator.getImageDescriptor("icons/protecteddisk.png"),null);
+        			overlayMenu.addMenuListener(new IMenuListener() {
+        				@Override
+        				public void menuAboutToShow(IMenuManager manager) {
+        					for (final FloppyDisk fd : new ArrayList<FloppyDisk>(bases))
+        					{
+        						manager.add(new Action(fd.getID()) {
+        							public void run() {
+        								FloppyDisk overlay = vfd.insertOverlay(fd);
+        								treeViewer.expandToLevel(overlay, 0);
+        								contentProvider.update();
+        							};
+        						});
+        					}
+        				}
+        			});
+        			overlayMenu.setRemoveAllWhenShown(true);
+        			menuMgr.add(overlayMenu);
+        		}
         	} else {
         		menuMgr.add(new Action("Eject " + vfd.getDisk().getID()) {
         			@Override
     	    		public ImageDescriptor getImageDescriptor() {
         				if (vfd.getDisk().isWriteProtected()) {
-        					return Util.getImageDescriptor("icons/protecteddisk.png");
+        					return Activator.getImageDescriptor("icons/protecteddisk.png");
         				} else {
-        					return Util.getImageDescriptor("icons/disk.png");
+        					return Activator.getImageDescriptor("icons/disk.png");
         				}
     	    		}
     	    		public void run() {
@@ -3,6 +3,8 @@ package devcpu.views;
 import java.awt.BorderLayout;
 import java.awt.Frame;
 import java.awt.Panel;
+import java.io.File;
+import java.io.IOException;
 
 import org.eclipse.jface.action.Action;
 import org.eclipse.jface.action.IMenuListener;
@@ -13,6 +15,7 @@ import org.eclipse.jface.resource.ImageDescriptor;
 import org.eclipse.swt.SWT;
 import org.eclipse.swt.awt.SWT_AWT;
 import org.eclipse.swt.widgets.Composite;
+import org.eclipse.swt.widgets.FileDialog;
 import org.eclipse.ui.IActionBars;
 import org.eclipse.ui.IPartListener;
 import org.eclipse.ui.IPerspectiveDescriptor;
@@ -26,7 +29,6 @@ import devcpu.Activator;
 import devcpu.emulation.DCPUHardware;
 import devcpu.emulation.KeyboardViewer;
 import devcpu.emulation.VirtualKeyboard;
-import devcpu.util.Util;
 
 public class KeyboardView extends MappedView<VirtualKeyboard> {
 	public static final String ID = "devcpu.views.KeyboardView";
@@ -96,7 +98,7 @@ public class KeyboardView extends MappedView<VirtualKeyboard> {
 	}
 
 	private void fillLocalPullDown(IMenuManager manager) {
-		final MenuManager attachSubmenu = new MenuManager("Attach Generic Keyboard", Util.getImageDescriptor("icons/keyboard.png"), null);
+		final MenuManager attachSubmenu = new MenuManager("Attach Generic Keyboard", Activator.getImageDescriptor("icons/keyboard.png"), null);
 		attachSubmenu.add(new Action(){});
 		attachSubmenu.addMenuListener(new IMenuListener() {
 			@Override
@@ -107,7 +109,7 @@ public class KeyboardView extends MappedView<VirtualKeyboard> {
 					attachSubmenu.add(new Action(vm.getID()) {
 						@Override
 						public ImageDescriptor getImageDescriptor() {
-							return Util.getImageDescriptor("icons/keyboard.png");
+							return Activator.getImageDescriptor("icons/keyboard.png");
 						}
 
 						public void run() {
@@ -123,6 +125,50 @@ public class KeyboardView extends MappedView<VirtualKeyboard> {
 
 	private void fillContextMenu(IMenuManager manager) {
 		manager.add(detachAction);
+		final VirtualKeyboard vk = kv.vk;
+		if (vk != null) {
+			manager.add(new Separator());
+			if (vk.isRecording()) {
+				manager.add(new Action("Stop Recording") {
+					public void run() {
+						try {
+							vk.stopRecording();
+						} catch (IOException e) {
+							e.printStackTrace();
+						}
+					}
+				});
+			} else {
+				manager.add(new Action("Record Input...") {
+					public void run() {
+						FileDialog fd = new FileDialog(getSite().getShell(), SWT.SAVE);
+						fd.setText("Record keyboard input");
+						String selected = fd.open();
+						if (selected != null) {
+							try {
+								vk.startRecording(new File(selected));
+							} catch (IOException e) {
+								e.printStackTrace();
+							}
+						}
+					}
+				});
+			}
+			manager.add(new Action("Replay Input...") {
+				public void run() {
+					FileDialog fd = new FileDialog(getSite().getShell(), SWT.OPEN);
+					fd.setText("Replay keyboard input");
+					String selected = fd.open();
+					if (selected != null) {
+						try {
+							vk.replay(new File(selected));
+						} catch (IOException e) {
+							e.printStackTrace();
+						}
+					}
+				}
+			});
+		}
 		manager.add(new Separator(IWorkbenchActionConstants.MB_ADDITIONS));
 	}
 
@@ -24,7 +24,6 @@ import devcpu.Activator;
 import devcpu.emulation.DCPUHardware;
 import devcpu.emulation.LEM1802Viewer;
 import devcpu.emulation.VirtualMonitor;
-import devcpu.util.Util;
 
 public class LEM1802View extends MappedView<VirtualMonitor> {
 	public static final String ID = "devcpu.views.LEM1802View";
@@ -75,7 +74,7 @@ public class LEM1802View extends MappedView<VirtualMonitor> {
 	}
 
 	private void fillLocalPullDown(IMenuManager manager) {
-		final MenuManager attachSubmenu = new MenuManager("Attach LEM1802",Util.getImageDescriptor("icons/lem.png"),null);
+		final MenuManager attachSubmenu = new MenuManager("Attach LEM1802",Activator.getImageDescriptor("icons/lem.png"),null);
 		attachSubmenu.add(new Action(){});
 		attachSubmenu.addMenuListener(new IMenuListener() {
 			@Override
@@ -86,7 +85,7 @@ public class LEM1802View extends MappedView<VirtualMonitor> {
 					attachSubmenu.add(new Action(vm.getID()) {
 						@Override
   	    		public ImageDescriptor getImageDescriptor() {
-  	    			return Util.getImageDescriptor("icons/lem.png");
+  	    			return Activator.getImageDescriptor("icons/lem.png");
   	    		}
   	    		public void run() {
 							synchronized (lv) {
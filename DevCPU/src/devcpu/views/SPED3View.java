@@ -19,7 +19,6 @@ import devcpu.Activator;
 import devcpu.emulation.DCPUHardware;
 import devcpu.emulation.SPED3Viewer;
 import devcpu.emulation.VirtualVectorDisplay;
-import devcpu.util.Util;
 
 public class SPED3View extends MappedView<VirtualVectorDisplay> {
 
@@ -77,7 +76,7 @@ public class SPED3View extends MappedView<VirtualVectorDisplay> {
 	}
 
 	private void fillLocalPullDown(IMenuManager manager) {
-		final MenuManager attachSubmenu = new MenuManager("Attach SPED-3", Util.getImageDescriptor("icons/sped.png"), null);
+		final MenuManager attachSubmenu = new MenuManager("Attach SPED-3", Activator.getImageDescriptor("icons/sped.png"), null);
 		attachSubmenu.add(new Action(){});
 		attachSubmenu.addMenuListener(new IMenuListener() {
 			@Override
@@ -88,7 +87,7 @@ public class SPED3View extends MappedView<VirtualVectorDisplay> {
 					attachSubmenu.add(new Action(vvd.getID()) {
 						@Override
   	    		public ImageDescriptor getImageDescriptor() {
-  	    			return Util.getImageDescriptor("icons/sped.png");
+  	    			return Activator.getImageDescriptor("icons/sped.png");
   	    		}
   	    		public void run() {
 							synchronized (s3v) {
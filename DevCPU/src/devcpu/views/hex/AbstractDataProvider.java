@@ -41,4 +41,15 @@ public class AbstractDataProvider implements IDataProvider {
 	public void setWordsPerRow(int wpr) {
 		this.wordsPerRow = wpr;
 	}
+
+	public void refresh() {
+	}
+
+	public boolean isCode(int address) {
+		return false;
+	}
+
+	public boolean isBlockStart(int address) {
+		return false;
+	}
 }
\ No newline at end of file
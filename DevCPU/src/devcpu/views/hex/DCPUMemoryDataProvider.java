@@ -1,9 +1,16 @@
 package devcpu.views.hex;
 
+import devcpu.emulation.ControlFlowGraph;
 import devcpu.emulation.DefaultControllableDCPU;
 
+/**
+ * A DCPU's RAM, with the code in it told from data by its
+ * {@link ControlFlowGraph}, which is brought up to date each time the rows
+ * are shown.
+ */
 public class DCPUMemoryDataProvider extends AbstractDataProvider {
 	private DefaultControllableDCPU dcpu;
+	private ControlFlowGraph graph;
 
 	public DCPUMemoryDataProvider(DefaultControllableDCPU dcpu) {
 		this.dcpu = dcpu;
@@ -18,5 +25,22 @@ public class DCPUMemoryDataProvider extends AbstractDataProvider {
 
 	public void setDcpu(DefaultControllableDCPU dcpu) {
 		this.dcpu = dcpu;
+		this.data = dcpu.ram;
+		graph = null;
+	}
+
+	@Override
+	public void refresh() {
+		graph = dcpu.getControlFlowGraph();
+	}
+
+	@Override
+	public boolean isCode(int address) {
+		return graph != null && graph.isCode(address);
+	}
+
+	@Override
+	public boolean isBlockStart(int address) {
+		return graph != null && graph.isBlockStart(address);
 	}
 }
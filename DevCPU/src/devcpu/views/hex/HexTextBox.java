@@ -41,12 +41,18 @@ class HexTextBox extends BinaryTextBox {
 	public void appendRow(IDataProvider idp, int row, boolean isLastRow) {
 		int words = idp.getData(rowTemp,row);
 		Color red = Display.getDefault().getSystemColor(SWT.COLOR_RED);
+		Color blue = Display.getDefault().getSystemColor(SWT.COLOR_DARK_BLUE);
 		for (int i = 0; i < words; i++) {
 			Character w = rowTemp[i];
+			int address = row * wordsPerRow + i;
 			if (w == null) {
 				styleRanges.add(new StyleRange(sbTemp.length(),2,null,red));
 				sbTemp.append("??");
 			} else {
+				// code is blue, and the first word of each block of it bold
+				if (idp.isCode(address)) {
+					styleRanges.add(new StyleRange(sbTemp.length(),4,blue,null,idp.isBlockStart(address) ? SWT.BOLD : SWT.NORMAL));
+				}
 				sbTemp.append(WORD_2_STR[w & 0xFFFF]);
 			}
 			if (i == wordsPerRow - 1) {
@@ -19,6 +19,18 @@ public class HexView extends ViewPart {
 	/// creates all the widgets, and registers some events
 	public void createPartControl(Composite parent) {
 		hv = new HexViewer(parent,SWT.NONE,idp,8);
+		// RAM changes as the DCPU runs, and with it what is code
+		final Display display = parent.getDisplay();
+		Runnable timer = new Runnable() {
+			public void run() {
+				if (hv.isDisposed()) {
+					return;
+				}
+				hv.refresh();
+				display.timerExec(250, this);
+			}
+		};
+		display.timerExec(250, timer);
 	}
 
 	public void setFocus() {
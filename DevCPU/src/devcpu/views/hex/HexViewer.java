@@ -132,6 +132,7 @@ public class HexViewer extends Composite {
 		if (maxRow > rows) {
 			maxRow = rows;
 		}
+		idp.refresh();
 		hexText.initText();
 		rawText.initText();
 		rowText.initText();
@@ -148,6 +149,12 @@ public class HexViewer extends Composite {
 		rowText.showText();
 	}
 		
+	/// show the data again, as it may have changed
+	public void refresh() {
+		showData();
+		showSelection();
+	}
+
 	/// fix a selection position to fit in range [0,maxpos]
 	static int fix(int pos, int maxpos) {
 		if (pos < 0) {
@@ -6,4 +6,8 @@ public interface IDataProvider {
 	public int getDataSize();
 	public String getRowDescriptor(int rowNumber);
 	public int getData(Character[] arr, int rowNumber);
+	// brings what is known about the data up to date, before rows are shown
+	public void refresh();
+	public boolean isCode(int address);
+	public boolean isBlockStart(int address);
 }
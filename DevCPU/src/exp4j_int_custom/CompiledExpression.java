@@ -0,0 +1,214 @@
+package exp4j_int_custom;
+
+import java.util.Collection;
+import java.util.EmptyStackException;
+import java.util.List;
+
+/**
+ * An expression compiled once into a flat program over an int stack, so that
+ * it can be calculated any number of times without being parsed again and
+ * without allocating. Parsing is done by {@link ExpressionBuilder}, so the
+ * results are the same as building and calculating the expression directly.
+ * 
+ * Variables are bound by slot, in the order their names were passed to
+ * {@link #compile(String, Collection, String...)}, and parts of the
+ * expression that don't depend on a variable are folded into constants.
+ * 
+ * Instances are safe to share between threads.
+ */
+public class CompiledExpression {
+	private static final int PUSH = 0;
+	private static final int LOAD = 1;
+	private static final int OPERATOR = 2;
+	private static final int FUNCTION = 3;
+	private static final int[] NO_VALUES = new int[0];
+	private static String[] slotNames = new String[0];
+
+	private final String expression;
+	private final int[] instructions;
+	private final int[] arguments;
+	private final CustomOperator[] operators;
+	private final CustomFunction[] functions;
+	private final int[][] operands;
+	private final int[] stack;
+
+	private CompiledExpression(String expression, List<Token> tokens, String[] variableNames) {
+		int n = tokens.size();
+		this.expression = expression;
+		int[] instructions = new int[n];
+		int[] arguments = new int[n];
+		CustomOperator[] operators = new CustomOperator[n];
+		CustomFunction[] functions = new CustomFunction[n];
+		boolean[] constant = new boolean[n];
+		int size = 0;
+		int depth = 0;
+		int maxDepth = 0;
+		for (Token token : tokens) {
+			if (token instanceof NumberToken) {
+				instructions[size] = PUSH;
+				arguments[size++] = ((NumberToken) token).getNumber();
+				constant[depth++] = true;
+			} else if (token instanceof VariableToken) {
+				instructions[size] = LOAD;
+				arguments[size++] = indexOf(variableNames, token.getValue());
+				constant[depth++] = false;
+			} else {
+				CustomOperator operator = null;
+				CustomFunction function = null;
+				int count;
+				if (token instanceof OperatorToken) {
+					operator = ((OperatorToken) token).operation;
+					count = operator.operandCount;
+				} else {
+					function = ((FunctionToken) token).function;
+					count = function.argc;
+				}
+				if (depth < count) {
+					throw new EmptyStackException();
+				}
+				boolean fold = true;
+				for (int i = depth - count; i < depth; i++) {
+					fold &= constant[i];
+				}
+				depth -= count;
+				if (fold) {
+					//The operands are the constants pushed last; replace them with the result
+					int[] values = new int[count];
+					size -= count;
+					System.arraycopy(arguments, size, values, 0, count);
+					instructions[size] = PUSH;
+					arguments[size++] = operator != null ? operator.applyOperation(values) : function.applyFunction(values);
+					constant[depth++] = true;
+				} else {
+					instructions[size] = operator != null ? OPERATOR : FUNCTION;
+					operators[size] = operator;
+					functions[size++] = function;
+					constant[depth++] = false;
+				}
+			}
+			maxDepth = Math.max(maxDepth, depth);
+		}
+		if (depth == 0) {
+			throw new EmptyStackException();
+		}
+		this.instructions = new int[size];
+		this.arguments = new int[size];
+		this.operators = new CustomOperator[size];
+		this.functions = new CustomFunction[size];
+		this.operands = new int[size][];
+		System.arraycopy(instructions, 0, this.instructions, 0, size);
+		System.arraycopy(arguments, 0, this.arguments, 0, size);
+		System.arraycopy(operators, 0, this.operators, 0, size);
+		System.arraycopy(functions, 0, this.functions, 0, size);
+		for (int i = 0; i < size; i++) {
+			if (operators[i] != null) {
+				operands[i] = new int[operators[i].operandCount];
+			} else if (functions[i] != null) {
+				operands[i] = new int[functions[i].argc];
+			}
+		}
+		this.stack = new int[maxDepth];
+	}
+
+	/**
+	 * compile an expression
+	 * 
+	 * @param expression
+	 *            the expression to compile
+	 * @param operations
+	 *            the operators the expression may use
+	 * @param variableNames
+	 *            the names of the variables, in slot order
+	 * @return the compiled expression
+	 * @throws UnknownFunctionException
+	 *             when an unrecognized function name is used in the expression
+	 * @throws UnparsableExpressionException
+	 *             if the expression could not be parsed
+	 */
+	public static CompiledExpression compile(String expression, Collection<CustomOperator> operations, String... variableNames) throws UnknownFunctionException, UnparsableExpressionException {
+		RPNExpression rpn = (RPNExpression) new ExpressionBuilder(expression).withVariableNames(variableNames).withOperations(operations).build();
+		return new CompiledExpression(expression, rpn.tokens, variableNames);
+	}
+
+	/**
+	 * the name used for variable slot <code>slot</code> when variables are bound purely by position: "_0", "_1", ...
+	 */
+	public static synchronized String slotName(int slot) {
+		if (slot >= slotNames.length) {
+			String[] names = new String[Math.max(slot + 1, slotNames.length * 2)];
+			System.arraycopy(slotNames, 0, names, 0, slotNames.length);
+			for (int i = slotNames.length; i < names.length; i++) {
+				names[i] = "_" + i;
+			}
+			slotNames = names;
+		}
+		return slotNames[slot];
+	}
+
+	/**
+	 * the slot names for an expression with <code>count</code> variables
+	 */
+	public static String[] slotNames(int count) {
+		String[] names = new String[count];
+		for (int i = 0; i < count; i++) {
+			names[i] = slotName(i);
+		}
+		return names;
+	}
+
+	private static int indexOf(String[] names, String name) {
+		for (int i = 0; i < names.length; i++) {
+			if (names[i].equals(name)) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * calculate the result of the expression
+	 * 
+	 * @param values
+	 *            the variable values by slot
+	 * @return the result of the calculation
+	 */
+	public synchronized int calculate(int... values) {
+		int sp = 0;
+		for (int pc = 0; pc < instructions.length; pc++) {
+			switch (instructions[pc]) {
+			case PUSH:
+				stack[sp++] = arguments[pc];
+				break;
+			case LOAD:
+				stack[sp++] = values[arguments[pc]];
+				break;
+			case OPERATOR:
+				sp -= operands[pc].length;
+				System.arraycopy(stack, sp, operands[pc], 0, operands[pc].length);
+				stack[sp++] = operators[pc].applyOperation(operands[pc]);
+				break;
+			case FUNCTION:
+				sp -= operands[pc].length;
+				System.arraycopy(stack, sp, operands[pc], 0, operands[pc].length);
+				stack[sp++] = functions[pc].applyFunction(operands[pc]);
+				break;
+			}
+		}
+		return stack[sp - 1];
+	}
+
+	public int calculate() {
+		return calculate(NO_VALUES);
+	}
+
+	/**
+	 * @return true if the expression has no variables left after folding
+	 */
+	public boolean isConstant() {
+		return instructions.length == 1 && instructions[0] == PUSH;
+	}
+
+	public String getExpression() {
+		return expression;
+	}
+}
@@ -49,6 +49,10 @@ class NumberToken extends CalculationToken {
 		}
 	}
 
+	int getNumber() {
+		return doubleValue;
+	}
+
 	@Override
 	public boolean equals(Object obj) {
 		if (obj instanceof NumberToken) {
@@ -0,0 +1,96 @@
+package devcpu.assembler;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import devcpu.emulation.DCPU;
+
+public class AssemblyMetricsTest {
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void countsWhatAnAssemblyDid() throws Exception {
+		Assembly assembly = new Assembly(new LocalFile(write("prog.dasm", "#define N 3\nSET A, N\nSET B, far\n.fill 40, 0\n:far"), Collections.<File>emptyList()));
+		assembly.assemble(new DCPU());
+		AssemblyMetrics metrics = assembly.getMetrics();
+		assertFalse(metrics.cached);
+		assertFalse(metrics.incremental);
+		assertEquals(43, metrics.size);
+		assertEquals(1, metrics.files);
+		assertEquals(assembly.getLineCount(), metrics.lines);
+		assertEquals(metrics.lines, metrics.linesLexed);
+		assertEquals(0, metrics.linesReused);
+		assertEquals(1, metrics.defineSubstitutions);
+		assertTrue(metrics.passes > 0);
+		assertTrue(metrics.peakTokens > 0);
+		assertTrue(metrics.phaseTimes.keySet().containsAll(Arrays.asList("load", "size", "emit", "write")));
+		int total = 0;
+		for (int ms : metrics.phaseTimes.values()) {
+			total += ms;
+		}
+		assertEquals(total, metrics.totalTime);
+		assertTrue(metrics.toJSON().contains("\"size\":43,"));
+		assertTrue(metrics.toJSON().contains("\"defineSubstitutions\":1,"));
+	}
+
+	@Test
+	public void reportsAssembliesLoadedFromTheBuildCache() throws Exception {
+		BuildCache cache = new BuildCache(folder.newFolder("cache"));
+		File source = write("prog.dasm", "SET A, 1\nSET B, 2");
+		Assembly first = new Assembly(new LocalFile(source, Collections.<File>emptyList()));
+		first.setBuildCache(cache);
+		first.assemble();
+		Assembly second = new Assembly(new LocalFile(source, Collections.<File>emptyList()));
+		second.setBuildCache(cache);
+		second.assemble();
+		AssemblyMetrics metrics = second.getMetrics();
+		assertTrue(metrics.cached);
+		assertEquals(0, metrics.linesLexed);
+		assertEquals(first.getMetrics().lines, metrics.linesReused);
+		assertEquals(2, metrics.size);
+		assertTrue(metrics.phaseTimes.containsKey("cached"));
+		assertFalse(metrics.phaseTimes.containsKey("size"));
+	}
+
+	@Test
+	public void reportsIncrementalPatches() throws Exception {
+		File source = write("prog.dasm", "SET A, 1\nSET B, 2\nSET C, 3");
+		Assembly assembly = new Assembly(new LocalFile(source, Collections.<File>emptyList()));
+		assembly.setIncremental(true);
+		DCPU dcpu = new DCPU();
+		assembly.assemble(dcpu);
+		write("prog.dasm", "SET A, 1\nSET B, 4\nSET C, 3");
+		assertTrue(assembly.reassemble(dcpu));
+		AssemblyMetrics metrics = assembly.getMetrics();
+		assertTrue(metrics.incremental);
+		assertEquals(1, metrics.linesLexed);
+		assertEquals(metrics.lines - 1, metrics.linesReused);
+		assertEquals(1, metrics.patchedWords);
+		assertTrue(metrics.phaseTimes.containsKey("patch"));
+	}
+
+	private File write(String name, String text) throws IOException {
+		File file = new File(folder.getRoot(), name);
+		Writer out = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+		try {
+			out.write(text + "\n");
+		} finally {
+			out.close();
+		}
+		return file;
+	}
+}
@@ -0,0 +1,127 @@
+package devcpu.assembler;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import devcpu.assembler.exceptions.AbstractAssemblyException;
+import devcpu.assembler.exceptions.DuplicateLabelDefinitionException;
+import devcpu.emulation.DCPU;
+
+public class AssemblyTest {
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void substitutesDefinesInOperands() throws Exception {
+		assertSameProgram("SET A, 5\nSET [0x1000+I], 6\nADD B, 0x20*2",
+				"#define FIVE 5\n#define BASE 0x1000\n.define WIDE 0x20\nSET A, FIVE\nSET [BASE+I], FIVE+1\nADD B, WIDE*2");
+	}
+
+	@Test
+	public void expandsDefinesRecursivelyInAnyOrder() throws Exception {
+		assertSameProgram("SET A, 3*2+1",
+				"#define TOTAL TWICE+1\n#define TWICE THREE*2\n#define THREE 3\nSET A, TOTAL");
+	}
+
+	@Test
+	public void definesCanNameRegisters() throws Exception {
+		assertSameProgram("SET X, [Y+1]", "#define DEST X\n#define SRC Y\nSET DEST, [SRC+1]");
+	}
+
+	@Test
+	public void leavesStringsAndCommentsAlone() throws Exception {
+		assertSameProgram("DAT \"NAME\", 7 ; NAME", "#define NAME 7\nDAT \"NAME\", NAME ; NAME");
+	}
+
+	@Test
+	public void laterDefinesReplaceEarlierOnes() throws Exception {
+		assertSameProgram("SET A, 2", "#define N 1\n#define N 2\nSET A, N");
+	}
+
+	@Test
+	public void fallsBackToTextForDefinesThatAreNotOperands() throws Exception {
+		assertSameProgram("SET A, 1\nDAT \"hi\"", "#define LOAD SET\n#define GREETING \"hi\"\nLOAD A, 1\nDAT GREETING");
+	}
+
+	@Test
+	public void resolvesForwardReferences() throws Exception {
+		assertSameProgram("SET A, 2\nSET B, 3\nSET C, 1", "SET A, l2\n:l1 SET B, l3\n:l2 SET C, l1\n:l3");
+		assertSameProgram("SET PC, 0x10\n.org 0x10\nSET A, 0x10", "SET PC, end\n.org 0x10\n:end SET A, end");
+	}
+
+	@Test
+	public void growsLiteralsThatNoLongerFit() throws Exception {
+		assertSameProgram("SET A, 42\n.fill 40, 0", "SET A, far\n.fill 40, 0\n:far");
+		assertSameProgram("SET A, 8\n.align 8\nSET B, 8", "SET A, aligned\n.align 8\n:aligned SET B, aligned");
+	}
+
+	@Test
+	public void shrinksOperandsThatFitAgainAsOthersGrow() throws Exception {
+		//Multiplied and subtracted labels don't only grow as lines do, so relaxing them only by growing
+		//them leaves 40 - l6 long, where it fits once l1*62956 has grown
+		String program = ":l0 SET A, l1*62956\n:l1 ADD [B+1], 40 - l6\n:l2 DAT 1\n:l3 ADD [B+1], l0*62956\n:l4 STI [X], 40 - l2\n:l5 STI [X], l0 + 3\n:l6 SET A, l1";
+		assertSameProgram("SET A, 0xebd8\nADD [B+1], 30\nDAT 1\nADD [B+1], 0\nSTI [X], 36\nSTI [X], 3\nSET A, 2", program);
+		Assembly assembly = new Assembly(new LocalFile(write("relaxed.dasm", program), Collections.<File>emptyList()));
+		assembly.assemble(new DCPU());
+		assertEquals(11, assembly.getSize());
+	}
+
+	@Test(expected = AbstractAssemblyException.class)
+	public void reportsUndefinedLabels() throws Exception {
+		assemble("SET A, nowhere");
+	}
+
+	@Test(expected = DuplicateLabelDefinitionException.class)
+	public void rejectsDuplicateLabels() throws Exception {
+		assemble(":twice SET A, twice\n:TWICE SET B, 1");
+	}
+
+	@Test
+	public void compilesEachOperandShapeOnce() throws Exception {
+		Assembly assembly = new Assembly(new LocalFile(write("shapes.dasm", "SET A, far*2\nSET B, [near*2]\nSET C, near*2\n:near\n:far"), Collections.<File>emptyList()));
+		DCPU dcpu = new DCPU();
+		assembly.assemble(dcpu);
+		AssemblyMetrics metrics = assembly.getMetrics();
+		assertTrue(metrics.expressionsEvaluated >= 3);
+		assertEquals(1, metrics.expressionsEvaluated - metrics.expressionsCached);
+		assertArrayEquals(assemble("SET A, 4*2\nSET B, [4*2]\nSET C, 4*2"), dcpu.ram);
+	}
+
+	private void assertSameProgram(String expected, String actual) throws Exception {
+		assertArrayEquals(assemble(expected), assemble(actual));
+	}
+
+	private char[] assemble(String text) throws Exception {
+		return assemble(write("test" + folder.getRoot().list().length + ".dasm", text));
+	}
+
+	private char[] assemble(File file) throws Exception {
+		DCPU dcpu = new DCPU();
+		new Assembly(new LocalFile(file, Collections.<File>emptyList())).assemble(dcpu);
+		return Arrays.copyOf(dcpu.ram, dcpu.ram.length);
+	}
+
+	private File write(String name, String text) throws IOException {
+		File file = new File(folder.getRoot(), name);
+		Writer out = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+		try {
+			out.write(text + "\n");
+		} finally {
+			out.close();
+		}
+		return file;
+	}
+}
@@ -0,0 +1,88 @@
+package devcpu.assembler;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Collections;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class BuildCacheTest {
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void readsBackCachedImages() throws Exception {
+		BuildCache cache = new BuildCache(folder.newFolder("cache"));
+		File source = write("prog.dasm", "SET A, 1\nDAT 0x1234");
+		char[] image = assemble(source, cache);
+		String key = cache.lookup(new LocalFile(source, Collections.<File>emptyList()));
+		assertNotNull(key);
+		assertArrayEquals(image, cache.readImage(key));
+		Assembly cached = new Assembly(new LocalFile(source, Collections.<File>emptyList()));
+		cached.setBuildCache(cache);
+		assertArrayEquals(image, cached.assemble());
+		assertTrue(cached.isCached());
+	}
+
+	@Test
+	public void evictsLeastRecentlyUsedPrograms() throws Exception {
+		File directory = folder.newFolder("cache");
+		File first = write("first.dasm", "DAT 1\n.fill 2000, 0");
+		File second = write("second.dasm", "DAT 2\n.fill 2000, 0");
+		File third = write("third.dasm", "DAT 3\n.fill 2000, 0");
+		//Room for two of the programs, but not three
+		BuildCache cache = new BuildCache(directory, 10000);
+		assemble(first, cache);
+		age(directory);
+		assemble(second, cache);
+		age(directory);
+		assertNotNull(cache.lookup(new LocalFile(first, Collections.<File>emptyList())));
+		age(directory);
+		assemble(third, cache);
+		assertNotNull(cache.lookup(new LocalFile(first, Collections.<File>emptyList())));
+		assertNull(cache.lookup(new LocalFile(second, Collections.<File>emptyList())));
+		assertNotNull(cache.lookup(new LocalFile(third, Collections.<File>emptyList())));
+	}
+
+	@Test
+	public void keepsTheProgramJustStoredEvenIfItIsTooLarge() throws Exception {
+		BuildCache cache = new BuildCache(folder.newFolder("cache"), 100);
+		File source = write("large.dasm", ".fill 1000, 7");
+		assemble(source, cache);
+		assertNotNull(cache.lookup(new LocalFile(source, Collections.<File>emptyList())));
+	}
+
+	private static char[] assemble(File source, BuildCache cache) throws Exception {
+		Assembly assembly = new Assembly(new LocalFile(source, Collections.<File>emptyList()));
+		assembly.setBuildCache(cache);
+		return assembly.assemble();
+	}
+
+	//Moves every entry a minute into the past, so the next one stored or looked up is newer
+	private static void age(File directory) {
+		for (File file : directory.listFiles()) {
+			file.setLastModified(file.lastModified() - 60000);
+		}
+	}
+
+	private File write(String name, String text) throws IOException {
+		File file = new File(folder.getRoot(), name);
+		Writer out = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+		try {
+			out.write(text + "\n");
+		} finally {
+			out.close();
+		}
+		return file;
+	}
+}
@@ -0,0 +1,94 @@
+package devcpu.assembler;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Arrays;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class CommandLineAssemblerTest {
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void writesBinaryAndSymbolsNextToSource() throws IOException {
+		File source = write("prog.dasm", "SET A, 1\n:loop SET PC, loop\n");
+		CommandLineAssembler.Result result = new CommandLineAssembler().assemble(source);
+		assertNull(result.error);
+		assertNotNull(result.metrics);
+		assertArrayEquals(new char[] {0x8801, 0x8b81}, readImage(new File(folder.getRoot(), "prog.bin")));
+		assertEquals("0001 LOOP\n", read(new File(folder.getRoot(), "prog.sym")));
+		assertTrue(new File(folder.getRoot(), "prog.map").isFile());
+		assertTrue(result.toJSON().startsWith("{\"file\":"));
+		assertTrue(result.toJSON().contains(",\"size\":2,"));
+		assertTrue(result.metrics.phaseTimes.containsKey("write"));
+	}
+
+	@Test
+	public void keepsFailuresInResult() throws IOException {
+		File source = write("bad.dasm", "SET A, undefined_label\n");
+		CommandLineAssembler.Result result = new CommandLineAssembler().assemble(source);
+		assertNotNull(result.error);
+		assertTrue(result.toJSON().contains("\"error\":"));
+		assertTrue(!new File(folder.getRoot(), "bad.bin").exists());
+	}
+
+	@Test
+	public void linksModulesInOrder() throws IOException {
+		File main = write("main.dasm", ".extern twice\nSET A, 3\nJSR twice\n:halt SET PC, halt\n");
+		File library = write("lib.dasm", ".global twice\n:twice ADD A, A\nSET PC, POP\n");
+		File output = new File(folder.getRoot(), "linked.bin");
+		CommandLineAssembler.Result result = new CommandLineAssembler().link(Arrays.asList(main, library), output);
+		assertNull(result.error);
+		assertArrayEquals(new char[] {0x9001, 0x7c20, 0x0005, 0x7f81, 0x0003, 0x0002, 0x6381}, readImage(output));
+		assertEquals("0005 TWICE\n", read(new File(folder.getRoot(), "linked.sym")));
+	}
+
+	private File write(String name, String text) throws IOException {
+		File file = new File(folder.getRoot(), name);
+		Writer out = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+		try {
+			out.write(text);
+		} finally {
+			out.close();
+		}
+		return file;
+	}
+
+	private static char[] readImage(File file) throws IOException {
+		char[] image = new char[(int) file.length() / 2];
+		DataInputStream in = new DataInputStream(new FileInputStream(file));
+		try {
+			for (int i = 0; i < image.length; i++) {
+				image[i] = in.readChar();
+			}
+		} finally {
+			in.close();
+		}
+		return image;
+	}
+
+	private static String read(File file) throws IOException {
+		byte[] bytes = new byte[(int) file.length()];
+		DataInputStream in = new DataInputStream(new FileInputStream(file));
+		try {
+			in.readFully(bytes);
+		} finally {
+			in.close();
+		}
+		return new String(bytes, "UTF-8");
+	}
+}
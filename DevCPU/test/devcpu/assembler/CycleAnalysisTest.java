@@ -0,0 +1,58 @@
+package devcpu.assembler;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Collections;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class CycleAnalysisTest {
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void boundsHandlersAndSubroutines() throws Exception {
+		Assembly assembly = assemble("IAS handler\nJSR sub\n:halt SET PC, halt\n:sub ADD A, 1\nIFE A, 2\nSET B, 1\nSET PC, POP\n:handler RFI 0");
+		CycleAnalysis analysis = assembly.getCycleAnalysis();
+		int sub = assembly.getLabels().get("SUB");
+		int handler = assembly.getLabels().get("HANDLER");
+		assertArrayEquals(new int[] {sub}, analysis.getSubroutines());
+		assertArrayEquals(new int[] {handler}, analysis.getHandlers());
+		//ADD 2, IFE 2, then either SET 1 or skipping it 1, and SET PC, POP 1
+		assertEquals(6, analysis.getBound(sub));
+		assertEquals(3, analysis.getBound(handler));
+		assertEquals(4, analysis.getBlockCost(sub));
+		assertEquals(2, analysis.getCost(sub));
+	}
+
+	@Test
+	public void leavesLoopsAndComputedJumpsUnbounded() throws Exception {
+		Assembly assembly = assemble("JSR loop\nJSR computed\n:loop SET PC, loop\n:computed SET PC, A");
+		CycleAnalysis analysis = assembly.getCycleAnalysis();
+		assertEquals(CycleAnalysis.UNBOUNDED, analysis.getBound(assembly.getLabels().get("LOOP")));
+		assertTrue(analysis.getUnboundedReason(assembly.getLabels().get("LOOP")).contains("loops"));
+		assertTrue(analysis.getUnboundedReason(assembly.getLabels().get("COMPUTED")).contains("computed"));
+	}
+
+	private Assembly assemble(String text) throws Exception {
+		File file = new File(folder.getRoot(), "test.dasm");
+		Writer out = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+		try {
+			out.write(text + "\n");
+		} finally {
+			out.close();
+		}
+		Assembly assembly = new Assembly(new LocalFile(file, Collections.<File>emptyList()));
+		assembly.assemble();
+		return assembly;
+	}
+}
@@ -0,0 +1,107 @@
+package devcpu.assembler;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import devcpu.emulation.DCPU;
+
+public class HotPatchTest {
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void patchesOnlyTheWordsThatChanged() throws Exception {
+		File source = write("prog.dasm", "SET A, 1\n:loop SET B, 0x100\nSET PC, loop");
+		DCPU dcpu = new DCPU();
+		Assembly assembly = assembleIncrementally(source, dcpu);
+		write("prog.dasm", "SET A, 1\n:loop SET B, 0x200\nSET PC, loop");
+		HotPatch patch = assembly.hotPatch(dcpu);
+		assertFalse(patch.getRefusal(), patch.isRefused());
+		assertArrayEquals(new int[] {2}, patch.getAddresses());
+		assertTrue(patch.apply(dcpu));
+		assertEquals(0x200, dcpu.ram[2]);
+	}
+
+	@Test
+	public void refusesEditsThatMoveLabels() throws Exception {
+		File source = write("prog.dasm", "SET A, 1\n:loop SET B, 2\nSET PC, loop");
+		DCPU dcpu = new DCPU();
+		Assembly assembly = assembleIncrementally(source, dcpu);
+		write("prog.dasm", "SET A, 0x100\n:loop SET B, 2\nSET PC, loop");
+		assertTrue(assembly.hotPatch(dcpu).isRefused());
+	}
+
+	@Test
+	public void refusedOnceAnotherProgramIsLoaded() throws Exception {
+		File source = write("prog.dasm", "SET A, 1\nSET B, 2");
+		DCPU dcpu = new DCPU();
+		Assembly assembly = assembleIncrementally(source, dcpu);
+		//What loading a binary into a DCPU does before it overwrites RAM
+		dcpu.newGeneration();
+		write("prog.dasm", "SET A, 1\nSET B, 3");
+		assertTrue(assembly.hotPatch(dcpu).isRefused());
+	}
+
+	@Test
+	public void refusedOnceAnotherProgramIsLinked() throws Exception {
+		File source = write("prog.dasm", "SET A, 1\nSET B, 2");
+		File module = write("module.dasm", "SET C, 4");
+		DCPU dcpu = new DCPU();
+		Assembly assembly = assembleIncrementally(source, dcpu);
+		Linker linker = new Linker();
+		for (ObjectModule object : Linker.assembleAll(Arrays.<SourceFile>asList(new LocalFile(module, Collections.<File>emptyList())), null)) {
+			linker.add(object);
+		}
+		linker.link(dcpu);
+		write("prog.dasm", "SET A, 1\nSET B, 3");
+		assertTrue(assembly.hotPatch(dcpu).isRefused());
+		assertEquals(0x9441, dcpu.ram[0]);
+	}
+
+	@Test
+	public void notAppliedOnceAnotherProgramIsLoaded() throws Exception {
+		File source = write("prog.dasm", "SET A, 1\nSET B, 2");
+		DCPU dcpu = new DCPU();
+		Assembly assembly = assembleIncrementally(source, dcpu);
+		write("prog.dasm", "SET A, 1\nSET B, 3");
+		HotPatch patch = assembly.hotPatch(dcpu);
+		assertFalse(patch.isRefused());
+		dcpu.newGeneration();
+		dcpu.ram[1] = 0x1234;
+		assertFalse(patch.apply(dcpu));
+		assertTrue(patch.isRefused());
+		assertEquals(0x1234, dcpu.ram[1]);
+	}
+
+	private Assembly assembleIncrementally(File file, DCPU dcpu) throws Exception {
+		Assembly assembly = new Assembly(new LocalFile(file, Collections.<File>emptyList()));
+		assembly.setIncremental(true);
+		assembly.assemble(dcpu);
+		return assembly;
+	}
+
+	private File write(String name, String text) throws IOException {
+		File file = new File(folder.getRoot(), name);
+		Writer out = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+		try {
+			out.write(text + "\n");
+		} finally {
+			out.close();
+		}
+		return file;
+	}
+}
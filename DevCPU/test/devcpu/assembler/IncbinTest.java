@@ -0,0 +1,136 @@
+package devcpu.assembler;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import devcpu.assembler.exceptions.BinaryFileNotFoundException;
+import devcpu.assembler.exceptions.BinaryRangeException;
+import devcpu.emulation.DCPU;
+
+public class IncbinTest {
+	private static final byte[] DATA = {0x12, 0x34, 0x56, 0x78, (byte) 0x9a};
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void embedsWholeFilesBigEndian() throws Exception {
+		writeBinary("data.bin", DATA);
+		char[] image = assemble("SET A, 1\n.incbin \"data.bin\"\n:after DAT after");
+		assertArrayEquals(new char[] {0x8801, 0x1234, 0x5678, 0x9a00, 4}, Arrays.copyOf(image, 5));
+	}
+
+	@Test
+	public void embedsRangesLittleEndian() throws Exception {
+		writeBinary("data.bin", DATA);
+		char[] image = assemble(".incbin \"data.bin\", 1, 3, LE\nDAT 7");
+		assertArrayEquals(new char[] {0x5634, 0x0078, 7}, Arrays.copyOf(image, 3));
+	}
+
+	@Test(expected = BinaryRangeException.class)
+	public void rejectsRangesPastTheEndOfTheFile() throws Exception {
+		writeBinary("data.bin", DATA);
+		assemble(".incbin \"data.bin\", 4, 2");
+	}
+
+	@Test(expected = BinaryFileNotFoundException.class)
+	public void rejectsMissingFiles() throws Exception {
+		assemble(".incbin \"missing.bin\"");
+	}
+
+	@Test
+	public void keepsFilesOnlyWhileTheyAreUnchanged() throws Exception {
+		File data = writeBinary("data.bin", DATA);
+		IncludedBinary binary = IncludedBinary.get(new LocalFile(data, Collections.<File>emptyList()));
+		assertSame(binary, IncludedBinary.get(new LocalFile(data, Collections.<File>emptyList())));
+		writeBinary("data.bin", new byte[] {1, 2});
+		assertFalse(binary.isCurrent());
+		IncludedBinary changed = IncludedBinary.get(new LocalFile(data, Collections.<File>emptyList()));
+		assertNotSame(binary, changed);
+		assertEquals(2, changed.length());
+	}
+
+	@Test
+	public void keepsTheBytesReadAfterTheFileIsTruncated() throws Exception {
+		File data = writeBinary("data.bin", DATA);
+		IncludedBinary binary = IncludedBinary.get(new LocalFile(data, Collections.<File>emptyList()));
+		writeBinary("data.bin", new byte[0]);
+		char[] words = new char[2];
+		binary.copyWords(0, DATA.length, false, words, 0);
+		assertArrayEquals(new char[] {0x1234, 0x5678}, words);
+		assertTrue(data.delete());
+	}
+
+	@Test
+	public void reassemblesFullyWhenTheFileChanges() throws Exception {
+		writeBinary("data.bin", DATA);
+		Assembly assembly = new Assembly(new LocalFile(write("prog.dasm", ".incbin \"data.bin\""), Collections.<File>emptyList()));
+		assembly.setIncremental(true);
+		DCPU dcpu = new DCPU();
+		assembly.assemble(dcpu);
+		writeBinary("data.bin", new byte[] {1, 2});
+		assertFalse(assembly.reassemble(dcpu));
+		assertEquals(0x0102, assemble(".incbin \"data.bin\"")[0]);
+	}
+
+	@Test
+	public void buildCacheMissesWhenTheFileChanges() throws Exception {
+		BuildCache cache = new BuildCache(folder.newFolder("cache"));
+		writeBinary("data.bin", DATA);
+		File source = write("prog.dasm", ".incbin \"data.bin\"");
+		Assembly first = new Assembly(new LocalFile(source, Collections.<File>emptyList()));
+		first.setBuildCache(cache);
+		first.assemble();
+		writeBinary("data.bin", new byte[] {1, 2});
+		Assembly second = new Assembly(new LocalFile(source, Collections.<File>emptyList()));
+		second.setBuildCache(cache);
+		char[] image = second.assemble();
+		assertFalse(second.isCached());
+		assertEquals(0x0102, image[0]);
+	}
+
+	private char[] assemble(String text) throws Exception {
+		DCPU dcpu = new DCPU();
+		new Assembly(new LocalFile(write("test" + folder.getRoot().list().length + ".dasm", text), Collections.<File>emptyList())).assemble(dcpu);
+		return dcpu.ram;
+	}
+
+	private File writeBinary(String name, byte[] bytes) throws IOException {
+		File file = new File(folder.getRoot(), name);
+		OutputStream out = new FileOutputStream(file);
+		try {
+			out.write(bytes);
+		} finally {
+			out.close();
+		}
+		return file;
+	}
+
+	private File write(String name, String text) throws IOException {
+		File file = new File(folder.getRoot(), name);
+		Writer out = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+		try {
+			out.write(text + "\n");
+		} finally {
+			out.close();
+		}
+		return file;
+	}
+}
@@ -0,0 +1,84 @@
+package devcpu.assembler;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Collections;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import devcpu.emulation.DCPU;
+import devcpu.lexer.tokens.LexerToken;
+
+public class LineStoreTest {
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void laysOutLinesInAssemblyOrder() throws Exception {
+		write("inc.dasm", "SET C, 3");
+		File file = write("main.dasm", "SET A, 1\n#include \"inc.dasm\"\n  SET B, 0x100");
+		Assembly assembly = new Assembly(new LocalFile(file, Collections.<File>emptyList()));
+		assembly.assemble(new DCPU());
+		LineStore store = assembly.getLineStore();
+		assertEquals(4, store.size());
+		//Included lines come before the include itself
+		assertEquals(1, store.getLineNumber(1));
+		assertEquals("inc.dasm", store.getDocument(1).getFile().getName());
+		assertEquals(1, store.getOffset(1));
+		assertEquals(2, store.getLineNumber(2));
+		assertTrue(store.hasFlag(2, LineStore.FLAG_DIRECTIVE));
+		assertEquals(2, store.getOffset(3));
+		assertEquals(2, store.getSize(3));
+		assertTrue(store.hasFlag(3, LineStore.FLAG_INSTRUCTION));
+		assertEquals("  SET B, 0x100", store.getText(3));
+		assertEquals(4, store.getProgramSize());
+		assertTokensInDocument(store.getLine(3));
+	}
+
+	@Test
+	public void relexedLinesArePlacedInTheirDocument() throws Exception {
+		File file = write("main.dasm", "SET A, 1\n  SET B, 2");
+		Assembly assembly = new Assembly(new LocalFile(file, Collections.<File>emptyList()));
+		assembly.setIncremental(true);
+		DCPU dcpu = new DCPU();
+		assembly.assemble(dcpu);
+		assertTokensInDocument(assembly.lines.get(1));
+		write("main.dasm", "SET A, 1\n  SET B, 3");
+		assertTrue(assembly.reassemble(dcpu));
+		AssemblyLine line = assembly.lines.get(1);
+		assertTokensInDocument(line);
+		assertEquals(line.getDocument().getLineStart(2) + 2, line.getTokens()[0].getStart());
+	}
+
+	/**
+	 * Every token, markers included, lies within the line's text in the
+	 * document's source.
+	 */
+	private static void assertTokensInDocument(AssemblyLine line) {
+		int start = line.getDocument().getLineStart(line.getLineNumber());
+		int end = line.getDocument().getLineEnd(line.getLineNumber());
+		for (LexerToken token : line.getTokens()) {
+			assertTrue(token + " at " + token.getStart(), token.getStart() >= start && token.getEnd() <= end);
+			assertEquals(token.getText(), line.getDocument().getSource().substring(token.getStart(), token.getEnd()).trim());
+		}
+	}
+
+	private File write(String name, String text) throws IOException {
+		File file = new File(folder.getRoot(), name);
+		Writer out = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+		try {
+			out.write(text + "\n");
+		} finally {
+			out.close();
+		}
+		return file;
+	}
+}
@@ -0,0 +1,89 @@
+package devcpu.assembler;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Collections;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import devcpu.assembler.exceptions.RelocationException;
+
+public class LinkerTest {
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void relocatesLabelsPlusOrMinusConstants() throws Exception {
+		Linker linker = new Linker();
+		linker.add(module("first.dasm", "DAT 0, 0"));
+		linker.add(module("second.dasm", ":here SET A, here + 2*2\nSET [here - 1 + I], 1\nDAT here, here - 1"));
+		//The second module is placed at 2
+		assertArrayEquals(new char[] {0, 0, 0x7c01, 0x0006, 0x8ac1, 0x0001, 0x0002, 0x0001}, linker.link());
+	}
+
+	@Test
+	public void linksImportsAndLeavesLabelDifferencesAlone() throws Exception {
+		Linker linker = new Linker();
+		linker.add(module("first.dasm", ".global v\nDAT 0\n:v DAT 5"));
+		Assembly assembly = new Assembly(new LocalFile(write("second.dasm", ".extern v\n:here SET A, v + 1\nSET B, [v]\nDAT 1 - -here, there - here\n:there"), Collections.<File>emptyList()));
+		linker.add(assembly.assembleObject());
+		assertArrayEquals(new char[] {0, 5, 0x7c01, 0x0002, 0x7821, 0x0001, 0x0003, 0x0006}, linker.link());
+		//Each line is read and emitted once
+		assertEquals(assembly.getLineCount(), assembly.getMetrics().linesLexed);
+	}
+
+	@Test
+	public void refusesValuesThatDontMoveLikeALabelOrAnImport() throws Exception {
+		assertRefused(":l SET A, l & 0xFF");
+		assertRefused(":l SET A, l % 0x100");
+		assertRefused(":l SET A, 2 * l");
+		assertRefused(":l SET A, (l + 1) * 1");
+		assertRefused(":l DAT 1 << l");
+		assertRefused(".extern e\nSET A, e & 0xFF");
+		assertRefused(".extern e\n#define LOW e & 0xFF\nSET A, LOW");
+		assertRefused(":l SET A, l + l");
+		assertRefused(":l SET A, 2 * -l");
+		assertRefused(".extern e\n:l SET A, l + e");
+		assertRefused(".extern e\n.fill e, 1");
+	}
+
+	@Test
+	public void refusesWhatDependsOnWhereTheModuleIsLinked() throws Exception {
+		//The module starts at 0x20, so this fits in a short literal there but not elsewhere
+		assertRefused(":l SET A, l - 0x20");
+		assertRefused("DAT 1\n.org 0x100\nDAT 2");
+		assertRefused("DAT 1\n.align 0x100\nDAT 2");
+	}
+
+	private void assertRefused(String text) throws Exception {
+		try {
+			module("refused.dasm", text);
+			fail(text);
+		} catch (RelocationException e) {
+		}
+	}
+
+	private ObjectModule module(String name, String text) throws Exception {
+		return new Assembly(new LocalFile(write(name, text), Collections.<File>emptyList())).assembleObject();
+	}
+
+	private File write(String name, String text) throws IOException {
+		File file = new File(folder.getRoot(), name);
+		Writer out = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+		try {
+			out.write(text + "\n");
+		} finally {
+			out.close();
+		}
+		return file;
+	}
+}
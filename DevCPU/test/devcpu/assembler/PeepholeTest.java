@@ -0,0 +1,135 @@
+package devcpu.assembler;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import devcpu.emulation.DCPU;
+
+public class PeepholeTest {
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Before
+	public void enablePeephole() {
+		Assembly.setPeephole(true);
+	}
+
+	@After
+	public void restorePeephole() {
+		Assembly.setPeephole(Assembly.DEFAULT_PEEPHOLE);
+	}
+
+	@Test
+	public void removesSelfSets() throws Exception {
+		assertArrayEquals(assemble("SET B, 1", false), assemble("SET A, A\nSET B, 1", true));
+	}
+
+	@Test
+	public void keepsWhatConditionalsSkip() throws Exception {
+		String program = "IFE A, 1\nSET A, A\nSET B, 1";
+		assertArrayEquals(assemble(program, false), assemble(program, true));
+	}
+
+	@Test
+	public void keepsWhatConditionalsSkipPastLabels() throws Exception {
+		String program = "IFE A, 1\n:skipped\nSET A, A\nSET B, 1";
+		assertArrayEquals(assemble(program, false), assemble(program, true));
+		program = "IFE A, 1\n:skipped\n\nIFN B, 2\nSET A, A\nSET B, 1";
+		assertArrayEquals(assemble(program, false), assemble(program, true));
+	}
+
+	@Test
+	public void removesIdentities() throws Exception {
+		assertArrayEquals(assemble("SET X, 1", false), assemble("BOR A, 0\nXOR B, 0\nAND C, 0xFFFF\nSET X, 1", true));
+	}
+
+	@Test
+	public void keepsIdentitiesThatDoSomething() throws Exception {
+		//ADD sets EX, and PC moves on either way
+		String program = "ADD A, 0\nBOR PC, 0\nAND A, 0xFFFE";
+		assertArrayEquals(assemble(program, false), assemble(program, true));
+	}
+
+	@Test
+	public void removesPushesPoppedBackIntoTheSameRegister() throws Exception {
+		assertArrayEquals(assemble("SET B, 1", false), assemble("SET PUSH, A\nSET A, POP\nSET B, 1", true));
+		String program = "SET PUSH, A\nSET B, POP";
+		assertArrayEquals(assemble(program, false), assemble(program, true));
+	}
+
+	@Test
+	public void jumpsPastChainsOfJumpsThroughOrgGaps() throws Exception {
+		String program = "SET PC, first\n.org 0x20\n:first SET PC, second\n.org 0x30\n:second SET PC, end\n.org 0x40\n:end SET A, 1";
+		Assembly assembly = assembly(program);
+		assertArrayEquals(assemble(program.replaceFirst("first", "end"), false), assemble(assembly, true));
+		//Neither jump in the chain runs any more
+		assertArrayEquals(new int[] {1, 0, 4}, assembly.getPeephole().getSavings().get(Peephole.JUMP_TO_JUMP));
+	}
+
+	@Test
+	public void stopsFollowingJumpsAtALoop() throws Exception {
+		String program = "SET PC, ping\n.org 0x20\n:ping SET PC, pong\n.org 0x30\n:pong SET PC, ping";
+		assertArrayEquals(assemble(program.replaceFirst("ping", "pong"), false), assemble(program, true));
+		program = "SET PC, ping\n.org 0x20\n:ping SET PC, ping";
+		assertArrayEquals(assemble(program, false), assemble(program, true));
+	}
+
+	@Test
+	public void keepsJumpsThatFitInOneWord() throws Exception {
+		//Jumping to far directly would take a second word
+		String program = "SET PC, near\n:near SET PC, far\n.org 0x40\n:far SET A, 1";
+		Assembly assembly = assembly(program);
+		assertArrayEquals(assemble(program, false), assemble(assembly, true));
+		assertEquals(0, assembly.getPeephole().getSavings().get(Peephole.JUMP_TO_JUMP)[0]);
+	}
+
+	@Test
+	public void reportsWhatEachRuleSaved() throws Exception {
+		Assembly assembly = assembly("SET A, A\nSET B, B\nBOR C, 0\nSET PUSH, X\nSET X, POP\nSET Y, 1");
+		assemble(assembly, true);
+		Peephole peephole = assembly.getPeephole();
+		assertArrayEquals(new int[] {2, 2, 2}, peephole.getSavings().get(Peephole.SELF_SET));
+		assertArrayEquals(new int[] {1, 1, 1}, peephole.getSavings().get(Peephole.IDENTITY));
+		assertArrayEquals(new int[] {2, 2, 2}, peephole.getSavings().get(Peephole.PUSH_POP));
+		assertArrayEquals(new int[] {0, 0, 0}, peephole.getSavings().get(Peephole.JUMP_TO_JUMP));
+		assertEquals(5, peephole.getWordsSaved());
+		assertEquals(Peephole.SELF_SET + ": 2 lines, 2 words and 2 cycles saved. "
+				+ Peephole.IDENTITY + ": 1 lines, 1 words and 1 cycles saved. "
+				+ Peephole.PUSH_POP + ": 2 lines, 2 words and 2 cycles saved. ", peephole.getReport());
+	}
+
+	private char[] assemble(String text, boolean peephole) throws Exception {
+		return assemble(assembly(text), peephole);
+	}
+
+	private char[] assemble(Assembly assembly, boolean peephole) throws Exception {
+		Assembly.setPeephole(peephole);
+		DCPU dcpu = new DCPU();
+		assembly.assemble(dcpu);
+		return Arrays.copyOf(dcpu.ram, dcpu.ram.length);
+	}
+
+	private Assembly assembly(String text) throws Exception {
+		File file = new File(folder.getRoot(), "test" + folder.getRoot().list().length + ".dasm");
+		Writer out = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+		try {
+			out.write(text + "\n");
+		} finally {
+			out.close();
+		}
+		return new Assembly(new LocalFile(file, Collections.<File>emptyList()));
+	}
+}
@@ -0,0 +1,168 @@
+package devcpu.assembler;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import devcpu.emulation.DCPU;
+import devcpu.emulation.FloppyDisk;
+
+public class ReassemblyTest {
+	private static final String REGISTERS = "ABCXYZIJ";
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void patchedEditsMatchFreshAssemblies() throws Exception {
+		Random random = new Random(0x16ED17);
+		List<String> lines = generate(random, 80);
+		File file = write("fuzz.dasm", lines);
+		DCPU dcpu = new DCPU();
+		Assembly assembly = assembleIncrementally(file, dcpu);
+		int patched = 0;
+		for (int edit = 0; edit < 300; edit++) {
+			int n = random.nextInt(lines.size());
+			String line = lines.get(n);
+			String edited;
+			if (random.nextInt(10) == 0) {
+				edited = line + " ; edited";
+			} else if (random.nextBoolean()) {
+				edited = line.replaceFirst("\\b(\\d+)\\b", String.valueOf(random.nextInt(random.nextBoolean() ? 0x20 : 0x1000)));
+			} else {
+				edited = line.replaceFirst("\\b([ABCXYZIJ])\\b", String.valueOf(REGISTERS.charAt(random.nextInt(8))));
+			}
+			lines.set(n, edited);
+			write("fuzz.dasm", lines);
+			if (assembly.reassemble(dcpu)) {
+				patched++;
+			} else {
+				assembly = assembleIncrementally(file, dcpu);
+			}
+			DCPU fresh = new DCPU();
+			new Assembly(new LocalFile(file, Collections.<File>emptyList())).assemble(fresh);
+			assertArrayEquals("after editing line " + (n + 1) + " from \"" + line + "\" to \"" + edited + "\"", fresh.ram, dcpu.ram);
+		}
+		assertTrue(patched > 100);
+	}
+
+	@Test
+	public void forgetsDCPUsSomethingElseWasAssembledTo() throws Exception {
+		File first = write("first.dasm", "SET A, 1");
+		File second = write("second.dasm", "SET B, 2");
+		DCPU dcpu = new DCPU();
+		Assembly assembly = assembleIncrementally(first, dcpu);
+		assertSame(dcpu, assembly.getTarget());
+		new Assembly(new LocalFile(second, Collections.<File>emptyList())).assemble(dcpu);
+		assertFalse(assembly.isWrittenTo(dcpu));
+		assertNull(assembly.getTarget());
+		write("first.dasm", "SET A, 3");
+		assertFalse(assembly.reassemble(dcpu));
+		assertTrue(assembly.hotPatch(dcpu).isRefused());
+		assertEquals(0x8c21, dcpu.ram[0]);
+	}
+
+	@Test
+	public void forgetsDisksSomethingElseWasWrittenTo() throws Exception {
+		File source = write("prog.dasm", "SET A, 1");
+		File binary = folder.newFile("other.bin");
+		FloppyDisk disk = new FloppyDisk("disk", null);
+		try {
+			Assembly assembly = new Assembly(new LocalFile(source, Collections.<File>emptyList()));
+			assembly.setIncremental(true);
+			assembly.assemble(disk);
+			assertTrue(assembly.isWrittenTo(disk));
+			disk.load(binary);
+			assertFalse(assembly.isWrittenTo(disk));
+			write("prog.dasm", "SET A, 2");
+			assertFalse(assembly.reassemble(disk));
+			assertEquals(0, disk.read(0));
+		} finally {
+			disk.dispose();
+		}
+	}
+
+	@Test
+	public void writesOriginGapsOverDisksThatWereWrittenBefore() throws Exception {
+		File source = write("gap.dasm", "SET A, 1\n.org 1000\nDAT 5");
+		FloppyDisk disk = new FloppyDisk("disk", null);
+		try {
+			disk.write(500, (char) 7);
+			new Assembly(new LocalFile(source, Collections.<File>emptyList())).assemble(disk);
+			assertEquals(0x8801, disk.read(0));
+			assertEquals(0, disk.read(500));
+			assertEquals(5, disk.read(1000));
+		} finally {
+			disk.dispose();
+		}
+	}
+
+	private Assembly assembleIncrementally(File file, DCPU dcpu) throws Exception {
+		Assembly assembly = new Assembly(new LocalFile(file, Collections.<File>emptyList()));
+		assembly.setIncremental(true);
+		assembly.assemble(dcpu);
+		return assembly;
+	}
+
+	//A program of instructions and data with labels referenced before and after they are defined
+	private static List<String> generate(Random random, int count) {
+		List<String> lines = new ArrayList<String>();
+		for (int i = 0; i < count; i++) {
+			String label = i % 8 == 0 ? ":l" + i + " " : "";
+			char register = REGISTERS.charAt(random.nextInt(8));
+			switch (random.nextInt(5)) {
+			case 0:
+				lines.add(label + "SET " + register + ", " + random.nextInt(0x1000));
+				break;
+			case 1:
+				lines.add(label + "ADD " + register + ", [" + random.nextInt(0x100) + "+" + REGISTERS.charAt(random.nextInt(8)) + "]");
+				break;
+			case 2:
+				lines.add(label + "SET " + register + ", l" + random.nextInt(count / 8) * 8);
+				break;
+			case 3:
+				lines.add(label + "IFE " + register + ", " + random.nextInt(0x40));
+				break;
+			default:
+				lines.add(label + "DAT " + random.nextInt(0x10000) + ", " + random.nextInt(0x10));
+			}
+		}
+		return lines;
+	}
+
+	private File write(String name, List<String> lines) throws IOException {
+		StringBuilder text = new StringBuilder();
+		for (String line : lines) {
+			text.append(line).append('\n');
+		}
+		return write(name, text.toString());
+	}
+
+	private File write(String name, String text) throws IOException {
+		File file = new File(folder.getRoot(), name);
+		Writer out = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+		try {
+			out.write(text + "\n");
+		} finally {
+			out.close();
+		}
+		return file;
+	}
+}
@@ -0,0 +1,38 @@
+package devcpu.assembler;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.List;
+
+import org.junit.Test;
+
+public class SymbolTableTest {
+	@Test
+	public void internsNamesInOrder() {
+		SymbolTable symbols = new SymbolTable();
+		for (int i = 0; i < 100; i++) {
+			assertEquals(i, symbols.intern("L" + i));
+		}
+		assertEquals(42, symbols.intern("L42"));
+		assertEquals(42, symbols.lookup("L42"));
+		assertEquals(-1, symbols.lookup("L100"));
+		assertEquals("L99", symbols.getName(99));
+		assertEquals(100, symbols.size());
+	}
+
+	@Test
+	public void tracksUsesUntilTheLabelIsDefined() {
+		SymbolTable symbols = new SymbolTable();
+		int defined = symbols.intern("DEFINED");
+		int used = symbols.intern("USED");
+		assertEquals(-1, symbols.firstPending());
+		symbols.addPendingUse(used, null);
+		symbols.addPendingUse(used, null);
+		assertEquals(used, symbols.firstPending());
+		assertNull(symbols.getPendingUses(defined));
+		List<LabelUse> uses = symbols.removePendingUses(used);
+		assertEquals(2, uses.size());
+		assertEquals(-1, symbols.firstPending());
+	}
+}
@@ -0,0 +1,77 @@
+package devcpu.editors.dasm;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+
+/**
+ * Checks how plugin.xml declares the markers {@link DASMEditor} puts cycle
+ * bounds in, since the editor itself needs a workbench to run.
+ */
+public class CycleBoundMarkersTest {
+	private static Document plugin;
+
+	@BeforeClass
+	public static void readPlugin() throws Exception {
+		plugin = DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(new File("plugin.xml"));
+	}
+
+	@Test
+	public void boundsStayOutOfTheProblemsView() {
+		List<String> supers = supersOf("devcpu.cycleBound");
+		assertTrue(supers.contains("org.eclipse.core.resources.textmarker"));
+		assertFalse(supers.contains("org.eclipse.core.resources.problemmarker"));
+	}
+
+	@Test
+	public void warningsAreProblemsAndBounds() {
+		List<String> supers = supersOf("devcpu.cycleWarning");
+		assertTrue(supers.contains("devcpu.cycleBound"));
+		assertTrue(supers.contains("org.eclipse.core.resources.problemmarker"));
+	}
+
+	@Test
+	public void boundsAreShownOnTheRuler() {
+		Element annotation = find("type", "markerType", "devcpu.cycleBound");
+		assertNotNull(annotation);
+		Element specification = find("specification", "annotationType", annotation.getAttribute("name"));
+		assertNotNull(specification);
+		assertEquals("true", specification.getAttribute("verticalRulerPreferenceValue"));
+	}
+
+	private static List<String> supersOf(String marker) {
+		Element extension = find("extension", "id", marker);
+		assertNotNull(marker + " isn't declared", extension);
+		assertEquals("org.eclipse.core.resources.markers", extension.getAttribute("point"));
+		List<String> supers = new ArrayList<String>();
+		NodeList nodes = extension.getElementsByTagName("super");
+		for (int i = 0; i < nodes.getLength(); i++) {
+			supers.add(((Element) nodes.item(i)).getAttribute("type"));
+		}
+		return supers;
+	}
+
+	private static Element find(String tag, String attribute, String value) {
+		NodeList nodes = plugin.getElementsByTagName(tag);
+		for (int i = 0; i < nodes.getLength(); i++) {
+			Element element = (Element) nodes.item(i);
+			if (value.equals(element.getAttribute(attribute))) {
+				return element;
+			}
+		}
+		return null;
+	}
+}
@@ -0,0 +1,67 @@
+package devcpu.emulation;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class ControlFlowGraphTest {
+	private static final char SET_A_1 = 0x8801;
+	private static final char SET_B_2 = 0x8c21;
+	private static final char SET_PC_1 = 0x8b81;
+	private static final char SET_PC_2 = 0x8f81;
+
+	@Test
+	public void writesToDataCostNothing() {
+		char[] ram = new char[0x10000];
+		ram[0] = SET_A_1;
+		ram[1] = SET_PC_1;
+		ControlFlowGraph graph = new ControlFlowGraph(ram);
+		assertTrue(graph.update());
+		assertTrue(graph.isInstruction(1));
+		assertEquals(DCPU.JUMPS, graph.getBlockAt(1).exit);
+		ram[10] = 0x1234;
+		assertFalse(graph.update());
+		assertFalse(graph.isCode(10));
+	}
+
+	@Test
+	public void followsCodeWrittenWherePathsStopped() {
+		char[] ram = new char[0x10000];
+		ram[0] = SET_A_1;
+		ControlFlowGraph graph = new ControlFlowGraph(ram);
+		assertTrue(graph.update());
+		assertFalse(graph.isCode(1));
+		ram[1] = SET_B_2;
+		ram[2] = SET_PC_2;
+		assertTrue(graph.update());
+		assertTrue(graph.isInstruction(1));
+		assertTrue(graph.isInstruction(2));
+		assertEquals(DCPU.JUMPS, graph.getBlockAt(2).exit);
+		assertTrue(graph.isBlockStart(0));
+		assertFalse(graph.isBlockStart(1));
+		assertTrue(graph.isBlockStart(2));
+		assertFalse(graph.update());
+	}
+
+	@Test
+	public void forgetsEntryPointsOfTheLastProgram() {
+		DCPU dcpu = new DCPU();
+		dcpu.ram[0] = SET_PC_1;
+		dcpu.ram[1] = SET_PC_1;
+		dcpu.ram[0x10] = SET_A_1;
+		dcpu.pc = 0x10;
+		ControlFlowGraph graph = dcpu.getControlFlowGraph();
+		assertArrayEquals(new int[] {0, 0x10}, graph.getEntryPoints());
+		assertTrue(graph.isCode(0x10));
+		dcpu.newGeneration();
+		dcpu.pc = 0;
+		ControlFlowGraph next = dcpu.getControlFlowGraph();
+		assertNotSame(graph, next);
+		assertArrayEquals(new int[] {0}, next.getEntryPoints());
+		assertFalse(next.isCode(0x10));
+	}
+}
@@ -0,0 +1,47 @@
+package devcpu.emulation;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Collections;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import devcpu.assembler.Assembly;
+import devcpu.assembler.LocalFile;
+
+public class DCPUTest {
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void startsANewGenerationForEachProgramWritten() throws Exception {
+		//What is recorded about a program, like its source map, is kept with the generation it was recorded for
+		DCPU dcpu = new DCPU();
+		Assembly first = new Assembly(new LocalFile(write("first.dasm", "SET A, 1"), Collections.<File>emptyList()));
+		first.assemble(dcpu);
+		int generation = dcpu.getGeneration();
+		dcpu.tick();
+		assertEquals(generation, dcpu.getGeneration());
+		new Assembly(new LocalFile(write("second.dasm", "SET B, 2"), Collections.<File>emptyList())).assemble(dcpu);
+		assertNotEquals(generation, dcpu.getGeneration());
+	}
+
+	private File write(String name, String text) throws IOException {
+		File file = new File(folder.getRoot(), name);
+		Writer out = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+		try {
+			out.write(text + "\n");
+		} finally {
+			out.close();
+		}
+		return file;
+	}
+}
@@ -0,0 +1,72 @@
+package devcpu.emulation;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+
+import org.junit.Test;
+
+public class DMATest {
+	private final DCPU dcpu = new DCPU();
+
+	@Test
+	public void transfersWrapAroundTheEndOfMemory() {
+		dcpu.dma.toRam(new char[] {1, 2, 3}, 0, 0xFFFE, 3, 2);
+		assertEquals(1, dcpu.ram[0xFFFE]);
+		assertEquals(2, dcpu.ram[0xFFFF]);
+		assertEquals(3, dcpu.ram[0]);
+		assertEquals(6, dcpu.cycles);
+		char[] back = new char[3];
+		dcpu.dma.fromRam(0xFFFE, back, 0, 3, 0);
+		assertArrayEquals(new char[] {1, 2, 3}, back);
+	}
+
+	@Test
+	public void diskTransfersWrapAroundTheEndOfMemory() throws IOException {
+		FloppyDisk disk = new FloppyDisk("Floppy", null);
+		dcpu.ram[0xFFFF] = 4;
+		dcpu.ram[0] = 5;
+		dcpu.dma.fromRam(0xFFFF, disk, 10, 2, 0);
+		assertEquals(4, disk.read(10));
+		assertEquals(5, disk.read(11));
+		dcpu.dma.toRam(disk, 10, 0x7FFF, 2, 0);
+		assertEquals(4, dcpu.ram[0x7FFF]);
+		assertEquals(5, dcpu.ram[0x8000]);
+		disk.dispose();
+	}
+
+	@Test
+	public void scheduledTransfersCompleteAfterTheirCycles() {
+		final boolean[] ran = new boolean[1];
+		DMA.Transfer transfer = new DMA.Transfer() {
+			@Override
+			protected void run(DMA dma) {
+				ran[0] = true;
+			}
+		};
+		dcpu.dma.schedule(transfer, DMA.CYCLES_PER_TICK + 1);
+		dcpu.dma.tick60hz();
+		assertFalse(ran[0]);
+		dcpu.dma.tick60hz();
+		assertTrue(ran[0]);
+		assertFalse(dcpu.dma.cancel(transfer));
+	}
+
+	@Test
+	public void cancelledTransfersNeverRun() {
+		final boolean[] ran = new boolean[1];
+		DMA.Transfer transfer = new DMA.Transfer() {
+			@Override
+			protected void run(DMA dma) {
+				ran[0] = true;
+			}
+		};
+		dcpu.dma.schedule(transfer, 0);
+		assertTrue(dcpu.dma.cancel(transfer));
+		dcpu.dma.tick60hz();
+		assertFalse(ran[0]);
+	}
+}
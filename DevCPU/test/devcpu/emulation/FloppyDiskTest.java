@@ -0,0 +1,108 @@
+package devcpu.emulation;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class FloppyDiskTest {
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void blankDiskReadsZeroWithoutAnImage() throws IOException {
+		FloppyDisk disk = new FloppyDisk("Floppy", null);
+		assertEquals(0, disk.read(1234));
+		assertFalse(disk.isDirty());
+		disk.zero(0, FloppyDisk.WORDS);
+		assertFalse(disk.isDirty());
+	}
+
+	@Test
+	public void flushWritesThroughToAnOpenedImage() throws IOException {
+		File file = folder.newFile("disk.img");
+		FloppyDisk disk = new FloppyDisk("Floppy", null);
+		disk.open(file);
+		disk.write(FloppyDisk.WORDS_PER_SECTOR * 3 + 1, (char) 0xBEEF);
+		assertTrue(disk.isDirty());
+		disk.flushNow();
+		assertFalse(disk.isDirty());
+		assertEquals(0xBEEF, readWord(file, FloppyDisk.WORDS_PER_SECTOR * 3 + 1));
+		disk.dispose();
+	}
+
+	@Test
+	public void zeroesRangesLongerThanASectorWithoutAWholeSector() throws IOException {
+		FloppyDisk disk = new FloppyDisk("Floppy", null);
+		char[] ones = new char[FloppyDisk.WORDS_PER_SECTOR * 3];
+		Arrays.fill(ones, (char) 1);
+		disk.write(0, ones, 0, ones.length);
+		disk.zero(100, 900);
+		char[] read = new char[ones.length];
+		disk.read(0, read, 0, read.length);
+		for (int i = 0; i < read.length; i++) {
+			assertEquals("word " + i, i >= 100 && i < 1000 ? 0 : 1, read[i]);
+		}
+		disk.dispose();
+	}
+
+	@Test
+	public void zeroedSectorsReadAsZeroAndAreClearedOnSave() throws IOException {
+		FloppyDisk disk = new FloppyDisk("Floppy", null);
+		char[] ones = new char[FloppyDisk.WORDS_PER_SECTOR * 4];
+		Arrays.fill(ones, (char) 1);
+		disk.write(0, ones, 0, ones.length);
+		disk.zero(10, FloppyDisk.WORDS_PER_SECTOR * 3);
+		char[] read = new char[ones.length];
+		disk.read(0, read, 0, read.length);
+		for (int i = 0; i < read.length; i++) {
+			assertEquals("word " + i, i >= 10 && i < 10 + FloppyDisk.WORDS_PER_SECTOR * 3 ? 0 : 1, read[i]);
+		}
+		File file = folder.newFile("saved.img");
+		disk.save(file);
+		assertEquals(FloppyDisk.IMAGE_BYTES, file.length());
+		assertEquals(1, readWord(file, 9));
+		assertEquals(0, readWord(file, FloppyDisk.WORDS_PER_SECTOR * 2));
+		assertEquals(1, readWord(file, 10 + FloppyDisk.WORDS_PER_SECTOR * 3));
+		disk.dispose();
+	}
+
+	@Test
+	public void tellsItsDriveWhenWriteProtectionChanges() {
+		final int[] changes = new int[1];
+		FloppyDisk disk = new FloppyDisk("Floppy", null);
+		disk.inserted(new FloppyDrive() {
+			public FloppyDisk eject() {
+				return null;
+			}
+
+			public void writeProtectionChanged() {
+				changes[0]++;
+			}
+		});
+		disk.setWriteProtected(true);
+		disk.setWriteProtected(true);
+		assertEquals(1, changes[0]);
+		disk.setWriteProtected(false);
+		assertEquals(2, changes[0]);
+	}
+
+	static char readWord(File file, int word) throws IOException {
+		DataInputStream in = new DataInputStream(new FileInputStream(file));
+		try {
+			in.skipBytes(word * 2);
+			return in.readChar();
+		} finally {
+			in.close();
+		}
+	}
+}
@@ -0,0 +1,50 @@
+package devcpu.emulation;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class KeyEventLogTest {
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void recordingReadsBackWithTheSameTimes() throws IOException {
+		File file = folder.newFile("keys.dkey");
+		long[] times = {0, 0, 127, 128, 5000000000L};
+		int[] events = {
+				KeyEventQueue.pack(KeyEventQueue.PRESSED, 144),
+				KeyEventQueue.pack(KeyEventQueue.TYPED, 'A'),
+				KeyEventQueue.pack(KeyEventQueue.RELEASED, 144),
+				KeyEventQueue.pack(KeyEventQueue.TYPED, 0xFFFF),
+				KeyEventQueue.pack(KeyEventQueue.TYPED, 'z')};
+		KeyEventLog.Recorder recorder = new KeyEventLog.Recorder(file);
+		for (int i = 0; i < times.length; i++) {
+			recorder.record(times[i], events[i]);
+		}
+		recorder.close();
+		recorder.record(6000000000L, events[0]);
+
+		KeyEventLog log = KeyEventLog.read(file);
+		assertEquals(times.length, log.size());
+		for (int i = 0; i < times.length; i++) {
+			assertEquals(times[i], log.getTime(i));
+			assertEquals(events[i], log.getEvent(i));
+		}
+	}
+
+	@Test(expected = IOException.class)
+	public void rejectsOtherFiles() throws IOException {
+		File file = folder.newFile("other.bin");
+		FileOutputStream out = new FileOutputStream(file);
+		out.write(new byte[] {1, 2, 3, 4, 5});
+		out.close();
+		KeyEventLog.read(file);
+	}
+}
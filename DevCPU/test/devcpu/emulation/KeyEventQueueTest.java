@@ -0,0 +1,75 @@
+package devcpu.emulation;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class KeyEventQueueTest {
+	@Test
+	public void packsTypeAndKey() {
+		int event = KeyEventQueue.pack(KeyEventQueue.RELEASED, 131);
+		assertEquals(KeyEventQueue.RELEASED, KeyEventQueue.type(event));
+		assertEquals(131, KeyEventQueue.key(event));
+	}
+
+	@Test
+	public void deliversInOrderAndDropsWhenFull() {
+		KeyEventQueue queue = new KeyEventQueue();
+		int accepted = 0;
+		while (queue.offer(KeyEventQueue.pack(KeyEventQueue.TYPED, 'a' + accepted % 26))) {
+			accepted++;
+		}
+		assertEquals(256, accepted);
+		for (int i = 0; i < accepted; i++) {
+			assertEquals('a' + i % 26, KeyEventQueue.key(queue.poll()));
+		}
+		assertTrue(queue.isEmpty());
+		assertEquals(0, queue.poll());
+		assertTrue(queue.offer(KeyEventQueue.pack(KeyEventQueue.PRESSED, 1)));
+		queue.clear();
+		assertTrue(queue.isEmpty());
+	}
+
+	@Test
+	public void discardsOnlyWhatWasQueuedBefore() {
+		KeyEventQueue queue = new KeyEventQueue();
+		queue.offer(KeyEventQueue.pack(KeyEventQueue.PRESSED, 1));
+		queue.offer(KeyEventQueue.pack(KeyEventQueue.RELEASED, 1));
+		queue.discard();
+		assertTrue(queue.isEmpty());
+		queue.offer(KeyEventQueue.pack(KeyEventQueue.TYPED, 'a'));
+		assertFalse(queue.isEmpty());
+		assertEquals(KeyEventQueue.pack(KeyEventQueue.TYPED, 'a'), queue.poll());
+		assertEquals(0, queue.poll());
+		queue.offer(KeyEventQueue.pack(KeyEventQueue.TYPED, 'b'));
+		assertEquals(KeyEventQueue.pack(KeyEventQueue.TYPED, 'b'), queue.poll());
+	}
+
+	@Test
+	public void handsOffBetweenThreads() throws InterruptedException {
+		final KeyEventQueue queue = new KeyEventQueue();
+		final int events = 100000;
+		Thread producer = new Thread() {
+			@Override
+			public void run() {
+				for (int i = 0; i < events; i++) {
+					while (!queue.offer(KeyEventQueue.pack(KeyEventQueue.TYPED, i))) {
+						Thread.yield();
+					}
+				}
+			}
+		};
+		producer.start();
+		for (int i = 0; i < events; i++) {
+			int event;
+			while ((event = queue.poll()) == 0) {
+				Thread.yield();
+			}
+			assertEquals(i & 0xFFFF, KeyEventQueue.key(event));
+		}
+		producer.join();
+		assertEquals(0, queue.poll());
+	}
+}
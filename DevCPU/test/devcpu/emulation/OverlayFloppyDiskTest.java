@@ -0,0 +1,69 @@
+package devcpu.emulation;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+
+import org.junit.Test;
+
+public class OverlayFloppyDiskTest {
+	@Test
+	public void writesStayInTheOverlay() throws IOException {
+		FloppyDisk base = new FloppyDisk("Base", null);
+		base.write(5, (char) 7);
+		OverlayFloppyDisk overlay = new OverlayFloppyDisk("Overlay", null, base);
+		overlay.write(6, (char) 8);
+		assertEquals(7, overlay.read(5));
+		assertEquals(8, overlay.read(6));
+		assertEquals(0, base.read(6));
+		assertEquals(1, overlay.getModifiedSectorCount());
+		overlay.commit();
+		assertEquals(8, base.read(6));
+		assertEquals(0, overlay.getModifiedSectorCount());
+		overlay.release();
+		base.release();
+	}
+
+	@Test
+	public void baseOutlivesItsOverlays() throws IOException {
+		FloppyDisk base = new FloppyDisk("Base", null);
+		base.write(5, (char) 7);
+		OverlayFloppyDisk first = new OverlayFloppyDisk("First", null, base);
+		OverlayFloppyDisk second = new OverlayFloppyDisk("Second", null, base);
+		base.release();
+		assertEquals(7, first.read(5));
+		first.release();
+		first.release();
+		assertEquals(7, second.read(5));
+		second.release();
+		assertEquals(0, base.read(5));
+	}
+
+	@Test
+	public void zeroingHidesTheBase() throws IOException {
+		FloppyDisk base = new FloppyDisk("Base", null);
+		base.write(5, (char) 7);
+		base.write(FloppyDisk.WORDS_PER_SECTOR + 1, (char) 9);
+		base.write(3 * FloppyDisk.WORDS_PER_SECTOR, (char) 11);
+		OverlayFloppyDisk overlay = new OverlayFloppyDisk("Overlay", null, base);
+		overlay.zero(4, FloppyDisk.WORDS_PER_SECTOR * 2);
+		assertEquals(0, overlay.read(5));
+		assertEquals(0, overlay.read(FloppyDisk.WORDS_PER_SECTOR + 1));
+		assertEquals(11, overlay.read(3 * FloppyDisk.WORDS_PER_SECTOR));
+		overlay.zero(0, FloppyDisk.WORDS);
+		assertEquals(0, overlay.read(3 * FloppyDisk.WORDS_PER_SECTOR));
+		assertEquals(7, base.read(5));
+		assertEquals(9, base.read(FloppyDisk.WORDS_PER_SECTOR + 1));
+		overlay.write(3 * FloppyDisk.WORDS_PER_SECTOR + 1, (char) 12);
+		overlay.write(4 * FloppyDisk.WORDS_PER_SECTOR, new char[] {13, 14}, 0, 2);
+		assertEquals(12, overlay.read(3 * FloppyDisk.WORDS_PER_SECTOR + 1));
+		assertEquals(14, overlay.read(4 * FloppyDisk.WORDS_PER_SECTOR + 1));
+		//Zeroed sectors share one empty sector, which writes mustn't change
+		assertEquals(0, overlay.read(5 * FloppyDisk.WORDS_PER_SECTOR + 1));
+		assertEquals(0, overlay.read(2 * FloppyDisk.WORDS_PER_SECTOR));
+		overlay.discard();
+		assertEquals(7, overlay.read(5));
+		overlay.release();
+		base.release();
+	}
+}
@@ -0,0 +1,64 @@
+package devcpu.emulation;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class SPED3VerticesTest {
+	private final char[] ram = new char[0x10000];
+	private final SPED3Vertices vertices = new SPED3Vertices();
+
+	@Test
+	public void packsCoordinatesAndStyle() {
+		ram[0x100] = 0x2010; //y=0x20, x=0x10
+		ram[0x101] = 0x0D30; //style 5 (the high bit of the byte is ignored), z=0x30
+		assertTrue(vertices.update(ram, 0x100, 1));
+		int[] packed = new int[1];
+		assertEquals(1, vertices.copy(packed));
+		assertEquals(0x10, packed[0] >> SPED3Vertices.X_SHIFT & 0xFF);
+		assertEquals(0x20, packed[0] >> SPED3Vertices.Y_SHIFT & 0xFF);
+		assertEquals(0x30, packed[0] >> SPED3Vertices.Z_SHIFT & 0xFF);
+		assertEquals(5, packed[0] >> SPED3Vertices.STYLE_SHIFT);
+	}
+
+	@Test
+	public void onlyDecodesWhenTheRegionChanges() {
+		ram[0x200] = 0x0101;
+		vertices.update(ram, 0x200, 2);
+		int version = vertices.getVersion();
+		assertFalse(vertices.update(ram, 0x200, 2));
+		assertEquals(version, vertices.getVersion());
+
+		ram[0x203] = 0x0202;
+		assertTrue(vertices.update(ram, 0x200, 2));
+		assertEquals(version + 1, vertices.getVersion());
+
+		vertices.remap();
+		assertTrue(vertices.update(ram, 0x200, 2));
+		assertEquals(version + 2, vertices.getVersion());
+
+		assertTrue(vertices.update(ram, 0x200, 1));
+		assertEquals(1, vertices.getCount());
+	}
+
+	@Test
+	public void wrapsAroundTheEndOfMemory() {
+		ram[0xFFFF] = 0x0007;
+		ram[0x0000] = 0x0009;
+		vertices.update(ram, 0xFFFF, 1);
+		int[] packed = new int[1];
+		vertices.copy(packed);
+		assertEquals(7, packed[0] >> SPED3Vertices.X_SHIFT & 0xFF);
+		assertEquals(9, packed[0] >> SPED3Vertices.Z_SHIFT & 0xFF);
+	}
+
+	@Test
+	public void reportsCountBeyondTheDestination() {
+		vertices.update(ram, 0, 3);
+		assertEquals(3, vertices.copy(new int[1]));
+		vertices.clear();
+		assertEquals(0, vertices.copy(new int[1]));
+	}
+}
@@ -0,0 +1,131 @@
+package devcpu.lexer;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Random;
+
+import org.junit.Test;
+
+import devcpu.lexer.tokens.LexerToken;
+
+/**
+ * Checks the table driven scanner against the original regex matchers, which
+ * are kept as the reference implementation.
+ */
+public class LexerTest {
+	//Bits of DASM, and of things that aren't, glued together at random
+	private static final String[] FRAGMENTS = {
+		"set", "SET", "add", "ifn", "jsr", "int", "hwi", "dat", ".dat", ".dw", "DAT",
+		" ", "  ", "\t", ",", ", ", ":", "::", ".", ";", "; comment",
+		"a", "b", "c", "x", "y", "z", "i", "j", "sp", "SP", "pc", "ex",
+		"pop", "push", "peek", "pick", "PICK", "[", "]", "(", ")", "((", "))",
+		"+", "-", "*", "**", "/", "%", ">>", ">>>", "<<", "&", "^", "|",
+		"0x10", "0xFFFF", "0x123456", "0b101", "0b2", "12", "-5", "123456",
+		"'a'", "'''", "'\\'", "\"str\"", "\"a\\\"b\"", "\"\\\\\"", "\"unterminated",
+		"label", "_lbl", ".local", "lbl:", ":lbl", ":.loc", ".loc:",
+		"#define", "#include", "\"x.dasm\"", ".org", ".define", "#equ", "#foo", "\r",
+		"--sp", "[sp]", "[--sp]", "[ sp ]", "[a+1]", "[ ]", "[]",
+		"\u00e9", "a\u0301", "lbl\u00e9", "1x", "9", "-", "- 1", "-a", "-(a)", "(a,b)", "(a;b)",
+		"x\u2028", "\"q\u2028\"", "\ud83d\ude00", "'\ud83d\ude00'", "0x", "0b"};
+	private static final String[] OPCODES = {"SET", "ADD", "IFE", "JSR", "dat", "#define", "SUB", "STI"};
+	private static final String[] VALUES = {
+		"A", "[B]", "[0x100+I]", "PICK 2", "POP", "PUSH", "PEEK", "label", "(1+2)*3", "-label",
+		"'c'", "\"s\", 1, 2", "[sp+3]", "0b11", "[a+label*2]", "((a))", "(1+(2*3))", ".loc"};
+
+	@Test
+	public void corpusMatchesTheReferenceLexer() throws IOException {
+		assertSameTokens(read("corpus.dasm"));
+	}
+
+	@Test
+	public void fuzzedLinesMatchTheReferenceLexer() {
+		Random random = new Random(0x16BEEF);
+		for (int n = 0; n < 5000; n++) {
+			String text = randomText(random);
+			LexerToken[] expected;
+			try {
+				expected = Lexer.get().generateTokensWithMatchers(text, true);
+			} catch (RuntimeException e) {
+				//Where the matchers fall over, the scanner may do better, but not fail differently
+				try {
+					Lexer.get().generateTokens(text, true);
+				} catch (RuntimeException f) {
+					assertEquals(e.getClass(), f.getClass());
+				}
+				continue;
+			}
+			assertSameTokens(text, expected, Lexer.get().generateTokens(text, true));
+		}
+	}
+
+	@Test
+	public void findsTheTokenAtAnOffset() {
+		LexerToken[] tokens = Lexer.get().generateTokens("SET A, 1 ; one\n");
+		assertEquals("SET", Lexer.getTokenAt(tokens, 1).getText());
+		assertEquals("; one", Lexer.getTokenAt(tokens, 10).getText());
+	}
+
+	private static String randomText(Random random) {
+		StringBuilder text = new StringBuilder();
+		int lines = 1 + random.nextInt(8);
+		for (int line = 0; line < lines; line++) {
+			int fragments = random.nextInt(9);
+			for (int i = 0; i < fragments; i++) {
+				text.append(FRAGMENTS[random.nextInt(FRAGMENTS.length)]);
+			}
+			if (random.nextInt(3) == 0) {
+				text.append(' ').append(OPCODES[random.nextInt(OPCODES.length)])
+						.append(' ').append(VALUES[random.nextInt(VALUES.length)])
+						.append(", ").append(VALUES[random.nextInt(VALUES.length)]);
+				if (random.nextBoolean()) {
+					text.append(" ; c");
+				}
+			}
+			if (random.nextInt(20) == 0) {
+				text.insert(random.nextInt(text.length() + 1), (char) random.nextInt(0x3000));
+			}
+			text.append(random.nextInt(10) == 0 ? "\r\n" : "\n");
+		}
+		if (random.nextInt(5) == 0) {
+			text.append("\n\n");
+		}
+		if (random.nextInt(7) == 0) {
+			text.setLength(Math.max(0, text.length() - 1));
+		}
+		return text.toString();
+	}
+
+	private static void assertSameTokens(String text) {
+		assertSameTokens(text, Lexer.get().generateTokensWithMatchers(text, true), Lexer.get().generateTokens(text, true));
+	}
+
+	private static void assertSameTokens(String text, LexerToken[] expected, LexerToken[] actual) {
+		String where = text.replace("\n", "\\n").replace("\r", "\\r");
+		for (int i = 0; i < Math.min(expected.length, actual.length); i++) {
+			assertEquals(where + ": token " + i, describe(expected[i]), describe(actual[i]));
+		}
+		assertEquals(where + ": token count", expected.length, actual.length);
+	}
+
+	private static String describe(LexerToken token) {
+		return token.getClass().getSimpleName() + "[" + token.getStart() + "," + token.getEnd() + "]\"" + token.getText() + "\"";
+	}
+
+	private String read(String name) throws IOException {
+		InputStream in = getClass().getResourceAsStream(name);
+		try {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			byte[] buffer = new byte[4096];
+			int n;
+			while ((n = in.read(buffer)) > 0) {
+				bytes.write(buffer, 0, n);
+			}
+			return bytes.toString("UTF-8");
+		} finally {
+			in.close();
+		}
+	}
+}